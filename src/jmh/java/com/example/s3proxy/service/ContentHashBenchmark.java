@@ -0,0 +1,81 @@
+package com.example.s3proxy.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the content hash algorithms, fed in 64 KB writes the way uploads are staged.
+ * <p>
+ * Run with {@code mvn -Pjmh test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.example.s3proxy.service.ContentHashBenchmark}; the score divided
+ * into {@code size} gives bytes per second.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContentHashBenchmark {
+
+    private static final int WRITE_SIZE = 64 * 1024;
+
+    @Param({"65536", "8388608", "134217728"})
+    private int size;
+
+    @Param({"SHA-256", "BLAKE3-sequential", "BLAKE3-parallel"})
+    private String variant;
+
+    private byte[] data;
+    private HashService hashService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        data = new byte[size];
+        new Random(1).nextBytes(data);
+        hashService = switch (variant) {
+            case "SHA-256" -> new HashService(HashService.SHA_256, 1);
+            case "BLAKE3-sequential" -> new HashService(HashService.BLAKE3, 1);
+            case "BLAKE3-parallel" -> new HashService(HashService.BLAKE3, 0);
+            default -> throw new IllegalArgumentException(variant);
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        hashService.stop();
+    }
+
+    @Benchmark
+    public String hash() {
+        ContentDigest digest = hashService.newContentDigest();
+        for (int offset = 0; offset < data.length; offset += WRITE_SIZE) {
+            digest.update(data, offset, Math.min(WRITE_SIZE, data.length - offset));
+        }
+        return digest.finish();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ContentHashBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -1,7 +1,10 @@
 package com.example.s3proxy;
 
+import com.example.s3proxy.entity.UserFileEntity;
+import com.example.s3proxy.service.ContentStagingService;
 import com.example.s3proxy.service.DeduplicationService;
 import com.example.s3proxy.service.MultipartUploadService;
+import com.example.s3proxy.util.HttpPreconditions;
 import io.minio.MinioClient;
 import io.minio.GetObjectArgs;
 import io.minio.GetObjectResponse;
@@ -24,7 +27,9 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
 import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.core.io.buffer.DataBufferUtils;
@@ -32,17 +37,23 @@ import org.springframework.core.io.buffer.DataBufferUtils;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import org.w3c.dom.Document;
@@ -59,16 +70,32 @@ public class S3CompatibleController {
     private static final Logger log = LoggerFactory.getLogger(S3CompatibleController.class);
     private static final DateTimeFormatter S3_TIMESTAMP_FORMATTER =
             DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final String PRECONDITION_FAILED_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<Error><Code>PreconditionFailed</Code>"
+            + "<Message>At least one of the pre-conditions you specified did not hold</Message></Error>";
+    private static final String NO_SUCH_UPLOAD_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<Error><Code>NoSuchUpload</Code><Message>The specified upload does not exist.</Message></Error>";
+    private static final String SLOW_DOWN_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<Error><Code>SlowDown</Code><Message>Please reduce your request rate.</Message></Error>";
     private final MinioClient minio;
     private final DeduplicationService deduplicationService;
     private final MultipartUploadService multipartUploadService;
+    private final ContentStagingService contentStagingService;
+    /** Runs every blocking call (JPA, MinIO, staging files) so that none of them holds an event loop thread */
+    private final Scheduler blockingIoScheduler;
 
     public S3CompatibleController(MinioClient minio,
                                   DeduplicationService deduplicationService,
-                                  MultipartUploadService multipartUploadService) {
+                                  MultipartUploadService multipartUploadService,
+                                  ContentStagingService contentStagingService,
+                                  Scheduler blockingIoScheduler) {
         this.minio = minio;
         this.deduplicationService = deduplicationService;
         this.multipartUploadService = multipartUploadService;
+        this.contentStagingService = contentStagingService;
+        this.blockingIoScheduler = blockingIoScheduler;
     }
 
     @PostMapping(value = "/{bucket}/**")
@@ -80,27 +107,34 @@ public class S3CompatibleController {
         log.info("POST object request: bucket={}, key={}, query={}", bucket, key, exchange.getRequest().getQueryParams());
 
         if (exchange.getRequest().getQueryParams().containsKey("uploads")) {
+            if (isKeyTooLong(key)) {
+                log.warn("Rejecting multipart upload: key exceeds {} bytes", UserFileEntity.MAX_KEY_BYTES);
+                return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).body(""));
+            }
             Map<String, String> metadata = extractUserMetadata(exchange.getRequest().getHeaders());
             String contentType = exchange.getRequest().getHeaders().getFirst("Content-Type");
-            String uploadId = multipartUploadService.createUpload(bucket, key, contentType, metadata);
-
-            HttpHeaders headers = createStandardS3Headers();
-            headers.setContentType(MediaType.APPLICATION_XML);
+            return Mono.fromCallable(() -> multipartUploadService.createUpload(bucket, key, contentType, metadata))
+                    .subscribeOn(blockingIoScheduler)
+                    .map(uploadId -> {
+                        HttpHeaders headers = createStandardS3Headers();
+                        headers.setContentType(MediaType.APPLICATION_XML);
 
-            StringBuilder xml = new StringBuilder();
-            xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-            xml.append("<InitiateMultipartUploadResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">\n");
-            xml.append("  <Bucket>").append(escapeXml(bucket)).append("</Bucket>\n");
-            xml.append("  <Key>").append(escapeXml(key)).append("</Key>\n");
-            xml.append("  <UploadId>").append(uploadId).append("</UploadId>\n");
-            xml.append("</InitiateMultipartUploadResult>");
+                        StringBuilder xml = new StringBuilder();
+                        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+                        xml.append("<InitiateMultipartUploadResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">\n");
+                        xml.append("  <Bucket>").append(escapeXml(bucket)).append("</Bucket>\n");
+                        xml.append("  <Key>").append(escapeXml(key)).append("</Key>\n");
+                        xml.append("  <UploadId>").append(uploadId).append("</UploadId>\n");
+                        xml.append("</InitiateMultipartUploadResult>");
 
-            return Mono.just(new ResponseEntity<>(xml.toString(), headers, HttpStatus.OK));
+                        return new ResponseEntity<>(xml.toString(), headers, HttpStatus.OK);
+                    });
         }
 
         String uploadId = exchange.getRequest().getQueryParams().getFirst("uploadId");
         if (uploadId != null) {
             return DataBufferUtils.join(exchange.getRequest().getBody())
+                    .publishOn(blockingIoScheduler)
                     .flatMap(dataBuffer -> {
                         try {
                             byte[] bytes = new byte[dataBuffer.readableByteCount()];
@@ -117,9 +151,13 @@ public class S3CompatibleController {
                             String etag = deduplicationService.putObject(
                                     bucket,
                                     key,
-                                    completedUpload.getData(),
+                                    completedUpload.getHash(),
+                                    completedUpload.getSize(),
+                                    completedUpload::writeTo,
+                                    completedUpload::openStream,
                                     completedUpload.getContentType(),
                                     completedUpload.getMetadata());
+                            multipartUploadService.discardUpload(uploadId);
 
                             HttpHeaders headers = createStandardS3Headers();
                             headers.setContentType(MediaType.APPLICATION_XML);
@@ -134,6 +172,9 @@ public class S3CompatibleController {
                             xml.append("</CompleteMultipartUploadResult>");
 
                             return Mono.just(new ResponseEntity<>(xml.toString(), headers, HttpStatus.OK));
+                        } catch (DeduplicationService.ContentBusyException e) {
+                            log.info("Retry requested for completion of multipart upload {}: {}", uploadId, e.getMessage());
+                            return Mono.just(slowDownResponse());
                         } catch (IllegalArgumentException e) {
                             log.warn("Failed to complete multipart upload {}: {}", uploadId, e.getMessage());
                             return Mono.just(ResponseEntity.status(HttpStatus.NOT_FOUND).body(""));
@@ -152,7 +193,7 @@ public class S3CompatibleController {
     // HEAD /{bucket} - Check if bucket exists (required by MinIO SDK)
     @RequestMapping(value = "/{bucket}", method = RequestMethod.HEAD)
     public Mono<ResponseEntity<Void>> headBucket(@PathVariable String bucket) {
-        return Mono.fromCallable(() -> {
+        return Mono.<ResponseEntity<Void>>fromCallable(() -> {
             try {
                 // Check if bucket exists using the underlying MinIO client
                 boolean exists = minio.bucketExists(BucketExistsArgs.builder().bucket(bucket).build());
@@ -170,7 +211,128 @@ public class S3CompatibleController {
                 log.error("Error checking bucket existence: ", e);
                 return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
             }
-        });
+        }).subscribeOn(blockingIoScheduler);
+    }
+
+    // GET /{bucket}?uploads - List in-flight multipart uploads
+    @GetMapping(value = "/{bucket}", params = "uploads", produces = MediaType.APPLICATION_XML_VALUE)
+    public Mono<ResponseEntity<String>> listMultipartUploads(
+            @PathVariable String bucket,
+            @RequestParam(value = "prefix", required = false, defaultValue = "") String prefix,
+            @RequestParam(value = "delimiter", required = false) String delimiter,
+            @RequestParam(value = "key-marker", required = false, defaultValue = "") String keyMarker,
+            @RequestParam(value = "upload-id-marker", required = false, defaultValue = "") String uploadIdMarker,
+            @RequestParam(value = "max-uploads", required = false, defaultValue = "1000") Integer maxUploads) {
+        log.info("Listing multipart uploads: bucket={}, prefix='{}', delimiter='{}', keyMarker='{}', uploadIdMarker='{}', maxUploads={}",
+                bucket, prefix, delimiter, keyMarker, uploadIdMarker, maxUploads);
+        int limit = Math.max(0, Math.min(maxUploads, 1000));
+        return Mono.fromCallable(() -> multipartUploadService.listUploads(bucket, prefix, delimiter, keyMarker, uploadIdMarker, limit))
+                .subscribeOn(blockingIoScheduler)
+                .map(listing -> listMultipartUploadsResponse(bucket, prefix, delimiter, keyMarker, uploadIdMarker, limit, listing));
+    }
+
+    private ResponseEntity<String> listMultipartUploadsResponse(String bucket,
+                                                                String prefix,
+                                                                String delimiter,
+                                                                String keyMarker,
+                                                                String uploadIdMarker,
+                                                                int limit,
+                                                                MultipartUploadService.UploadListing listing) {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<ListMultipartUploadsResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">\n");
+        xml.append("  <Bucket>").append(escapeXml(bucket)).append("</Bucket>\n");
+        xml.append("  <KeyMarker>").append(escapeXml(keyMarker)).append("</KeyMarker>\n");
+        xml.append("  <UploadIdMarker>").append(escapeXml(uploadIdMarker)).append("</UploadIdMarker>\n");
+        if (listing.isTruncated()) {
+            xml.append("  <NextKeyMarker>").append(escapeXml(listing.getNextKeyMarker())).append("</NextKeyMarker>\n");
+            xml.append("  <NextUploadIdMarker>").append(escapeXml(listing.getNextUploadIdMarker())).append("</NextUploadIdMarker>\n");
+        }
+        xml.append("  <Prefix>").append(escapeXml(prefix)).append("</Prefix>\n");
+        if (delimiter != null && !delimiter.isEmpty()) {
+            xml.append("  <Delimiter>").append(escapeXml(delimiter)).append("</Delimiter>\n");
+        }
+        xml.append("  <MaxUploads>").append(limit).append("</MaxUploads>\n");
+        xml.append("  <IsTruncated>").append(listing.isTruncated()).append("</IsTruncated>\n");
+        for (MultipartUploadService.UploadSummary upload : listing.getUploads()) {
+            xml.append("  <Upload>\n");
+            xml.append("    <Key>").append(escapeXml(upload.getKey())).append("</Key>\n");
+            xml.append("    <UploadId>").append(escapeXml(upload.getUploadId())).append("</UploadId>\n");
+            appendOwnerXml(xml, "Initiator", "    ");
+            appendOwnerXml(xml, "Owner", "    ");
+            xml.append("    <StorageClass>STANDARD</StorageClass>\n");
+            xml.append("    <Initiated>").append(formatS3Timestamp(toUtcDateTime(upload.getInitiatedAt()))).append("</Initiated>\n");
+            xml.append("  </Upload>\n");
+        }
+        for (String commonPrefix : listing.getCommonPrefixes()) {
+            xml.append("  <CommonPrefixes>\n");
+            xml.append("    <Prefix>").append(escapeXml(commonPrefix)).append("</Prefix>\n");
+            xml.append("  </CommonPrefixes>\n");
+        }
+        xml.append("</ListMultipartUploadsResult>");
+
+        HttpHeaders headers = createStandardS3Headers();
+        headers.setContentType(MediaType.APPLICATION_XML);
+        return new ResponseEntity<>(xml.toString(), headers, HttpStatus.OK);
+    }
+
+    // GET /{bucket}/{**key}?uploadId=... - List the parts stored for a multipart upload
+    @GetMapping(value = "/{bucket}/**", params = "uploadId")
+    public Mono<ResponseEntity<String>> listParts(
+            @PathVariable String bucket,
+            @RequestParam("uploadId") String uploadId,
+            @RequestParam(value = "part-number-marker", required = false, defaultValue = "0") Integer partNumberMarker,
+            @RequestParam(value = "max-parts", required = false, defaultValue = "1000") Integer maxParts,
+            ServerWebExchange exchange) {
+        String path = exchange.getRequest().getPath().value();
+        String key = path.substring(("/" + bucket + "/").length());
+        log.info("Listing parts: bucket={}, key={}, uploadId={}, partNumberMarker={}, maxParts={}",
+                bucket, key, uploadId, partNumberMarker, maxParts);
+        int limit = Math.max(0, Math.min(maxParts, 1000));
+
+        return Mono.fromCallable(() -> multipartUploadService.listParts(bucket, key, uploadId, partNumberMarker, limit))
+                .subscribeOn(blockingIoScheduler)
+                .map(listing -> listPartsResponse(bucket, key, uploadId, partNumberMarker, limit, listing))
+                .onErrorResume(IllegalArgumentException.class, e -> {
+                    log.warn("Cannot list parts: {}", e.getMessage());
+                    HttpHeaders headers = createStandardS3Headers();
+                    headers.setContentType(MediaType.APPLICATION_XML);
+                    return Mono.just(new ResponseEntity<>(NO_SUCH_UPLOAD_XML, headers, HttpStatus.NOT_FOUND));
+                });
+    }
+
+    private ResponseEntity<String> listPartsResponse(String bucket,
+                                                     String key,
+                                                     String uploadId,
+                                                     int partNumberMarker,
+                                                     int limit,
+                                                     MultipartUploadService.PartListing listing) {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<ListPartsResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">\n");
+        xml.append("  <Bucket>").append(escapeXml(bucket)).append("</Bucket>\n");
+        xml.append("  <Key>").append(escapeXml(key)).append("</Key>\n");
+        xml.append("  <UploadId>").append(escapeXml(uploadId)).append("</UploadId>\n");
+        appendOwnerXml(xml, "Initiator", "  ");
+        appendOwnerXml(xml, "Owner", "  ");
+        xml.append("  <StorageClass>STANDARD</StorageClass>\n");
+        xml.append("  <PartNumberMarker>").append(partNumberMarker).append("</PartNumberMarker>\n");
+        xml.append("  <NextPartNumberMarker>").append(listing.getNextPartNumberMarker()).append("</NextPartNumberMarker>\n");
+        xml.append("  <MaxParts>").append(limit).append("</MaxParts>\n");
+        xml.append("  <IsTruncated>").append(listing.isTruncated()).append("</IsTruncated>\n");
+        for (MultipartUploadService.PartSummary part : listing.getParts()) {
+            xml.append("  <Part>\n");
+            xml.append("    <PartNumber>").append(part.getPartNumber()).append("</PartNumber>\n");
+            xml.append("    <LastModified>").append(formatS3Timestamp(toUtcDateTime(part.getLastModified()))).append("</LastModified>\n");
+            xml.append("    <ETag>\"").append(part.getEtag()).append("\"</ETag>\n");
+            xml.append("    <Size>").append(part.getSize()).append("</Size>\n");
+            xml.append("  </Part>\n");
+        }
+        xml.append("</ListPartsResult>");
+
+        HttpHeaders headers = createStandardS3Headers();
+        headers.setContentType(MediaType.APPLICATION_XML);
+        return new ResponseEntity<>(xml.toString(), headers, HttpStatus.OK);
     }
 
     // GET /{bucket} - List objects in bucket (supports prefix, delimiter, etc.)
@@ -184,26 +346,22 @@ public class S3CompatibleController {
             @RequestParam(value = "list-type", required = false, defaultValue = "1") String listType,
             @RequestParam(value = "continuation-token", required = false, defaultValue = "") String continuationToken,
             @RequestParam(value = "start-after", required = false, defaultValue = "") String startAfter) {
-        return Mono.fromCallable(() -> {
+        return Mono.<ResponseEntity<String>>fromCallable(() -> {
             try {
                 log.info("Listing objects: bucket={}, prefix='{}', delimiter='{}', maxKeys={}, listType={}, continuationToken='{}', startAfter='{}'",
                         bucket, prefix, delimiter, maxKeys, listType, continuationToken, startAfter);
 
-                // Use deduplication service to list objects from database instead of MinIO
-                List<DeduplicationService.ObjectInfo> objectInfos = deduplicationService.listObjects(bucket, prefix);
-
-                List<DeduplicationService.ObjectInfo> filteredItems = new ArrayList<>();
-                List<String> commonPrefixes = new ArrayList<>();
-                boolean isTruncated = false;
-                String nextMarkerOrToken = null;
-
                 boolean isListV2 = "2".equals(listType);
 
                 // Determine the effective marker based on the list type
                 String effectiveMarker = marker;
                 if (isListV2) {
                     if (!continuationToken.isEmpty()) {
-                        effectiveMarker = continuationToken;
+                        effectiveMarker = decodeContinuationToken(continuationToken);
+                        if (effectiveMarker == null) {
+                            log.warn("Invalid continuation token: bucket={}, token='{}'", bucket, continuationToken);
+                            return ResponseEntity.status(HttpStatus.BAD_REQUEST).<String>build();
+                        }
                     } else if (!startAfter.isEmpty()) {
                         effectiveMarker = startAfter;
                     } else {
@@ -211,43 +369,13 @@ public class S3CompatibleController {
                     }
                 }
 
-                for (DeduplicationService.ObjectInfo objectInfo : objectInfos) {
-                    String objectName = objectInfo.getKey();
-
-                    // Skip objects that come before the marker
-                    if (!effectiveMarker.isEmpty() && objectName.compareTo(effectiveMarker) <= 0) {
-                        continue;
-                    }
-
-                    // When using delimiter, handle common prefixes for directory-style listing
-                    if (delimiter != null && !delimiter.isEmpty()) {
-                        // Remove the prefix from the object name
-                        String relativeObjectName = objectName;
-                        if (!prefix.isEmpty() && objectName.startsWith(prefix)) {
-                            relativeObjectName = objectName.substring(prefix.length());
-                        }
-                        
-                        // Check if this is a "directory" (contains delimiter after prefix)
-                        int delimiterIndex = relativeObjectName.indexOf(delimiter);
-                        if (delimiterIndex > 0) {
-                            // This is a common prefix (directory)
-                            String commonPrefix = prefix + relativeObjectName.substring(0, delimiterIndex + delimiter.length());
-                            if (!commonPrefixes.contains(commonPrefix)) {
-                                commonPrefixes.add(commonPrefix);
-                            }
-                            // Don't add to items if it's just a directory marker
-                            continue;
-                        }
-                    }
-
-                    filteredItems.add(objectInfo);
-                    // Stop if we've reached maxKeys
-                    if (filteredItems.size() >= maxKeys) {
-                        isTruncated = true;
-                        nextMarkerOrToken = objectName; // Set next marker/token to the last object processed
-                        break;
-                    }
-                }
+                // Page through the metadata store with keyset queries instead of listing MinIO
+                DeduplicationService.ListingPage page = deduplicationService.listObjectsPage(
+                        bucket, prefix, delimiter, effectiveMarker, maxKeys);
+                List<DeduplicationService.ObjectInfo> filteredItems = page.getObjects();
+                List<String> commonPrefixes = page.getCommonPrefixes();
+                boolean isTruncated = page.isTruncated();
+                String nextMarkerOrToken = page.getNextMarker();
 
                 // Build S3-compatible XML response
                 StringBuilder xmlBuilder = new StringBuilder();
@@ -272,7 +400,7 @@ public class S3CompatibleController {
                     xmlBuilder.append("  <Marker>").append(escapeXml(marker)).append("</Marker>\n");
                 }
 
-                xmlBuilder.append("  <MaxKeys>").append(maxKeys).append("</MaxKeys>\n");
+                xmlBuilder.append("  <MaxKeys>").append(Math.min(maxKeys, DeduplicationService.MAX_LIST_KEYS)).append("</MaxKeys>\n");
                 if (delimiter != null && !delimiter.isEmpty()) {
                     xmlBuilder.append("  <Delimiter>").append(escapeXml(delimiter)).append("</Delimiter>\n");
                 }
@@ -282,7 +410,7 @@ public class S3CompatibleController {
                 if (isTruncated && nextMarkerOrToken != null) {
                     if (isListV2) {
                         xmlBuilder.append("  <NextContinuationToken>")
-                                .append(escapeXml(nextMarkerOrToken))
+                                .append(escapeXml(encodeContinuationToken(nextMarkerOrToken)))
                                 .append("</NextContinuationToken>\n");
                     } else {
                         xmlBuilder.append("  <NextMarker>")
@@ -337,9 +465,36 @@ public class S3CompatibleController {
                 log.error("Error listing objects: ", e);
                 return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
             }
-        });
+        }).subscribeOn(blockingIoScheduler);
     }
     
+    /**
+     * Continuation tokens are opaque to clients: the URL-safe Base64 of the last listed key or common prefix
+     */
+    static String encodeContinuationToken(String marker) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(marker.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the marker in the token, or null if the token was not issued by this service
+     */
+    static String decodeContinuationToken(String token) {
+        try {
+            byte[] decoded = Base64.getUrlDecoder().decode(token);
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+            return decoder.decode(ByteBuffer.wrap(decoded)).toString();
+        } catch (IllegalArgumentException | CharacterCodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * S3 rejects keys longer than 1024 UTF-8 bytes, which is also what the sort key column holds
+     */
+    static boolean isKeyTooLong(String key) {
+        return key.getBytes(StandardCharsets.UTF_8).length > UserFileEntity.MAX_KEY_BYTES;
+    }
+
     // Helper method to escape XML special characters
     private String escapeXml(String input) {
         if (input == null) return "";
@@ -360,6 +515,17 @@ public class S3CompatibleController {
                 .format(S3_TIMESTAMP_FORMATTER);
     }
 
+    private static LocalDateTime toUtcDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneOffset.UTC);
+    }
+
+    private void appendOwnerXml(StringBuilder xml, String element, String indent) {
+        xml.append(indent).append("<").append(element).append(">\n");
+        xml.append(indent).append("  <ID>minio</ID>\n");
+        xml.append(indent).append("  <DisplayName>MinIO User</DisplayName>\n");
+        xml.append(indent).append("</").append(element).append(">\n");
+    }
+
     private void applyLastModifiedHeader(HttpHeaders headers, LocalDateTime lastModified) {
         if (headers == null || lastModified == null) {
             return;
@@ -386,6 +552,32 @@ public class S3CompatibleController {
         return headers;
     }
 
+    /**
+     * The blocking I/O scheduler is saturated: ask the client to back off instead of failing the request
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<String> handleRejectedExecution(RejectedExecutionException e) {
+        log.warn("Blocking I/O queue is full, asking the client to retry: {}", e.getMessage());
+        return slowDownResponse();
+    }
+
+    private ResponseEntity<String> slowDownResponse() {
+        HttpHeaders headers = createStandardS3Headers();
+        headers.setContentType(MediaType.APPLICATION_XML);
+        headers.set(HttpHeaders.RETRY_AFTER, "1");
+        return new ResponseEntity<>(SLOW_DOWN_XML, headers, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * Headers for 304/412 answers: validators only, no representation metadata
+     */
+    private HttpHeaders createConditionalResponseHeaders(String etag, LocalDateTime lastModified) {
+        HttpHeaders headers = createStandardS3Headers();
+        headers.set("ETag", "\"" + etag + "\"");
+        applyLastModifiedHeader(headers, lastModified);
+        return headers;
+    }
+
     private Map<String, String> extractUserMetadata(HttpHeaders headers) {
         if (headers == null) {
             return Collections.emptyMap();
@@ -496,17 +688,20 @@ public class S3CompatibleController {
                 xml.append("</CopyObjectResult>");
 
                 return new ResponseEntity<>(xml.toString(), responseHeaders, HttpStatus.OK);
+            } catch (DeduplicationService.ContentBusyException e) {
+                log.info("Retry requested for copy to {}:{}: {}", destinationBucket, destinationKey, e.getMessage());
+                return slowDownResponse();
             } catch (Exception e) {
                 log.error("Error processing copy request", e);
                 return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                         .body("<Error><Code>InternalError</Code></Error>");
             }
-        });
+        }).subscribeOn(blockingIoScheduler);
     }
 
     // GET /{bucket}/{**key} - S3 compatible GET object  
     @GetMapping(value = "/{bucket}/**")
-    public Mono<ResponseEntity<byte[]>> getObject(
+    public Mono<ResponseEntity<Flux<DataBuffer>>> getObject(
             @PathVariable String bucket,
             ServerWebExchange exchange) {
         String path = exchange.getRequest().getPath().value();
@@ -514,63 +709,133 @@ public class S3CompatibleController {
         String key = path.substring(("/" + bucket + "/").length());
         log.info("GET object: bucket={}, key={}", bucket, key);
         
-        return Mono.fromCallable(() -> {
-            try {
-                DeduplicationService.FileData fileData = deduplicationService.getObject(bucket, key);
-                if (fileData == null) {
-                    return ResponseEntity.notFound().build();
-                }
-                
-                HttpHeaders h = new HttpHeaders();
-                if (fileData.getContentType() != null) {
-                    h.setContentType(MediaType.parseMediaType(fileData.getContentType()));
-                }
-
-                String hashPrefix = fileData.getHash().substring(0, Math.min(16, fileData.getHash().length()));
-                h.set("ETag", "\"" + hashPrefix + "\"");
-                applyLastModifiedHeader(h, fileData.getLastModified());
-                h.set("x-amz-request-id", java.util.UUID.randomUUID().toString().replace("-", "").substring(0, 16).toUpperCase());
-                h.set("x-amz-id-2", java.util.UUID.randomUUID().toString());
-                h.set("Server", "MinIO");
-                h.set(HttpHeaders.ACCEPT_RANGES, "bytes");
-                applyUserMetadata(h, fileData.getMetadata());
-
-                String rangeHeader = exchange.getRequest().getHeaders().getFirst(HttpHeaders.RANGE);
-                if (rangeHeader != null && !rangeHeader.isEmpty()) {
-                    try {
-                        List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
-                        if (ranges.size() == 1) {
-                            HttpRange range = ranges.get(0);
-                            long fileSize = fileData.getSize();
-                            long rangeStart = range.getRangeStart(fileSize);
-                            long rangeEnd = range.getRangeEnd(fileSize);
-                            if (rangeStart >= fileSize) {
-                                HttpHeaders errorHeaders = new HttpHeaders();
-                                errorHeaders.set(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize);
-                                return new ResponseEntity<>(null, errorHeaders, HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
-                            }
+        return Mono.fromCallable(() -> deduplicationService.getObjectStream(bucket, key))
+                .map(objectStream -> {
+                    HttpHeaders h = new HttpHeaders();
+                    if (objectStream.getContentType() != null) {
+                        h.setContentType(MediaType.parseMediaType(objectStream.getContentType()));
+                    }
 
-                            int length = (int) (rangeEnd - rangeStart + 1);
-                            byte[] body = new byte[length];
-                            System.arraycopy(fileData.getData(), (int) rangeStart, body, 0, length);
+                    String hashPrefix = objectStream.getHash().substring(0, Math.min(16, objectStream.getHash().length()));
+                    h.set("ETag", "\"" + hashPrefix + "\"");
+                    applyLastModifiedHeader(h, objectStream.getLastModified());
+                    h.set("x-amz-request-id", java.util.UUID.randomUUID().toString().replace("-", "").substring(0, 16).toUpperCase());
+                    h.set("x-amz-id-2", java.util.UUID.randomUUID().toString());
+                    h.set("Server", "MinIO");
+                    h.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+                    applyUserMetadata(h, objectStream.getMetadata());
+
+                    // Conditional requests are answered from metadata, before any blob read
+                    HttpStatus precondition = HttpPreconditions.evaluate(
+                            exchange.getRequest().getHeaders(), hashPrefix, objectStream.getHash(), objectStream.getLastModified());
+                    if (precondition != null) {
+                        HttpHeaders conditionalHeaders = createConditionalResponseHeaders(hashPrefix, objectStream.getLastModified());
+                        Flux<DataBuffer> errorBody = null;
+                        if (precondition == HttpStatus.PRECONDITION_FAILED) {
+                            conditionalHeaders.setContentType(MediaType.APPLICATION_XML);
+                            byte[] xml = PRECONDITION_FAILED_XML.getBytes(StandardCharsets.UTF_8);
+                            errorBody = Flux.defer(() -> Flux.just(exchange.getResponse().bufferFactory().wrap(xml)));
+                        }
+                        return new ResponseEntity<>(errorBody, conditionalHeaders, precondition);
+                    }
 
-                            h.setContentLength(length);
-                            h.set(HttpHeaders.CONTENT_RANGE, String.format("bytes %d-%d/%d", rangeStart, rangeEnd, fileSize));
-                            return new ResponseEntity<>(body, h, HttpStatus.PARTIAL_CONTENT);
+                    String rangeHeader = exchange.getRequest().getHeaders().getFirst(HttpHeaders.RANGE);
+                    if (rangeHeader != null && !rangeHeader.isEmpty()) {
+                        try {
+                            List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+                            if (!ranges.isEmpty()) {
+                                return buildRangeResponse(objectStream, ranges, h, exchange);
+                            }
+                        } catch (IllegalArgumentException ex) {
+                            log.warn("Invalid range header '{}': {}", rangeHeader, ex.getMessage());
+                            // Fall back to full response
                         }
-                    } catch (IllegalArgumentException ex) {
-                        log.warn("Invalid range header '{}': {}", rangeHeader, ex.getMessage());
-                        // Fall back to full response
                     }
-                }
 
-                h.setContentLength(fileData.getSize());
-                return new ResponseEntity<>(fileData.getData(), h, HttpStatus.OK);
-            } catch (Exception e) {
-                log.error("Error getting object: ", e);
-                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+                    // Pipe the backend stream to the client chunk by chunk; the stream is closed
+                    // when the body completes, fails or the client cancels
+                    h.setContentLength(objectStream.getSize());
+                    return new ResponseEntity<>(streamContent(objectStream, 0, -1, exchange), h, HttpStatus.OK);
+                })
+                .defaultIfEmpty(ResponseEntity.notFound().build())
+                .onErrorResume(e -> {
+                    log.error("Error getting object: ", e);
+                    return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build());
+                })
+                .subscribeOn(blockingIoScheduler);
+    }
+
+    /**
+     * Serve one or more byte ranges. Each range is translated into an offset/length read
+     * against MinIO, so only the requested bytes leave the backend. Several ranges are
+     * returned as a multipart/byteranges body.
+     */
+    private ResponseEntity<Flux<DataBuffer>> buildRangeResponse(DeduplicationService.ObjectStream objectStream,
+                                                                List<HttpRange> ranges,
+                                                                HttpHeaders h,
+                                                                ServerWebExchange exchange) {
+        long fileSize = objectStream.getSize();
+        List<long[]> satisfiable = new ArrayList<>();
+        for (HttpRange range : ranges) {
+            long rangeStart = range.getRangeStart(fileSize);
+            if (rangeStart < fileSize) {
+                satisfiable.add(new long[]{rangeStart, range.getRangeEnd(fileSize)});
             }
-        });
+        }
+        if (satisfiable.isEmpty()) {
+            HttpHeaders errorHeaders = new HttpHeaders();
+            errorHeaders.set(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize);
+            return new ResponseEntity<>(null, errorHeaders, HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+        }
+
+        if (satisfiable.size() == 1) {
+            long rangeStart = satisfiable.get(0)[0];
+            long rangeEnd = satisfiable.get(0)[1];
+            long length = rangeEnd - rangeStart + 1;
+            h.setContentLength(length);
+            h.set(HttpHeaders.CONTENT_RANGE, String.format("bytes %d-%d/%d", rangeStart, rangeEnd, fileSize));
+            return new ResponseEntity<>(streamContent(objectStream, rangeStart, length, exchange), h, HttpStatus.PARTIAL_CONTENT);
+        }
+
+        String boundary = java.util.UUID.randomUUID().toString().replace("-", "");
+        String partContentType = objectStream.getContentType() != null
+                ? objectStream.getContentType()
+                : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+        List<Flux<DataBuffer>> parts = new ArrayList<>();
+        long contentLength = 0;
+        for (long[] range : satisfiable) {
+            long length = range[1] - range[0] + 1;
+            byte[] partHeader = ("--" + boundary + "\r\n"
+                    + "Content-Type: " + partContentType + "\r\n"
+                    + String.format("Content-Range: bytes %d-%d/%d", range[0], range[1], fileSize) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            parts.add(Flux.defer(() -> Flux.just(exchange.getResponse().bufferFactory().wrap(partHeader))));
+            parts.add(streamContent(objectStream, range[0], length, exchange));
+            parts.add(Flux.defer(() -> Flux.just(exchange.getResponse().bufferFactory().wrap(CRLF))));
+            contentLength += partHeader.length + length + CRLF.length;
+        }
+        byte[] closingBoundary = ("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        parts.add(Flux.defer(() -> Flux.just(exchange.getResponse().bufferFactory().wrap(closingBoundary))));
+        contentLength += closingBoundary.length;
+
+        h.setContentType(MediaType.parseMediaType("multipart/byteranges; boundary=" + boundary));
+        h.setContentLength(contentLength);
+        return new ResponseEntity<>(Flux.concat(parts), h, HttpStatus.PARTIAL_CONTENT);
+    }
+
+    /**
+     * Lazily open a (ranged) backend read and expose it as a backpressured DataBuffer stream
+     */
+    private Flux<DataBuffer> streamContent(DeduplicationService.ObjectStream objectStream,
+                                           long offset,
+                                           long length,
+                                           ServerWebExchange exchange) {
+        // InputStream reads block, so they run on the blocking scheduler as the client requests more
+        return DataBufferUtils.readInputStream(
+                () -> objectStream.openStream(offset, length),
+                exchange.getResponse().bufferFactory(),
+                STREAM_BUFFER_SIZE)
+                .subscribeOn(blockingIoScheduler);
     }
 
     // PUT /{bucket}/{**key} - S3 compatible PUT object
@@ -582,6 +847,10 @@ public class S3CompatibleController {
         // Extract key by removing the bucket part: /bucket/key -> key
         String key = path.substring(("/" + bucket + "/").length());
         log.info("PUT object: bucket={}, key={}", bucket, key);
+        if (isKeyTooLong(key)) {
+            log.warn("Rejecting PUT: key exceeds {} bytes", UserFileEntity.MAX_KEY_BYTES);
+            return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).body(""));
+        }
         String copySource = exchange.getRequest().getHeaders().getFirst("x-amz-copy-source");
         if (copySource != null && !copySource.isBlank()) {
             return handleCopyObject(bucket, key, exchange, copySource);
@@ -597,48 +866,70 @@ public class S3CompatibleController {
                 return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).body(""));
             }
 
-            return DataBufferUtils.join(exchange.getRequest().getBody())
-                    .flatMap(dataBuffer -> {
-                        try {
-                            byte[] bytes = new byte[dataBuffer.readableByteCount()];
-                            dataBuffer.read(bytes);
-                            String etag = multipartUploadService.storePart(uploadId, partNumber, bytes);
+            if (!multipartUploadService.hasUpload(uploadId)) {
+                log.warn("Multipart upload not found for part {}: {}", partNumber, uploadId);
+                return Mono.just(ResponseEntity.status(HttpStatus.NOT_FOUND).body(""));
+            }
+            // Reject before reading the body when the declared size already exceeds the staging budget
+            if (!multipartUploadService.hasCapacity(exchange.getRequest().getHeaders().getContentLength())) {
+                log.warn("Rejecting part {} of upload {}: multipart staging budget exhausted", partNumber, uploadId);
+                return Mono.just(slowDownResponse());
+            }
+
+            // Parts are streamed to disk like regular uploads and never buffered on the heap; staging
+            // hashes and writes on the blocking I/O scheduler and completes there, so storing the part does too
+            return contentStagingService.stagePart(exchange.getRequest().getBody())
+                    .flatMap(staged -> {
+                        try (staged) {
+                            String etag = multipartUploadService.storePart(uploadId, partNumber, staged);
 
                             HttpHeaders headers = createStandardS3Headers();
                             headers.set("ETag", "\"" + etag + "\"");
 
-                            return Mono.just(new ResponseEntity<>(null, headers, HttpStatus.OK));
+                            return Mono.just(new ResponseEntity<String>(null, headers, HttpStatus.OK));
+                        } catch (MultipartUploadService.SlowDownException e) {
+                            log.warn("Rejecting part {} of upload {}: {}", partNumber, uploadId, e.getMessage());
+                            return Mono.just(slowDownResponse());
                         } catch (IllegalArgumentException e) {
                             log.warn("Failed to store multipart upload part: {}", e.getMessage());
                             return Mono.just(ResponseEntity.status(HttpStatus.NOT_FOUND).body(""));
-                        } finally {
-                            DataBufferUtils.release(dataBuffer);
+                        } catch (Exception e) {
+                            log.error("Error storing multipart upload part {} of {}", partNumber, uploadId, e);
+                            return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(""));
                         }
+                    })
+                    .onErrorResume(e -> {
+                        log.error("Error staging multipart upload part {} of {}", partNumber, uploadId, e);
+                        return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(""));
                     });
         }
-        return DataBufferUtils.join(exchange.getRequest().getBody())
-                .flatMap(dataBuffer -> {
-                    try {
-                        byte[] bytes = new byte[dataBuffer.readableByteCount()];
-                        dataBuffer.read(bytes);
-                        DataBufferUtils.release(dataBuffer);
-
-                        String contentType = exchange.getRequest().getHeaders().getFirst("Content-Type");
-                        
-                        Map<String, String> metadata = extractUserMetadata(exchange.getRequest().getHeaders());
-
+        String contentType = exchange.getRequest().getHeaders().getFirst("Content-Type");
+        Map<String, String> metadata = extractUserMetadata(exchange.getRequest().getHeaders());
+
+        // Stream the body to a staging file while hashing it, so large uploads never sit on the heap.
+        // Staging runs on the blocking I/O scheduler and completes there, as does storing the object
+        return contentStagingService.stage(exchange.getRequest().getBody())
+                .flatMap(staged -> {
+                    try (staged) {
                         // Use deduplication service instead of direct MinIO upload
-                        String etag = deduplicationService.putObject(bucket, key, bytes, contentType, metadata);
+                        String etag = deduplicationService.putObject(bucket, key, staged, contentType, metadata);
 
                         // Return proper S3 response headers
                         HttpHeaders headers = createStandardS3Headers();
                         headers.set("ETag", "\"" + etag + "\"");
 
-                        return Mono.just(new ResponseEntity<>(null, headers, HttpStatus.CREATED));
+                        return Mono.just(new ResponseEntity<String>(null, headers, HttpStatus.CREATED));
+                    } catch (DeduplicationService.ContentBusyException e) {
+                        log.info("Retry requested for upload of {}/{}: {}", bucket, key, e.getMessage());
+                        return Mono.just(slowDownResponse());
                     } catch (Exception e) {
                         log.error("Error putting object: ", e);
-                        return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build());
+                        return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).<String>build());
                     }
+                })
+                .onErrorResume(e -> {
+                    log.error("Error staging object upload: ", e);
+                    return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build());
                 });
     }
 
@@ -653,14 +944,13 @@ public class S3CompatibleController {
         log.info("DELETE object: bucket={}, key={}", bucket, key);
         String uploadId = exchange.getRequest().getQueryParams().getFirst("uploadId");
         if (uploadId != null) {
-            boolean aborted = multipartUploadService.abortUpload(uploadId);
-            if (aborted) {
-                HttpHeaders headers = createStandardS3Headers();
-                return Mono.just(new ResponseEntity<>(headers, HttpStatus.NO_CONTENT));
-            }
-            return Mono.just(new ResponseEntity<>(HttpStatus.NOT_FOUND));
+            return Mono.fromCallable(() -> multipartUploadService.abortUpload(uploadId))
+                    .subscribeOn(blockingIoScheduler)
+                    .map(aborted -> aborted
+                            ? new ResponseEntity<Void>(createStandardS3Headers(), HttpStatus.NO_CONTENT)
+                            : new ResponseEntity<Void>(HttpStatus.NOT_FOUND));
         }
-        return Mono.fromCallable(() -> {
+        return Mono.<ResponseEntity<Void>>fromCallable(() -> {
             try {
                 boolean deleted = deduplicationService.deleteObject(bucket, key);
 
@@ -679,7 +969,7 @@ public class S3CompatibleController {
                 log.error("Error deleting object: ", e);
                 return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
             }
-        });
+        }).subscribeOn(blockingIoScheduler);
     }
 
     // HEAD /{bucket}/{**key} - S3 compatible HEAD object (for stat operations)
@@ -691,33 +981,40 @@ public class S3CompatibleController {
         // Extract key by removing the bucket part: /bucket/key -> key
         String key = path.substring(("/" + bucket + "/").length());
         log.info("HEAD object: bucket={}, key={}", bucket, key);
-        return Mono.fromCallable(() -> {
+        return Mono.<ResponseEntity<Void>>fromCallable(() -> {
             try {
-                DeduplicationService.FileData fileData = deduplicationService.getObject(bucket, key);
-                if (fileData == null) {
+                // Metadata-only lookup: HEAD never reads the blob from storage
+                DeduplicationService.ObjectStat stat = deduplicationService.statObject(bucket, key);
+                if (stat == null) {
                     return new ResponseEntity<>(HttpStatus.NOT_FOUND);
                 }
                 
+                String hashPrefix = stat.getHash().substring(0, Math.min(16, stat.getHash().length()));
+                HttpStatus precondition = HttpPreconditions.evaluate(
+                        exchange.getRequest().getHeaders(), hashPrefix, stat.getHash(), stat.getLastModified());
+                if (precondition != null) {
+                    return new ResponseEntity<>(createConditionalResponseHeaders(hashPrefix, stat.getLastModified()), precondition);
+                }
+
                 HttpHeaders headers = new HttpHeaders();
-                headers.setContentLength(fileData.getSize());
-                if (fileData.getContentType() != null) {
-                    headers.setContentType(MediaType.parseMediaType(fileData.getContentType()));
+                headers.setContentLength(stat.getSize());
+                if (stat.getContentType() != null) {
+                    headers.setContentType(MediaType.parseMediaType(stat.getContentType()));
                 }
-                String hashPrefix = fileData.getHash().substring(0, Math.min(16, fileData.getHash().length()));
                 headers.set("ETag", "\"" + hashPrefix + "\"");
-                applyLastModifiedHeader(headers, fileData.getLastModified());
+                applyLastModifiedHeader(headers, stat.getLastModified());
                 headers.set("x-amz-request-id", java.util.UUID.randomUUID().toString().replace("-", "").substring(0, 16).toUpperCase());
                 headers.set("x-amz-id-2", java.util.UUID.randomUUID().toString());
                 headers.set("Server", "MinIO");
                 headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
-                applyUserMetadata(headers, fileData.getMetadata());
+                applyUserMetadata(headers, stat.getMetadata());
 
                 return new ResponseEntity<>(headers, HttpStatus.OK);
             } catch (Exception e) {
                 log.debug("Object not found for HEAD request: bucket={}, key={}", bucket, key);
                 return new ResponseEntity<>(HttpStatus.NOT_FOUND);
             }
-        });
+        }).subscribeOn(blockingIoScheduler);
     }
 
     // This endpoint is specifically for presigned URL generation via the proxy endpoint
@@ -742,6 +1039,6 @@ public class S3CompatibleController {
             String url = minio.getPresignedObjectUrl(GetPresignedObjectUrlArgs.builder()
                     .method(m).bucket(bucket).object(key).expiry(expirySeconds).build());
             return Map.of("url", url, "method", method);
-        });
+        }).subscribeOn(blockingIoScheduler);
     }
 }
\ No newline at end of file
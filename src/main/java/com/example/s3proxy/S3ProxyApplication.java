@@ -3,9 +3,11 @@ package com.example.s3proxy;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableJpaRepositories
+@EnableScheduling
 public class S3ProxyApplication {
 public static void main(String[] args) {
 SpringApplication.run(S3ProxyApplication.class, args);
@@ -0,0 +1,34 @@
+package com.example.s3proxy.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Scheduler for the blocking work behind the WebFlux endpoints: JPA metadata access, MinIO
+ * calls and staging file I/O. Running it here keeps the reactor-netty event loop free to serve
+ * other connections while a slow database or backend holds a request.
+ * <p>
+ * This offloads blocking calls; it does not make them non-blocking. Every request waiting on
+ * the database still holds one of {@code max-threads} threads, and the queue behind them is
+ * bounded per thread, so a stalled database turns into SlowDown answers rather than an
+ * unbounded backlog.
+ * </p>
+ */
+@Configuration
+public class BlockingIoConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(BlockingIoConfig.class);
+
+    @Bean(destroyMethod = "dispose")
+    Scheduler blockingIoScheduler(@Value("${s3.blocking-io.max-threads:0}") int maxThreads,
+                                  @Value("${s3.blocking-io.max-queued-tasks:100}") int maxQueuedTasks) {
+        int threads = maxThreads > 0 ? maxThreads : Schedulers.DEFAULT_BOUNDED_ELASTIC_SIZE;
+        log.info("Blocking I/O scheduler: maxThreads={}, maxQueuedTasks={}", threads, maxQueuedTasks);
+        return Schedulers.newBoundedElastic(threads, maxQueuedTasks, "s3-blocking-io");
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.s3proxy.entity;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "minio_chunks",
+       indexes = {
+           @Index(name = "idx_minio_chunks_hash_value", columnList = "hash_value", unique = true),
+           @Index(name = "idx_minio_chunks_reference_count", columnList = "reference_count")
+       }
+)
+public class ChunkEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "hash_value", unique = true, nullable = false, length = 64)
+    private String hashValue;
+
+    @Column(name = "size", nullable = false)
+    private Long size;
+
+    @Column(name = "storage_path", nullable = false, length = 500)
+    private String storagePath;
+
+    @Column(name = "reference_count", nullable = false)
+    private Integer referenceCount = 0;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    public ChunkEntity() {
+        this.createdAt = LocalDateTime.now();
+    }
+
+    public ChunkEntity(String hashValue, Long size, String storagePath) {
+        this();
+        this.hashValue = hashValue;
+        this.size = size;
+        this.storagePath = storagePath;
+        this.referenceCount = 1;
+    }
+
+    // Getters and setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public String getHashValue() { return hashValue; }
+    public void setHashValue(String hashValue) { this.hashValue = hashValue; }
+
+    public Long getSize() { return size; }
+    public void setSize(Long size) { this.size = size; }
+
+    public String getStoragePath() { return storagePath; }
+    public void setStoragePath(String storagePath) { this.storagePath = storagePath; }
+
+    public Integer getReferenceCount() { return referenceCount; }
+    public void setReferenceCount(Integer referenceCount) { this.referenceCount = referenceCount; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
@@ -0,0 +1,62 @@
+package com.example.s3proxy.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * One entry of a chunked file's manifest: the chunk stored at a given position of the file
+ */
+@Entity
+@Table(name = "minio_file_chunks",
+       uniqueConstraints = {
+           @UniqueConstraint(name = "uk_minio_file_chunks_file_index", columnNames = {"file_id", "chunk_index"})
+       },
+       indexes = {
+           @Index(name = "idx_minio_file_chunks_chunk_id", columnList = "chunk_id")
+       }
+)
+public class FileChunkEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "file_id", nullable = false)
+    private FileEntity file;
+
+    @Column(name = "chunk_index", nullable = false)
+    private Integer chunkIndex;
+
+    @Column(name = "chunk_offset", nullable = false)
+    private Long chunkOffset;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "chunk_id", nullable = false)
+    private ChunkEntity chunk;
+
+    public FileChunkEntity() {
+    }
+
+    public FileChunkEntity(FileEntity file, Integer chunkIndex, Long chunkOffset, ChunkEntity chunk) {
+        this.file = file;
+        this.chunkIndex = chunkIndex;
+        this.chunkOffset = chunkOffset;
+        this.chunk = chunk;
+    }
+
+    // Getters and setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public FileEntity getFile() { return file; }
+    public void setFile(FileEntity file) { this.file = file; }
+
+    public Integer getChunkIndex() { return chunkIndex; }
+    public void setChunkIndex(Integer chunkIndex) { this.chunkIndex = chunkIndex; }
+
+    public Long getChunkOffset() { return chunkOffset; }
+    public void setChunkOffset(Long chunkOffset) { this.chunkOffset = chunkOffset; }
+
+    public ChunkEntity getChunk() { return chunk; }
+    public void setChunk(ChunkEntity chunk) { this.chunk = chunk; }
+}
@@ -9,10 +9,16 @@ import java.time.LocalDateTime;
            @Index(name = "idx_minio_files_hash_value", columnList = "hash_value", unique = true),
            @Index(name = "idx_minio_files_reference_count", columnList = "reference_count"),
            @Index(name = "idx_minio_files_created_at", columnList = "created_at"),
-           @Index(name = "idx_minio_files_size", columnList = "size")
+           @Index(name = "idx_minio_files_size", columnList = "size"),
+           @Index(name = "idx_minio_files_pack_id", columnList = "pack_id"),
+           @Index(name = "idx_minio_files_delete_after", columnList = "delete_after"),
+           @Index(name = "idx_minio_files_quarantined_at", columnList = "quarantined_at")
        }
 )
 public class FileEntity {
+
+    /** Upper bound for inline content, the width of the {@code inline_data} column */
+    public static final int MAX_INLINE_SIZE = 4096;
     
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -20,6 +26,10 @@ public class FileEntity {
     
     @Column(name = "hash_value", unique = true, nullable = false, length = 64)
     private String hashValue;
+
+    /** Digest that produced {@code hashValue}, see {@link com.example.s3proxy.service.HashService} */
+    @Column(name = "hash_algorithm", nullable = false, length = 16)
+    private String hashAlgorithm = "SHA-256";
     
     @Column(name = "size", nullable = false)
     private Long size;
@@ -29,6 +39,38 @@ public class FileEntity {
     
     @Column(name = "storage_path", nullable = false, length = 500)
     private String storagePath;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "storage_type", nullable = false, length = 16)
+    private StorageType storageType = StorageType.OBJECT;
+
+    @Column(name = "pack_id")
+    private Long packId;
+
+    @Column(name = "pack_offset")
+    private Long packOffset;
+
+    @Column(name = "pack_length")
+    private Long packLength;
+
+    @Column(name = "inline_data", length = MAX_INLINE_SIZE)
+    private byte[] inlineData;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "compression", nullable = false, length = 16)
+    private Compression compression = Compression.NONE;
+
+    /** Bytes occupied in MinIO when that differs from {@code size}, e.g. after compression */
+    @Column(name = "stored_size")
+    private Long storedSize;
+
+    /** When a file without references may be garbage collected; cleared when it is referenced again */
+    @Column(name = "delete_after")
+    private LocalDateTime deleteAfter;
+
+    /** Set when the stored content no longer matches the hash; cleared when the content is uploaded again */
+    @Column(name = "quarantined_at")
+    private LocalDateTime quarantinedAt;
     
     @Column(name = "reference_count", nullable = false)
     private Integer referenceCount = 0;
@@ -59,6 +101,9 @@ public class FileEntity {
     
     public String getHashValue() { return hashValue; }
     public void setHashValue(String hashValue) { this.hashValue = hashValue; }
+
+    public String getHashAlgorithm() { return hashAlgorithm; }
+    public void setHashAlgorithm(String hashAlgorithm) { this.hashAlgorithm = hashAlgorithm; }
     
     public Long getSize() { return size; }
     public void setSize(Long size) { this.size = size; }
@@ -69,6 +114,33 @@ public class FileEntity {
     public String getStoragePath() { return storagePath; }
     public void setStoragePath(String storagePath) { this.storagePath = storagePath; }
     
+    public StorageType getStorageType() { return storageType; }
+    public void setStorageType(StorageType storageType) { this.storageType = storageType; }
+
+    public Long getPackId() { return packId; }
+    public void setPackId(Long packId) { this.packId = packId; }
+
+    public Long getPackOffset() { return packOffset; }
+    public void setPackOffset(Long packOffset) { this.packOffset = packOffset; }
+
+    public Long getPackLength() { return packLength; }
+    public void setPackLength(Long packLength) { this.packLength = packLength; }
+
+    public byte[] getInlineData() { return inlineData; }
+    public void setInlineData(byte[] inlineData) { this.inlineData = inlineData; }
+
+    public Compression getCompression() { return compression; }
+    public void setCompression(Compression compression) { this.compression = compression; }
+
+    public Long getStoredSize() { return storedSize; }
+    public void setStoredSize(Long storedSize) { this.storedSize = storedSize; }
+
+    public LocalDateTime getDeleteAfter() { return deleteAfter; }
+    public void setDeleteAfter(LocalDateTime deleteAfter) { this.deleteAfter = deleteAfter; }
+
+    public LocalDateTime getQuarantinedAt() { return quarantinedAt; }
+    public void setQuarantinedAt(LocalDateTime quarantinedAt) { this.quarantinedAt = quarantinedAt; }
+
     public Integer getReferenceCount() { return referenceCount; }
     public void setReferenceCount(Integer referenceCount) { this.referenceCount = referenceCount; }
     
@@ -78,4 +150,27 @@ public class FileEntity {
     public LocalDateTime getUpdatedAt() { return updatedAt; }
     public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
 
+    /**
+     * How the content of a file is laid out in the dedupe bucket
+     */
+    public enum StorageType {
+        /** A single blob at {@code storagePath} */
+        OBJECT,
+        /** An ordered manifest of content-defined chunks in {@code minio_file_chunks} */
+        CHUNKED,
+        /** A byte range of the pack object at {@code storagePath}, see {@code minio_packs} */
+        PACKED,
+        /** Stored in {@code inline_data}; nothing is kept in MinIO */
+        INLINE
+    }
+
+    /**
+     * Codec applied to the blob at {@code storagePath}
+     */
+    public enum Compression {
+        NONE,
+        /** zlib-wrapped DEFLATE, checksummed */
+        DEFLATE
+    }
+
 }
\ No newline at end of file
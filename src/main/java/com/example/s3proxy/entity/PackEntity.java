@@ -0,0 +1,64 @@
+package com.example.s3proxy.entity;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "minio_packs",
+       indexes = {
+           @Index(name = "idx_minio_packs_created_at", columnList = "created_at"),
+           @Index(name = "idx_minio_packs_retired_at", columnList = "retired_at")
+       }
+)
+public class PackEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "storage_path", nullable = false, length = 500)
+    private String storagePath;
+
+    @Column(name = "size", nullable = false)
+    private Long size;
+
+    /** Bytes of the pack still referenced by files; the rest is dead space */
+    @Column(name = "live_size", nullable = false)
+    private Long liveSize = 0L;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    /** Set once compaction has moved every live blob out; the object is deleted after a grace period */
+    @Column(name = "retired_at")
+    private LocalDateTime retiredAt;
+
+    public PackEntity() {
+        this.createdAt = LocalDateTime.now();
+    }
+
+    public PackEntity(String storagePath, Long size) {
+        this();
+        this.storagePath = storagePath;
+        this.size = size;
+    }
+
+    // Getters and setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public String getStoragePath() { return storagePath; }
+    public void setStoragePath(String storagePath) { this.storagePath = storagePath; }
+
+    public Long getSize() { return size; }
+    public void setSize(Long size) { this.size = size; }
+
+    public Long getLiveSize() { return liveSize; }
+    public void setLiveSize(Long liveSize) { this.liveSize = liveSize; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+
+    public LocalDateTime getRetiredAt() { return retiredAt; }
+    public void setRetiredAt(LocalDateTime retiredAt) { this.retiredAt = retiredAt; }
+}
@@ -0,0 +1,54 @@
+package com.example.s3proxy.entity;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Progress of a background scrub pass over {@code minio_files}, so it resumes after a restart
+ */
+@Entity
+@Table(name = "minio_scrub_checkpoints")
+public class ScrubCheckpointEntity {
+
+    @Id
+    @Column(name = "name", length = 64)
+    private String name;
+
+    /** Highest file id verified in the current pass; 0 when a pass has not started */
+    @Column(name = "last_file_id", nullable = false)
+    private Long lastFileId = 0L;
+
+    @Column(name = "pass_started_at")
+    private LocalDateTime passStartedAt;
+
+    @Column(name = "last_pass_completed_at")
+    private LocalDateTime lastPassCompletedAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    public ScrubCheckpointEntity() {
+        this.updatedAt = LocalDateTime.now();
+    }
+
+    public ScrubCheckpointEntity(String name) {
+        this();
+        this.name = name;
+    }
+
+    // Getters and setters
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+
+    public Long getLastFileId() { return lastFileId; }
+    public void setLastFileId(Long lastFileId) { this.lastFileId = lastFileId; }
+
+    public LocalDateTime getPassStartedAt() { return passStartedAt; }
+    public void setPassStartedAt(LocalDateTime passStartedAt) { this.passStartedAt = passStartedAt; }
+
+    public LocalDateTime getLastPassCompletedAt() { return lastPassCompletedAt; }
+    public void setLastPassCompletedAt(LocalDateTime lastPassCompletedAt) { this.lastPassCompletedAt = lastPassCompletedAt; }
+
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+}
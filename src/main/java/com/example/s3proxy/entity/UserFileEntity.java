@@ -3,7 +3,9 @@ package com.example.s3proxy.entity;
 import com.example.s3proxy.util.Sha256Utils;
 import com.example.s3proxy.util.JsonMapConverter;
 import jakarta.persistence.*;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -18,10 +20,16 @@ import java.util.Map;
            @Index(name = "idx_minio_user_files_object_key_sha256", columnList = "object_key_sha256"),
            @Index(name = "idx_minio_user_files_bucket_key_sha256", columnList = "bucket,object_key_sha256"),
            @Index(name = "idx_minio_user_files_file_id", columnList = "file_id"),
-           @Index(name = "idx_minio_user_files_created_at", columnList = "created_at")
+           @Index(name = "idx_minio_user_files_created_at", columnList = "created_at"),
+           @Index(name = "idx_minio_user_files_bucket_key_sort", columnList = "bucket,object_key_sort")
        }
 )
 public class UserFileEntity {
+
+    /**
+     * Longest key S3 accepts, in UTF-8 bytes; also the length of the sort key column
+     */
+    public static final int MAX_KEY_BYTES = 1024;
     
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -35,6 +43,13 @@ public class UserFileEntity {
     
     @Column(name = "object_key_sha256", nullable = false, length = 64)
     private String keySha256;
+
+    /**
+     * UTF-8 bytes of the key, which compare in the binary order S3 lists keys in and,
+     * unlike the TEXT key, fit a composite ordered index with the bucket
+     */
+    @Column(name = "object_key_sort", nullable = false, length = MAX_KEY_BYTES)
+    private byte[] keySort;
     
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "file_id", nullable = false)
@@ -61,6 +76,7 @@ public class UserFileEntity {
         this.bucket = bucket;
         this.key = key;
         this.keySha256 = Sha256Utils.calculateSha256(key);
+        this.keySort = sortKeyOf(key);
         this.file = file;
     }
     
@@ -75,10 +91,13 @@ public class UserFileEntity {
     public void setKey(String key) { 
         this.key = key;
         this.keySha256 = Sha256Utils.calculateSha256(key);
+        this.keySort = sortKeyOf(key);
     }
     
     public String getKeySha256() { return keySha256; }
     public void setKeySha256(String keySha256) { this.keySha256 = keySha256; }
+
+    public byte[] getKeySort() { return keySort; }
     
     public FileEntity getFile() { return file; }
     public void setFile(FileEntity file) { this.file = file; }
@@ -105,4 +124,12 @@ public class UserFileEntity {
             this.metadata = new HashMap<>(metadata);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Sort key stored for {@code key}: its UTF-8 bytes, cut at {@link #MAX_KEY_BYTES}
+     */
+    public static byte[] sortKeyOf(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        return bytes.length > MAX_KEY_BYTES ? Arrays.copyOf(bytes, MAX_KEY_BYTES) : bytes;
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.s3proxy.repository;
+
+import com.example.s3proxy.entity.ChunkEntity;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ChunkRepository extends JpaRepository<ChunkEntity, Long> {
+
+    Optional<ChunkEntity> findByHashValue(String hashValue);
+
+    @Query("SELECT c.storagePath FROM ChunkEntity c WHERE c.hashValue IN :hashValues")
+    List<String> findStoragePathsByHashValueIn(@Param("hashValues") Collection<String> hashValues);
+
+    /**
+     * Take a reference on a chunk that still has one; returns 0 once the chunk is released or claimed
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE ChunkEntity c SET c.referenceCount = c.referenceCount + 1 WHERE c.id = :id AND c.referenceCount > 0")
+    int incrementReferenceCount(@Param("id") Long id);
+
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE ChunkEntity c SET c.referenceCount = c.referenceCount - :count WHERE c.id = :id AND c.referenceCount >= :count")
+    int decrementReferenceCount(@Param("id") Long id, @Param("count") int count);
+
+    /**
+     * Mark a chunk without references for removal (reference count -1); it cannot be referenced again
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE ChunkEntity c SET c.referenceCount = -1 WHERE c.id = :id AND c.referenceCount = 0")
+    int claimForDeletion(@Param("id") Long id);
+
+    @Query("SELECT c FROM ChunkEntity c WHERE c.referenceCount < 0 ORDER BY c.id")
+    List<ChunkEntity> findClaimed(Pageable pageable);
+
+    @Modifying(clearAutomatically = true)
+    @Query("DELETE FROM ChunkEntity c WHERE c.id IN :ids AND c.referenceCount < 0")
+    int deleteClaimed(@Param("ids") Collection<Long> ids);
+}
@@ -0,0 +1,24 @@
+package com.example.s3proxy.repository;
+
+import com.example.s3proxy.entity.FileChunkEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface FileChunkRepository extends JpaRepository<FileChunkEntity, Long> {
+
+    /**
+     * Load a file's manifest in order, with its chunks in the same query
+     */
+    @Query("SELECT fc FROM FileChunkEntity fc JOIN FETCH fc.chunk WHERE fc.file.id = :fileId ORDER BY fc.chunkIndex")
+    List<FileChunkEntity> findManifest(@Param("fileId") Long fileId);
+
+    @Modifying(clearAutomatically = true)
+    @Query("DELETE FROM FileChunkEntity fc WHERE fc.file.id = :fileId")
+    int deleteByFileId(@Param("fileId") Long fileId);
+}
@@ -1,12 +1,16 @@
 package com.example.s3proxy.repository;
 
 import com.example.s3proxy.entity.FileEntity;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -14,12 +18,103 @@ public interface FileRepository extends JpaRepository<FileEntity, Long> {
     
     Optional<FileEntity> findByHashValue(String hashValue);
     
+    /**
+     * Take a reference. A file waiting for garbage collection is revived; one already claimed
+     * by the collector (negative count) is not, and 0 is returned.
+     */
     @Modifying(clearAutomatically = true)
-    @Query("UPDATE FileEntity f SET f.referenceCount = f.referenceCount + 1, f.updatedAt = CURRENT_TIMESTAMP WHERE f.id = :id")
-    void incrementReferenceCount(@Param("id") Long id);
+    @Query("UPDATE FileEntity f SET f.referenceCount = f.referenceCount + 1, f.deleteAfter = NULL, f.updatedAt = CURRENT_TIMESTAMP " +
+           "WHERE f.id = :id AND f.referenceCount >= 0")
+    int incrementReferenceCount(@Param("id") Long id);
     
     @Modifying(clearAutomatically = true)
     @Query("UPDATE FileEntity f SET f.referenceCount = f.referenceCount - 1, f.updatedAt = CURRENT_TIMESTAMP WHERE f.id = :id AND f.referenceCount > 0")
     int decrementReferenceCount(@Param("id") Long id);
 
+    /**
+     * Keyset-paginated scan of all content hashes: each row is {@code [id, hashValue]}
+     */
+    @Query("SELECT f.id, f.hashValue FROM FileEntity f WHERE f.id > :afterId ORDER BY f.id")
+    List<Object[]> findHashValueBatch(@Param("afterId") Long afterId, Pageable pageable);
+
+    /**
+     * Keyset-paginated scan of reference counts: each row is {@code [id, referenceCount, deleteAfter]}
+     */
+    @Query("SELECT f.id, f.referenceCount, f.deleteAfter FROM FileEntity f WHERE f.id > :afterId ORDER BY f.id")
+    List<Object[]> findReferenceCountBatch(@Param("afterId") Long afterId, Pageable pageable);
+
+    /**
+     * Overwrite a drifted reference count, unless the count changed since it was read
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE FileEntity f SET f.referenceCount = :actual, f.deleteAfter = NULL, f.updatedAt = CURRENT_TIMESTAMP " +
+           "WHERE f.id = :id AND f.referenceCount = :expected")
+    int correctReferenceCount(@Param("id") Long id, @Param("expected") int expected, @Param("actual") int actual);
+
+    @Query("SELECT f.storagePath FROM FileEntity f WHERE f.hashValue IN :hashValues")
+    List<String> findStoragePathsByHashValueIn(@Param("hashValues") Collection<String> hashValues);
+
+    @Query("SELECT f.hashValue FROM FileEntity f WHERE f.createdAt >= :since")
+    List<String> findHashValuesCreatedSince(@Param("since") LocalDateTime since);
+
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE FileEntity f SET f.deleteAfter = :deleteAfter WHERE f.id = :id AND f.referenceCount = 0")
+    int scheduleDeletion(@Param("id") Long id, @Param("deleteAfter") LocalDateTime deleteAfter);
+
+    /**
+     * Files whose grace period has passed, and files claimed by a collector run that did not finish
+     */
+    @Query("SELECT f FROM FileEntity f WHERE (f.referenceCount = 0 AND f.deleteAfter <= :now) OR f.referenceCount < 0 ORDER BY f.id")
+    List<FileEntity> findGarbage(@Param("now") LocalDateTime now, Pageable pageable);
+
+    /**
+     * Claim a garbage file for deletion by setting its count to -1, so it can no longer be revived
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE FileEntity f SET f.referenceCount = -1 WHERE f.id = :id " +
+           "AND ((f.referenceCount = 0 AND f.deleteAfter <= :now) OR f.referenceCount < 0)")
+    int claimForDeletion(@Param("id") Long id, @Param("now") LocalDateTime now);
+
+    @Query("SELECT COUNT(f) FROM FileEntity f WHERE f.referenceCount <= 0")
+    long countGarbage();
+
+    /**
+     * Keyset-paginated scan of referenced files that are not quarantined, for integrity scrubbing
+     */
+    @Query("SELECT f FROM FileEntity f WHERE f.id > :afterId AND f.referenceCount > 0 AND f.quarantinedAt IS NULL ORDER BY f.id")
+    List<FileEntity> findScrubBatch(@Param("afterId") Long afterId, Pageable pageable);
+
+    /**
+     * Quarantine a file found corrupted, unless it lost its references (and possibly its blob) meanwhile
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE FileEntity f SET f.quarantinedAt = :now WHERE f.id = :id AND f.quarantinedAt IS NULL AND f.referenceCount > 0")
+    int quarantine(@Param("id") Long id, @Param("now") LocalDateTime now);
+
+    long countByQuarantinedAtIsNotNull();
+
+    /**
+     * Point a quarantined file at freshly written content in its own blob and lift the quarantine
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE FileEntity f SET f.storageType = com.example.s3proxy.entity.FileEntity.StorageType.OBJECT, " +
+           "f.storagePath = :storagePath, f.compression = :compression, f.storedSize = :storedSize, " +
+           "f.packId = NULL, f.packOffset = NULL, f.packLength = NULL, f.inlineData = NULL, " +
+           "f.quarantinedAt = NULL, f.updatedAt = CURRENT_TIMESTAMP WHERE f.id = :id")
+    int restoreQuarantined(@Param("id") Long id, @Param("storagePath") String storagePath,
+                           @Param("compression") FileEntity.Compression compression, @Param("storedSize") Long storedSize);
+
+    List<FileEntity> findByPackId(Long packId);
+
+    long countByPackId(Long packId);
+
+    /**
+     * Point a packed file at its copy in another pack, unless it was deleted or moved meanwhile
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE FileEntity f SET f.packId = :newPackId, f.storagePath = :storagePath, f.packOffset = :packOffset, " +
+           "f.updatedAt = CURRENT_TIMESTAMP WHERE f.id = :id AND f.packId = :oldPackId")
+    int movePackedFile(@Param("id") Long id, @Param("oldPackId") Long oldPackId, @Param("newPackId") Long newPackId,
+                       @Param("storagePath") String storagePath, @Param("packOffset") long packOffset);
+
 }
\ No newline at end of file
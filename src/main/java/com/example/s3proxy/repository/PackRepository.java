@@ -0,0 +1,34 @@
+package com.example.s3proxy.repository;
+
+import com.example.s3proxy.entity.PackEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface PackRepository extends JpaRepository<PackEntity, Long> {
+
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE PackEntity p SET p.liveSize = p.liveSize + :delta WHERE p.id = :id")
+    int addLiveSize(@Param("id") Long id, @Param("delta") long delta);
+
+    /**
+     * Active packs created before {@code createdBefore} that are mostly dead space or too small
+     */
+    @Query("SELECT p FROM PackEntity p WHERE p.retiredAt IS NULL AND p.createdAt < :createdBefore " +
+           "AND (p.size - p.liveSize > p.size * :deadSpaceThreshold OR p.size < :minPackSize) ORDER BY p.id")
+    List<PackEntity> findCompactionCandidates(@Param("createdBefore") LocalDateTime createdBefore,
+                                              @Param("deadSpaceThreshold") double deadSpaceThreshold,
+                                              @Param("minPackSize") long minPackSize);
+
+    List<PackEntity> findByRetiredAtBefore(LocalDateTime retiredBefore);
+
+    @Query("SELECT p.storagePath FROM PackEntity p WHERE p.storagePath IN :storagePaths")
+    List<String> findStoragePathsIn(@Param("storagePaths") Collection<String> storagePaths);
+}
@@ -0,0 +1,9 @@
+package com.example.s3proxy.repository;
+
+import com.example.s3proxy.entity.ScrubCheckpointEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ScrubCheckpointRepository extends JpaRepository<ScrubCheckpointEntity, String> {
+}
@@ -2,12 +2,17 @@ package com.example.s3proxy.repository;
 
 import com.example.s3proxy.entity.UserFileEntity;
 import com.example.s3proxy.util.Sha256Utils;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -31,14 +36,96 @@ public interface UserFileRepository extends JpaRepository<UserFileEntity, Long>
         return findByBucketAndKeySha256AndKey(bucket, keySha256 );
     }
 
-    // Find all user files in a bucket with optional prefix
-    @Query("SELECT uf FROM UserFileEntity uf WHERE uf.bucket = :bucket AND uf.key LIKE CONCAT(:prefix, '%') ORDER BY uf.key")
-    List<UserFileEntity> findByBucketAndKeyStartingWith(@Param("bucket") String bucket, @Param("prefix") String prefix);
-    
-    // Find all user files in a bucket
-    @Query("SELECT uf FROM UserFileEntity uf WHERE uf.bucket = :bucket ORDER BY uf.key")
-    List<UserFileEntity> findByBucketOrderByKey(@Param("bucket") String bucket);
+    /**
+     * Same lookup as {@link #findByBucketAndKeySha256AndKey} but fetches the referenced file in the
+     * same query, so callers that need size/hash/content type do not trigger a second lazy load
+     */
+    @Query("SELECT uf FROM UserFileEntity uf JOIN FETCH uf.file WHERE uf.bucket = :bucket AND uf.keySha256 = :keySha256")
+    Optional<UserFileEntity> findWithFileByBucketAndKeySha256(@Param("bucket") String bucket,
+                                                              @Param("keySha256") String keySha256);
 
+    /**
+     * Convenience method that calculates SHA256 automatically and fetches the file eagerly
+     */
+    default Optional<UserFileEntity> findWithFileByBucketAndKey(String bucket, String key) {
+        return findWithFileByBucketAndKeySha256(bucket, Sha256Utils.calculateSha256(key));
+    }
+
+    /**
+     * Keyset page of a bucket listing: keys whose sort key lies after {@code after} and before
+     * {@code end}, in sort key order. The range is read from the (bucket, object_key_sort) index
+     * in order, and only the columns a listing shows are selected, so no entities are loaded and
+     * neither the metadata JSON nor inline file bytes are read. Ordering by the constant bucket
+     * as well lets every database see that the index already delivers the order. The page size
+     * comes from the pageable, whose offset should stay 0.
+     */
+    @Query("SELECT new com.example.s3proxy.repository.UserFileRepository$ListingEntry("
+            + "uf.key, f.size, uf.lastModified, f.hashValue, f.contentType) "
+            + "FROM UserFileEntity uf JOIN uf.file f WHERE uf.bucket = :bucket "
+            + "AND uf.keySort > :after AND uf.keySort < :end ORDER BY uf.bucket, uf.keySort")
+    List<ListingEntry> findPageByBucketAndKeySortAfter(@Param("bucket") String bucket,
+                                                       @Param("after") byte[] after,
+                                                       @Param("end") byte[] end,
+                                                       Pageable pageable);
+
+    /**
+     * Same as {@link #findPageByBucketAndKeySortAfter} but starting at {@code from} inclusive
+     */
+    @Query("SELECT new com.example.s3proxy.repository.UserFileRepository$ListingEntry("
+            + "uf.key, f.size, uf.lastModified, f.hashValue, f.contentType) "
+            + "FROM UserFileEntity uf JOIN uf.file f WHERE uf.bucket = :bucket "
+            + "AND uf.keySort >= :from AND uf.keySort < :end ORDER BY uf.bucket, uf.keySort")
+    List<ListingEntry> findPageByBucketAndKeySortFrom(@Param("bucket") String bucket,
+                                                      @Param("from") byte[] from,
+                                                      @Param("end") byte[] end,
+                                                      Pageable pageable);
+
+    /**
+     * Up to {@code limit} keys starting with {@code prefix} that sort after {@code after}
+     */
+    default List<ListingEntry> findListingPage(String bucket, String prefix, String after, int limit) {
+        byte[] start = UserFileEntity.sortKeyOf(prefix);
+        byte[] marker = UserFileEntity.sortKeyOf(after);
+        if (Arrays.compareUnsigned(marker, start) < 0) {
+            return findPageByBucketAndKeySortFrom(bucket, start, sortKeySuccessor(start), PageRequest.of(0, limit));
+        }
+        return findPageByBucketAndKeySortAfter(bucket, marker, sortKeySuccessor(start), PageRequest.of(0, limit));
+    }
+
+    /**
+     * Up to {@code limit} keys starting with {@code prefix} that sort after every key starting
+     * with {@code skipped}, which lets a delimiter listing seek past a common prefix at once
+     */
+    default List<ListingEntry> findListingPageSkipping(String bucket, String prefix, String skipped, int limit) {
+        byte[] start = UserFileEntity.sortKeyOf(prefix);
+        byte[] from = sortKeySuccessor(UserFileEntity.sortKeyOf(skipped));
+        if (Arrays.compareUnsigned(from, start) < 0) {
+            from = start;
+        }
+        return findPageByBucketAndKeySortFrom(bucket, from, sortKeySuccessor(start), PageRequest.of(0, limit));
+    }
+
+    /**
+     * Smallest sort key above every sort key starting with {@code prefix}. Sort keys are UTF-8,
+     * which never contains 0xFF, so a single 0xFF byte bounds them all.
+     */
+    static byte[] sortKeySuccessor(byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte) 0xFF) {
+                byte[] successor = Arrays.copyOf(prefix, i + 1);
+                successor[i]++;
+                return successor;
+            }
+        }
+        return new byte[] {(byte) 0xFF};
+    }
+
+    /**
+     * Number of keys referencing each of the given files: each row is {@code [fileId, count]}.
+     * Files without any key are absent from the result.
+     */
+    @Query("SELECT uf.file.id, COUNT(uf) FROM UserFileEntity uf WHERE uf.file.id IN :fileIds GROUP BY uf.file.id")
+    List<Object[]> countByFileIdIn(@Param("fileIds") Collection<Long> fileIds);
 
     @Modifying
     @Query("DELETE FROM UserFileEntity uf WHERE uf.bucket = :bucket AND uf.keySha256 = :keySha256  ")
@@ -53,4 +140,29 @@ public interface UserFileRepository extends JpaRepository<UserFileEntity, Long>
         String keySha256 = Sha256Utils.calculateSha256(key);
         return deleteByBucketAndKeySha256AndKey(bucket, keySha256);
     }
-}
\ No newline at end of file
+
+    /**
+     * One row of a bucket listing: the key and the columns of its file that listings return
+     */
+    class ListingEntry {
+        private final String key;
+        private final long size;
+        private final LocalDateTime lastModified;
+        private final String hashValue;
+        private final String contentType;
+
+        public ListingEntry(String key, Long size, LocalDateTime lastModified, String hashValue, String contentType) {
+            this.key = key;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hashValue = hashValue;
+            this.contentType = contentType;
+        }
+
+        public String getKey() { return key; }
+        public long getSize() { return size; }
+        public LocalDateTime getLastModified() { return lastModified; }
+        public String getHashValue() { return hashValue; }
+        public String getContentType() { return contentType; }
+    }
+}
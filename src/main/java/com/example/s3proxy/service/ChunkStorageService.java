@@ -0,0 +1,315 @@
+package com.example.s3proxy.service;
+
+import com.example.s3proxy.entity.ChunkEntity;
+import com.example.s3proxy.entity.FileChunkEntity;
+import com.example.s3proxy.entity.FileEntity;
+import com.example.s3proxy.repository.ChunkRepository;
+import com.example.s3proxy.repository.FileChunkRepository;
+import com.example.s3proxy.util.FastCdcChunker;
+import com.example.s3proxy.util.KeyedLock;
+import io.minio.GetObjectArgs;
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import io.minio.RemoveObjectArgs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+/**
+ * Sub-object deduplication: stores files as an ordered manifest of content-defined chunks.
+ * <p>
+ * Uploads are split with {@link FastCdcChunker} and every chunk is stored once
+ * under {@code dedupe-chunks/<sha256>}, reference counted in {@code minio_chunks}.
+ * Two versions of a large binary that differ in a few places then share all
+ * chunks except the ones around the edits. Reads reassemble the chunks lazily,
+ * opening only the chunks that overlap the requested range.
+ * </p>
+ * <p>
+ * A chunk whose last reference is released is claimed (reference count -1) in
+ * the releasing transaction, and its blob is only removed by
+ * {@link #removeClaimedChunks} once that transaction has committed. Uploads
+ * cannot reference a claimed chunk again. New chunks are single-flighted per
+ * hash until the uploading transaction completes.
+ * </p>
+ */
+@Service
+@Transactional
+public class ChunkStorageService {
+
+    private static final Logger log = LoggerFactory.getLogger(ChunkStorageService.class);
+
+    static final String CHUNK_PREFIX = "dedupe-chunks/";
+    static final String MANIFEST_PREFIX = "dedupe-manifest/";
+    /** How long an upload waits for another upload of the same new chunk before asking the client to retry */
+    private static final Duration CHUNK_LOCK_TIMEOUT = Duration.ofSeconds(30);
+
+    private final ChunkRepository chunkRepository;
+    private final FileChunkRepository fileChunkRepository;
+    private final HashService hashService;
+    private final MinioClient minioClient;
+    private final String dedupeStorageBucket;
+    private final boolean enabled;
+    private final long minObjectSize;
+    private final FastCdcChunker chunker;
+    private final KeyedLock chunkLocks = new KeyedLock();
+
+    public ChunkStorageService(ChunkRepository chunkRepository,
+                               FileChunkRepository fileChunkRepository,
+                               HashService hashService,
+                               MinioClient minioClient,
+                               @Value("${minio.bucket.dedupe-storage}") String dedupeStorageBucket,
+                               @Value("${s3.dedupe.chunking.enabled:false}") boolean enabled,
+                               @Value("${s3.dedupe.chunking.min-object-size:4MB}") DataSize minObjectSize,
+                               @Value("${s3.dedupe.chunking.average-chunk-size:1MB}") DataSize averageChunkSize) {
+        this.chunkRepository = chunkRepository;
+        this.fileChunkRepository = fileChunkRepository;
+        this.hashService = hashService;
+        this.minioClient = minioClient;
+        this.dedupeStorageBucket = dedupeStorageBucket;
+        this.enabled = enabled;
+        this.minObjectSize = minObjectSize.toBytes();
+        this.chunker = FastCdcChunker.withAverageSize(Math.toIntExact(averageChunkSize.toBytes()));
+    }
+
+    /**
+     * Whether new content of the given size should be stored as chunks
+     */
+    public boolean shouldChunk(long size) {
+        return enabled && size >= minObjectSize;
+    }
+
+    /**
+     * Placeholder storage path recorded for chunked files; no blob exists at this path
+     */
+    public String manifestPath(String hash) {
+        return MANIFEST_PREFIX + hash;
+    }
+
+    /**
+     * Split the content of a newly saved file into chunks, upload the chunks that are not
+     * stored yet and record the file's manifest.
+     *
+     * @return the number of bytes that had to be uploaded
+     */
+    public long storeChunks(FileEntity file, InputStream content) throws Exception {
+        FastCdcChunker.Reader reader = chunker.reader(content);
+        int index = 0;
+        long offset = 0;
+        long uploaded = 0;
+        byte[] data;
+        while ((data = reader.next()) != null) {
+            String hash = hashService.calculateSHA256(data);
+            Optional<ChunkEntity> existing = chunkRepository.findByHashValue(hash);
+            if (existing.isEmpty()) {
+                // Another upload of the same new chunk commits its row before this one looks again
+                lockUntilCompletion(hash);
+                existing = chunkRepository.findByHashValue(hash);
+            }
+            ChunkEntity chunk;
+            if (existing.isPresent()) {
+                chunk = existing.get();
+                if (chunkRepository.incrementReferenceCount(chunk.getId()) == 0) {
+                    // Claimed by the garbage collector: the client should retry shortly
+                    throw new DeduplicationService.ContentBusyException(hash);
+                }
+            } else {
+                String storagePath = CHUNK_PREFIX + hash;
+                try (InputStream inputStream = new ByteArrayInputStream(data)) {
+                    minioClient.putObject(PutObjectArgs.builder()
+                            .bucket(dedupeStorageBucket)
+                            .object(storagePath)
+                            .stream(inputStream, data.length, -1)
+                            .build());
+                }
+                chunk = chunkRepository.save(new ChunkEntity(hash, (long) data.length, storagePath));
+                uploaded += data.length;
+            }
+            fileChunkRepository.save(new FileChunkEntity(file, index++, offset, chunk));
+            offset += data.length;
+        }
+        log.info("Stored chunked file: hash={}, size={}, chunks={}, uploadedBytes={}",
+                file.getHashValue(), offset, index, uploaded);
+        return uploaded;
+    }
+
+    /**
+     * Load the manifest of a chunked file for reading
+     */
+    @Transactional(readOnly = true)
+    public List<ChunkRef> loadManifest(Long fileId) {
+        List<FileChunkEntity> entries = fileChunkRepository.findManifest(fileId);
+        List<ChunkRef> manifest = new ArrayList<>(entries.size());
+        for (FileChunkEntity entry : entries) {
+            manifest.add(new ChunkRef(entry.getChunkOffset(), entry.getChunk().getSize(), entry.getChunk().getStoragePath()));
+        }
+        return manifest;
+    }
+
+    /**
+     * Open a byte range of a chunked file. Only chunks overlapping the range are read,
+     * and each of them only when the previous one has been consumed.
+     *
+     * @param length number of bytes to read, or a negative value to read to the end
+     */
+    public InputStream openRange(List<ChunkRef> manifest, long offset, long length) {
+        long end = length < 0 ? Long.MAX_VALUE : offset + length;
+        int first = findChunk(manifest, offset);
+        return new SequenceInputStream(new Enumeration<>() {
+            private int next = first;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next >= 0 && next < manifest.size() && manifest.get(next).getOffset() < end;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                if (!hasMoreElements()) {
+                    throw new NoSuchElementException();
+                }
+                ChunkRef chunk = manifest.get(next++);
+                long from = Math.max(offset - chunk.getOffset(), 0);
+                long to = Math.min(end - chunk.getOffset(), chunk.getSize());
+                try {
+                    GetObjectArgs.Builder argsBuilder = GetObjectArgs.builder()
+                            .bucket(dedupeStorageBucket)
+                            .object(chunk.getStoragePath());
+                    if (from > 0 || to < chunk.getSize()) {
+                        argsBuilder.offset(from).length(to - from);
+                    }
+                    return minioClient.getObject(argsBuilder.build());
+                } catch (Exception e) {
+                    throw new IllegalStateException("Failed to read chunk " + chunk.getStoragePath(), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Hold the lock for a chunk hash until the surrounding transaction completes
+     */
+    private void lockUntilCompletion(String hash) throws InterruptedException {
+        KeyedLock.Handle lock = chunkLocks.tryLock(hash, CHUNK_LOCK_TIMEOUT);
+        if (lock == null) {
+            throw new DeduplicationService.ContentBusyException(hash);
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            lock.unlock();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                lock.unlock();
+            }
+        });
+    }
+
+    /**
+     * Drop a file's manifest and release its chunks, claiming chunks that are no longer
+     * referenced. Their blobs are removed by {@link #removeClaimedChunks} after this
+     * transaction has committed, so a rollback never leaves a chunk row without its blob.
+     */
+    public void releaseChunks(Long fileId) {
+        Map<Long, Integer> references = new LinkedHashMap<>();
+        for (FileChunkEntity entry : fileChunkRepository.findManifest(fileId)) {
+            references.merge(entry.getChunk().getId(), 1, Integer::sum);
+        }
+        fileChunkRepository.deleteByFileId(fileId);
+
+        int claimed = 0;
+        for (Map.Entry<Long, Integer> entry : references.entrySet()) {
+            chunkRepository.decrementReferenceCount(entry.getKey(), entry.getValue());
+            if (chunkRepository.claimForDeletion(entry.getKey()) > 0) {
+                claimed++;
+            }
+        }
+        log.info("Released chunked file: fileId={}, chunks={}, claimedChunks={}", fileId, references.size(), claimed);
+    }
+
+    /**
+     * Remove the blobs of up to {@code batchSize} claimed chunks, then their rows. Chunks whose
+     * blob could not be removed stay claimed and are retried by the next call.
+     *
+     * @return the number of chunks removed
+     */
+    public int removeClaimedChunks(int batchSize) {
+        List<ChunkEntity> claimed = chunkRepository.findClaimed(PageRequest.of(0, batchSize));
+        List<Long> removed = new ArrayList<>(claimed.size());
+        for (ChunkEntity chunk : claimed) {
+            try {
+                minioClient.removeObject(RemoveObjectArgs.builder()
+                        .bucket(dedupeStorageBucket)
+                        .object(chunk.getStoragePath())
+                        .build());
+                removed.add(chunk.getId());
+            } catch (Exception e) {
+                log.warn("Failed to delete chunk from MinIO: {}", chunk.getStoragePath(), e);
+            }
+        }
+        if (!removed.isEmpty()) {
+            chunkRepository.deleteClaimed(removed);
+        }
+        if (!claimed.isEmpty()) {
+            log.info("Removed claimed chunks: claimed={}, removed={}", claimed.size(), removed.size());
+        }
+        return removed.size();
+    }
+
+    /**
+     * Index of the chunk containing {@code offset}, or -1 when the offset is past the end
+     */
+    static int findChunk(List<ChunkRef> manifest, long offset) {
+        int low = 0;
+        int high = manifest.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            ChunkRef chunk = manifest.get(mid);
+            if (offset < chunk.getOffset()) {
+                high = mid - 1;
+            } else if (offset >= chunk.getOffset() + chunk.getSize()) {
+                low = mid + 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A chunk's position in a file and where its content is stored
+     */
+    public static class ChunkRef {
+        private final long offset;
+        private final long size;
+        private final String storagePath;
+
+        public ChunkRef(long offset, long size, String storagePath) {
+            this.offset = offset;
+            this.size = size;
+            this.storagePath = storagePath;
+        }
+
+        public long getOffset() { return offset; }
+        public long getSize() { return size; }
+        public String getStoragePath() { return storagePath; }
+    }
+}
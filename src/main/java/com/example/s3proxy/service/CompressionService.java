@@ -0,0 +1,255 @@
+package com.example.s3proxy.service;
+
+import com.example.s3proxy.entity.FileEntity;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Optional transparent compression of single-blob content in the dedupe bucket.
+ * <p>
+ * The codec is chosen per upload: known text types (logs, JSON, CSV, XML, ...) are
+ * always compressed, types that are already compressed (images, video, archives) never
+ * are, and anything else is compressed only when a sample of its first bytes shrinks
+ * well. Blobs are compressed and decompressed as streams, so memory use does not grow
+ * with the object size. The content hash, ETag and size reported to clients always
+ * refer to the uncompressed content.
+ * </p>
+ */
+@Service
+public class CompressionService implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(CompressionService.class);
+
+    static final int SAMPLE_SIZE = 64 * 1024;
+    private static final long PART_SIZE = 10L * 1024 * 1024;
+
+    private static final List<String> COMPRESSIBLE_TYPES = List.of(
+            "text/", "application/json", "application/x-ndjson", "application/xml", "application/javascript",
+            "application/csv", "application/yaml", "application/x-yaml", "application/sql", "image/svg+xml");
+
+    private static final List<String> INCOMPRESSIBLE_TYPES = List.of(
+            "image/", "video/", "audio/", "font/woff", "application/zip", "application/gzip", "application/x-gzip",
+            "application/x-bzip2", "application/x-xz", "application/zstd", "application/x-7z-compressed",
+            "application/x-rar-compressed", "application/java-archive", "application/pdf", "application/vnd.openxmlformats");
+
+    private final MinioClient minioClient;
+    private final String dedupeStorageBucket;
+    private final boolean enabled;
+    private final long minObjectSize;
+    private final double maxSampleRatio;
+    private final int level;
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+
+    public CompressionService(MinioClient minioClient,
+                              @Value("${minio.bucket.dedupe-storage}") String dedupeStorageBucket,
+                              @Value("${s3.dedupe.compression.enabled:false}") boolean enabled,
+                              @Value("${s3.dedupe.compression.min-object-size:4KB}") DataSize minObjectSize,
+                              @Value("${s3.dedupe.compression.max-sample-ratio:0.8}") double maxSampleRatio,
+                              @Value("${s3.dedupe.compression.level:6}") int level) {
+        this.minioClient = minioClient;
+        this.dedupeStorageBucket = dedupeStorageBucket;
+        this.enabled = enabled;
+        this.minObjectSize = minObjectSize.toBytes();
+        this.maxSampleRatio = maxSampleRatio;
+        this.level = level;
+    }
+
+    /**
+     * Choose the codec for new content of the given type and size
+     */
+    public FileEntity.Compression select(String contentType, long size, DeduplicationService.ContentSource contentSource) throws Exception {
+        if (!enabled || size < minObjectSize) {
+            return FileEntity.Compression.NONE;
+        }
+        String type = contentType == null ? "" : contentType.toLowerCase(Locale.ROOT);
+        if (matches(type, INCOMPRESSIBLE_TYPES)) {
+            return FileEntity.Compression.NONE;
+        }
+        if (matches(type, COMPRESSIBLE_TYPES)) {
+            return FileEntity.Compression.DEFLATE;
+        }
+        byte[] sample;
+        try (InputStream inputStream = contentSource.open()) {
+            sample = inputStream.readNBytes(SAMPLE_SIZE);
+        }
+        double ratio = (double) compressedSize(sample) / Math.max(sample.length, 1);
+        log.debug("Sampled compressibility: contentType={}, sample={}, ratio={}", contentType, sample.length, ratio);
+        return ratio <= maxSampleRatio ? FileEntity.Compression.DEFLATE : FileEntity.Compression.NONE;
+    }
+
+    /**
+     * Stream the content through the codec into {@code storagePath} of the dedupe bucket
+     *
+     * @return the number of bytes stored
+     */
+    public long write(FileEntity.Compression compression, InputStream content, long size, String storagePath) throws Exception {
+        requireSupported(compression);
+        Deflater deflater = new Deflater(level);
+        try (CountingInputStream compressed = new CountingInputStream(new DeflaterInputStream(content, deflater))) {
+            minioClient.putObject(PutObjectArgs.builder()
+                    .bucket(dedupeStorageBucket)
+                    .object(storagePath)
+                    .stream(compressed, -1, PART_SIZE)
+                    .contentType("application/octet-stream")
+                    .build());
+            rawBytes.addAndGet(size);
+            storedBytes.addAndGet(compressed.count);
+            log.debug("Stored compressed blob: path={}, size={}, storedSize={}", storagePath, size, compressed.count);
+            return compressed.count;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompress a stored blob and return the requested range of the original content.
+     * Compressed blobs cannot be read from the middle, so the bytes before {@code offset} are
+     * decompressed and discarded.
+     *
+     * @param length number of bytes to read, or a negative value to read to the end
+     */
+    public InputStream openRange(FileEntity.Compression compression, InputStream stored, long offset, long length) throws IOException {
+        requireSupported(compression);
+        InputStream decompressed = new InflaterInputStream(stored);
+        try {
+            decompressed.skipNBytes(offset);
+        } catch (IOException e) {
+            decompressed.close();
+            throw e;
+        }
+        return length < 0 ? decompressed : new LimitedInputStream(decompressed, length);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("s3proxy.compression.raw.bytes", rawBytes, AtomicLong::get)
+                .description("Uncompressed bytes of blobs stored with compression")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("s3proxy.compression.stored.bytes", storedBytes, AtomicLong::get)
+                .description("Bytes actually written to MinIO for compressed blobs")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    private int compressedSize(byte[] sample) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(sample);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            int total = 0;
+            while (!deflater.finished()) {
+                total += deflater.deflate(buffer);
+            }
+            return total;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void requireSupported(FileEntity.Compression compression) {
+        if (compression != FileEntity.Compression.DEFLATE) {
+            throw new IllegalArgumentException("Unsupported compression: " + compression);
+        }
+    }
+
+    private static boolean matches(String type, List<String> prefixes) {
+        for (String prefix : prefixes) {
+            if (type.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
+    private static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+    }
+}
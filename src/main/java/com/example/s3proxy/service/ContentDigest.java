@@ -0,0 +1,31 @@
+package com.example.s3proxy.service;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental digest of streamed content, created by {@link HashService}
+ */
+public interface ContentDigest {
+
+    /**
+     * Name of the algorithm, as recorded in {@code minio_files.hash_algorithm}
+     */
+    String getAlgorithm();
+
+    void update(byte[] input, int offset, int length);
+
+    /**
+     * Consume the buffer's remaining bytes
+     */
+    void update(ByteBuffer input);
+
+    /**
+     * Independent copy of the current state, for hash chains that are extended later
+     */
+    ContentDigest copy();
+
+    /**
+     * Complete the digest and return it as a hex string; the digest must not be used afterwards
+     */
+    String finish();
+}
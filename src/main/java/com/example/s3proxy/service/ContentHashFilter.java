@@ -0,0 +1,178 @@
+package com.example.s3proxy.service;
+
+import com.example.s3proxy.repository.FileRepository;
+import com.example.s3proxy.util.BloomFilter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory Bloom filter over {@code minio_files.hash_value}.
+ * <p>
+ * Most uploads in an ingest workload are new content, so a definite "not
+ * present" answer lets {@link DeduplicationService} skip the database lookup.
+ * The filter is built with a keyset-paginated scan on startup and rebuilt
+ * periodically, because a Bloom filter cannot forget deleted hashes. While a
+ * rebuild runs, new hashes are added to both the live and the next filter.
+ * Until the first build completes every hash is reported as possibly present.
+ * </p>
+ * <p>
+ * The filter only sees inserts made by this process, and a rebuild misses rows
+ * committed later than {@code INSERT_GRACE} after its scan started. A hash it
+ * wrongly rules out makes the file insert hit the unique hash constraint, which
+ * {@link DeduplicationService} treats as a filter miss. Disabled by default.
+ * </p>
+ */
+@Service
+public class ContentHashFilter implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentHashFilter.class);
+
+    private static final int SCAN_BATCH_SIZE = 10_000;
+    private static final Duration INSERT_GRACE = Duration.ofMinutes(1);
+
+    private final FileRepository fileRepository;
+    private final boolean enabled;
+    private final long minExpectedInsertions;
+    private final double falsePositiveRate;
+
+    private volatile BloomFilter current;
+    private volatile BloomFilter next;
+    private final AtomicLong skippedLookups = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    public ContentHashFilter(FileRepository fileRepository,
+                             @Value("${s3.dedupe.hash-filter.enabled:false}") boolean enabled,
+                             @Value("${s3.dedupe.hash-filter.expected-insertions:1000000}") long minExpectedInsertions,
+                             @Value("${s3.dedupe.hash-filter.false-positive-rate:0.01}") double falsePositiveRate) {
+        this.fileRepository = fileRepository;
+        this.enabled = enabled;
+        this.minExpectedInsertions = minExpectedInsertions;
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    /**
+     * {@code false} means the hash is definitely not stored and the lookup can be skipped
+     */
+    public boolean mightContain(String hash) {
+        BloomFilter filter = current;
+        if (filter == null) {
+            return true;
+        }
+        if (filter.mightContain(hash)) {
+            return true;
+        }
+        skippedLookups.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Record the outcome of a lookup the filter did not rule out, for the observed false-positive rate
+     */
+    public void recordLookup(boolean found) {
+        if (current == null) {
+            return;
+        }
+        if (!found) {
+            falsePositives.incrementAndGet();
+        }
+    }
+
+    /**
+     * Register a newly stored hash
+     */
+    public void add(String hash) {
+        BloomFilter filter = current;
+        if (filter != null) {
+            filter.put(hash);
+        }
+        BloomFilter building = next;
+        if (building != null) {
+            building.put(hash);
+        }
+    }
+
+    /**
+     * Build the filter on startup and rebuild it periodically to shed deleted hashes
+     */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${s3.dedupe.hash-filter.rebuild-interval:PT6H}")
+    public void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        long started = System.currentTimeMillis();
+        LocalDateTime scanStart = LocalDateTime.now();
+        try {
+            long count = fileRepository.count();
+            // Leave room for growth until the next rebuild
+            BloomFilter building = BloomFilter.create(Math.max(count * 2, minExpectedInsertions), falsePositiveRate);
+            next = building;
+
+            long scanned = 0;
+            long afterId = 0;
+            while (true) {
+                List<Object[]> batch = fileRepository.findHashValueBatch(afterId, PageRequest.of(0, SCAN_BATCH_SIZE));
+                for (Object[] row : batch) {
+                    building.put((String) row[1]);
+                    afterId = (Long) row[0];
+                }
+                scanned += batch.size();
+                if (batch.size() < SCAN_BATCH_SIZE) {
+                    break;
+                }
+            }
+            // Catch rows whose insert was in flight when the scan started and committed behind it
+            for (String hash : fileRepository.findHashValuesCreatedSince(scanStart.minus(INSERT_GRACE))) {
+                building.put(hash);
+            }
+
+            current = building;
+            log.info("Built content hash filter: hashes={}, bits={}, hashFunctions={}, memoryBytes={}, took={}ms",
+                    scanned, building.getBitCount(), building.getHashFunctions(), building.memoryBytes(),
+                    System.currentTimeMillis() - started);
+        } catch (Exception e) {
+            log.warn("Failed to build content hash filter, keeping the previous one: {}", e.getMessage());
+        } finally {
+            next = null;
+        }
+    }
+
+    /**
+     * Share of lookups the filter let through that found nothing
+     */
+    public double observedFalsePositiveRate() {
+        long positives = falsePositives.get();
+        long negatives = skippedLookups.get();
+        return positives + negatives == 0 ? 0 : (double) positives / (positives + negatives);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("s3proxy.hashfilter.memory", this, f -> f.current == null ? 0 : f.current.memoryBytes())
+                .description("Memory used by the content hash Bloom filter")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("s3proxy.hashfilter.fpp.expected", this,
+                        f -> f.current == null ? 0 : f.current.expectedFalsePositiveRate())
+                .description("Expected false-positive probability for the current fill")
+                .register(registry);
+        Gauge.builder("s3proxy.hashfilter.fpp.observed", this, ContentHashFilter::observedFalsePositiveRate)
+                .description("Filter positives that found nothing, over all lookups for absent hashes")
+                .register(registry);
+        FunctionCounter.builder("s3proxy.hashfilter.lookups.skipped", skippedLookups, AtomicLong::get)
+                .description("Database lookups skipped because the hash was definitely absent")
+                .register(registry);
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.s3proxy.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Streams request bodies to local staging files while hashing them.
+ * <p>
+ * Each {@link DataBuffer} is fed into an incremental content digest and then
+ * written to disk, so the memory used per upload is bounded by the buffers in
+ * flight rather than by the size of the object. Buffers are handed from the
+ * event loop to the blocking I/O scheduler before they are hashed, as a BLAKE3
+ * digest may wait for its segment hashes to finish.
+ * </p>
+ */
+@Service
+public class ContentStagingService {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentStagingService.class);
+
+    /** Buffers queued between the event loop and the thread hashing them */
+    private static final int PREFETCH = 16;
+
+    private final HashService hashService;
+    private final Scheduler blockingIoScheduler;
+    private final Path stagingDirectory;
+
+    public ContentStagingService(HashService hashService,
+                                 Scheduler blockingIoScheduler,
+                                 @Value("${s3.staging.directory:${java.io.tmpdir}/s3-proxy-staging}") String stagingDirectory) {
+        this.hashService = hashService;
+        this.blockingIoScheduler = blockingIoScheduler;
+        this.stagingDirectory = Paths.get(stagingDirectory);
+    }
+
+    /**
+     * Spool the given body to a staging file, computing its content hash and size on the way
+     */
+    public Mono<StagedContent> stage(Flux<DataBuffer> body) {
+        return stage(body, hashService::newContentDigest);
+    }
+
+    /**
+     * Spool a multipart upload part to a staging file. The recorded hash is the part's MD5,
+     * which is what S3 clients expect as the part ETag.
+     */
+    public Mono<StagedContent> stagePart(Flux<DataBuffer> body) {
+        return stage(body, () -> hashService.newContentDigest("MD5"));
+    }
+
+    private Mono<StagedContent> stage(Flux<DataBuffer> body, Supplier<ContentDigest> digestSupplier) {
+        return Mono.defer(() -> {
+            Path file;
+            try {
+                Files.createDirectories(stagingDirectory);
+                file = Files.createTempFile(stagingDirectory, "upload-", ".tmp");
+            } catch (IOException e) {
+                return Mono.error(e);
+            }
+
+            ContentDigest digest = digestSupplier.get();
+            AtomicLong size = new AtomicLong();
+            Flux<DataBuffer> hashed = body
+                    .publishOn(blockingIoScheduler, PREFETCH)
+                    .doOnNext(buffer -> {
+                        size.addAndGet(buffer.readableByteCount());
+                        try (DataBuffer.ByteBufferIterator iterator = buffer.readableByteBuffers()) {
+                            while (iterator.hasNext()) {
+                                ByteBuffer byteBuffer = iterator.next();
+                                digest.update(byteBuffer);
+                            }
+                        }
+                    })
+                    // Buffers still queued when the upload fails or is cancelled
+                    .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+
+            return DataBufferUtils.write(hashed, file)
+                    .publishOn(blockingIoScheduler)
+                    .then(Mono.fromCallable(() -> {
+                        StagedContent staged = new StagedContent(file, digest.finish(), size.get());
+                        log.debug("Staged upload: file={}, size={}, hash={}", file, staged.getSize(), staged.getHash());
+                        return staged;
+                    }))
+                    .doOnError(e -> deleteQuietly(file))
+                    .doOnCancel(() -> deleteQuietly(file));
+        }).subscribeOn(blockingIoScheduler);
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete staging file: {}", file, e);
+        }
+    }
+}
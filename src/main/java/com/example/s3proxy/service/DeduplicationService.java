@@ -4,22 +4,32 @@ import com.example.s3proxy.entity.FileEntity;
 import com.example.s3proxy.entity.UserFileEntity;
 import com.example.s3proxy.repository.FileRepository;
 import com.example.s3proxy.repository.UserFileRepository;
+import com.example.s3proxy.util.KeyedLock;
 import io.minio.MinioClient;
 import io.minio.PutObjectArgs;
+import io.minio.UploadObjectArgs;
 import io.minio.GetObjectArgs;
-import io.minio.GetObjectResponse;
-import io.minio.RemoveObjectArgs;
 import io.minio.BucketExistsArgs;
 import io.minio.MakeBucketArgs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -36,7 +46,23 @@ public class DeduplicationService {
     private final UserFileRepository userFileRepository;
     private final HashService hashService;
     private final MinioClient minioClient;
+    private final ChunkStorageService chunkStorageService;
+    private final PackStorageService packStorageService;
+    private final CompressionService compressionService;
+    private final GarbageCollectionService garbageCollectionService;
+    private final ContentHashFilter contentHashFilter;
+    private final FileMetadataCache fileMetadataCache;
+    private final TransactionTemplate transactionTemplate;
+    private final KeyedLock contentLocks = new KeyedLock();
+    static final String OBJECT_STORAGE_PREFIX = "dedupe-data/";
+    /** Placeholder storage path recorded for inline files; no blob exists at this path */
+    private static final String INLINE_STORAGE_PREFIX = "dedupe-inline/";
+    /** Largest page a listing returns, whatever max-keys asks for, as in S3 */
+    public static final int MAX_LIST_KEYS = 1000;
+    /** Rows read by the first query after a seek; doubled while no common prefix turns up */
+    private static final int LIST_SEEK_BATCH_SIZE = 8;
     private final String dedupeStorageBucket;
+    private final long inlineMaxObjectSize;
     
     // Flag to track if we've verified the dedupe bucket exists
     private volatile boolean dedupeStorageBucketChecked = false;
@@ -45,12 +71,32 @@ public class DeduplicationService {
                                UserFileRepository userFileRepository,
                                HashService hashService,
                                MinioClient minioClient,
-                               @Value("${minio.bucket.dedupe-storage}") String dedupeStorageBucket) {
+                               ChunkStorageService chunkStorageService,
+                               PackStorageService packStorageService,
+                               CompressionService compressionService,
+                               GarbageCollectionService garbageCollectionService,
+                               ContentHashFilter contentHashFilter,
+                               FileMetadataCache fileMetadataCache,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${minio.bucket.dedupe-storage}") String dedupeStorageBucket,
+                               @Value("${s3.dedupe.inline.max-object-size:0B}") DataSize inlineMaxObjectSize) {
+        if (inlineMaxObjectSize.toBytes() > FileEntity.MAX_INLINE_SIZE) {
+            throw new IllegalArgumentException("s3.dedupe.inline.max-object-size must not exceed "
+                    + FileEntity.MAX_INLINE_SIZE + " bytes: " + inlineMaxObjectSize);
+        }
         this.fileRepository = fileRepository;
         this.userFileRepository = userFileRepository;
         this.hashService = hashService;
         this.minioClient = minioClient;
+        this.chunkStorageService = chunkStorageService;
+        this.packStorageService = packStorageService;
+        this.compressionService = compressionService;
+        this.garbageCollectionService = garbageCollectionService;
+        this.contentHashFilter = contentHashFilter;
+        this.fileMetadataCache = fileMetadataCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
         this.dedupeStorageBucket = dedupeStorageBucket;
+        this.inlineMaxObjectSize = inlineMaxObjectSize.toBytes();
     }
     
     /**
@@ -85,6 +131,7 @@ public class DeduplicationService {
     /**
      * Store a file with deduplication logic
      */
+    @Transactional(propagation = Propagation.SUPPORTS)
     public String putObject(String bucket, String key, byte[] data, String contentType, Map<String, String> userMetadata) throws Exception {
         log.info("Storing file with deduplication: bucket={}, key={}, size={}", bucket, key, data.length);
 
@@ -92,58 +139,237 @@ public class DeduplicationService {
         ensureDedupeStorageBucketExists();
 
         // Calculate hash
-        String hash = hashService.calculateSHA256(data);
-        log.debug("Calculated SHA-256 hash: {}", hash);
+        String hash = hashService.calculateContentHash(data);
+        log.debug("Calculated {} hash: {}", hashService.getContentHashAlgorithm(), hash);
 
-        Map<String, String> metadata = sanitizeMetadata(userMetadata);
-        LocalDateTime lastModified = resolveLastModified(metadata);
-        
-        // Check if file already exists
-        Optional<FileEntity> existingFile = fileRepository.findByHashValue(hash);
-        
-        FileEntity fileEntity;
-        String etag;
-        
-        if (existingFile.isPresent()) {
-            // File exists - increment reference count atomically
-            log.info("File already exists in storage, incrementing reference count: hash={}", hash);
-            fileEntity = existingFile.get();
-            fileRepository.incrementReferenceCount(fileEntity.getId());
-            // Refresh entity to get updated reference count
-            fileEntity = fileRepository.findById(fileEntity.getId()).orElse(fileEntity);
-            etag = hash.substring(0, 16); // Use hash prefix as ETag
-        } else {
-            // File doesn't exist - store in MinIO and create database record
-            log.info("New file - storing in MinIO: hash={}", hash);
-            
-            String storagePath = "dedupe-data/" + hash;
-            
+        return storeObject(bucket, key, hash, data.length, contentType, userMetadata, () -> new ByteArrayInputStream(data), storagePath -> {
             try (InputStream inputStream = new ByteArrayInputStream(data)) {
                 PutObjectArgs.Builder argsBuilder = PutObjectArgs.builder()
                         .bucket(dedupeStorageBucket) // Use configurable bucket for content-addressed storage
                         .object(storagePath)
                         .stream(inputStream, data.length, -1);
-                
+
                 if (contentType != null) {
                     argsBuilder.contentType(contentType);
                 }
-                
+
                 minioClient.putObject(argsBuilder.build());
             }
-            
-            // Create file record
-            fileEntity = new FileEntity(hash, (long) data.length, contentType, storagePath);
+        });
+    }
+
+    /**
+     * Store a file that has already been spooled to a staging file.
+     * The hash was computed while streaming, so the content is promoted straight
+     * from disk to its content-addressed location without being buffered in memory.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public String putObject(String bucket, String key, StagedContent content, String contentType, Map<String, String> userMetadata) throws Exception {
+        log.info("Storing staged file with deduplication: bucket={}, key={}, size={}", bucket, key, content.getSize());
+
+        ensureDedupeStorageBucketExists();
+
+        return storeObject(bucket, key, content.getHash(), content.getSize(), contentType, userMetadata, content::openStream, storagePath -> {
+            UploadObjectArgs.Builder argsBuilder = UploadObjectArgs.builder()
+                    .bucket(dedupeStorageBucket)
+                    .object(storagePath)
+                    .filename(content.getFile().toString());
+
+            if (contentType != null) {
+                argsBuilder.contentType(contentType);
+            }
+
+            minioClient.uploadObject(argsBuilder.build());
+        });
+    }
+
+    /**
+     * Store content whose hash and size are already known, such as a completed multipart upload.
+     * The writer is only invoked when the content is new and stored as a single blob, and must
+     * place it at the given storage path of the dedupe bucket (for example by composing already
+     * uploaded parts). New content that is chunked is read from {@code contentSource} instead.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public String putObject(String bucket, String key, String hash, long size, BlobWriter blobWriter,
+                            ContentSource contentSource, String contentType, Map<String, String> userMetadata) throws Exception {
+        log.info("Storing assembled file with deduplication: bucket={}, key={}, size={}", bucket, key, size);
+
+        ensureDedupeStorageBucketExists();
+
+        return storeObject(bucket, key, hash, size, contentType, userMetadata, contentSource, blobWriter);
+    }
+
+    /**
+     * Store the object in a transaction of its own, unless the caller already runs one. The
+     * content lock only orders uploads within this process, and the hash filter only knows
+     * the hashes it was built from and those inserted here since; when either lets the file
+     * insert run into the unique hash constraint, the content is stored already, so the
+     * upload is retried once in a fresh transaction that looks the hash up and references it.
+     * New content is written only after its file record is inserted, so the losing attempt
+     * has written nothing but bytes appended to a pack, which stay dead until compaction.
+     * A caller's transaction cannot be retried, so the filter is not trusted inside one.
+     */
+    private String storeObject(String bucket, String key, String hash, long size, String contentType,
+                               Map<String, String> userMetadata, ContentSource contentSource,
+                               BlobWriter blobWriter) throws Exception {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return storeObjectOnce(bucket, key, hash, size, contentType, userMetadata, contentSource, blobWriter, false);
+        }
+        try {
+            return storeObjectInTransaction(bucket, key, hash, size, contentType, userMetadata, contentSource, blobWriter);
+        } catch (DataIntegrityViolationException e) {
+            log.info("Content was stored concurrently, retrying as a duplicate: hash={}, cause={}", hash, e.getMessage());
+            contentHashFilter.add(hash);
+            return storeObjectInTransaction(bucket, key, hash, size, contentType, userMetadata, contentSource, blobWriter);
+        }
+    }
+
+    private String storeObjectInTransaction(String bucket, String key, String hash, long size, String contentType,
+                                            Map<String, String> userMetadata, ContentSource contentSource,
+                                            BlobWriter blobWriter) throws Exception {
+        try {
+            return transactionTemplate.execute(status -> {
+                try {
+                    return storeObjectOnce(bucket, key, hash, size, contentType, userMetadata, contentSource, blobWriter, true);
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new UndeclaredThrowableException(e);
+                }
+            });
+        } catch (UndeclaredThrowableException e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    private String storeObjectOnce(String bucket, String key, String hash, long size, String contentType,
+                                   Map<String, String> userMetadata, ContentSource contentSource,
+                                   BlobWriter blobWriter, boolean trustHashFilter) throws Exception {
+        Map<String, String> metadata = sanitizeMetadata(userMetadata);
+        LocalDateTime lastModified = resolveLastModified(metadata);
+
+        // Single-flight per hash: concurrent uploads of the same content wait for the first one to commit
+        KeyedLock.Handle contentLock = contentLocks.lock(hash);
+        if (contentLock.wasContended()) {
+            log.info("Waited for concurrent upload of the same content: hash={}", hash);
+        }
+        boolean releaseOnCompletion = releaseAfterTransaction(contentLock);
+        try {
+            return storeObjectLocked(bucket, key, hash, size, contentType, metadata, lastModified, contentSource, blobWriter,
+                    trustHashFilter);
+        } finally {
+            if (!releaseOnCompletion) {
+                contentLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Hold the lock until the surrounding transaction has committed or rolled back, so the
+     * next upload of the same content sees the committed file record instead of racing on
+     * the unique hash constraint.
+     *
+     * @return false when there is no transaction and the caller must release the lock itself
+     */
+    private boolean releaseAfterTransaction(KeyedLock.Handle lock) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return false;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                lock.unlock();
+            }
+        });
+        return true;
+    }
+
+    private FileEntity newFileEntity(String hash, long size, String contentType, String storagePath) {
+        FileEntity fileEntity = new FileEntity(hash, size, contentType, storagePath);
+        fileEntity.setHashAlgorithm(hashService.getContentHashAlgorithm());
+        return fileEntity;
+    }
+
+    private String storeObjectLocked(String bucket, String key, String hash, long size, String contentType,
+                                     Map<String, String> metadata, LocalDateTime lastModified,
+                                     ContentSource contentSource, BlobWriter blobWriter,
+                                     boolean trustHashFilter) throws Exception {
+        // Check if file already exists and take a reference on it atomically
+        FileEntity fileEntity = acquireExistingFile(hash, size, contentType, contentSource, blobWriter, trustHashFilter);
+        String etag;
+        
+        if (fileEntity != null) {
+            log.info("File already exists in storage, incremented reference count: hash={}", hash);
+            etag = hash.substring(0, 16); // Use hash prefix as ETag
+        } else if (contentSource != null && inlineMaxObjectSize > 0 && size <= inlineMaxObjectSize) {
+            // Tiny new file - keep the bytes in the file record itself and skip MinIO entirely
+            log.info("New file - storing inline: hash={}", hash);
+
+            byte[] data;
+            try (InputStream inputStream = contentSource.open()) {
+                data = inputStream.readAllBytes();
+            }
+            fileEntity = newFileEntity(hash, size, contentType, INLINE_STORAGE_PREFIX + hash);
+            fileEntity.setStorageType(FileEntity.StorageType.INLINE);
+            fileEntity.setInlineData(data);
             fileRepository.save(fileEntity);
+            contentHashFilter.add(hash);
+            fileMetadataCache.put(fileEntity);
+            etag = hash.substring(0, 16);
+        } else if (contentSource != null && chunkStorageService.shouldChunk(size)) {
+            // Large new file - store it as a manifest of content-defined chunks shared across files
+            log.info("New file - storing as chunks: hash={}", hash);
+
+            fileEntity = newFileEntity(hash, size, contentType, chunkStorageService.manifestPath(hash));
+            fileEntity.setStorageType(FileEntity.StorageType.CHUNKED);
+            fileRepository.save(fileEntity);
+            contentHashFilter.add(hash);
+            fileMetadataCache.put(fileEntity);
+            try (InputStream inputStream = contentSource.open()) {
+                chunkStorageService.storeChunks(fileEntity, inputStream);
+            }
+            etag = hash.substring(0, 16);
+        } else if (contentSource != null && packStorageService.shouldPack(size)) {
+            // Small new file - append it to a shared pack object instead of creating its own blob
+            log.info("New file - storing in a pack: hash={}", hash);
+
+            byte[] data;
+            try (InputStream inputStream = contentSource.open()) {
+                data = inputStream.readAllBytes();
+            }
+            PackStorageService.PackLocation location = packStorageService.append(data);
+            fileEntity = newFileEntity(hash, size, contentType, location.getStoragePath());
+            fileEntity.setStorageType(FileEntity.StorageType.PACKED);
+            fileEntity.setPackId(location.getPackId());
+            fileEntity.setPackOffset(location.getOffset());
+            fileEntity.setPackLength(location.getLength());
+            fileRepository.save(fileEntity);
+            packStorageService.recordLive(fileEntity);
+            contentHashFilter.add(hash);
+            fileMetadataCache.put(fileEntity);
+            etag = hash.substring(0, 16);
+        } else {
+            // File doesn't exist - create the database record, then store in MinIO
+            log.info("New file - storing in MinIO: hash={}", hash);
+
+            // The insert claims the hash before the blob is written, so an upload that loses the
+            // race on the unique hash constraint never overwrites the blob the winner recorded
+            fileEntity = newFileEntity(hash, size, contentType, OBJECT_STORAGE_PREFIX + hash);
+            fileRepository.save(fileEntity);
+            StoredBlob blob = writeBlob(hash, size, contentType, contentSource, blobWriter);
+            fileEntity.setCompression(blob.compression);
+            fileEntity.setStoredSize(blob.storedSize);
+            contentHashFilter.add(hash);
+            fileMetadataCache.put(fileEntity);
             etag = hash.substring(0, 16);
         }
         
         // Create or update user file mapping
         Optional<UserFileEntity> existingUserFile = userFileRepository.findByBucketAndKey(bucket, key);
         if (existingUserFile.isPresent()) {
-            // Update existing mapping - first decrement old file reference atomically
+            // Update existing mapping - first release the old file, which may have been its last reference
             UserFileEntity oldMapping = existingUserFile.get();
-            FileEntity oldFile = oldMapping.getFile();
-            fileRepository.decrementReferenceCount(oldFile.getId());
+            releaseReference(oldMapping.getFile());
 
             // Update to new file
             oldMapping.setFile(fileEntity);
@@ -158,46 +384,213 @@ public class DeduplicationService {
             userFileRepository.save(userFile);
         }
 
-        // Get the final entity state for logging
-        FileEntity finalEntity = fileRepository.findById(fileEntity.getId()).orElse(fileEntity);
-        log.info("Successfully stored file: bucket={}, key={}, hash={}, new_reference_count={}",
-                bucket, key, hash, finalEntity.getReferenceCount());
+        log.info("Successfully stored file: bucket={}, key={}, hash={}", bucket, key, hash);
 
         return etag;
     }
     
     /**
-     * Get file data by bucket and key
+     * Write new content as its own blob in the dedupe bucket, compressed if the content qualifies
      */
-    public FileData getObject(String bucket, String key) throws Exception {
-        log.info("Getting file: bucket={}, key={}", bucket, key);
-        
-        Optional<UserFileEntity> userFile = userFileRepository.findByBucketAndKey(bucket, key);
+    private StoredBlob writeBlob(String hash, long size, String contentType, ContentSource contentSource,
+                                 BlobWriter blobWriter) throws Exception {
+        String storagePath = OBJECT_STORAGE_PREFIX + hash;
+        FileEntity.Compression compression = contentSource != null
+                ? compressionService.select(contentType, size, contentSource)
+                : FileEntity.Compression.NONE;
+        Long storedSize = null;
+        if (compression != FileEntity.Compression.NONE) {
+            try (InputStream inputStream = contentSource.open()) {
+                storedSize = compressionService.write(compression, inputStream, size, storagePath);
+            }
+            log.info("Stored compressed: hash={}, compression={}, size={}, storedSize={}", hash, compression, size, storedSize);
+        } else {
+            blobWriter.write(storagePath);
+        }
+        return new StoredBlob(storagePath, compression, storedSize);
+    }
+
+    /**
+     * Take a reference on already stored content, or return null when the content is new.
+     * A cache hit is confirmed by the atomic increment itself, so the common case costs a
+     * single update; an entry whose file has been deleted falls back to the database lookup.
+     * Quarantined files are never cached; when the upload matches one, its verified content
+     * replaces the corrupted copy.
+     */
+    private FileEntity acquireExistingFile(String hash, long size, String contentType, ContentSource contentSource,
+                                           BlobWriter blobWriter, boolean trustHashFilter) throws Exception {
+        Optional<FileMetadataCache.CachedFile> cached = fileMetadataCache.get(hash);
+        if (cached.isPresent()) {
+            Long fileId = cached.get().getId();
+            if (fileRepository.incrementReferenceCount(fileId) > 0) {
+                return fileRepository.getReferenceById(fileId);
+            }
+            log.debug("Cached file no longer exists: hash={}", hash);
+            fileMetadataCache.invalidate(hash);
+        }
+
+        Optional<FileEntity> existingFile = findExistingFile(hash, trustHashFilter);
+        if (existingFile.isEmpty()) {
+            return null;
+        }
+        FileEntity fileEntity = existingFile.get();
+        if (fileRepository.incrementReferenceCount(fileEntity.getId()) == 0) {
+            // Claimed by the garbage collector (or just removed by it): the client should retry shortly
+            throw new ContentBusyException(hash);
+        }
+        if (fileEntity.getQuarantinedAt() != null) {
+            restoreQuarantinedFile(fileEntity, size, contentType, contentSource, blobWriter);
+        } else {
+            fileMetadataCache.put(fileEntity);
+        }
+        return fileEntity;
+    }
+
+    /**
+     * The scrubber found the stored content of this file corrupted. The upload carries content
+     * with the same hash, so it is written as a fresh single blob and the file is pointed at it.
+     */
+    private void restoreQuarantinedFile(FileEntity file, long size, String contentType, ContentSource contentSource,
+                                        BlobWriter blobWriter) throws Exception {
+        log.warn("Restoring quarantined file from uploaded content: hash={}, storageType={}", file.getHashValue(), file.getStorageType());
+        StoredBlob blob = writeBlob(file.getHashValue(), size, contentType, contentSource, blobWriter);
+        if (file.getStorageType() == FileEntity.StorageType.CHUNKED) {
+            chunkStorageService.releaseChunks(file.getId());
+        } else if (file.getStorageType() == FileEntity.StorageType.PACKED) {
+            packStorageService.releaseBlob(file);
+        }
+        fileRepository.restoreQuarantined(file.getId(), blob.storagePath, blob.compression, blob.storedSize);
+    }
+
+    private Optional<FileEntity> findExistingFile(String hash, boolean trustHashFilter) {
+        if (trustHashFilter && !contentHashFilter.mightContain(hash)) {
+            log.debug("Hash filter rules out existing content, skipping lookup: hash={}", hash);
+            return Optional.empty();
+        }
+        Optional<FileEntity> existingFile = fileRepository.findByHashValue(hash);
+        contentHashFilter.recordLookup(existingFile.isPresent());
+        return existingFile;
+    }
+
+    /**
+     * Thrown when new content matches a file that the garbage collector is deleting right now.
+     * The window is short; the client should retry the upload.
+     */
+    public static class ContentBusyException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public ContentBusyException(String hash) {
+            super("Content is being deleted, retry the upload: hash=" + hash);
+        }
+    }
+
+    /**
+     * Thrown instead of serving content that failed an integrity check. Uploading the same
+     * content again restores the file.
+     */
+    public static class QuarantinedContentException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public QuarantinedContentException(String hash) {
+            super("Stored content failed its integrity check: hash=" + hash);
+        }
+    }
+
+    /**
+     * Metadata-only lookup of a file by bucket and key.
+     * Everything needed for HEAD responses and conditional request evaluation lives in the
+     * database, so this never touches blob storage.
+     */
+    @Transactional(readOnly = true)
+    public ObjectStat statObject(String bucket, String key) {
+        log.debug("Stat file: bucket={}, key={}", bucket, key);
+
+        Optional<UserFileEntity> userFile = userFileRepository.findWithFileByBucketAndKey(bucket, key);
         if (userFile.isEmpty()) {
             log.debug("File not found: bucket={}, key={}", bucket, key);
             return null;
         }
-        
-        UserFileEntity userFileEntity = userFile.get();
+
+        return toObjectStat(userFile.get());
+    }
+
+    private ObjectStat toObjectStat(UserFileEntity userFileEntity) {
         FileEntity fileEntity = userFileEntity.getFile();
-        log.debug("Found file: hash={}, storage_path={}", fileEntity.getHashValue(), fileEntity.getStoragePath());
+        return new ObjectStat(
+                userFileEntity.getKey(),
+                fileEntity.getHashValue(),
+                fileEntity.getSize(),
+                fileEntity.getContentType(),
+                userFileEntity.getLastModified(),
+                userFileEntity.getMetadata(),
+                new StoredContent(fileEntity));
+    }
 
-        // Get data from MinIO using storage path
-        try (GetObjectResponse response = minioClient.getObject(
-                GetObjectArgs.builder()
-                        .bucket(dedupeStorageBucket) // Use configurable bucket for content-addressed storage
-                        .object(fileEntity.getStoragePath())
-                        .build())) {
+    /**
+     * Look up file data by bucket and key for streaming reads.
+     * No content is read here; the returned handle opens (ranged) MinIO reads on demand,
+     * so callers can push byte ranges down to the backend. Every opened stream must be closed.
+     */
+    @Transactional(readOnly = true)
+    public ObjectStream getObjectStream(String bucket, String key) {
+        ObjectStat stat = statObject(bucket, key);
+        if (stat == null) {
+            return null;
+        }
+        log.info("Streaming file: bucket={}, key={}, hash={}", bucket, key, stat.getHash());
+        if (stat.getContent().quarantined) {
+            throw new QuarantinedContentException(stat.getHash());
+        }
+        if (stat.getContent().storageType == FileEntity.StorageType.CHUNKED) {
+            // Load the manifest while the transaction is open; chunks are fetched lazily
+            List<ChunkStorageService.ChunkRef> manifest = chunkStorageService.loadManifest(stat.getContent().fileId);
+            return new ObjectStream(stat, (offset, length) -> chunkStorageService.openRange(manifest, offset, length));
+        }
+        return new ObjectStream(stat, (offset, length) -> openStoredContent(stat.getContent(), offset, length));
+    }
 
-            byte[] data = response.readAllBytes();
-            return new FileData(
-                    data,
-                    fileEntity.getContentType(),
-                    fileEntity.getHashValue(),
-                    fileEntity.getSize(),
-                    userFileEntity.getLastModified(),
-                    userFileEntity.getMetadata());
+    /**
+     * Open the whole content of a stored file, exactly as a GET would read it
+     */
+    InputStream openContent(FileEntity file) throws Exception {
+        return openStoredContent(new StoredContent(file), 0, -1);
+    }
+
+    /**
+     * Read a byte range of stored content. Only the requested bytes are transferred from MinIO.
+     *
+     * @param length number of bytes to read, or a negative value to read to the end of the blob
+     */
+    private InputStream openStoredContent(StoredContent content, long offset, long length) throws Exception {
+        if (content.storageType == FileEntity.StorageType.INLINE) {
+            byte[] data = content.inlineData;
+            int from = (int) Math.min(offset, data.length);
+            int count = length < 0 ? data.length - from : (int) Math.min(length, data.length - from);
+            return new ByteArrayInputStream(data, from, count);
+        }
+        if (content.storageType == FileEntity.StorageType.CHUNKED) {
+            return chunkStorageService.openRange(chunkStorageService.loadManifest(content.fileId), offset, length);
+        }
+        if (content.storageType == FileEntity.StorageType.PACKED) {
+            // Translate to a range of the pack object, never reading past the end of this blob
+            long available = Math.max(content.packLength - offset, 0);
+            length = length < 0 ? available : Math.min(length, available);
+            offset += content.packOffset;
+        }
+        GetObjectArgs.Builder argsBuilder = GetObjectArgs.builder()
+                .bucket(dedupeStorageBucket) // Use configurable bucket for content-addressed storage
+                .object(content.storagePath);
+        if (content.compression != null && content.compression != FileEntity.Compression.NONE) {
+            // Ranges refer to the uncompressed content: stream the whole blob through the decoder
+            return compressionService.openRange(content.compression, minioClient.getObject(argsBuilder.build()), offset, length);
         }
+        if (offset > 0) {
+            argsBuilder.offset(offset);
+        }
+        if (length >= 0) {
+            argsBuilder.length(length);
+        }
+        return minioClient.getObject(argsBuilder.build());
     }
     
     /**
@@ -214,67 +607,111 @@ public class DeduplicationService {
 
         UserFileEntity entity = userFile.get();
         FileEntity fileEntity = entity.getFile();
-        String hash = fileEntity.getHashValue();
-        String storagePath = fileEntity.getStoragePath();
         
         // Remove user file mapping
         int c = userFileRepository.deleteByBucketAndKey(bucket, key);
         log.info("Successfully deleted file: bucket={}, key={} change = {}", bucket, key,c);
-        // Decrement reference count atomically
-        int updatedRows = fileRepository.decrementReferenceCount(fileEntity.getId());
+        releaseReference(fileEntity);
+        
+        return true;
+    }
+
+    /**
+     * Drop one reference to a file atomically. Once none are left the file is handed to the
+     * garbage collector; MinIO is not touched here.
+     */
+    private void releaseReference(FileEntity file) {
+        Long fileId = file.getId();
+        String hash = file.getHashValue();
+        String storagePath = file.getStoragePath();
+
+        int updatedRows = fileRepository.decrementReferenceCount(fileId);
         log.info("decrementReferenceCount={}", updatedRows);
         // Refresh entity to get updated reference count
-        fileEntity = fileRepository.findById(fileEntity.getId()).orElse(null);
-        
-        // If reference count reaches 0, delete from MinIO and database
+        FileEntity fileEntity = fileRepository.findById(fileId).orElse(null);
+
         if (fileEntity != null && fileEntity.getReferenceCount() == 0) {
-            log.info("Reference count reached 0, deleting from MinIO: hash={}, storage_path={}", hash, storagePath);
-            
-            try {
-                minioClient.removeObject(
-                        RemoveObjectArgs.builder()
-                                .bucket(dedupeStorageBucket) // Use configurable bucket for content-addressed storage
-                                .object(storagePath)
-                                .build());
-            } catch (Exception e) {
-                log.warn("Failed to delete object from MinIO: {}", storagePath, e);
-            }
-            
-            fileRepository.delete(fileEntity);
-            log.info("File completely removed: hash={}", hash);
+            log.info("Reference count reached 0, scheduling deletion: hash={}, storage_path={}", hash, storagePath);
+            garbageCollectionService.schedule(fileEntity);
         } else if (fileEntity != null) {
             log.info("File still has {} references, keeping in storage: hash={}", fileEntity.getReferenceCount(), hash);
         } else {
             log.warn("FileEntity became null after decrement operation for hash={}", hash);
         }
-        
-        return true;
     }
     
     /**
-     * List objects in a bucket with optional prefix filtering
+     * List one page of a bucket in UTF-8 binary key order, the way S3 ListObjects does: keys under
+     * {@code prefix} that sort after {@code startAfter}, where keys containing {@code delimiter}
+     * after the prefix are rolled up into common prefixes. Keys and common prefixes both count
+     * towards {@code maxKeys}, which is capped at {@link #MAX_LIST_KEYS}.
+     * <p>
+     * Rows are read with keyset range scans of the (bucket, object_key_sort) index, at most
+     * {@code maxKeys + 1} keys at a time, so the database work and memory of a page do not
+     * grow with the size of the bucket. The queries project just the listed columns rather
+     * than loading key and file entities. After each common
+     * prefix the next query seeks past all of its keys (skip-scan), so a delimiter listing costs
+     * about one small query per child rather than one row per object below it.
+     * </p>
      */
-    public List<ObjectInfo> listObjects(String bucket, String prefix) throws Exception {
-        log.info("Listing objects: bucket={}, prefix='{}'", bucket, prefix);
-        
-        List<UserFileEntity> userFiles;
-        if (prefix != null && !prefix.isEmpty()) {
-            userFiles = userFileRepository.findByBucketAndKeyStartingWith(bucket, prefix);
-        } else {
-            userFiles = userFileRepository.findByBucketOrderByKey(bucket);
+    @Transactional(readOnly = true)
+    public ListingPage listObjectsPage(String bucket, String prefix, String delimiter, String startAfter, int maxKeys) {
+        String keyPrefix = prefix == null ? "" : prefix;
+        String marker = startAfter == null ? "" : startAfter;
+        boolean rollUp = delimiter != null && !delimiter.isEmpty();
+        int limit = Math.max(0, Math.min(maxKeys, MAX_LIST_KEYS));
+        log.info("Listing objects: bucket={}, prefix='{}', delimiter='{}', startAfter='{}', maxKeys={}",
+                bucket, keyPrefix, delimiter, marker, limit);
+
+        List<ObjectInfo> objects = new ArrayList<>();
+        List<String> commonPrefixes = new ArrayList<>();
+        if (keyPrefix.getBytes(StandardCharsets.UTF_8).length > UserFileEntity.MAX_KEY_BYTES) {
+            // No key can be that long, and sort keys would only compare its first bytes
+            return new ListingPage(objects, commonPrefixes, false, null);
         }
-        
-        log.debug("Found {} user files", userFiles.size());
-        
-        return userFiles.stream()
-                .map(uf -> new ObjectInfo(
-                        uf.getKey(),
-                        uf.getFile().getSize(),
-                        uf.getLastModified(),
-                        uf.getFile().getHashValue(),
-                        uf.getFile().getContentType()
-                ))
-                .collect(java.util.stream.Collectors.toList());
+        // Resume after the marker, or after the whole common prefix the marker falls into
+        String position = marker;
+        String skipping = rollUp && marker.startsWith(keyPrefix) ? commonPrefix(marker, keyPrefix, delimiter) : null;
+        String lastEntry = null;
+        // Rows after a common prefix are thrown away by the seek, so delimiter listings read small batches first
+        int batchSize = rollUp ? LIST_SEEK_BATCH_SIZE : Integer.MAX_VALUE;
+        seek:
+        while (true) {
+            int requested = Math.min(limit - objects.size() - commonPrefixes.size() + 1, batchSize);
+            List<UserFileRepository.ListingEntry> rows = skipping != null
+                    ? userFileRepository.findListingPageSkipping(bucket, keyPrefix, skipping, requested)
+                    : userFileRepository.findListingPage(bucket, keyPrefix, position, requested);
+            for (UserFileRepository.ListingEntry row : rows) {
+                position = row.getKey();
+                skipping = null;
+                if (objects.size() + commonPrefixes.size() == limit) {
+                    return new ListingPage(objects, commonPrefixes, true, lastEntry);
+                }
+                String commonPrefix = rollUp ? commonPrefix(row.getKey(), keyPrefix, delimiter) : null;
+                if (commonPrefix != null) {
+                    commonPrefixes.add(commonPrefix);
+                    lastEntry = commonPrefix;
+                    skipping = commonPrefix;
+                    batchSize = LIST_SEEK_BATCH_SIZE;
+                    continue seek;
+                }
+                objects.add(new ObjectInfo(row.getKey(), row.getSize(), row.getLastModified(),
+                        row.getHashValue(), row.getContentType()));
+                lastEntry = row.getKey();
+            }
+            if (rows.size() < requested) {
+                return new ListingPage(objects, commonPrefixes, false, null);
+            }
+            batchSize = (int) Math.min(Integer.MAX_VALUE, batchSize * 2L);
+        }
+    }
+
+    private static String commonPrefix(String key, String prefix, String delimiter) {
+        int delimiterIndex = key.indexOf(delimiter, prefix.length());
+        if (delimiterIndex <= prefix.length()) {
+            return null;
+        }
+        return key.substring(0, delimiterIndex + delimiter.length());
     }
 
     public CopyResult copyObject(String sourceBucket,
@@ -311,13 +748,17 @@ public class DeduplicationService {
             source.setLastModified(lastModified);
             userFileRepository.save(source);
         } else {
+            // Take the reference first, so replacing a destination that shares the file never releases it
+            if (fileRepository.incrementReferenceCount(fileEntity.getId()) == 0) {
+                // The source was deleted concurrently and the garbage collector claimed its file
+                throw new ContentBusyException(fileEntity.getHashValue());
+            }
             Optional<UserFileEntity> existingDest = userFileRepository.findByBucketAndKey(destinationBucket, destinationKey);
             if (existingDest.isPresent()) {
                 log.debug("Destination exists, replacing: {}:{}", destinationBucket, destinationKey);
                 deleteObject(destinationBucket, destinationKey);
             }
 
-            fileRepository.incrementReferenceCount(fileEntity.getId());
             UserFileEntity destination = new UserFileEntity(destinationBucket, destinationKey, fileEntity);
             destination.setMetadata(metadata);
             destination.setLastModified(lastModified);
@@ -328,6 +769,44 @@ public class DeduplicationService {
         return new CopyResult(etag, lastModified);
     }
     
+    /**
+     * Opens the full content of a file that is about to be stored
+     */
+    @FunctionalInterface
+    public interface ContentSource {
+        InputStream open() throws Exception;
+    }
+
+    /**
+     * Writes the content of a new file to its content-addressed storage path in the dedupe bucket
+     */
+    @FunctionalInterface
+    public interface BlobWriter {
+        void write(String storagePath) throws Exception;
+    }
+
+    /**
+     * One page of a bucket listing; {@code nextMarker} is the last key or common prefix of a truncated page
+     */
+    public static class ListingPage {
+        private final List<ObjectInfo> objects;
+        private final List<String> commonPrefixes;
+        private final boolean truncated;
+        private final String nextMarker;
+
+        public ListingPage(List<ObjectInfo> objects, List<String> commonPrefixes, boolean truncated, String nextMarker) {
+            this.objects = objects;
+            this.commonPrefixes = commonPrefixes;
+            this.truncated = truncated;
+            this.nextMarker = nextMarker;
+        }
+
+        public List<ObjectInfo> getObjects() { return objects; }
+        public List<String> getCommonPrefixes() { return commonPrefixes; }
+        public boolean isTruncated() { return truncated; }
+        public String getNextMarker() { return nextMarker; }
+    }
+
     public static class ObjectInfo {
         private final String key;
         private final long size;
@@ -398,28 +877,113 @@ public class DeduplicationService {
         }
     }
 
-    public static class FileData {
-        private final byte[] data;
-        private final String contentType;
+    /**
+     * Opens a stream over a byte range of stored content
+     */
+    @FunctionalInterface
+    public interface ContentOpener {
+        InputStream open(long offset, long length) throws Exception;
+    }
+
+    /**
+     * Database-backed metadata of a stored object, as returned by {@link #statObject}.
+     */
+    public static class ObjectStat {
+        private final String key;
         private final String hash;
         private final long size;
+        private final String contentType;
         private final LocalDateTime lastModified;
         private final Map<String, String> metadata;
+        private final StoredContent content;
 
-        public FileData(byte[] data, String contentType, String hash, long size, LocalDateTime lastModified, Map<String, String> metadata) {
-            this.data = data;
-            this.contentType = contentType;
+        public ObjectStat(String key, String hash, long size, String contentType, LocalDateTime lastModified, Map<String, String> metadata) {
+            this(key, hash, size, contentType, lastModified, metadata, null);
+        }
+
+        ObjectStat(String key, String hash, long size, String contentType, LocalDateTime lastModified,
+                   Map<String, String> metadata, StoredContent content) {
+            this.key = key;
             this.hash = hash;
             this.size = size;
+            this.contentType = contentType;
             this.lastModified = lastModified;
             this.metadata = metadata == null ? Collections.emptyMap() : Collections.unmodifiableMap(new HashMap<>(metadata));
+            this.content = content;
         }
 
-        public byte[] getData() { return data; }
-        public String getContentType() { return contentType; }
+        public String getKey() { return key; }
         public String getHash() { return hash; }
         public long getSize() { return size; }
+        public String getContentType() { return contentType; }
         public LocalDateTime getLastModified() { return lastModified; }
         public Map<String, String> getMetadata() { return metadata; }
+
+        StoredContent getContent() { return content; }
+    }
+
+    /**
+     * Where the content of a file lives, captured when it is looked up so reads need no further queries
+     */
+    static class StoredContent {
+        private final Long fileId;
+        private final FileEntity.StorageType storageType;
+        private final String storagePath;
+        private final Long packOffset;
+        private final Long packLength;
+        private final byte[] inlineData;
+        private final FileEntity.Compression compression;
+        private final boolean quarantined;
+
+        StoredContent(FileEntity file) {
+            this.fileId = file.getId();
+            this.storageType = file.getStorageType();
+            this.storagePath = file.getStoragePath();
+            this.packOffset = file.getPackOffset();
+            this.packLength = file.getPackLength();
+            this.inlineData = file.getInlineData();
+            this.compression = file.getCompression();
+            this.quarantined = file.getQuarantinedAt() != null;
+        }
+    }
+
+    private static class StoredBlob {
+        private final String storagePath;
+        private final FileEntity.Compression compression;
+        private final Long storedSize;
+
+        private StoredBlob(String storagePath, FileEntity.Compression compression, Long storedSize) {
+            this.storagePath = storagePath;
+            this.compression = compression;
+            this.storedSize = storedSize;
+        }
+    }
+
+    /**
+     * File metadata together with a handle for opening full or ranged content streams.
+     */
+    public static class ObjectStream {
+        private final ObjectStat stat;
+        private final ContentOpener opener;
+
+        public ObjectStream(ObjectStat stat, ContentOpener opener) {
+            this.stat = stat;
+            this.opener = opener;
+        }
+
+        public InputStream openStream() throws Exception {
+            return opener.open(0, -1);
+        }
+
+        public InputStream openStream(long offset, long length) throws Exception {
+            return opener.open(offset, length);
+        }
+
+        public ObjectStat getStat() { return stat; }
+        public String getContentType() { return stat.getContentType(); }
+        public String getHash() { return stat.getHash(); }
+        public long getSize() { return stat.getSize(); }
+        public LocalDateTime getLastModified() { return stat.getLastModified(); }
+        public Map<String, String> getMetadata() { return stat.getMetadata(); }
     }
 }
@@ -0,0 +1,88 @@
+package com.example.s3proxy.service;
+
+import com.example.s3proxy.entity.FileEntity;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Optional;
+
+/**
+ * Bounded in-process cache of the immutable fields of stored files, keyed by content hash.
+ * <p>
+ * Caffeine's W-TinyLFU policy admits a new entry only when it is estimated to be
+ * requested more often than the entry it would evict, so a burst of one-off uploads
+ * cannot flush the popular content out of the cache. Reference counts are not cached;
+ * they always live in the database and callers must confirm a hit with an atomic update.
+ * </p>
+ */
+@Service
+public class FileMetadataCache implements MeterBinder {
+
+    private final Cache<String, CachedFile> cache;
+
+    public FileMetadataCache(@Value("${s3.dedupe.metadata-cache.max-entries:100000}") long maxEntries) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .recordStats()
+                .build();
+    }
+
+    public Optional<CachedFile> get(String hash) {
+        return Optional.ofNullable(cache.getIfPresent(hash));
+    }
+
+    /**
+     * Cache a stored file. Quarantined files are never cached, so a hit never needs the quarantine check.
+     */
+    public void put(FileEntity file) {
+        if (file.getId() != null && file.getQuarantinedAt() == null) {
+            cache.put(file.getHashValue(), new CachedFile(file));
+        }
+    }
+
+    /**
+     * Drop a hash whose file record was deleted or found to be stale
+     */
+    public void invalidate(String hash) {
+        cache.invalidate(hash);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        // Publishes cache.gets{result=hit|miss}, cache.evictions and cache.size
+        CaffeineCacheMetrics.monitor(registry, cache, "s3proxy.file-metadata");
+    }
+
+    /**
+     * Immutable snapshot of a stored file
+     */
+    public static class CachedFile {
+        private final Long id;
+        private final String hashValue;
+        private final Long size;
+        private final String contentType;
+        private final String storagePath;
+        private final FileEntity.StorageType storageType;
+
+        CachedFile(FileEntity file) {
+            this.id = file.getId();
+            this.hashValue = file.getHashValue();
+            this.size = file.getSize();
+            this.contentType = file.getContentType();
+            this.storagePath = file.getStoragePath();
+            this.storageType = file.getStorageType();
+        }
+
+        public Long getId() { return id; }
+        public String getHashValue() { return hashValue; }
+        public Long getSize() { return size; }
+        public String getContentType() { return contentType; }
+        public String getStoragePath() { return storagePath; }
+        public FileEntity.StorageType getStorageType() { return storageType; }
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.s3proxy.service;
+
+import com.example.s3proxy.entity.FileEntity;
+import com.example.s3proxy.repository.FileRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.minio.MinioClient;
+import io.minio.RemoveObjectsArgs;
+import io.minio.Result;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deferred, batched deletion of files that no longer have references.
+ * <p>
+ * Deleting the last reference only stamps the file with {@code delete_after}; the request
+ * never waits for MinIO. This worker later claims expired files (reference count -1, which
+ * an upload can no longer revive), removes their blobs with one {@code removeObjects} call
+ * per batch and then deletes the rows. Until a file is claimed, a re-upload of the same
+ * content simply takes a reference again, so the grace period also covers a delete racing
+ * with a re-upload. Rows whose blob could not be removed stay claimed and are retried.
+ * Chunks released by collected files are claimed the same way, and their blobs are removed
+ * once the releasing transaction has committed.
+ * </p>
+ */
+@Service
+public class GarbageCollectionService implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(GarbageCollectionService.class);
+
+    private final FileRepository fileRepository;
+    private final ChunkStorageService chunkStorageService;
+    private final PackStorageService packStorageService;
+    private final FileMetadataCache fileMetadataCache;
+    private final MinioClient minioClient;
+    private final TransactionTemplate transactionTemplate;
+    private final String dedupeStorageBucket;
+    private final Duration gracePeriod;
+    private final int batchSize;
+    private final AtomicLong pendingFiles = new AtomicLong();
+    private final AtomicLong collectedFiles = new AtomicLong();
+    private final AtomicLong collectedBytes = new AtomicLong();
+
+    public GarbageCollectionService(FileRepository fileRepository,
+                                    ChunkStorageService chunkStorageService,
+                                    PackStorageService packStorageService,
+                                    FileMetadataCache fileMetadataCache,
+                                    MinioClient minioClient,
+                                    PlatformTransactionManager transactionManager,
+                                    @Value("${minio.bucket.dedupe-storage}") String dedupeStorageBucket,
+                                    @Value("${s3.dedupe.gc.grace-period:10m}") Duration gracePeriod,
+                                    @Value("${s3.dedupe.gc.batch-size:1000}") int batchSize) {
+        this.fileRepository = fileRepository;
+        this.chunkStorageService = chunkStorageService;
+        this.packStorageService = packStorageService;
+        this.fileMetadataCache = fileMetadataCache;
+        this.minioClient = minioClient;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.dedupeStorageBucket = dedupeStorageBucket;
+        this.gracePeriod = gracePeriod;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Queue a file whose last reference was just removed. Runs in the caller's transaction.
+     */
+    public void schedule(FileEntity file) {
+        if (fileRepository.scheduleDeletion(file.getId(), LocalDateTime.now().plus(gracePeriod)) > 0) {
+            pendingFiles.incrementAndGet();
+        }
+    }
+
+    @Scheduled(initialDelayString = "${s3.dedupe.gc.interval:PT1M}", fixedDelayString = "${s3.dedupe.gc.interval:PT1M}")
+    public void collect() {
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            int removed;
+            do {
+                removed = collect(now);
+            } while (removed == batchSize);
+            // Also retries chunks whose blob could not be removed, or that were released outside a collection
+            removeClaimedChunks();
+            pendingFiles.set(fileRepository.countGarbage());
+        } catch (Exception e) {
+            log.warn("Garbage collection failed", e);
+        }
+    }
+
+    /**
+     * Collect one batch of files whose grace period ended before {@code now}
+     *
+     * @return the number of files removed; a full batch means more may be waiting
+     */
+    int collect(LocalDateTime now) {
+        List<FileEntity> candidates = transactionTemplate.execute(status ->
+                fileRepository.findGarbage(now, PageRequest.of(0, batchSize)));
+        if (candidates == null || candidates.isEmpty()) {
+            return 0;
+        }
+        List<FileEntity> claimed = transactionTemplate.execute(status -> {
+            List<FileEntity> result = new ArrayList<>();
+            for (FileEntity file : candidates) {
+                if (fileRepository.claimForDeletion(file.getId(), now) > 0) {
+                    result.add(file);
+                }
+            }
+            return result;
+        });
+        if (claimed == null || claimed.isEmpty()) {
+            return 0;
+        }
+
+        Set<String> failedPaths = removeBlobs(claimed);
+        List<FileEntity> removed = new ArrayList<>();
+        for (FileEntity file : claimed) {
+            if (!failedPaths.contains(file.getStoragePath())) {
+                removed.add(file);
+            }
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            List<Long> ids = new ArrayList<>(removed.size());
+            for (FileEntity file : removed) {
+                if (file.getStorageType() == FileEntity.StorageType.CHUNKED) {
+                    chunkStorageService.releaseChunks(file.getId());
+                } else if (file.getStorageType() == FileEntity.StorageType.PACKED) {
+                    packStorageService.releaseBlob(file);
+                }
+                ids.add(file.getId());
+            }
+            fileRepository.deleteAllByIdInBatch(ids);
+        });
+
+        if (removed.stream().anyMatch(file -> file.getStorageType() == FileEntity.StorageType.CHUNKED)) {
+            removeClaimedChunks();
+        }
+
+        for (FileEntity file : removed) {
+            fileMetadataCache.invalidate(file.getHashValue());
+            collectedBytes.addAndGet(file.getStoredSize() != null ? file.getStoredSize() : file.getSize());
+        }
+        collectedFiles.addAndGet(removed.size());
+        log.info("Garbage collected files: candidates={}, claimed={}, removed={}, failed={}",
+                candidates.size(), claimed.size(), removed.size(), claimed.size() - removed.size());
+        return removed.size();
+    }
+
+    private void removeClaimedChunks() {
+        try {
+            int removed;
+            do {
+                removed = chunkStorageService.removeClaimedChunks(batchSize);
+            } while (removed == batchSize);
+        } catch (Exception e) {
+            log.warn("Failed to remove claimed chunks", e);
+        }
+    }
+
+    /**
+     * Remove the blobs of single-object files in one request
+     *
+     * @return storage paths that could not be removed
+     */
+    private Set<String> removeBlobs(List<FileEntity> files) {
+        List<DeleteObject> objects = new ArrayList<>();
+        for (FileEntity file : files) {
+            if (file.getStorageType() == FileEntity.StorageType.OBJECT) {
+                objects.add(new DeleteObject(file.getStoragePath()));
+            }
+        }
+        Set<String> failed = new HashSet<>();
+        if (objects.isEmpty()) {
+            return failed;
+        }
+        try {
+            Iterable<Result<DeleteError>> results = minioClient.removeObjects(RemoveObjectsArgs.builder()
+                    .bucket(dedupeStorageBucket)
+                    .objects(objects)
+                    .build());
+            for (Result<DeleteError> result : results) {
+                DeleteError error = result.get();
+                log.warn("Failed to delete blob from MinIO: {} ({})", error.objectName(), error.message());
+                failed.add(error.objectName());
+            }
+        } catch (Exception e) {
+            log.warn("Failed to delete {} blobs from MinIO", objects.size(), e);
+            for (FileEntity file : files) {
+                if (file.getStorageType() == FileEntity.StorageType.OBJECT) {
+                    failed.add(file.getStoragePath());
+                }
+            }
+        }
+        return failed;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("s3proxy.gc.pending", pendingFiles, AtomicLong::get)
+                .description("Files without references waiting for garbage collection")
+                .register(registry);
+        FunctionCounter.builder("s3proxy.gc.collected.files", collectedFiles, AtomicLong::get)
+                .description("Files removed by garbage collection")
+                .register(registry);
+        FunctionCounter.builder("s3proxy.gc.collected.bytes", collectedBytes, AtomicLong::get)
+                .description("Stored bytes released by garbage collection")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+}
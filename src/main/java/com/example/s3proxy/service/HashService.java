@@ -1,15 +1,119 @@
 package com.example.s3proxy.service;
 
+import com.example.s3proxy.util.Blake3;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+/**
+ * Hashing of stored content.
+ * <p>
+ * Content hashes use the configured {@code s3.dedupe.hash.algorithm}: SHA-256 (the default)
+ * or BLAKE3. BLAKE3 is a tree hash, so large objects are hashed in 1 MiB segments on up to
+ * {@code s3.dedupe.hash.parallelism} threads. The algorithm is recorded on every file, so
+ * files hashed before a change stay valid, but identical content hashed with different
+ * algorithms is not deduplicated. Chunk hashes and the SHA-256 helpers are not affected
+ * by the setting.
+ * </p>
+ */
 @Service
 public class HashService {
-    
+
+    private static final Logger log = LoggerFactory.getLogger(HashService.class);
+
+    public static final String SHA_256 = "SHA-256";
+    public static final String BLAKE3 = "BLAKE3";
+
     private static final int BUFFER_SIZE = 8192;
-    
+
+    private final String contentHashAlgorithm;
+    private final int parallelism;
+    private final ExecutorService executor;
+
+    /**
+     * SHA-256 content hashes, computed on the calling thread
+     */
+    public HashService() {
+        this(SHA_256, 1);
+    }
+
+    @Autowired
+    public HashService(@Value("${s3.dedupe.hash.algorithm:SHA-256}") String algorithm,
+                       @Value("${s3.dedupe.hash.parallelism:0}") int parallelism) {
+        if (SHA_256.equalsIgnoreCase(algorithm)) {
+            this.contentHashAlgorithm = SHA_256;
+        } else if (BLAKE3.equalsIgnoreCase(algorithm)) {
+            this.contentHashAlgorithm = BLAKE3;
+        } else {
+            throw new IllegalArgumentException("Unsupported content hash algorithm: " + algorithm);
+        }
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.executor = this.parallelism > 1 ? Executors.newFixedThreadPool(this.parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "content-hash");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        log.info("Content hash algorithm: {}, parallelism={}", contentHashAlgorithm, this.parallelism);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Algorithm of the hashes produced by {@link #newContentDigest()}
+     */
+    public String getContentHashAlgorithm() {
+        return contentHashAlgorithm;
+    }
+
+    /**
+     * Create a digest for the hash that identifies new content
+     */
+    public ContentDigest newContentDigest() {
+        return newContentDigest(contentHashAlgorithm);
+    }
+
+    /**
+     * Create a digest for the given algorithm: BLAKE3 or any {@link MessageDigest} algorithm,
+     * e.g. to verify content against the algorithm recorded for it
+     */
+    public ContentDigest newContentDigest(String algorithm) {
+        if (BLAKE3.equalsIgnoreCase(algorithm)) {
+            return new Blake3ContentDigest(executor, parallelism);
+        }
+        try {
+            return new MessageDigestContentDigest(MessageDigest.getInstance(algorithm));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported hash algorithm: " + algorithm, e);
+        }
+    }
+
+    /**
+     * Calculate the content hash of a byte array with the configured algorithm
+     */
+    public String calculateContentHash(byte[] data) {
+        ContentDigest digest = newContentDigest();
+        digest.update(data, 0, data.length);
+        return digest.finish();
+    }
+
     /**
      * Calculate SHA-256 hash of input stream
      */
@@ -17,15 +121,15 @@ public class HashService {
         MessageDigest digest = MessageDigest.getInstance("SHA-256");
         byte[] buffer = new byte[BUFFER_SIZE];
         int bytesRead;
-        
+
         while ((bytesRead = inputStream.read(buffer)) != -1) {
             digest.update(buffer, 0, bytesRead);
         }
-        
+
         byte[] hashBytes = digest.digest();
         return bytesToHex(hashBytes);
     }
-    
+
     /**
      * Calculate SHA-256 hash of byte array
      */
@@ -34,12 +138,222 @@ public class HashService {
         byte[] hashBytes = digest.digest(data);
         return bytesToHex(hashBytes);
     }
-    
-    private String bytesToHex(byte[] bytes) {
+
+    private static String bytesToHex(byte[] bytes) {
         StringBuilder result = new StringBuilder();
         for (byte b : bytes) {
             result.append(String.format("%02x", b));
         }
         return result.toString();
     }
-}
\ No newline at end of file
+
+    private static class MessageDigestContentDigest implements ContentDigest {
+        private final MessageDigest digest;
+
+        private MessageDigestContentDigest(MessageDigest digest) {
+            this.digest = digest;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return digest.getAlgorithm();
+        }
+
+        @Override
+        public void update(byte[] input, int offset, int length) {
+            digest.update(input, offset, length);
+        }
+
+        @Override
+        public void update(ByteBuffer input) {
+            digest.update(input);
+        }
+
+        @Override
+        public ContentDigest copy() {
+            try {
+                return new MessageDigestContentDigest((MessageDigest) digest.clone());
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException("Digest does not support incremental chaining: " + digest.getAlgorithm(), e);
+            }
+        }
+
+        @Override
+        public String finish() {
+            return bytesToHex(digest.digest());
+        }
+    }
+
+    /**
+     * BLAKE3 digest that hashes complete 1 MiB segments on the executor.
+     * <p>
+     * Input is buffered until a whole subtree is available and more input follows it, since
+     * the final chunk has to be finalized by the {@link Blake3.Hasher}. Segments are pushed
+     * back in order, with at most {@code maxPending} of them in flight per digest. Without an
+     * executor everything is hashed on the calling thread.
+     * </p>
+     */
+    static class Blake3ContentDigest implements ContentDigest {
+        static final int SEGMENT_CHUNKS = 1024;
+        static final int SEGMENT_SIZE = SEGMENT_CHUNKS * Blake3.CHUNK_LEN;
+
+        private final Blake3.Hasher hasher;
+        private final ExecutorService executor;
+        private final int maxPending;
+        private final ArrayDeque<Segment> pending = new ArrayDeque<>();
+        private final ArrayDeque<byte[]> spareBuffers = new ArrayDeque<>();
+        // Chunks handed to subtrees so far; the buffer holds the content that follows them
+        private long position;
+        private byte[] buffer;
+        private int bufferLength;
+
+        Blake3ContentDigest(ExecutorService executor, int maxPending) {
+            this(new Blake3.Hasher(), executor, maxPending, 0, new byte[0]);
+        }
+
+        private Blake3ContentDigest(Blake3.Hasher hasher, ExecutorService executor, int maxPending,
+                                    long position, byte[] buffer) {
+            this.hasher = hasher;
+            this.executor = executor;
+            this.maxPending = Math.max(1, maxPending);
+            this.position = position;
+            this.buffer = buffer;
+            this.bufferLength = buffer.length;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return BLAKE3;
+        }
+
+        @Override
+        public void update(byte[] input, int offset, int length) {
+            if (executor == null) {
+                hasher.update(input, offset, length);
+                return;
+            }
+            while (length > 0) {
+                int subtreeSize = subtreeChunks() * Blake3.CHUNK_LEN;
+                if (bufferLength == subtreeSize) {
+                    // More input follows, so the buffered subtree does not end the content
+                    hashBuffered();
+                    continue;
+                }
+                int take = Math.min(subtreeSize - bufferLength, length);
+                ensureCapacity(bufferLength + take);
+                System.arraycopy(input, offset, buffer, bufferLength, take);
+                bufferLength += take;
+                offset += take;
+                length -= take;
+            }
+        }
+
+        @Override
+        public void update(ByteBuffer input) {
+            if (input.hasArray()) {
+                update(input.array(), input.arrayOffset() + input.position(), input.remaining());
+                input.position(input.limit());
+                return;
+            }
+            byte[] bytes = new byte[Math.min(input.remaining(), 64 * 1024)];
+            while (input.hasRemaining()) {
+                int length = Math.min(bytes.length, input.remaining());
+                input.get(bytes, 0, length);
+                update(bytes, 0, length);
+            }
+        }
+
+        /**
+         * Copies only carry the last, possibly final, chunk: everything before it is hashed first
+         */
+        @Override
+        public ContentDigest copy() {
+            if (executor == null) {
+                return new Blake3ContentDigest(hasher.copy(), null, maxPending, 0, new byte[0]);
+            }
+            drainPending();
+            int offset = 0;
+            int chunks = bufferLength > 0 ? (bufferLength - 1) / Blake3.CHUNK_LEN : 0;
+            while (chunks > 0) {
+                // Largest subtree that fits and is aligned to the current position
+                int subtree = Integer.highestOneBit(chunks);
+                if (position > 0) {
+                    subtree = (int) Math.min(subtree, Long.lowestOneBit(position));
+                }
+                hasher.pushSubtree(Blake3.subtreeChainingValue(buffer, offset, position, subtree), subtree);
+                position += subtree;
+                offset += subtree * Blake3.CHUNK_LEN;
+                chunks -= subtree;
+            }
+            bufferLength -= offset;
+            System.arraycopy(buffer, offset, buffer, 0, bufferLength);
+            return new Blake3ContentDigest(hasher.copy(), executor, maxPending, position, Arrays.copyOf(buffer, bufferLength));
+        }
+
+        @Override
+        public String finish() {
+            if (executor != null) {
+                drainPending();
+                hasher.update(buffer, 0, bufferLength);
+            }
+            return bytesToHex(hasher.finish());
+        }
+
+        private int subtreeChunks() {
+            return position == 0 ? SEGMENT_CHUNKS : (int) Math.min(SEGMENT_CHUNKS, Long.lowestOneBit(position));
+        }
+
+        private void hashBuffered() {
+            int chunks = bufferLength / Blake3.CHUNK_LEN;
+            if (chunks == SEGMENT_CHUNKS) {
+                if (pending.size() >= maxPending) {
+                    push(pending.removeFirst());
+                }
+                byte[] data = buffer;
+                long firstChunk = position;
+                pending.addLast(new Segment(data,
+                        executor.submit(() -> Blake3.subtreeChainingValue(data, 0, firstChunk, SEGMENT_CHUNKS))));
+                buffer = spareBuffers.isEmpty() ? new byte[SEGMENT_SIZE] : spareBuffers.removeFirst();
+            } else {
+                drainPending();
+                hasher.pushSubtree(Blake3.subtreeChainingValue(buffer, 0, position, chunks), chunks);
+            }
+            position += chunks;
+            bufferLength = 0;
+        }
+
+        private void drainPending() {
+            while (!pending.isEmpty()) {
+                push(pending.removeFirst());
+            }
+        }
+
+        private void push(Segment segment) {
+            try {
+                hasher.pushSubtree(segment.chainingValue.get(), SEGMENT_CHUNKS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while hashing content", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to hash content segment", e.getCause());
+            }
+            spareBuffers.addLast(segment.data);
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (buffer.length < capacity) {
+                buffer = Arrays.copyOf(buffer, Math.min(SEGMENT_SIZE, Math.max(capacity, Math.max(BUFFER_SIZE, buffer.length * 2))));
+            }
+        }
+
+        private static class Segment {
+            private final byte[] data;
+            private final Future<int[]> chainingValue;
+
+            private Segment(byte[] data, Future<int[]> chainingValue) {
+                this.data = data;
+                this.chainingValue = chainingValue;
+            }
+        }
+    }
+}
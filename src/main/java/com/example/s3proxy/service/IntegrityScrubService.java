@@ -0,0 +1,290 @@
+package com.example.s3proxy.service;
+
+import com.example.s3proxy.entity.FileEntity;
+import com.example.s3proxy.entity.ScrubCheckpointEntity;
+import com.example.s3proxy.repository.FileRepository;
+import com.example.s3proxy.repository.ScrubCheckpointRepository;
+import com.example.s3proxy.util.Throttle;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.minio.errors.ErrorResponseException;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.EOFException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipException;
+
+/**
+ * Background integrity scrubber for stored content.
+ * <p>
+ * Bit rot or a truncated blob would otherwise only be noticed when a user downloads the
+ * object. The scrubber walks referenced files in keyset-paged batches, reads each one the
+ * way a GET would (inline, packed, chunked or compressed), recomputes its hash with the
+ * algorithm recorded for it and compares it with {@code hash_value}. Reads are spread over
+ * {@code parallelism} threads and paced to {@code max-bytes-per-second}.
+ * </p>
+ * <p>
+ * The highest verified file id is checkpointed after every batch in
+ * {@code minio_scrub_checkpoints}, so a restart resumes the pass instead of starting over.
+ * A file whose content does not match, or whose blob is missing, is quarantined: reads of
+ * it fail instead of serving corrupted bytes, and the next upload of the same content
+ * restores it. Read errors that say nothing about the content, such as timeouts, are only
+ * counted, and the file is verified again in the next pass.
+ * </p>
+ */
+@Service
+public class IntegrityScrubService implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(IntegrityScrubService.class);
+
+    static final String CHECKPOINT_NAME = "content-scrub";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileRepository fileRepository;
+    private final ScrubCheckpointRepository checkpointRepository;
+    private final DeduplicationService deduplicationService;
+    private final HashService hashService;
+    private final FileMetadataCache fileMetadataCache;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int parallelism;
+    private final int batchSize;
+    private final long maxBytesPerSecond;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final ExecutorService passExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "integrity-scrub-pass");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> scheduledPass;
+    private final AtomicLong verifiedFiles = new AtomicLong();
+    private final AtomicLong verifiedBytes = new AtomicLong();
+    private final AtomicLong corruptedFiles = new AtomicLong();
+    private final AtomicLong readErrors = new AtomicLong();
+    private final AtomicLong quarantinedFiles = new AtomicLong();
+
+    public IntegrityScrubService(FileRepository fileRepository,
+                                 ScrubCheckpointRepository checkpointRepository,
+                                 DeduplicationService deduplicationService,
+                                 HashService hashService,
+                                 FileMetadataCache fileMetadataCache,
+                                 PlatformTransactionManager transactionManager,
+                                 @Value("${s3.dedupe.scrub.enabled:false}") boolean enabled,
+                                 @Value("${s3.dedupe.scrub.parallelism:2}") int parallelism,
+                                 @Value("${s3.dedupe.scrub.batch-size:100}") int batchSize,
+                                 @Value("${s3.dedupe.scrub.max-bytes-per-second:50MB}") DataSize maxBytesPerSecond) {
+        this.fileRepository = fileRepository;
+        this.checkpointRepository = checkpointRepository;
+        this.deduplicationService = deduplicationService;
+        this.hashService = hashService;
+        this.fileMetadataCache = fileMetadataCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+        this.maxBytesPerSecond = maxBytesPerSecond.toBytes();
+    }
+
+    @PreDestroy
+    void stop() {
+        passExecutor.shutdownNow();
+    }
+
+    /**
+     * Start a pass on the scrubber's own thread unless one is already under way.
+     * A pass can take hours, and the shared scheduler thread also runs garbage
+     * collection and the other maintenance jobs.
+     */
+    @Scheduled(initialDelayString = "${s3.dedupe.scrub.initial-delay:PT5M}", fixedDelayString = "${s3.dedupe.scrub.interval:PT24H}")
+    public synchronized void scheduledScrub() {
+        if (!enabled || (scheduledPass != null && !scheduledPass.isDone())) {
+            return;
+        }
+        scheduledPass = passExecutor.submit(() -> {
+            try {
+                scrub();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.warn("Integrity scrub failed", e);
+            }
+        });
+    }
+
+    /**
+     * Continue the current pass from its checkpoint until every file has been verified
+     *
+     * @return the number of files quarantined by this run
+     */
+    public int scrub() throws InterruptedException {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("Integrity scrub is already running");
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+            Thread thread = new Thread(runnable, "integrity-scrub");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            quarantinedFiles.set(fileRepository.countByQuarantinedAtIsNotNull());
+            ScrubCheckpointEntity checkpoint = checkpointRepository.findById(CHECKPOINT_NAME)
+                    .orElseGet(() -> new ScrubCheckpointEntity(CHECKPOINT_NAME));
+            if (checkpoint.getPassStartedAt() == null) {
+                checkpoint.setPassStartedAt(LocalDateTime.now());
+            }
+            log.info("Starting integrity scrub: afterFileId={}, parallelism={}, maxBytesPerSecond={}",
+                    checkpoint.getLastFileId(), parallelism, maxBytesPerSecond);
+
+            Throttle throttle = new Throttle(maxBytesPerSecond);
+            int quarantined = 0;
+            while (true) {
+                List<FileEntity> batch = fileRepository.findScrubBatch(checkpoint.getLastFileId(), PageRequest.of(0, batchSize));
+                if (batch.isEmpty()) {
+                    break;
+                }
+                List<Future<Outcome>> outcomes = new ArrayList<>(batch.size());
+                for (FileEntity file : batch) {
+                    outcomes.add(executor.submit(() -> verify(file, throttle)));
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    Outcome outcome;
+                    try {
+                        outcome = outcomes.get(i).get();
+                    } catch (ExecutionException e) {
+                        log.warn("Failed to verify file: id={}", batch.get(i).getId(), e.getCause());
+                        outcome = Outcome.ERROR;
+                    }
+                    if (outcome == Outcome.CORRUPTED && quarantine(batch.get(i))) {
+                        quarantined++;
+                    }
+                }
+                checkpoint.setLastFileId(batch.get(batch.size() - 1).getId());
+                checkpoint = saveCheckpoint(checkpoint);
+            }
+
+            log.info("Integrity scrub pass completed: startedAt={}, quarantined={}", checkpoint.getPassStartedAt(), quarantined);
+            checkpoint.setLastFileId(0L);
+            checkpoint.setPassStartedAt(null);
+            checkpoint.setLastPassCompletedAt(LocalDateTime.now());
+            saveCheckpoint(checkpoint);
+            return quarantined;
+        } finally {
+            executor.shutdownNow();
+            running.set(false);
+        }
+    }
+
+    /**
+     * Read a file's full content and compare it with its recorded hash and size
+     */
+    Outcome verify(FileEntity file, Throttle throttle) throws InterruptedException {
+        ContentDigest digest = hashService.newContentDigest(file.getHashAlgorithm());
+        long size = 0;
+        try (InputStream inputStream = deduplicationService.openContent(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                throttle.acquire(read);
+                digest.update(buffer, 0, read);
+                size += read;
+            }
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            if (isCorruption(e)) {
+                log.error("Stored content unreadable: fileId={}, hash={}, storagePath={}",
+                        file.getId(), file.getHashValue(), file.getStoragePath(), e);
+                return Outcome.CORRUPTED;
+            }
+            log.warn("Failed to read file for integrity check: fileId={}, storagePath={}", file.getId(), file.getStoragePath(), e);
+            readErrors.incrementAndGet();
+            return Outcome.ERROR;
+        }
+        verifiedFiles.incrementAndGet();
+        verifiedBytes.addAndGet(size);
+
+        String actualHash = digest.finish();
+        if (size == file.getSize() && actualHash.equals(file.getHashValue())) {
+            return Outcome.OK;
+        }
+        log.error("Integrity check failed: fileId={}, hash={}, actualHash={}, size={}, actualSize={}, storagePath={}",
+                file.getId(), file.getHashValue(), actualHash, file.getSize(), size, file.getStoragePath());
+        return Outcome.CORRUPTED;
+    }
+
+    private boolean quarantine(FileEntity file) {
+        Integer updated = transactionTemplate.execute(status -> fileRepository.quarantine(file.getId(), LocalDateTime.now()));
+        fileMetadataCache.invalidate(file.getHashValue());
+        if (updated == null || updated == 0) {
+            return false;
+        }
+        log.error("Quarantined corrupted file: fileId={}, hash={}", file.getId(), file.getHashValue());
+        corruptedFiles.incrementAndGet();
+        quarantinedFiles.incrementAndGet();
+        return true;
+    }
+
+    private ScrubCheckpointEntity saveCheckpoint(ScrubCheckpointEntity checkpoint) {
+        checkpoint.setUpdatedAt(LocalDateTime.now());
+        return checkpointRepository.save(checkpoint);
+    }
+
+    /**
+     * A missing blob, or compressed data that cannot be decoded, is corruption; anything else may be transient
+     */
+    private static boolean isCorruption(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ErrorResponseException response && "NoSuchKey".equals(response.errorResponse().code())) {
+                return true;
+            }
+            if (cause instanceof ZipException || cause instanceof EOFException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("s3proxy.scrub.verified.files", verifiedFiles, AtomicLong::get)
+                .description("Files whose content was read and hashed by the integrity scrubber")
+                .register(registry);
+        FunctionCounter.builder("s3proxy.scrub.verified.bytes", verifiedBytes, AtomicLong::get)
+                .description("Bytes read by the integrity scrubber")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("s3proxy.scrub.corrupted.files", corruptedFiles, AtomicLong::get)
+                .description("Files quarantined because their content did not match their hash")
+                .register(registry);
+        FunctionCounter.builder("s3proxy.scrub.errors", readErrors, AtomicLong::get)
+                .description("Files the integrity scrubber could not read, to be retried in the next pass")
+                .register(registry);
+        Gauge.builder("s3proxy.scrub.quarantined", quarantinedFiles, AtomicLong::get)
+                .description("Files currently quarantined")
+                .register(registry);
+    }
+
+    enum Outcome {
+        OK, CORRUPTED, ERROR
+    }
+}
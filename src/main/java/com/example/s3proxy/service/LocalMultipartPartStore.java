@@ -0,0 +1,97 @@
+package com.example.s3proxy.service;
+
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Keeps multipart upload parts as files next to the upload index.
+ * Completion streams the part files to MinIO in a single upload.
+ */
+@Component
+@ConditionalOnProperty(name = "s3.multipart.part-store", havingValue = "local")
+public class LocalMultipartPartStore implements MultipartPartStore {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalMultipartPartStore.class);
+
+    private final MinioClient minioClient;
+    private final String dedupeStorageBucket;
+    private final Path stagingDirectory;
+
+    public LocalMultipartPartStore(MinioClient minioClient,
+                                   @Value("${minio.bucket.dedupe-storage}") String dedupeStorageBucket,
+                                   @Value("${s3.multipart.staging-directory:${java.io.tmpdir}/s3-proxy-staging/multipart}") String stagingDirectory) {
+        this.minioClient = minioClient;
+        this.dedupeStorageBucket = dedupeStorageBucket;
+        this.stagingDirectory = Paths.get(stagingDirectory);
+    }
+
+    @Override
+    public void storePart(String uploadId, int partNumber, StagedContent part) throws IOException {
+        Path target = partFile(uploadId, partNumber);
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(part.getFile(), target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(part.getFile(), target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Override
+    public boolean hasPart(String uploadId, int partNumber, long size) throws IOException {
+        Path partFile = partFile(uploadId, partNumber);
+        return Files.exists(partFile) && Files.size(partFile) == size;
+    }
+
+    @Override
+    public InputStream openPart(String uploadId, int partNumber) throws IOException {
+        return Files.newInputStream(partFile(uploadId, partNumber));
+    }
+
+    @Override
+    public void assemble(String uploadId, List<StoredPart> parts, String storagePath, long size, String contentType) throws Exception {
+        log.debug("Streaming {} local parts of upload {} to {}", parts.size(), uploadId, storagePath);
+        try (InputStream inputStream = openParts(uploadId, parts)) {
+            PutObjectArgs.Builder argsBuilder = PutObjectArgs.builder()
+                    .bucket(dedupeStorageBucket)
+                    .object(storagePath)
+                    .stream(inputStream, size, -1);
+
+            if (contentType != null) {
+                argsBuilder.contentType(contentType);
+            }
+
+            minioClient.putObject(argsBuilder.build());
+        }
+    }
+
+    @Override
+    public void deleteParts(String uploadId, Collection<Integer> partNumbers) {
+        for (Integer partNumber : partNumbers) {
+            Path partFile = partFile(uploadId, partNumber);
+            try {
+                Files.deleteIfExists(partFile);
+            } catch (IOException e) {
+                log.warn("Failed to delete multipart staging file: {}", partFile, e);
+            }
+        }
+    }
+
+    private Path partFile(String uploadId, int partNumber) {
+        return stagingDirectory.resolve(uploadId).resolve(String.format("part-%05d", partNumber));
+    }
+}
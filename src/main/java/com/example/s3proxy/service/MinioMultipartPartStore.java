@@ -0,0 +1,177 @@
+package com.example.s3proxy.service;
+
+import io.minio.BucketExistsArgs;
+import io.minio.ComposeObjectArgs;
+import io.minio.ComposeSource;
+import io.minio.GetObjectArgs;
+import io.minio.MakeBucketArgs;
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import io.minio.RemoveObjectsArgs;
+import io.minio.Result;
+import io.minio.StatObjectArgs;
+import io.minio.UploadObjectArgs;
+import io.minio.errors.ErrorResponseException;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Uploads every multipart part to MinIO as soon as it arrives, below the
+ * {@code multipart-staging/} prefix of the dedupe bucket.
+ * <p>
+ * Completion assembles the blob server side with {@code composeObject}, so the
+ * proxy does not move the object's bytes a second time. MinIO requires every
+ * source except the last to be at least 5 MiB; uploads with smaller parts fall
+ * back to streaming the staged parts back through the proxy.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "s3.multipart.part-store", havingValue = "minio", matchIfMissing = true)
+public class MinioMultipartPartStore implements MultipartPartStore {
+
+    private static final Logger log = LoggerFactory.getLogger(MinioMultipartPartStore.class);
+
+    static final long MIN_COMPOSE_PART_SIZE = 5L * 1024 * 1024;
+    private static final String STAGING_PREFIX = "multipart-staging/";
+
+    private final MinioClient minioClient;
+    private final String dedupeStorageBucket;
+    private volatile boolean dedupeStorageBucketChecked = false;
+
+    public MinioMultipartPartStore(MinioClient minioClient,
+                                   @Value("${minio.bucket.dedupe-storage}") String dedupeStorageBucket) {
+        this.minioClient = minioClient;
+        this.dedupeStorageBucket = dedupeStorageBucket;
+    }
+
+    @Override
+    public void storePart(String uploadId, int partNumber, StagedContent part) throws Exception {
+        ensureDedupeStorageBucketExists();
+        minioClient.uploadObject(UploadObjectArgs.builder()
+                .bucket(dedupeStorageBucket)
+                .object(partObject(uploadId, partNumber))
+                .filename(part.getFile().toString())
+                .build());
+    }
+
+    @Override
+    public boolean hasPart(String uploadId, int partNumber, long size) throws Exception {
+        try {
+            return minioClient.statObject(StatObjectArgs.builder()
+                    .bucket(dedupeStorageBucket)
+                    .object(partObject(uploadId, partNumber))
+                    .build()).size() == size;
+        } catch (ErrorResponseException e) {
+            if ("NoSuchKey".equals(e.errorResponse().code())) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public InputStream openPart(String uploadId, int partNumber) throws Exception {
+        return minioClient.getObject(GetObjectArgs.builder()
+                .bucket(dedupeStorageBucket)
+                .object(partObject(uploadId, partNumber))
+                .build());
+    }
+
+    @Override
+    public void assemble(String uploadId, List<StoredPart> parts, String storagePath, long size, String contentType) throws Exception {
+        if (canCompose(parts)) {
+            List<ComposeSource> sources = new ArrayList<>(parts.size());
+            for (StoredPart part : parts) {
+                sources.add(ComposeSource.builder()
+                        .bucket(dedupeStorageBucket)
+                        .object(partObject(uploadId, part.getPartNumber()))
+                        .build());
+            }
+            ComposeObjectArgs.Builder argsBuilder = ComposeObjectArgs.builder()
+                    .bucket(dedupeStorageBucket)
+                    .object(storagePath)
+                    .sources(sources);
+            if (contentType != null) {
+                argsBuilder.headers(Map.of("Content-Type", contentType));
+            }
+            minioClient.composeObject(argsBuilder.build());
+            log.debug("Composed {} parts of upload {} into {}", parts.size(), uploadId, storagePath);
+            return;
+        }
+
+        log.debug("Parts of upload {} are too small to compose, streaming them into {}", uploadId, storagePath);
+        try (InputStream inputStream = openParts(uploadId, parts)) {
+            PutObjectArgs.Builder argsBuilder = PutObjectArgs.builder()
+                    .bucket(dedupeStorageBucket)
+                    .object(storagePath)
+                    .stream(inputStream, size, -1);
+
+            if (contentType != null) {
+                argsBuilder.contentType(contentType);
+            }
+
+            minioClient.putObject(argsBuilder.build());
+        }
+    }
+
+    @Override
+    public void deleteParts(String uploadId, Collection<Integer> partNumbers) {
+        if (partNumbers.isEmpty()) {
+            return;
+        }
+        List<DeleteObject> objects = new ArrayList<>(partNumbers.size());
+        for (Integer partNumber : partNumbers) {
+            objects.add(new DeleteObject(partObject(uploadId, partNumber)));
+        }
+        try {
+            // Errors are reported lazily, so the results have to be consumed for the delete to run
+            for (Result<DeleteError> result : minioClient.removeObjects(RemoveObjectsArgs.builder()
+                    .bucket(dedupeStorageBucket)
+                    .objects(objects)
+                    .build())) {
+                DeleteError error = result.get();
+                log.warn("Failed to delete staged part {} of upload {}: {}", error.objectName(), uploadId, error.message());
+            }
+        } catch (Exception e) {
+            log.warn("Failed to delete staged parts of upload {}", uploadId, e);
+        }
+    }
+
+    static boolean canCompose(List<StoredPart> parts) {
+        for (int i = 0; i < parts.size() - 1; i++) {
+            if (parts.get(i).getSize() < MIN_COMPOSE_PART_SIZE) {
+                return false;
+            }
+        }
+        return !parts.isEmpty();
+    }
+
+    private String partObject(String uploadId, int partNumber) {
+        return STAGING_PREFIX + uploadId + "/" + String.format("part-%05d", partNumber);
+    }
+
+    private void ensureDedupeStorageBucketExists() throws Exception {
+        if (!dedupeStorageBucketChecked) {
+            synchronized (this) {
+                if (!dedupeStorageBucketChecked) {
+                    if (!minioClient.bucketExists(BucketExistsArgs.builder().bucket(dedupeStorageBucket).build())) {
+                        log.warn("Dedupe storage bucket '{}' does not exist. Creating it...", dedupeStorageBucket);
+                        minioClient.makeBucket(MakeBucketArgs.builder().bucket(dedupeStorageBucket).build());
+                    }
+                    dedupeStorageBucketChecked = true;
+                }
+            }
+        }
+    }
+}
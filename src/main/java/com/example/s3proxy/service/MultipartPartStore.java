@@ -0,0 +1,83 @@
+package com.example.s3proxy.service;
+
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Storage for the parts of in-flight multipart uploads.
+ * <p>
+ * {@link MultipartUploadService} keeps the upload index and the running content
+ * hash; the part store only holds part content and knows how to assemble the
+ * final blob at its content-addressed location in the dedupe bucket.
+ * </p>
+ */
+public interface MultipartPartStore {
+
+    /**
+     * Persist a staged part. The staged file may be moved away by the store.
+     */
+    void storePart(String uploadId, int partNumber, StagedContent part) throws Exception;
+
+    /**
+     * Check whether a part recorded in a recovered index is still available with the given size
+     */
+    boolean hasPart(String uploadId, int partNumber, long size) throws Exception;
+
+    InputStream openPart(String uploadId, int partNumber) throws Exception;
+
+    /**
+     * Write the given parts, in order, as a single blob at {@code storagePath} in the dedupe bucket
+     */
+    void assemble(String uploadId, List<StoredPart> parts, String storagePath, long size, String contentType) throws Exception;
+
+    void deleteParts(String uploadId, Collection<Integer> partNumbers);
+
+    /**
+     * Stream the given parts in order without concatenating them
+     */
+    default InputStream openParts(String uploadId, List<StoredPart> parts) {
+        Iterator<StoredPart> iterator = parts.iterator();
+        return new SequenceInputStream(new Enumeration<>() {
+            @Override
+            public boolean hasMoreElements() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                if (!iterator.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int partNumber = iterator.next().getPartNumber();
+                try {
+                    return openPart(uploadId, partNumber);
+                } catch (Exception e) {
+                    throw new IllegalStateException("Failed to open part " + partNumber + " of upload " + uploadId, e);
+                }
+            }
+        });
+    }
+
+    class StoredPart {
+        private final int partNumber;
+        private final long size;
+
+        public StoredPart(int partNumber, long size) {
+            this.partNumber = partNumber;
+            this.size = size;
+        }
+
+        public int getPartNumber() {
+            return partNumber;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+}
@@ -1,124 +1,884 @@
 package com.example.s3proxy.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 
-import java.io.ByteArrayOutputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 /**
- * In-memory implementation of S3 multipart upload state management.
+ * Disk-backed implementation of S3 multipart upload state management.
  * <p>
  * This implementation is intended for compatibility with S3 clients that
- * automatically switch to multipart uploads for large files. Parts are stored
- * in memory until the upload is completed or aborted.
+ * automatically switch to multipart uploads for large files. Every upload gets
+ * its own directory below the staging directory holding a small JSON index
+ * ({@code upload.json}); part content lives in the configured
+ * {@link MultipartPartStore}. Parts never live on the heap, and the index is
+ * reloaded on startup so in-flight uploads survive restarts.
+ * </p>
+ * <p>
+ * The content hash of the assembled object is chained incrementally: whenever the
+ * parts numbered 1..n are all present, the running digest is extended to cover
+ * them and a snapshot of the digest is kept after every part. A part that
+ * arrives out of order is hashed once the gap before it is filled, and a
+ * re-uploaded part only invalidates the chain from that part onwards. When the
+ * client completes with the chained parts, the hash is already known and no
+ * part has to be read again.
+ * </p>
+ * <p>
+ * Staged bytes are accounted per upload and globally. Once the global budget is
+ * exhausted new parts are rejected with {@link SlowDownException}, and a
+ * scheduled reaper aborts uploads that saw no activity within the configured TTL.
+ * </p>
+ * <p>
+ * Besides the lookup by upload ID, uploads are registered per bucket in a
+ * skip list ordered by key, initiation time and upload ID, which is the order
+ * ListMultipartUploads returns. Markers resume with a tail view of that index,
+ * so a page costs O(log n + page size) regardless of how many uploads exist.
  * </p>
  */
 @Service
-public class MultipartUploadService {
+public class MultipartUploadService implements MeterBinder {
 
     private static final Logger log = LoggerFactory.getLogger(MultipartUploadService.class);
 
+    static final int MAX_PART_NUMBER = 10000;
+    private static final String INDEX_FILE = "upload.json";
+    private static final int MAX_COMPLETION_ATTEMPTS = 3;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final HashService hashService;
+    private final MultipartPartStore partStore;
+    private final Path stagingDirectory;
+    private final Duration uploadTtl;
+    private final long maxOutstandingBytes;
     private final ConcurrentMap<String, MultipartUploadState> uploads = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrentSkipListMap<UploadKey, MultipartUploadState>> uploadsByBucket =
+            new ConcurrentHashMap<>();
+    private final AtomicLong outstandingBytes = new AtomicLong();
+
+    public MultipartUploadService(HashService hashService,
+                                  MultipartPartStore partStore,
+                                  @Value("${s3.multipart.staging-directory:${java.io.tmpdir}/s3-proxy-staging/multipart}") String stagingDirectory,
+                                  @Value("${s3.multipart.upload-ttl:24h}") Duration uploadTtl,
+                                  @Value("${s3.multipart.max-outstanding-bytes:10GB}") DataSize maxOutstandingBytes) {
+        this.hashService = hashService;
+        this.partStore = partStore;
+        this.stagingDirectory = Paths.get(stagingDirectory);
+        this.uploadTtl = uploadTtl;
+        this.maxOutstandingBytes = maxOutstandingBytes.toBytes();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("s3proxy.multipart.outstanding.bytes", outstandingBytes, AtomicLong::get)
+                .description("Bytes staged for multipart uploads that are not completed yet")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("s3proxy.multipart.uploads", uploads, Map::size)
+                .description("Multipart uploads in flight")
+                .register(registry);
+    }
+
+    /**
+     * Reload uploads that were in flight when the service last stopped
+     */
+    @PostConstruct
+    public void recoverUploads() throws IOException {
+        Files.createDirectories(stagingDirectory);
+        try (DirectoryStream<Path> directories = Files.newDirectoryStream(stagingDirectory, Files::isDirectory)) {
+            for (Path uploadDirectory : directories) {
+                Path indexFile = uploadDirectory.resolve(INDEX_FILE);
+                if (!Files.exists(indexFile)) {
+                    continue;
+                }
+                try {
+                    UploadIndex index = OBJECT_MAPPER.readValue(indexFile.toFile(), UploadIndex.class);
+                    MultipartUploadState state = fromIndex(uploadDirectory, index);
+                    state.lastActivityAt = Math.max(index.initiatedAt, Files.getLastModifiedTime(indexFile).toMillis());
+                    register(state);
+                    outstandingBytes.addAndGet(state.bytes);
+                    log.info("Recovered multipart upload: uploadId={}, bucket={}, key={}, parts={}",
+                            index.uploadId, index.bucket, index.key, state.parts.size());
+                } catch (Exception e) {
+                    log.warn("Skipping unreadable multipart upload index: {}", indexFile, e);
+                }
+            }
+        }
+    }
 
     public String createUpload(String bucket, String key, String contentType, Map<String, String> metadata) {
         String uploadId = UUID.randomUUID().toString();
-        MultipartUploadState state = new MultipartUploadState(bucket, key, contentType, metadata);
-        uploads.put(uploadId, state);
+        Path uploadDirectory = stagingDirectory.resolve(uploadId);
+        MultipartUploadState state = new MultipartUploadState(uploadId, uploadDirectory, bucket, key, contentType,
+                metadata, System.currentTimeMillis());
+        try {
+            Files.createDirectories(uploadDirectory);
+            state.persist();
+        } catch (IOException e) {
+            deleteDirectory(uploadDirectory);
+            throw new IllegalStateException("Failed to create multipart upload staging for " + bucket + "/" + key, e);
+        }
+        register(state);
         log.info("Created multipart upload: uploadId={}, bucket={}, key={}", uploadId, bucket, key);
         return uploadId;
     }
 
-    public String storePart(String uploadId, int partNumber, byte[] data) {
+    public boolean hasUpload(String uploadId) {
+        return uploads.containsKey(uploadId);
+    }
+
+    /**
+     * Cheap pre-check before a part body is staged. A negative size means the size is unknown.
+     */
+    public boolean hasCapacity(long partSize) {
+        return outstandingBytes.get() + Math.max(partSize, 0) <= maxOutstandingBytes;
+    }
+
+    public long getOutstandingBytes() {
+        return outstandingBytes.get();
+    }
+
+    /**
+     * Bytes currently staged for a single upload, or -1 when the upload is unknown
+     */
+    public long getUploadBytes(String uploadId) {
+        MultipartUploadState state = uploads.get(uploadId);
+        return state == null ? -1 : state.bytes;
+    }
+
+    /**
+     * Hand a staged part to the part store, record it in the index and extend the hash chain.
+     *
+     * @return the part ETag (MD5 of the part)
+     */
+    public String storePart(String uploadId, int partNumber, StagedContent part) throws Exception {
         MultipartUploadState state = uploads.get(uploadId);
         if (state == null) {
             throw new IllegalArgumentException("Upload ID not found: " + uploadId);
         }
-        if (partNumber <= 0) {
+        if (partNumber <= 0 || partNumber > MAX_PART_NUMBER) {
             throw new IllegalArgumentException("Invalid part number: " + partNumber);
         }
-        state.parts.put(partNumber, data);
-        String etag = calculateMd5Hex(data);
-        log.info("Stored multipart upload part: uploadId={}, partNumber={}, size={}, etag={}"
-                , uploadId, partNumber, data.length, etag);
-        return etag;
+
+        reserve(part.getSize());
+        boolean recorded = false;
+        ChainExtension extension;
+        try {
+            // Transfer the part outside the lock so parts of the same upload can be stored in parallel
+            partStore.storePart(uploadId, partNumber, part);
+
+            synchronized (state) {
+                if (uploads.get(uploadId) != state) {
+                    partStore.deleteParts(uploadId, List.of(partNumber));
+                    throw new IllegalArgumentException("Upload ID not found: " + uploadId);
+                }
+                PartInfo replaced = state.parts.put(partNumber,
+                        new PartInfo(part.getHash(), part.getSize(), System.currentTimeMillis()));
+                recorded = true;
+                if (replaced != null) {
+                    state.bytes -= replaced.size;
+                    outstandingBytes.addAndGet(-replaced.size);
+                }
+                state.bytes += part.getSize();
+                state.lastActivityAt = System.currentTimeMillis();
+                state.persist();
+                extension = planHashChain(state, partNumber);
+            }
+        } finally {
+            if (!recorded) {
+                outstandingBytes.addAndGet(-part.getSize());
+            }
+        }
+        if (extension != null) {
+            try {
+                advanceHashChain(state, extension, partNumber, part);
+            } catch (Exception e) {
+                // The chain is only an optimisation; completion re-hashes whatever is not covered
+                log.warn("Failed to extend content hash of multipart upload {}: {}", uploadId, e.getMessage());
+            }
+        }
+        log.info("Stored multipart upload part: uploadId={}, partNumber={}, size={}, etag={}",
+                uploadId, partNumber, part.getSize(), part.getHash());
+        return part.getHash();
     }
 
+    /**
+     * Validate the requested parts and compute the content hash of the assembled object,
+     * reusing the hash chain for the longest prefix of parts it already covers.
+     * The parts are snapshotted under the upload lock and the rest is hashed outside it, so
+     * parts can still be stored meanwhile; a requested part replaced during the hash makes
+     * completion hash again.
+     * The upload stays registered (and its parts stored) until {@link #discardUpload} is
+     * called, so a failed completion can be retried by the client.
+     */
     public CompletedUpload completeUpload(String uploadId, List<Integer> orderedParts) {
-        MultipartUploadState state = uploads.remove(uploadId);
+        MultipartUploadState state = uploads.get(uploadId);
         if (state == null) {
             throw new IllegalArgumentException("Upload ID not found: " + uploadId);
         }
 
-        List<Integer> partsInOrder;
-        if (orderedParts == null || orderedParts.isEmpty()) {
-            partsInOrder = new ArrayList<>(state.parts.keySet());
-            Collections.sort(partsInOrder);
-        } else {
-            partsInOrder = new ArrayList<>(orderedParts);
-        }
+        for (int attempt = 1; ; attempt++) {
+            List<MultipartPartStore.StoredPart> parts = new ArrayList<>();
+            List<PartInfo> snapshot = new ArrayList<>();
+            long size = 0;
+            int chained = 0;
+            ContentDigest digest;
+            synchronized (state) {
+                state.lastActivityAt = System.currentTimeMillis();
+                List<Integer> partsInOrder;
+                if (orderedParts == null || orderedParts.isEmpty()) {
+                    partsInOrder = new ArrayList<>(state.parts.keySet());
+                } else {
+                    partsInOrder = new ArrayList<>(orderedParts);
+                }
+
+                for (Integer partNumber : partsInOrder) {
+                    PartInfo part = state.parts.get(partNumber);
+                    if (part == null) {
+                        throw new IllegalArgumentException("Missing part " + partNumber + " for upload " + uploadId);
+                    }
+                    parts.add(new MultipartPartStore.StoredPart(partNumber, part.size));
+                    snapshot.add(part);
+                    size += part.size;
+                }
+
+                while (chained < parts.size() && chained < state.chainedParts.size()
+                        && state.chainedParts.get(chained) == parts.get(chained).getPartNumber()) {
+                    chained++;
+                }
+                digest = chained == 0
+                        ? hashService.newContentDigest()
+                        : state.chainSnapshots.get(chained - 1).copy();
+            }
+
+            String hash = null;
+            Exception failure = null;
+            try {
+                if (chained < parts.size()) {
+                    try (InputStream inputStream = partStore.openParts(uploadId, parts.subList(chained, parts.size()))) {
+                        updateDigest(digest, inputStream);
+                    }
+                }
+                hash = digest.finish();
+            } catch (Exception e) {
+                failure = e;
+            }
 
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-            for (Integer partNumber : partsInOrder) {
-                byte[] part = state.parts.get(partNumber);
-                if (part == null) {
-                    throw new IllegalArgumentException("Missing part " + partNumber + " for upload " + uploadId);
+            synchronized (state) {
+                if (uploads.get(uploadId) != state) {
+                    throw new IllegalArgumentException("Upload ID not found: " + uploadId);
+                }
+                if (isUnchanged(state, parts, snapshot)) {
+                    if (failure != null) {
+                        throw new IllegalStateException("Failed to assemble multipart upload: " + uploadId, failure);
+                    }
+                    log.info("Completed multipart upload: uploadId={}, parts={}, chainedParts={}, combinedSize={}, hash={}",
+                            uploadId, parts.size(), chained, size, hash);
+                    return new CompletedUpload(this, uploadId, state.bucket, state.key, state.contentType, state.metadata,
+                            hash, size, parts);
                 }
-                outputStream.write(part);
             }
-            byte[] data = outputStream.toByteArray();
-            log.info("Completed multipart upload: uploadId={}, combinedSize={}", uploadId, data.length);
-            return new CompletedUpload(state.bucket, state.key, state.contentType, state.metadata, data);
-        } catch (Exception e) {
-            uploads.put(uploadId, state);
-            throw new IllegalStateException("Failed to assemble multipart upload: " + uploadId, e);
+            if (attempt >= MAX_COMPLETION_ATTEMPTS) {
+                throw new IllegalStateException("Parts of multipart upload kept changing during completion: " + uploadId);
+            }
+            log.info("Parts were replaced while completing multipart upload, hashing again: uploadId={}", uploadId);
+        }
+    }
+
+    /**
+     * Whether every snapshotted part is still the one recorded for its part number
+     */
+    private static boolean isUnchanged(MultipartUploadState state, List<MultipartPartStore.StoredPart> parts,
+                                       List<PartInfo> snapshot) {
+        for (int i = 0; i < parts.size(); i++) {
+            if (state.parts.get(parts.get(i).getPartNumber()) != snapshot.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forget a completed upload and remove its staged parts
+     */
+    public void discardUpload(String uploadId) {
+        MultipartUploadState removed = uploads.remove(uploadId);
+        if (removed != null) {
+            unregister(removed);
+            deleteUpload(removed);
         }
     }
 
     public boolean abortUpload(String uploadId) {
         MultipartUploadState removed = uploads.remove(uploadId);
         if (removed != null) {
+            unregister(removed);
+            deleteUpload(removed);
             log.info("Aborted multipart upload: uploadId={}, bucket={}, key={}", uploadId, removed.bucket, removed.key);
             return true;
         }
         return false;
     }
 
-    private String calculateMd5Hex(byte[] data) {
+    /**
+     * List in-flight uploads of a bucket in key order (ListMultipartUploads).
+     * Keys sharing a prefix up to the delimiter are rolled up into a single common prefix,
+     * and the index skips past all of its uploads at once.
+     */
+    public UploadListing listUploads(String bucket, String prefix, String delimiter, String keyMarker,
+                                     String uploadIdMarker, int maxUploads) {
+        String effectivePrefix = prefix == null ? "" : prefix;
+        ConcurrentSkipListMap<UploadKey, MultipartUploadState> index = uploadsByBucket.get(bucket);
+        List<UploadSummary> summaries = new ArrayList<>();
+        List<String> commonPrefixes = new ArrayList<>();
+        if (index == null || maxUploads <= 0) {
+            return new UploadListing(summaries, commonPrefixes, false, null, null);
+        }
+
+        // Start after the marker, but never before the first key that can match the prefix
+        UploadKey from = new UploadKey(effectivePrefix, Long.MIN_VALUE, "");
+        boolean inclusive = true;
+        if (keyMarker != null && !keyMarker.isEmpty()) {
+            MultipartUploadState markerUpload = uploadIdMarker == null || uploadIdMarker.isEmpty()
+                    ? null : uploads.get(uploadIdMarker);
+            UploadKey markerKey;
+            if (markerUpload != null && markerUpload.key.equals(keyMarker)) {
+                markerKey = markerUpload.registryKey();
+            } else if (delimiter != null && !delimiter.isEmpty() && keyMarker.endsWith(delimiter)) {
+                // The marker is a common prefix returned on the previous page
+                markerKey = new UploadKey(keyMarker + Character.MAX_VALUE, Long.MAX_VALUE, "");
+            } else {
+                // Without an upload ID marker every upload of the marker key has been returned
+                markerKey = new UploadKey(keyMarker, Long.MAX_VALUE, "");
+            }
+            if (markerKey.compareTo(from) >= 0) {
+                from = markerKey;
+                inclusive = false;
+            }
+        }
+        ConcurrentNavigableMap<UploadKey, MultipartUploadState> view = index.tailMap(from, inclusive);
+
+        boolean truncated = false;
+        String lastKey = null;
+        String lastUploadId = null;
+        int count = 0;
+        Map.Entry<UploadKey, MultipartUploadState> entry = view.isEmpty() ? null : view.firstEntry();
+        while (entry != null) {
+            MultipartUploadState state = entry.getValue();
+            if (!state.key.startsWith(effectivePrefix)) {
+                // Keys sharing the prefix are contiguous in the index
+                break;
+            }
+            if (count >= maxUploads) {
+                truncated = true;
+                break;
+            }
+
+            if (delimiter != null && !delimiter.isEmpty()) {
+                int delimiterIndex = state.key.indexOf(delimiter, effectivePrefix.length());
+                if (delimiterIndex >= 0) {
+                    String commonPrefix = state.key.substring(0, delimiterIndex + delimiter.length());
+                    commonPrefixes.add(commonPrefix);
+                    count++;
+                    lastKey = commonPrefix;
+                    lastUploadId = null;
+                    // Jump over every upload below the common prefix
+                    entry = view.higherEntry(new UploadKey(commonPrefix + Character.MAX_VALUE, Long.MAX_VALUE, ""));
+                    continue;
+                }
+            }
+
+            summaries.add(new UploadSummary(state.key, state.uploadId, state.initiatedAt));
+            count++;
+            lastKey = state.key;
+            lastUploadId = state.uploadId;
+            entry = view.higherEntry(entry.getKey());
+        }
+        return new UploadListing(summaries, commonPrefixes, truncated,
+                truncated ? lastKey : null, truncated ? lastUploadId : null);
+    }
+
+    /**
+     * List the parts stored so far for an upload (ListParts), so clients resume by sending
+     * only the missing parts.
+     */
+    public PartListing listParts(String bucket, String key, String uploadId, int partNumberMarker, int maxParts) {
+        MultipartUploadState state = uploads.get(uploadId);
+        if (state == null || !state.bucket.equals(bucket) || !state.key.equals(key)) {
+            throw new IllegalArgumentException("Upload ID not found: " + uploadId);
+        }
+        List<PartSummary> parts = new ArrayList<>();
+        boolean truncated = false;
+        synchronized (state) {
+            for (Map.Entry<Integer, PartInfo> entry : state.parts.tailMap(partNumberMarker, false).entrySet()) {
+                if (parts.size() >= maxParts) {
+                    truncated = true;
+                    break;
+                }
+                PartInfo part = entry.getValue();
+                parts.add(new PartSummary(entry.getKey(), part.etag, part.size, part.lastModified));
+            }
+        }
+        int nextMarker = parts.isEmpty() ? partNumberMarker : parts.get(parts.size() - 1).getPartNumber();
+        return new PartListing(state.initiatedAt, parts, truncated, nextMarker);
+    }
+
+    /**
+     * Abort uploads that saw no part or completion request within the TTL
+     */
+    @Scheduled(fixedDelayString = "${s3.multipart.reaper-interval:PT10M}",
+            initialDelayString = "${s3.multipart.reaper-interval:PT10M}")
+    public void reapExpiredUploads() {
+        reapExpiredUploads(System.currentTimeMillis());
+    }
+
+    int reapExpiredUploads(long now) {
+        long cutoff = now - uploadTtl.toMillis();
+        int reaped = 0;
+        for (MultipartUploadState state : uploads.values()) {
+            if (state.lastActivityAt < cutoff && uploads.remove(state.uploadId, state)) {
+                unregister(state);
+                long bytes = state.bytes;
+                deleteUpload(state);
+                reaped++;
+                log.info("Reaped abandoned multipart upload: uploadId={}, bucket={}, key={}, parts={}, bytes={}",
+                        state.uploadId, state.bucket, state.key, state.parts.size(), bytes);
+            }
+        }
+        if (reaped > 0) {
+            log.info("Reaped {} abandoned multipart uploads, outstanding bytes now {}", reaped, outstandingBytes.get());
+        }
+        return reaped;
+    }
+
+    private void register(MultipartUploadState state) {
+        uploads.put(state.uploadId, state);
+        uploadsByBucket.computeIfAbsent(state.bucket, b -> new ConcurrentSkipListMap<>())
+                .put(state.registryKey(), state);
+    }
+
+    private void unregister(MultipartUploadState state) {
+        ConcurrentSkipListMap<UploadKey, MultipartUploadState> index = uploadsByBucket.get(state.bucket);
+        if (index != null) {
+            index.remove(state.registryKey());
+        }
+    }
+
+    private void reserve(long size) {
+        while (true) {
+            long current = outstandingBytes.get();
+            if (current + size > maxOutstandingBytes) {
+                throw new SlowDownException("Multipart staging budget exhausted: outstanding=" + current
+                        + ", part=" + size + ", limit=" + maxOutstandingBytes);
+            }
+            if (outstandingBytes.compareAndSet(current, current + size)) {
+                return;
+            }
+        }
+    }
+
+    private void deleteUpload(MultipartUploadState state) {
+        synchronized (state) {
+            partStore.deleteParts(state.uploadId, new ArrayList<>(state.parts.keySet()));
+            deleteDirectory(state.directory);
+            outstandingBytes.addAndGet(-state.bytes);
+            state.bytes = 0;
+        }
+    }
+
+    private MultipartUploadState fromIndex(Path directory, UploadIndex index) throws Exception {
+        MultipartUploadState state = new MultipartUploadState(index.uploadId, directory, index.bucket, index.key,
+                index.contentType, index.metadata, index.initiatedAt);
+        if (index.parts != null) {
+            for (UploadIndex.Part part : index.parts) {
+                // Only trust parts that were stored completely; anything else must be re-sent
+                if (partStore.hasPart(index.uploadId, part.partNumber, part.size)) {
+                    state.parts.put(part.partNumber, new PartInfo(part.etag, part.size,
+                            part.lastModified > 0 ? part.lastModified : index.initiatedAt));
+                    state.bytes += part.size;
+                } else {
+                    log.warn("Dropping incomplete part {} of multipart upload {}", part.partNumber, index.uploadId);
+                }
+            }
+        }
+        // Digest state cannot be persisted; the chain is rebuilt as new parts arrive or on completion
+        return state;
+    }
+
+    /**
+     * Drop the hash chain snapshots at or after a re-uploaded part and capture which consecutively
+     * numbered parts could extend it. Called with the state's monitor held; the parts themselves
+     * are read by {@link #advanceHashChain} after it is released.
+     *
+     * @return the extension to hash, or null if the part after the chain is still missing
+     */
+    private ChainExtension planHashChain(MultipartUploadState state, int partNumber) {
+        int keep = 0;
+        while (keep < state.chainedParts.size() && state.chainedParts.get(keep) < partNumber) {
+            keep++;
+        }
+        state.truncateChain(keep);
+
+        int next = state.chainedParts.isEmpty() ? 1 : state.chainedParts.get(state.chainedParts.size() - 1) + 1;
+        List<Integer> partNumbers = new ArrayList<>();
+        List<PartInfo> parts = new ArrayList<>();
+        while (state.parts.containsKey(next)) {
+            partNumbers.add(next);
+            parts.add(state.parts.get(next));
+            next++;
+        }
+        if (partNumbers.isEmpty()) {
+            return null;
+        }
+        ContentDigest digest = state.chainSnapshots.isEmpty()
+                ? hashService.newContentDigest()
+                : state.chainSnapshots.get(state.chainSnapshots.size() - 1).copy();
+        return new ChainExtension(state.chainVersion, digest, partNumbers, parts);
+    }
+
+    /**
+     * Hash the parts of a planned extension without holding the state's monitor, so that other
+     * parts of the upload can be stored meanwhile, then append them to the chain unless it was
+     * truncated or extended in the meantime.
+     */
+    private void advanceHashChain(MultipartUploadState state, ChainExtension extension, int partNumber,
+                                  StagedContent part) throws Exception {
+        List<ContentDigest> snapshots = new ArrayList<>();
+        for (int next : extension.partNumbers) {
+            // The part that just arrived is read from its staged file when the store left it in place
+            try (InputStream inputStream = next == partNumber && Files.exists(part.getFile())
+                    ? part.openStream()
+                    : partStore.openPart(state.uploadId, next)) {
+                updateDigest(extension.digest, inputStream);
+            }
+            snapshots.add(extension.digest.copy());
+        }
+
+        synchronized (state) {
+            if (state.chainVersion != extension.version) {
+                return;
+            }
+            for (int i = 0; i < snapshots.size(); i++) {
+                int next = extension.partNumbers.get(i);
+                // Stop at a part that was re-uploaded while it was being hashed
+                if (state.parts.get(next) != extension.parts.get(i)) {
+                    break;
+                }
+                state.chainedParts.add(next);
+                state.chainSnapshots.add(snapshots.get(i));
+            }
+            state.chainVersion++;
+        }
+    }
+
+    private static void updateDigest(ContentDigest digest, InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+    }
+
+    private static void moveFile(Path source, Path target) throws IOException {
         try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] digest = md.digest(data);
-            StringBuilder sb = new StringBuilder(digest.length * 2);
-            for (byte b : digest) {
-                sb.append(String.format("%02x", b));
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void deleteDirectory(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    log.warn("Failed to delete multipart staging file: {}", path, e);
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Failed to delete multipart staging directory: {}", directory, e);
+        }
+    }
+
+    private static class PartInfo {
+        private final String etag;
+        private final long size;
+        private final long lastModified;
+
+        private PartInfo(String etag, long size, long lastModified) {
+            this.etag = etag;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Sort key of the per-bucket registry: key, then initiation time, then upload ID
+     */
+    private static class UploadKey implements Comparable<UploadKey> {
+        private final String key;
+        private final long initiatedAt;
+        private final String uploadId;
+
+        private UploadKey(String key, long initiatedAt, String uploadId) {
+            this.key = key;
+            this.initiatedAt = initiatedAt;
+            this.uploadId = uploadId;
+        }
+
+        @Override
+        public int compareTo(UploadKey other) {
+            int result = key.compareTo(other.key);
+            if (result == 0) {
+                result = Long.compare(initiatedAt, other.initiatedAt);
+            }
+            if (result == 0) {
+                result = uploadId.compareTo(other.uploadId);
             }
-            return sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new IllegalStateException("MD5 algorithm not available", e);
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof UploadKey other && compareTo(other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return uploadId.hashCode();
+        }
+    }
+
+    /**
+     * Parts that can extend an upload's hash chain, captured together with the chain version and
+     * the digest state they start from
+     */
+    private static class ChainExtension {
+        private final int version;
+        private final ContentDigest digest;
+        private final List<Integer> partNumbers;
+        private final List<PartInfo> parts;
+
+        private ChainExtension(int version, ContentDigest digest, List<Integer> partNumbers, List<PartInfo> parts) {
+            this.version = version;
+            this.digest = digest;
+            this.partNumbers = partNumbers;
+            this.parts = parts;
         }
     }
 
     private static class MultipartUploadState {
+        private final String uploadId;
+        private final Path directory;
         private final String bucket;
         private final String key;
         private final String contentType;
         private final Map<String, String> metadata;
-        private final ConcurrentMap<Integer, byte[]> parts = new ConcurrentHashMap<>();
+        private final long initiatedAt;
+        private final TreeMap<Integer, PartInfo> parts = new TreeMap<>();
+        // Staged bytes, guarded by the state's monitor
+        private long bytes;
+        private volatile long lastActivityAt;
+        // Part numbers covered by the hash chain, with the digest state after each of them
+        private final List<Integer> chainedParts = new ArrayList<>();
+        private final List<ContentDigest> chainSnapshots = new ArrayList<>();
+        // Bumped whenever the chain changes, so that an extension hashed outside the lock can tell it went stale
+        private int chainVersion;
 
-        private MultipartUploadState(String bucket, String key, String contentType, Map<String, String> metadata) {
+        private MultipartUploadState(String uploadId, Path directory, String bucket, String key, String contentType,
+                                     Map<String, String> metadata, long initiatedAt) {
+            this.uploadId = uploadId;
+            this.directory = directory;
             this.bucket = bucket;
             this.key = key;
             this.contentType = contentType;
             this.metadata = metadata == null ? Collections.emptyMap() : new ConcurrentHashMap<>(metadata);
+            this.initiatedAt = initiatedAt;
+            this.lastActivityAt = initiatedAt;
+        }
+
+        private UploadKey registryKey() {
+            return new UploadKey(key, initiatedAt, uploadId);
+        }
+
+        private void truncateChain(int length) {
+            if (chainedParts.size() > length) {
+                chainVersion++;
+            }
+            while (chainedParts.size() > length) {
+                chainedParts.remove(chainedParts.size() - 1);
+                chainSnapshots.remove(chainSnapshots.size() - 1);
+            }
+        }
+
+        /**
+         * Write the index atomically so a crash never leaves a truncated index behind
+         */
+        private void persist() throws IOException {
+            UploadIndex index = new UploadIndex();
+            index.uploadId = uploadId;
+            index.bucket = bucket;
+            index.key = key;
+            index.contentType = contentType;
+            index.metadata = new HashMap<>(metadata);
+            index.initiatedAt = initiatedAt;
+            index.parts = new ArrayList<>();
+            parts.forEach((partNumber, part) -> {
+                UploadIndex.Part entry = new UploadIndex.Part();
+                entry.partNumber = partNumber;
+                entry.etag = part.etag;
+                entry.size = part.size;
+                entry.lastModified = part.lastModified;
+                index.parts.add(entry);
+            });
+
+            Path temp = directory.resolve(INDEX_FILE + ".tmp");
+            OBJECT_MAPPER.writeValue(temp.toFile(), index);
+            moveFile(temp, directory.resolve(INDEX_FILE));
+        }
+    }
+
+    public static class UploadSummary {
+        private final String key;
+        private final String uploadId;
+        private final long initiatedAt;
+
+        private UploadSummary(String key, String uploadId, long initiatedAt) {
+            this.key = key;
+            this.uploadId = uploadId;
+            this.initiatedAt = initiatedAt;
+        }
+
+        public String getKey() { return key; }
+        public String getUploadId() { return uploadId; }
+        public long getInitiatedAt() { return initiatedAt; }
+    }
+
+    public static class UploadListing {
+        private final List<UploadSummary> uploads;
+        private final List<String> commonPrefixes;
+        private final boolean truncated;
+        private final String nextKeyMarker;
+        private final String nextUploadIdMarker;
+
+        private UploadListing(List<UploadSummary> uploads, List<String> commonPrefixes, boolean truncated,
+                              String nextKeyMarker, String nextUploadIdMarker) {
+            this.uploads = uploads;
+            this.commonPrefixes = commonPrefixes;
+            this.truncated = truncated;
+            this.nextKeyMarker = nextKeyMarker;
+            this.nextUploadIdMarker = nextUploadIdMarker;
+        }
+
+        public List<UploadSummary> getUploads() { return uploads; }
+        public List<String> getCommonPrefixes() { return commonPrefixes; }
+        public boolean isTruncated() { return truncated; }
+        public String getNextKeyMarker() { return nextKeyMarker; }
+        public String getNextUploadIdMarker() { return nextUploadIdMarker; }
+    }
+
+    public static class PartSummary {
+        private final int partNumber;
+        private final String etag;
+        private final long size;
+        private final long lastModified;
+
+        private PartSummary(int partNumber, String etag, long size, long lastModified) {
+            this.partNumber = partNumber;
+            this.etag = etag;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public int getPartNumber() { return partNumber; }
+        public String getEtag() { return etag; }
+        public long getSize() { return size; }
+        public long getLastModified() { return lastModified; }
+    }
+
+    public static class PartListing {
+        private final long initiatedAt;
+        private final List<PartSummary> parts;
+        private final boolean truncated;
+        private final int nextPartNumberMarker;
+
+        private PartListing(long initiatedAt, List<PartSummary> parts, boolean truncated, int nextPartNumberMarker) {
+            this.initiatedAt = initiatedAt;
+            this.parts = parts;
+            this.truncated = truncated;
+            this.nextPartNumberMarker = nextPartNumberMarker;
+        }
+
+        public long getInitiatedAt() { return initiatedAt; }
+        public List<PartSummary> getParts() { return parts; }
+        public boolean isTruncated() { return truncated; }
+        public int getNextPartNumberMarker() { return nextPartNumberMarker; }
+    }
+
+    /**
+     * Thrown when a part would push the staged bytes over the global budget.
+     * Mapped to the S3 {@code SlowDown} error so clients back off and retry.
+     */
+    public static class SlowDownException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public SlowDownException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * On-disk JSON index of a multipart upload
+     */
+    static class UploadIndex {
+        public String uploadId;
+        public String bucket;
+        public String key;
+        public String contentType;
+        public Map<String, String> metadata;
+        public long initiatedAt;
+        public List<Part> parts;
+
+        static class Part {
+            public int partNumber;
+            public String etag;
+            public long size;
+            public long lastModified;
         }
     }
 
@@ -127,14 +887,24 @@ public class MultipartUploadService {
         private final String key;
         private final String contentType;
         private final Map<String, String> metadata;
-        private final byte[] data;
+        private final String hash;
+        private final long size;
+        private final MultipartUploadService service;
+        private final String uploadId;
+        private final List<MultipartPartStore.StoredPart> parts;
 
-        private CompletedUpload(String bucket, String key, String contentType, Map<String, String> metadata, byte[] data) {
+        private CompletedUpload(MultipartUploadService service, String uploadId, String bucket, String key,
+                                String contentType, Map<String, String> metadata, String hash, long size,
+                                List<MultipartPartStore.StoredPart> parts) {
+            this.service = service;
+            this.uploadId = uploadId;
             this.bucket = bucket;
             this.key = key;
             this.contentType = contentType;
             this.metadata = metadata == null ? Collections.emptyMap() : Collections.unmodifiableMap(metadata);
-            this.data = data;
+            this.hash = hash;
+            this.size = size;
+            this.parts = parts;
         }
 
         public String getBucket() {
@@ -153,8 +923,27 @@ public class MultipartUploadService {
             return metadata;
         }
 
-        public byte[] getData() {
-            return data;
+        public String getHash() {
+            return hash;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Stream the parts in order without concatenating them
+         */
+        public InputStream openStream() {
+            return service.partStore.openParts(uploadId, parts);
+        }
+
+        /**
+         * Write the assembled object to {@code storagePath} in the dedupe bucket.
+         * Suitable as a {@link DeduplicationService.BlobWriter}.
+         */
+        public void writeTo(String storagePath) throws Exception {
+            service.partStore.assemble(uploadId, parts, storagePath, size, contentType);
         }
     }
 }
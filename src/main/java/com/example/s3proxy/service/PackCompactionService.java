@@ -0,0 +1,164 @@
+package com.example.s3proxy.service;
+
+import com.example.s3proxy.entity.FileEntity;
+import com.example.s3proxy.entity.PackEntity;
+import com.example.s3proxy.repository.FileRepository;
+import com.example.s3proxy.repository.PackRepository;
+import io.minio.MinioClient;
+import io.minio.RemoveObjectArgs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rewrites pack objects whose dead space passed {@code dead-space-threshold}, and merges packs
+ * smaller than {@code min-pack-size}, by copying their live blobs into new packs.
+ * <p>
+ * Old packs are retired rather than deleted right away: a reader that looked up a file
+ * just before it was moved still reads from the old pack, so retired pack objects are only
+ * removed after {@code grace-period}. Packs younger than {@code min-age} are left alone so
+ * uploads that are still committing are not mistaken for dead space.
+ * </p>
+ */
+@Service
+public class PackCompactionService {
+
+    private static final Logger log = LoggerFactory.getLogger(PackCompactionService.class);
+
+    private final PackRepository packRepository;
+    private final FileRepository fileRepository;
+    private final PackStorageService packStorageService;
+    private final FileMetadataCache fileMetadataCache;
+    private final MinioClient minioClient;
+    private final String dedupeStorageBucket;
+    private final double deadSpaceThreshold;
+    private final long minPackSize;
+    private final Duration minAge;
+    private final Duration gracePeriod;
+
+    public PackCompactionService(PackRepository packRepository,
+                                 FileRepository fileRepository,
+                                 PackStorageService packStorageService,
+                                 FileMetadataCache fileMetadataCache,
+                                 MinioClient minioClient,
+                                 @Value("${minio.bucket.dedupe-storage}") String dedupeStorageBucket,
+                                 @Value("${s3.dedupe.packing.compaction.dead-space-threshold:0.5}") double deadSpaceThreshold,
+                                 @Value("${s3.dedupe.packing.compaction.min-pack-size:4MB}") DataSize minPackSize,
+                                 @Value("${s3.dedupe.packing.compaction.min-age:10m}") Duration minAge,
+                                 @Value("${s3.dedupe.packing.compaction.grace-period:15m}") Duration gracePeriod) {
+        this.packRepository = packRepository;
+        this.fileRepository = fileRepository;
+        this.packStorageService = packStorageService;
+        this.fileMetadataCache = fileMetadataCache;
+        this.minioClient = minioClient;
+        this.dedupeStorageBucket = dedupeStorageBucket;
+        this.deadSpaceThreshold = deadSpaceThreshold;
+        this.minPackSize = minPackSize.toBytes();
+        this.minAge = minAge;
+        this.gracePeriod = gracePeriod;
+    }
+
+    @Scheduled(fixedDelayString = "${s3.dedupe.packing.compaction.interval:PT1H}")
+    public void compact() {
+        if (!packStorageService.isEnabled()) {
+            return;
+        }
+        try {
+            compact(LocalDateTime.now());
+        } catch (Exception e) {
+            log.warn("Pack compaction failed", e);
+        }
+    }
+
+    /**
+     * Run one compaction pass
+     *
+     * @return the number of packs retired
+     */
+    int compact(LocalDateTime now) throws Exception {
+        deleteRetiredPacks(now.minus(gracePeriod));
+
+        List<PackEntity> candidates = packRepository.findCompactionCandidates(now.minus(minAge), deadSpaceThreshold, minPackSize);
+        if (candidates.size() == 1 && !hasDeadSpace(candidates.get(0))) {
+            // A lone small pack has nothing to be merged with
+            return 0;
+        }
+
+        int retired = 0;
+        List<PackEntity> group = new ArrayList<>();
+        long groupLive = 0;
+        for (PackEntity pack : candidates) {
+            if (!group.isEmpty() && groupLive + pack.getLiveSize() > packStorageService.getMaxPackSize()) {
+                retired += rewrite(group);
+                group.clear();
+                groupLive = 0;
+            }
+            group.add(pack);
+            groupLive += pack.getLiveSize();
+        }
+        if (!group.isEmpty()) {
+            retired += rewrite(group);
+        }
+        return retired;
+    }
+
+    private int rewrite(List<PackEntity> packs) throws Exception {
+        List<FileEntity> files = new ArrayList<>();
+        List<byte[]> blobs = new ArrayList<>();
+        for (PackEntity pack : packs) {
+            List<FileEntity> packFiles = fileRepository.findByPackId(pack.getId());
+            if (packFiles.isEmpty()) {
+                continue;
+            }
+            byte[] content = packStorageService.readPack(pack);
+            for (FileEntity file : packFiles) {
+                int offset = Math.toIntExact(file.getPackOffset());
+                blobs.add(Arrays.copyOfRange(content, offset, offset + Math.toIntExact(file.getPackLength())));
+                files.add(file);
+            }
+        }
+
+        List<PackStorageService.PackLocation> locations = files.isEmpty()
+                ? List.of()
+                : packStorageService.writePack(blobs);
+        int moved = packStorageService.relocate(files, locations, packs);
+        for (FileEntity file : files) {
+            fileMetadataCache.invalidate(file.getHashValue());
+        }
+        log.info("Compacted packs: packs={}, liveFiles={}, moved={}", packs.size(), files.size(), moved);
+        return packs.size();
+    }
+
+    private void deleteRetiredPacks(LocalDateTime retiredBefore) {
+        for (PackEntity pack : packRepository.findByRetiredAtBefore(retiredBefore)) {
+            if (fileRepository.countByPackId(pack.getId()) > 0) {
+                log.warn("Retired pack still has files, keeping it: id={}, path={}", pack.getId(), pack.getStoragePath());
+                continue;
+            }
+            try {
+                minioClient.removeObject(RemoveObjectArgs.builder()
+                        .bucket(dedupeStorageBucket)
+                        .object(pack.getStoragePath())
+                        .build());
+            } catch (Exception e) {
+                log.warn("Failed to delete pack from MinIO: {}", pack.getStoragePath(), e);
+                continue;
+            }
+            packRepository.delete(pack);
+            log.debug("Deleted retired pack: id={}, path={}", pack.getId(), pack.getStoragePath());
+        }
+    }
+
+    private boolean hasDeadSpace(PackEntity pack) {
+        return pack.getSize() - pack.getLiveSize() > pack.getSize() * deadSpaceThreshold;
+    }
+}
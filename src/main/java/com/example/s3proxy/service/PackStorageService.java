@@ -0,0 +1,302 @@
+package com.example.s3proxy.service;
+
+import com.example.s3proxy.entity.FileEntity;
+import com.example.s3proxy.entity.PackEntity;
+import com.example.s3proxy.repository.FileRepository;
+import com.example.s3proxy.repository.PackRepository;
+import io.minio.GetObjectArgs;
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packing tier for small blobs.
+ * <p>
+ * Storing every thumbnail or JSON sidecar as its own MinIO object makes per-object
+ * overhead dominate. Blobs below {@code s3.dedupe.packing.max-object-size} are instead
+ * queued and written together as one pack object under {@code dedupe-packs/}; each
+ * file records its pack, offset and length, and reads are ranged GETs into the pack.
+ * MinIO objects cannot be appended to, so a pack is sealed when it is written: a
+ * writer thread group-commits the blobs that arrive within {@code flush-window} (or
+ * until {@code max-pack-size} is reached) and every caller blocks until its pack is
+ * durable. {@link PackCompactionService} later merges small packs and rewrites packs
+ * whose dead space has grown.
+ * </p>
+ * <p>
+ * The live byte count of a pack is only incremented in the transaction that records
+ * a file in it, so blobs of rolled-back uploads are dead space from the start.
+ * </p>
+ */
+@Service
+public class PackStorageService {
+
+    private static final Logger log = LoggerFactory.getLogger(PackStorageService.class);
+
+    static final String PACK_PREFIX = "dedupe-packs/";
+
+    private final PackRepository packRepository;
+    private final FileRepository fileRepository;
+    private final MinioClient minioClient;
+    private final String dedupeStorageBucket;
+    private final boolean enabled;
+    private final long maxObjectSize;
+    private final long maxPackSize;
+    private final Duration flushWindow;
+    private final BlockingQueue<PendingBlob> queue = new LinkedBlockingQueue<>();
+    private Thread writer;
+
+    public PackStorageService(PackRepository packRepository,
+                              FileRepository fileRepository,
+                              MinioClient minioClient,
+                              @Value("${minio.bucket.dedupe-storage}") String dedupeStorageBucket,
+                              @Value("${s3.dedupe.packing.enabled:false}") boolean enabled,
+                              @Value("${s3.dedupe.packing.max-object-size:64KB}") DataSize maxObjectSize,
+                              @Value("${s3.dedupe.packing.max-pack-size:16MB}") DataSize maxPackSize,
+                              @Value("${s3.dedupe.packing.flush-window:20ms}") Duration flushWindow) {
+        this.packRepository = packRepository;
+        this.fileRepository = fileRepository;
+        this.minioClient = minioClient;
+        this.dedupeStorageBucket = dedupeStorageBucket;
+        this.enabled = enabled;
+        this.maxObjectSize = maxObjectSize.toBytes();
+        this.maxPackSize = maxPackSize.toBytes();
+        this.flushWindow = flushWindow;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether new content of the given size should be stored in a pack
+     */
+    public boolean shouldPack(long size) {
+        return enabled && size <= maxObjectSize;
+    }
+
+    public long getMaxPackSize() {
+        return maxPackSize;
+    }
+
+    /**
+     * Queue a blob for the next pack and wait until that pack has been written
+     */
+    public PackLocation append(byte[] data) throws Exception {
+        PendingBlob pending = new PendingBlob(data);
+        ensureWriterStarted();
+        queue.put(pending);
+        try {
+            return pending.result.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    /**
+     * Record a newly stored packed file. Must run in the transaction that saves the file.
+     */
+    public void recordLive(FileEntity file) {
+        packRepository.addLiveSize(file.getPackId(), file.getPackLength());
+    }
+
+    /**
+     * Release the bytes of a packed file that is being deleted. The blob stays in the pack until compaction.
+     */
+    public void releaseBlob(FileEntity file) {
+        packRepository.addLiveSize(file.getPackId(), -file.getPackLength());
+    }
+
+    /**
+     * Write the given blobs, in order, as a new pack object and record it
+     *
+     * @return the location of each blob, in the same order
+     */
+    public List<PackLocation> writePack(List<byte[]> blobs) throws Exception {
+        int total = 0;
+        for (byte[] blob : blobs) {
+            total = Math.addExact(total, blob.length);
+        }
+        byte[] content = new byte[total];
+        List<Long> offsets = new ArrayList<>(blobs.size());
+        int position = 0;
+        for (byte[] blob : blobs) {
+            System.arraycopy(blob, 0, content, position, blob.length);
+            offsets.add((long) position);
+            position += blob.length;
+        }
+
+        String storagePath = PACK_PREFIX + UUID.randomUUID();
+        try (InputStream inputStream = new ByteArrayInputStream(content)) {
+            minioClient.putObject(PutObjectArgs.builder()
+                    .bucket(dedupeStorageBucket)
+                    .object(storagePath)
+                    .stream(inputStream, content.length, -1)
+                    .contentType("application/octet-stream")
+                    .build());
+        }
+        PackEntity pack = packRepository.save(new PackEntity(storagePath, (long) content.length));
+        log.debug("Wrote pack: id={}, path={}, blobs={}, size={}", pack.getId(), storagePath, blobs.size(), content.length);
+
+        List<PackLocation> locations = new ArrayList<>(blobs.size());
+        for (int i = 0; i < blobs.size(); i++) {
+            locations.add(new PackLocation(pack.getId(), storagePath, offsets.get(i), blobs.get(i).length));
+        }
+        return locations;
+    }
+
+    /**
+     * Read a whole pack object
+     */
+    public byte[] readPack(PackEntity pack) throws Exception {
+        try (InputStream inputStream = minioClient.getObject(GetObjectArgs.builder()
+                .bucket(dedupeStorageBucket)
+                .object(pack.getStoragePath())
+                .build())) {
+            return inputStream.readAllBytes();
+        }
+    }
+
+    /**
+     * Point the live files of the given packs at their copies in a new pack and retire the old packs.
+     * Files deleted in the meantime are skipped, so they do not count as live in the new pack.
+     *
+     * @return the number of files moved
+     */
+    @Transactional
+    public int relocate(List<FileEntity> files, List<PackLocation> locations, List<PackEntity> oldPacks) {
+        int moved = 0;
+        long live = 0;
+        for (int i = 0; i < files.size(); i++) {
+            FileEntity file = files.get(i);
+            PackLocation location = locations.get(i);
+            if (fileRepository.movePackedFile(file.getId(), file.getPackId(), location.getPackId(),
+                    location.getStoragePath(), location.getOffset()) > 0) {
+                moved++;
+                live += location.getLength();
+            }
+        }
+        if (!locations.isEmpty() && live > 0) {
+            packRepository.addLiveSize(locations.get(0).getPackId(), live);
+        }
+        LocalDateTime now = LocalDateTime.now();
+        for (PackEntity oldPack : oldPacks) {
+            packRepository.findById(oldPack.getId()).ifPresent(pack -> {
+                pack.setRetiredAt(now);
+                packRepository.save(pack);
+            });
+        }
+        return moved;
+    }
+
+    private synchronized void ensureWriterStarted() {
+        if (writer == null) {
+            writer = new Thread(this::runWriter, "pack-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    private void runWriter() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                List<PendingBlob> batch = new ArrayList<>();
+                PendingBlob first = queue.take();
+                batch.add(first);
+                long bytes = first.data.length;
+                long deadline = System.nanoTime() + flushWindow.toNanos();
+                while (bytes < maxPackSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingBlob next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    bytes += next.data.length;
+                }
+                flush(batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flush(List<PendingBlob> batch) {
+        List<byte[]> blobs = new ArrayList<>(batch.size());
+        for (PendingBlob pending : batch) {
+            blobs.add(pending.data);
+        }
+        try {
+            List<PackLocation> locations = writePack(blobs);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(locations.get(i));
+            }
+        } catch (Exception e) {
+            log.warn("Failed to write pack of {} blobs", batch.size(), e);
+            for (PendingBlob pending : batch) {
+                pending.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    @PreDestroy
+    synchronized void stop() {
+        if (writer != null) {
+            writer.interrupt();
+            writer = null;
+        }
+        PendingBlob pending;
+        while ((pending = queue.poll()) != null) {
+            pending.result.completeExceptionally(new IllegalStateException("Pack writer stopped"));
+        }
+    }
+
+    private static class PendingBlob {
+        private final byte[] data;
+        private final CompletableFuture<PackLocation> result = new CompletableFuture<>();
+
+        private PendingBlob(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    /**
+     * Where a blob was written within a pack
+     */
+    public static class PackLocation {
+        private final Long packId;
+        private final String storagePath;
+        private final long offset;
+        private final long length;
+
+        public PackLocation(Long packId, String storagePath, long offset, long length) {
+            this.packId = packId;
+            this.storagePath = storagePath;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public Long getPackId() { return packId; }
+        public String getStoragePath() { return storagePath; }
+        public long getOffset() { return offset; }
+        public long getLength() { return length; }
+    }
+}
@@ -0,0 +1,472 @@
+package com.example.s3proxy.service;
+
+import com.example.s3proxy.repository.ChunkRepository;
+import com.example.s3proxy.repository.FileRepository;
+import com.example.s3proxy.repository.PackRepository;
+import com.example.s3proxy.repository.UserFileRepository;
+import com.example.s3proxy.util.Throttle;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.minio.ListObjectsArgs;
+import io.minio.MinioClient;
+import io.minio.RemoveObjectsArgs;
+import io.minio.Result;
+import io.minio.StatObjectArgs;
+import io.minio.StatObjectResponse;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
+import io.minio.messages.Item;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mark-and-sweep consistency check between the database and the dedupe bucket.
+ * <p>
+ * Two passes run per reconciliation:
+ * <ul>
+ *   <li>Reference counts of {@code minio_files} are recomputed from {@code minio_user_files}
+ *       in keyset-paged batches. Files left at zero references without a deletion date are
+ *       reported as well, since the garbage collector would never see them.</li>
+ *   <li>The blob prefixes of the dedupe bucket are listed in parallel, one listing per
+ *       leading hex digit, and every blob older than {@code min-orphan-age} without a row
+ *       in {@code minio_files}, {@code minio_chunks} or {@code minio_packs} is reported as
+ *       an orphan, typically left behind by a put whose database commit failed.</li>
+ * </ul>
+ * Both passes share one {@link Throttle}, so a run can be paced to a load the database and
+ * MinIO can absorb during business hours. Without {@code fix} the run only reports.
+ * </p>
+ * <p>
+ * A count is corrected only if it still has the value it was read with. The count and the
+ * key rows change in the same transaction, so any commit between the two reads also moves
+ * the count and the correction is skipped. Orphans are looked up and stat'ed again right
+ * before removal, so a blob rewritten by a concurrent upload of the same content is kept.
+ * </p>
+ */
+@Service
+public class ReconciliationService implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(ReconciliationService.class);
+
+    private static final String HEX_DIGITS = "0123456789abcdef";
+    private static final int MAX_SAMPLE_ORPHANS = 100;
+
+    private final FileRepository fileRepository;
+    private final UserFileRepository userFileRepository;
+    private final ChunkRepository chunkRepository;
+    private final PackRepository packRepository;
+    private final GarbageCollectionService garbageCollectionService;
+    private final MinioClient minioClient;
+    private final TransactionTemplate transactionTemplate;
+    private final String dedupeStorageBucket;
+    private final boolean fix;
+    private final int parallelism;
+    private final int batchSize;
+    private final double maxItemsPerSecond;
+    private final Duration minOrphanAge;
+    private final List<BlobPrefix> blobPrefixes;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final ExecutorService passExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "reconciliation-run");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> scheduledRun;
+    private volatile Report lastReport;
+
+    public ReconciliationService(FileRepository fileRepository,
+                                 UserFileRepository userFileRepository,
+                                 ChunkRepository chunkRepository,
+                                 PackRepository packRepository,
+                                 GarbageCollectionService garbageCollectionService,
+                                 MinioClient minioClient,
+                                 PlatformTransactionManager transactionManager,
+                                 @Value("${minio.bucket.dedupe-storage}") String dedupeStorageBucket,
+                                 @Value("${s3.dedupe.reconcile.fix:false}") boolean fix,
+                                 @Value("${s3.dedupe.reconcile.parallelism:4}") int parallelism,
+                                 @Value("${s3.dedupe.reconcile.batch-size:1000}") int batchSize,
+                                 @Value("${s3.dedupe.reconcile.max-items-per-second:5000}") double maxItemsPerSecond,
+                                 @Value("${s3.dedupe.reconcile.min-orphan-age:1h}") Duration minOrphanAge) {
+        this.fileRepository = fileRepository;
+        this.userFileRepository = userFileRepository;
+        this.chunkRepository = chunkRepository;
+        this.packRepository = packRepository;
+        this.garbageCollectionService = garbageCollectionService;
+        this.minioClient = minioClient;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.dedupeStorageBucket = dedupeStorageBucket;
+        this.fix = fix;
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+        this.maxItemsPerSecond = maxItemsPerSecond;
+        this.minOrphanAge = minOrphanAge;
+        this.blobPrefixes = List.of(
+                new BlobPrefix(DeduplicationService.OBJECT_STORAGE_PREFIX,
+                        paths -> fileRepository.findStoragePathsByHashValueIn(stripPrefix(DeduplicationService.OBJECT_STORAGE_PREFIX, paths))),
+                new BlobPrefix(ChunkStorageService.CHUNK_PREFIX,
+                        paths -> chunkRepository.findStoragePathsByHashValueIn(stripPrefix(ChunkStorageService.CHUNK_PREFIX, paths))),
+                new BlobPrefix(PackStorageService.PACK_PREFIX, packRepository::findStoragePathsIn));
+    }
+
+    @PreDestroy
+    void stop() {
+        passExecutor.shutdownNow();
+    }
+
+    /**
+     * Start a run on the reconciler's own thread unless one is already under way,
+     * so the shared scheduler thread stays free for the other maintenance jobs
+     */
+    @Scheduled(cron = "${s3.dedupe.reconcile.cron:-}")
+    public synchronized void scheduledReconcile() {
+        if (scheduledRun != null && !scheduledRun.isDone()) {
+            return;
+        }
+        scheduledRun = passExecutor.submit(() -> {
+            try {
+                reconcile(fix);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.warn("Reconciliation failed", e);
+            }
+        });
+    }
+
+    /**
+     * Run both passes once
+     *
+     * @param fix whether to correct counts, schedule unreferenced files and remove orphans,
+     *            or only report them
+     */
+    public Report reconcile(boolean fix) throws InterruptedException {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("Reconciliation is already running");
+        }
+        try {
+            Report report = new Report(fix);
+            Throttle throttle = new Throttle(maxItemsPerSecond);
+            log.info("Starting reconciliation: fix={}, parallelism={}, maxItemsPerSecond={}", fix, parallelism, maxItemsPerSecond);
+            reconcileReferenceCounts(report, throttle);
+            sweepOrphans(report, throttle, ZonedDateTime.now().minus(minOrphanAge));
+            report.finishedAt = LocalDateTime.now();
+            lastReport = report;
+            log.info("Reconciliation finished: {}", report);
+            return report;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * The report of the last completed run, or {@code null} before the first run
+     */
+    public Report getLastReport() {
+        return lastReport;
+    }
+
+    void reconcileReferenceCounts(Report report, Throttle throttle) throws InterruptedException {
+        long afterId = 0;
+        while (true) {
+            long cursor = afterId;
+            List<Object[]> rows = transactionTemplate.execute(status ->
+                    fileRepository.findReferenceCountBatch(cursor, PageRequest.of(0, batchSize)));
+            if (rows == null || rows.isEmpty()) {
+                return;
+            }
+            throttle.acquire(rows.size());
+
+            List<Long> ids = new ArrayList<>(rows.size());
+            for (Object[] row : rows) {
+                ids.add((Long) row[0]);
+            }
+            Map<Long, Integer> actualCounts = new HashMap<>();
+            for (Object[] row : userFileRepository.countByFileIdIn(ids)) {
+                actualCounts.put((Long) row[0], ((Long) row[1]).intValue());
+            }
+
+            List<long[]> corrections = new ArrayList<>();
+            List<Long> unscheduled = new ArrayList<>();
+            for (Object[] row : rows) {
+                Long id = (Long) row[0];
+                int expected = (Integer) row[1];
+                int actual = actualCounts.getOrDefault(id, 0);
+                if (expected < 0) {
+                    // Claimed by the garbage collector
+                    continue;
+                }
+                if (expected != actual) {
+                    log.warn("Reference count drift: fileId={}, stored={}, actual={}", id, expected, actual);
+                    report.driftedFiles.incrementAndGet();
+                    corrections.add(new long[] {id, expected, actual});
+                } else if (actual == 0 && row[2] == null) {
+                    log.warn("Unreferenced file not scheduled for deletion: fileId={}", id);
+                    report.unscheduledFiles.incrementAndGet();
+                    unscheduled.add(id);
+                }
+            }
+            report.scannedFiles.addAndGet(rows.size());
+
+            if (report.isFix() && (!corrections.isEmpty() || !unscheduled.isEmpty())) {
+                transactionTemplate.executeWithoutResult(status -> {
+                    for (long[] correction : corrections) {
+                        Long id = correction[0];
+                        int actual = (int) correction[2];
+                        if (fileRepository.correctReferenceCount(id, (int) correction[1], actual) > 0) {
+                            report.fixedFiles.incrementAndGet();
+                            if (actual == 0) {
+                                garbageCollectionService.schedule(fileRepository.getReferenceById(id));
+                            }
+                        }
+                    }
+                    for (Long id : unscheduled) {
+                        garbageCollectionService.schedule(fileRepository.getReferenceById(id));
+                        report.fixedFiles.incrementAndGet();
+                    }
+                });
+            }
+            afterId = ids.get(ids.size() - 1);
+        }
+    }
+
+    void sweepOrphans(Report report, Throttle throttle, ZonedDateTime modifiedBefore) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+            Thread thread = new Thread(runnable, "reconcile-list");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> listings = new ArrayList<>();
+            for (BlobPrefix blobPrefix : blobPrefixes) {
+                for (char digit : HEX_DIGITS.toCharArray()) {
+                    String prefix = blobPrefix.prefix + digit;
+                    listings.add(executor.submit(() -> {
+                        sweepPrefix(blobPrefix, prefix, report, throttle, modifiedBefore);
+                        return null;
+                    }));
+                }
+            }
+            for (Future<?> listing : listings) {
+                try {
+                    listing.get();
+                } catch (ExecutionException e) {
+                    report.failedPrefixes.incrementAndGet();
+                    log.warn("Failed to reconcile a dedupe bucket prefix", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void sweepPrefix(BlobPrefix blobPrefix, String prefix, Report report, Throttle throttle,
+                             ZonedDateTime modifiedBefore) throws Exception {
+        Iterable<Result<Item>> results = minioClient.listObjects(ListObjectsArgs.builder()
+                .bucket(dedupeStorageBucket)
+                .prefix(prefix)
+                .recursive(true)
+                .build());
+        Map<String, Long> page = new HashMap<>();
+        for (Result<Item> result : results) {
+            Item item = result.get();
+            report.listedObjects.incrementAndGet();
+            if (item.isDir() || item.lastModified() == null || !item.lastModified().isBefore(modifiedBefore)) {
+                continue;
+            }
+            page.put(item.objectName(), item.size());
+            if (page.size() >= batchSize) {
+                checkPage(blobPrefix, page, report, throttle, modifiedBefore);
+                page.clear();
+            }
+        }
+        if (!page.isEmpty()) {
+            checkPage(blobPrefix, page, report, throttle, modifiedBefore);
+        }
+    }
+
+    private void checkPage(BlobPrefix blobPrefix, Map<String, Long> page, Report report, Throttle throttle,
+                           ZonedDateTime modifiedBefore) throws Exception {
+        throttle.acquire(page.size());
+        List<String> orphans = findOrphans(blobPrefix, page.keySet());
+        for (String orphan : orphans) {
+            log.warn("Orphaned blob in dedupe bucket: {} ({} bytes)", orphan, page.get(orphan));
+            report.orphanObjects.incrementAndGet();
+            report.orphanBytes.addAndGet(page.get(orphan));
+            report.addSample(orphan);
+        }
+        if (report.isFix() && !orphans.isEmpty()) {
+            report.removedObjects.addAndGet(removeOrphans(blobPrefix, orphans, modifiedBefore));
+        }
+    }
+
+    private List<String> findOrphans(BlobPrefix blobPrefix, Set<String> paths) {
+        List<String> candidates = new ArrayList<>(paths);
+        Set<String> referenced = new HashSet<>(blobPrefix.lookup.findReferenced(candidates));
+        List<String> orphans = new ArrayList<>();
+        for (String path : candidates) {
+            if (!referenced.contains(path)) {
+                orphans.add(path);
+            }
+        }
+        return orphans;
+    }
+
+    private int removeOrphans(BlobPrefix blobPrefix, List<String> orphans, ZonedDateTime modifiedBefore) {
+        // Re-check right before removal: an upload of the same content may have rewritten the blob meanwhile
+        List<String> stillOrphaned = findOrphans(blobPrefix, new HashSet<>(orphans));
+        List<DeleteObject> objects = new ArrayList<>();
+        for (String path : stillOrphaned) {
+            try {
+                StatObjectResponse stat = minioClient.statObject(StatObjectArgs.builder()
+                        .bucket(dedupeStorageBucket)
+                        .object(path)
+                        .build());
+                if (stat.lastModified().isBefore(modifiedBefore)) {
+                    objects.add(new DeleteObject(path));
+                }
+            } catch (Exception e) {
+                log.debug("Skipping orphan that could not be stat'ed: {}", path, e);
+            }
+        }
+        if (objects.isEmpty()) {
+            return 0;
+        }
+        int failed = 0;
+        try {
+            for (Result<DeleteError> result : minioClient.removeObjects(RemoveObjectsArgs.builder()
+                    .bucket(dedupeStorageBucket)
+                    .objects(objects)
+                    .build())) {
+                DeleteError error = result.get();
+                log.warn("Failed to remove orphaned blob: {} ({})", error.objectName(), error.message());
+                failed++;
+            }
+        } catch (Exception e) {
+            log.warn("Failed to remove {} orphaned blobs", objects.size(), e);
+            return 0;
+        }
+        return objects.size() - failed;
+    }
+
+    private static List<String> stripPrefix(String prefix, List<String> paths) {
+        List<String> hashes = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            hashes.add(path.substring(prefix.length()));
+        }
+        return hashes;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("s3proxy.reconcile.orphan.objects", this, service -> service.lastReport == null ? 0 : service.lastReport.getOrphanObjects())
+                .description("Orphaned blobs found by the last reconciliation")
+                .register(registry);
+        Gauge.builder("s3proxy.reconcile.drifted.files", this, service -> service.lastReport == null ? 0 : service.lastReport.getDriftedFiles())
+                .description("Files with a drifted reference count found by the last reconciliation")
+                .register(registry);
+    }
+
+    private interface PathLookup {
+        /**
+         * The subset of {@code paths} that is referenced from the database
+         */
+        List<String> findReferenced(List<String> paths);
+    }
+
+    private static class BlobPrefix {
+        private final String prefix;
+        private final PathLookup lookup;
+
+        private BlobPrefix(String prefix, PathLookup lookup) {
+            this.prefix = prefix;
+            this.lookup = lookup;
+        }
+    }
+
+    /**
+     * Findings of one reconciliation run
+     */
+    public static class Report {
+        private final boolean fix;
+        private final LocalDateTime startedAt = LocalDateTime.now();
+        private volatile LocalDateTime finishedAt;
+        private final AtomicLong scannedFiles = new AtomicLong();
+        private final AtomicLong driftedFiles = new AtomicLong();
+        private final AtomicLong unscheduledFiles = new AtomicLong();
+        private final AtomicLong fixedFiles = new AtomicLong();
+        private final AtomicLong listedObjects = new AtomicLong();
+        private final AtomicLong orphanObjects = new AtomicLong();
+        private final AtomicLong orphanBytes = new AtomicLong();
+        private final AtomicLong removedObjects = new AtomicLong();
+        private final AtomicInteger failedPrefixes = new AtomicInteger();
+        private final List<String> sampleOrphans = Collections.synchronizedList(new ArrayList<>());
+
+        Report(boolean fix) {
+            this.fix = fix;
+        }
+
+        private void addSample(String path) {
+            synchronized (sampleOrphans) {
+                if (sampleOrphans.size() < MAX_SAMPLE_ORPHANS) {
+                    sampleOrphans.add(path);
+                }
+            }
+        }
+
+        public boolean isFix() { return fix; }
+        public LocalDateTime getStartedAt() { return startedAt; }
+        public LocalDateTime getFinishedAt() { return finishedAt; }
+        public long getScannedFiles() { return scannedFiles.get(); }
+        public long getDriftedFiles() { return driftedFiles.get(); }
+        public long getUnscheduledFiles() { return unscheduledFiles.get(); }
+        public long getFixedFiles() { return fixedFiles.get(); }
+        public long getListedObjects() { return listedObjects.get(); }
+        public long getOrphanObjects() { return orphanObjects.get(); }
+        public long getOrphanBytes() { return orphanBytes.get(); }
+        public long getRemovedObjects() { return removedObjects.get(); }
+        public int getFailedPrefixes() { return failedPrefixes.get(); }
+
+        /**
+         * Up to the first 100 orphaned blob paths found
+         */
+        public List<String> getSampleOrphans() {
+            synchronized (sampleOrphans) {
+                return List.copyOf(sampleOrphans);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "fix=" + fix + ", scannedFiles=" + getScannedFiles() + ", driftedFiles=" + getDriftedFiles()
+                    + ", unscheduledFiles=" + getUnscheduledFiles() + ", fixedFiles=" + getFixedFiles()
+                    + ", listedObjects=" + getListedObjects() + ", orphanObjects=" + getOrphanObjects()
+                    + ", orphanBytes=" + getOrphanBytes() + ", removedObjects=" + getRemovedObjects()
+                    + ", failedPrefixes=" + getFailedPrefixes();
+        }
+    }
+}
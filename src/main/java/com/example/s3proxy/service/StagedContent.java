@@ -0,0 +1,50 @@
+package com.example.s3proxy.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Request body that has been spooled to a local staging file.
+ * <p>
+ * The digest (SHA-256, or MD5 for multipart parts) and size are computed while
+ * the body is streamed to disk, so the content can be promoted to its
+ * content-addressed location without ever being held in memory. Closing the
+ * instance removes the staging file.
+ * </p>
+ */
+public class StagedContent implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(StagedContent.class);
+
+    private final Path file;
+    private final String hash;
+    private final long size;
+
+    public StagedContent(Path file, String hash, long size) {
+        this.file = file;
+        this.hash = hash;
+        this.size = size;
+    }
+
+    public Path getFile() { return file; }
+    public String getHash() { return hash; }
+    public long getSize() { return size; }
+
+    public InputStream openStream() throws IOException {
+        return Files.newInputStream(file);
+    }
+
+    @Override
+    public void close() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete staging file: {}", file, e);
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package com.example.s3proxy.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BLAKE3 hashing (unkeyed, 32-byte output), following the reference implementation.
+ * <p>
+ * BLAKE3 splits its input into 1 KiB chunks that form a binary tree, so any complete,
+ * aligned subtree can be hashed independently. {@link #subtreeChainingValue} hashes such a
+ * subtree and {@link Hasher#pushSubtree} adds its result to an incremental hasher, which
+ * lets callers hash the segments of a large input on several threads and still obtain the
+ * standard BLAKE3 digest.
+ * </p>
+ */
+public final class Blake3 {
+
+    public static final int CHUNK_LEN = 1024;
+    public static final int OUT_LEN = 32;
+
+    private static final int BLOCK_LEN = 64;
+    private static final int CHUNK_START = 1;
+    private static final int CHUNK_END = 1 << 1;
+    private static final int PARENT = 1 << 2;
+    private static final int ROOT = 1 << 3;
+
+    private static final int[] IV = {
+            0x6A09E667, 0xBB67AE85, 0x3C6EF372, 0xA54FF53A, 0x510E527F, 0x9B05688C, 0x1F83D9AB, 0x5BE0CD19
+    };
+
+    private static final VarHandle LITTLE_ENDIAN_INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private Blake3() {
+    }
+
+    /**
+     * Hash a complete input on the calling thread
+     */
+    public static byte[] hash(byte[] input) {
+        Hasher hasher = new Hasher();
+        hasher.update(input, 0, input.length);
+        return hasher.finish();
+    }
+
+    /**
+     * Chaining value of the complete subtree of {@code chunkCount} chunks starting at chunk
+     * {@code firstChunk}. {@code chunkCount} must be a power of two, {@code firstChunk} a
+     * multiple of it, and {@code input} must hold {@code chunkCount * CHUNK_LEN} bytes from
+     * {@code offset}. The subtree must not be the last part of the input: the root is always
+     * finalized by a {@link Hasher}.
+     */
+    public static int[] subtreeChainingValue(byte[] input, int offset, long firstChunk, int chunkCount) {
+        if (chunkCount == 1) {
+            ChunkState chunk = new ChunkState(firstChunk);
+            chunk.update(input, offset, CHUNK_LEN);
+            return chunk.output().chainingValue();
+        }
+        int half = chunkCount >>> 1;
+        int[] left = subtreeChainingValue(input, offset, firstChunk, half);
+        int[] right = subtreeChainingValue(input, offset + half * CHUNK_LEN, firstChunk + half, half);
+        return parentOutput(left, right).chainingValue();
+    }
+
+    /**
+     * Incremental BLAKE3 hasher
+     */
+    public static class Hasher {
+        private ChunkState chunkState;
+        private final List<int[]> cvStack;
+
+        public Hasher() {
+            this.chunkState = new ChunkState(0);
+            this.cvStack = new ArrayList<>();
+        }
+
+        private Hasher(ChunkState chunkState, List<int[]> cvStack) {
+            this.chunkState = chunkState;
+            this.cvStack = cvStack;
+        }
+
+        public void update(byte[] input, int offset, int length) {
+            int end = offset + length;
+            while (offset < end) {
+                if (chunkState.length() == CHUNK_LEN) {
+                    int[] chunkCv = chunkState.output().chainingValue();
+                    long totalChunks = chunkState.chunkCounter + 1;
+                    addChainingValue(chunkCv, totalChunks);
+                    chunkState = new ChunkState(totalChunks);
+                }
+                int take = Math.min(CHUNK_LEN - chunkState.length(), end - offset);
+                chunkState.update(input, offset, take);
+                offset += take;
+            }
+        }
+
+        /**
+         * Add the chaining value of a complete subtree of {@code chunkCount} chunks that directly
+         * follows everything hashed so far. Only valid on a chunk boundary aligned to the subtree size.
+         */
+        public void pushSubtree(int[] chainingValue, int chunkCount) {
+            if (chunkState.length() != 0 || Integer.bitCount(chunkCount) != 1 || chunkState.chunkCounter % chunkCount != 0) {
+                throw new IllegalStateException("Subtree of " + chunkCount + " chunks is not aligned at chunk " + chunkState.chunkCounter);
+            }
+            long totalChunks = chunkState.chunkCounter + chunkCount;
+            addChainingValue(chainingValue, totalChunks >>> Integer.numberOfTrailingZeros(chunkCount));
+            chunkState = new ChunkState(totalChunks);
+        }
+
+        /**
+         * Bytes hashed so far
+         */
+        public long length() {
+            return chunkState.chunkCounter * CHUNK_LEN + chunkState.length();
+        }
+
+        /**
+         * 32-byte digest of everything hashed so far; the hasher can keep being updated
+         */
+        public byte[] finish() {
+            Output output = chunkState.output();
+            for (int i = cvStack.size() - 1; i >= 0; i--) {
+                output = parentOutput(cvStack.get(i), output.chainingValue());
+            }
+            return output.rootBytes();
+        }
+
+        /**
+         * Independent copy of the current state
+         */
+        public Hasher copy() {
+            return new Hasher(chunkState.copy(), new ArrayList<>(cvStack));
+        }
+
+        private void addChainingValue(int[] cv, long totalSubtrees) {
+            // Each trailing zero bit of the count completes a subtree that merges with its left sibling
+            while ((totalSubtrees & 1) == 0) {
+                cv = parentOutput(cvStack.remove(cvStack.size() - 1), cv).chainingValue();
+                totalSubtrees >>>= 1;
+            }
+            cvStack.add(cv);
+        }
+    }
+
+    private static class ChunkState {
+        private final int[] chainingValue;
+        private final long chunkCounter;
+        private final byte[] block;
+        private final int[] words = new int[16];
+        private int blockLength;
+        private int blocksCompressed;
+
+        private ChunkState(long chunkCounter) {
+            this.chainingValue = IV.clone();
+            this.chunkCounter = chunkCounter;
+            this.block = new byte[BLOCK_LEN];
+        }
+
+        private ChunkState(ChunkState other) {
+            this.chainingValue = other.chainingValue.clone();
+            this.chunkCounter = other.chunkCounter;
+            this.block = other.block.clone();
+            this.blockLength = other.blockLength;
+            this.blocksCompressed = other.blocksCompressed;
+        }
+
+        private ChunkState copy() {
+            return new ChunkState(this);
+        }
+
+        private int length() {
+            return BLOCK_LEN * blocksCompressed + blockLength;
+        }
+
+        private int startFlag() {
+            return blocksCompressed == 0 ? CHUNK_START : 0;
+        }
+
+        private void update(byte[] input, int offset, int length) {
+            int end = offset + length;
+            while (offset < end) {
+                if (blockLength == BLOCK_LEN) {
+                    compressBlock(block, 0);
+                    blockLength = 0;
+                }
+                // Whole blocks that are not the last of the input skip the block buffer
+                while (blockLength == 0 && end - offset > BLOCK_LEN) {
+                    compressBlock(input, offset);
+                    offset += BLOCK_LEN;
+                }
+                int take = Math.min(BLOCK_LEN - blockLength, end - offset);
+                System.arraycopy(input, offset, block, blockLength, take);
+                blockLength += take;
+                offset += take;
+            }
+        }
+
+        private void compressBlock(byte[] input, int offset) {
+            readWords(input, offset, words);
+            compress(chainingValue, words, chunkCounter, BLOCK_LEN, startFlag(), chainingValue);
+            blocksCompressed++;
+        }
+
+        private Output output() {
+            byte[] lastBlock = new byte[BLOCK_LEN];
+            System.arraycopy(block, 0, lastBlock, 0, blockLength);
+            int[] lastWords = new int[16];
+            readWords(lastBlock, 0, lastWords);
+            return new Output(chainingValue.clone(), lastWords, chunkCounter, blockLength, startFlag() | CHUNK_END);
+        }
+    }
+
+    private static class Output {
+        private final int[] inputChainingValue;
+        private final int[] blockWords;
+        private final long counter;
+        private final int blockLength;
+        private final int flags;
+
+        private Output(int[] inputChainingValue, int[] blockWords, long counter, int blockLength, int flags) {
+            this.inputChainingValue = inputChainingValue;
+            this.blockWords = blockWords;
+            this.counter = counter;
+            this.blockLength = blockLength;
+            this.flags = flags;
+        }
+
+        private int[] chainingValue() {
+            int[] cv = new int[8];
+            compress(inputChainingValue, blockWords, counter, blockLength, flags, cv);
+            return cv;
+        }
+
+        private byte[] rootBytes() {
+            int[] words = new int[8];
+            compress(inputChainingValue, blockWords, 0, blockLength, flags | ROOT, words);
+            byte[] out = new byte[OUT_LEN];
+            for (int i = 0; i < OUT_LEN / 4; i++) {
+                int word = words[i];
+                out[4 * i] = (byte) word;
+                out[4 * i + 1] = (byte) (word >>> 8);
+                out[4 * i + 2] = (byte) (word >>> 16);
+                out[4 * i + 3] = (byte) (word >>> 24);
+            }
+            return out;
+        }
+    }
+
+    private static Output parentOutput(int[] left, int[] right) {
+        int[] blockWords = new int[16];
+        System.arraycopy(left, 0, blockWords, 0, 8);
+        System.arraycopy(right, 0, blockWords, 8, 8);
+        return new Output(IV, blockWords, 0, BLOCK_LEN, PARENT);
+    }
+
+    /**
+     * Compression function; writes the first 8 output words, all a 32-byte output needs, to {@code out}
+     */
+    private static void compress(int[] chainingValue, int[] m, long counter, int blockLength, int flags, int[] out) {
+        int v0 = chainingValue[0], v1 = chainingValue[1], v2 = chainingValue[2], v3 = chainingValue[3];
+        int v4 = chainingValue[4], v5 = chainingValue[5], v6 = chainingValue[6], v7 = chainingValue[7];
+        int v8 = IV[0], v9 = IV[1], v10 = IV[2], v11 = IV[3];
+        int v12 = (int) counter, v13 = (int) (counter >>> 32), v14 = blockLength, v15 = flags;
+        int m0 = m[0], m1 = m[1], m2 = m[2], m3 = m[3], m4 = m[4], m5 = m[5], m6 = m[6], m7 = m[7];
+        int m8 = m[8], m9 = m[9], m10 = m[10], m11 = m[11], m12 = m[12], m13 = m[13], m14 = m[14], m15 = m[15];
+        for (int round = 0; round < 7; round++) {
+            v0 += v4 + m0;
+            v12 = Integer.rotateRight(v12 ^ v0, 16);
+            v8 += v12;
+            v4 = Integer.rotateRight(v4 ^ v8, 12);
+            v0 += v4 + m1;
+            v12 = Integer.rotateRight(v12 ^ v0, 8);
+            v8 += v12;
+            v4 = Integer.rotateRight(v4 ^ v8, 7);
+            v1 += v5 + m2;
+            v13 = Integer.rotateRight(v13 ^ v1, 16);
+            v9 += v13;
+            v5 = Integer.rotateRight(v5 ^ v9, 12);
+            v1 += v5 + m3;
+            v13 = Integer.rotateRight(v13 ^ v1, 8);
+            v9 += v13;
+            v5 = Integer.rotateRight(v5 ^ v9, 7);
+            v2 += v6 + m4;
+            v14 = Integer.rotateRight(v14 ^ v2, 16);
+            v10 += v14;
+            v6 = Integer.rotateRight(v6 ^ v10, 12);
+            v2 += v6 + m5;
+            v14 = Integer.rotateRight(v14 ^ v2, 8);
+            v10 += v14;
+            v6 = Integer.rotateRight(v6 ^ v10, 7);
+            v3 += v7 + m6;
+            v15 = Integer.rotateRight(v15 ^ v3, 16);
+            v11 += v15;
+            v7 = Integer.rotateRight(v7 ^ v11, 12);
+            v3 += v7 + m7;
+            v15 = Integer.rotateRight(v15 ^ v3, 8);
+            v11 += v15;
+            v7 = Integer.rotateRight(v7 ^ v11, 7);
+            v0 += v5 + m8;
+            v15 = Integer.rotateRight(v15 ^ v0, 16);
+            v10 += v15;
+            v5 = Integer.rotateRight(v5 ^ v10, 12);
+            v0 += v5 + m9;
+            v15 = Integer.rotateRight(v15 ^ v0, 8);
+            v10 += v15;
+            v5 = Integer.rotateRight(v5 ^ v10, 7);
+            v1 += v6 + m10;
+            v12 = Integer.rotateRight(v12 ^ v1, 16);
+            v11 += v12;
+            v6 = Integer.rotateRight(v6 ^ v11, 12);
+            v1 += v6 + m11;
+            v12 = Integer.rotateRight(v12 ^ v1, 8);
+            v11 += v12;
+            v6 = Integer.rotateRight(v6 ^ v11, 7);
+            v2 += v7 + m12;
+            v13 = Integer.rotateRight(v13 ^ v2, 16);
+            v8 += v13;
+            v7 = Integer.rotateRight(v7 ^ v8, 12);
+            v2 += v7 + m13;
+            v13 = Integer.rotateRight(v13 ^ v2, 8);
+            v8 += v13;
+            v7 = Integer.rotateRight(v7 ^ v8, 7);
+            v3 += v4 + m14;
+            v14 = Integer.rotateRight(v14 ^ v3, 16);
+            v9 += v14;
+            v4 = Integer.rotateRight(v4 ^ v9, 12);
+            v3 += v4 + m15;
+            v14 = Integer.rotateRight(v14 ^ v3, 8);
+            v9 += v14;
+            v4 = Integer.rotateRight(v4 ^ v9, 7);
+            // Permute the message words for the next round
+            int t0 = m0, t1 = m1, t2 = m2, t3 = m3, t4 = m4, t5 = m5, t6 = m6, t7 = m7;
+            int t8 = m8, t9 = m9, t10 = m10, t11 = m11, t12 = m12, t13 = m13, t14 = m14, t15 = m15;
+            m0 = t2;
+            m1 = t6;
+            m2 = t3;
+            m3 = t10;
+            m4 = t7;
+            m5 = t0;
+            m6 = t4;
+            m7 = t13;
+            m8 = t1;
+            m9 = t11;
+            m10 = t12;
+            m11 = t5;
+            m12 = t9;
+            m13 = t14;
+            m14 = t15;
+            m15 = t8;
+        }
+        out[0] = v0 ^ v8;
+        out[1] = v1 ^ v9;
+        out[2] = v2 ^ v10;
+        out[3] = v3 ^ v11;
+        out[4] = v4 ^ v12;
+        out[5] = v5 ^ v13;
+        out[6] = v6 ^ v14;
+        out[7] = v7 ^ v15;
+    }
+
+    private static void readWords(byte[] block, int offset, int[] words) {
+        for (int i = 0; i < 16; i++) {
+            words[i] = (int) LITTLE_ENDIAN_INT.get(block, offset + 4 * i);
+        }
+    }
+}
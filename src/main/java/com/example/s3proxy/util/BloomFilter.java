@@ -0,0 +1,113 @@
+package com.example.s3proxy.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe Bloom filter over strings.
+ * <p>
+ * Bit positions are derived by double hashing (Kirsch and Mitzenmacher) from two
+ * independent 64-bit hashes of the key's bytes. Bits are set with CAS, so
+ * concurrent {@link #put} and {@link #mightContain} calls need no locking. A
+ * {@code false} answer is definite; {@code true} may be a false positive.
+ * </p>
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray words;
+    private final long bitCount;
+    private final int hashFunctions;
+    private final AtomicLong insertions = new AtomicLong();
+
+    private BloomFilter(long bitCount, int hashFunctions) {
+        long wordCount = (bitCount + 63) / 64;
+        if (wordCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bloom filter too large: " + bitCount + " bits");
+        }
+        this.words = new AtomicLongArray((int) wordCount);
+        this.bitCount = wordCount * 64;
+        this.hashFunctions = hashFunctions;
+    }
+
+    /**
+     * Size a filter for the expected number of keys and target false-positive probability
+     */
+    public static BloomFilter create(long expectedInsertions, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False-positive rate must be between 0 and 1: " + falsePositiveRate);
+        }
+        long n = Math.max(expectedInsertions, 1);
+        long bits = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int k = Math.max(1, (int) Math.round((double) bits / n * Math.log(2)));
+        return new BloomFilter(Math.max(bits, 64), k);
+    }
+
+    public void put(String key) {
+        long h1 = hash(key, 0xCBF29CE484222325L);
+        long h2 = hash(key, 0x84222325CBF29CE4L) | 1;
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            int index = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long word;
+            do {
+                word = words.get(index);
+                if ((word & mask) != 0) {
+                    break;
+                }
+            } while (!words.compareAndSet(index, word, word | mask));
+        }
+        insertions.incrementAndGet();
+    }
+
+    public boolean mightContain(String key) {
+        long h1 = hash(key, 0xCBF29CE484222325L);
+        long h2 = hash(key, 0x84222325CBF29CE4L) | 1;
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Expected false-positive probability for the number of keys inserted so far
+     */
+    public double expectedFalsePositiveRate() {
+        double fill = 1 - Math.exp(-(double) hashFunctions * insertions.get() / bitCount);
+        return Math.pow(fill, hashFunctions);
+    }
+
+    public long getInsertions() {
+        return insertions.get();
+    }
+
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    public int getHashFunctions() {
+        return hashFunctions;
+    }
+
+    public long memoryBytes() {
+        return bitCount / 8;
+    }
+
+    /**
+     * FNV-1a over the UTF-8 bytes followed by a SplitMix64 finalizer for better bit dispersion
+     */
+    private static long hash(String key, long seed) {
+        long h = seed;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001B3L;
+        }
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+}
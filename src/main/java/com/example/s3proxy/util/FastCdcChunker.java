@@ -0,0 +1,162 @@
+package com.example.s3proxy.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Content-defined chunker implementing FastCDC (Xia et al., USENIX ATC 2016).
+ * <p>
+ * A Gear rolling hash is computed over the bytes after the minimum chunk size and
+ * a boundary is declared where the masked hash is zero. Normalized chunking uses a
+ * stricter mask before the average size and a looser one after it, which narrows
+ * the chunk size distribution around the average. Because boundaries depend only on
+ * local content, an insertion or deletion shifts at most the chunks around the edit
+ * and the rest of the file still deduplicates.
+ * </p>
+ * <p>
+ * The Gear table is generated from a fixed seed, so chunk boundaries are stable
+ * across restarts and versions; changing it would stop new uploads from sharing
+ * chunks with existing ones.
+ * </p>
+ */
+public class FastCdcChunker {
+
+    private static final long[] GEAR = gearTable(0x5333_5072_6F78_79L);
+
+    private final int minSize;
+    private final int avgSize;
+    private final int maxSize;
+    private final long strictMask;
+    private final long looseMask;
+
+    public FastCdcChunker(int minSize, int avgSize, int maxSize) {
+        if (minSize <= 0 || minSize > avgSize || avgSize > maxSize) {
+            throw new IllegalArgumentException("Chunk sizes must satisfy 0 < min <= avg <= max: "
+                    + minSize + ", " + avgSize + ", " + maxSize);
+        }
+        this.minSize = minSize;
+        this.avgSize = avgSize;
+        this.maxSize = maxSize;
+        int bits = 63 - Long.numberOfLeadingZeros(avgSize);
+        // Masks use the high bits: with a left-shifting Gear hash they depend on the last 64 bytes
+        this.strictMask = highBits(Math.min(bits + 2, 63));
+        this.looseMask = highBits(Math.max(bits - 2, 1));
+    }
+
+    /**
+     * Chunker with the usual FastCDC ratios: min = avg / 4, max = avg * 4
+     */
+    public static FastCdcChunker withAverageSize(int avgSize) {
+        return new FastCdcChunker(Math.max(avgSize / 4, 64), avgSize, avgSize * 4);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Find the end of the chunk starting at {@code offset}.
+     *
+     * @param length number of bytes available from {@code offset}; when this is less than the
+     *               maximum chunk size the caller must only pass it for the final bytes of the input
+     * @return the length of the chunk
+     */
+    public int cut(byte[] data, int offset, int length) {
+        if (length <= minSize) {
+            return length;
+        }
+        int limit = Math.min(length, maxSize);
+        int normal = Math.min(avgSize, limit);
+        long fingerprint = 0;
+        int i = minSize;
+        for (; i < normal; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[data[offset + i] & 0xFF];
+            if ((fingerprint & strictMask) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[data[offset + i] & 0xFF];
+            if ((fingerprint & looseMask) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Split a stream into chunks. Memory use is bounded by twice the maximum chunk size.
+     */
+    public Reader reader(InputStream inputStream) {
+        return new Reader(inputStream);
+    }
+
+    /**
+     * Pulls chunks from a stream one at a time
+     */
+    public class Reader {
+        private final InputStream inputStream;
+        private final byte[] buffer = new byte[maxSize * 2];
+        private int start;
+        private int end;
+        private boolean eof;
+
+        private Reader(InputStream inputStream) {
+            this.inputStream = inputStream;
+        }
+
+        /**
+         * @return the next chunk, or {@code null} at the end of the stream. The returned array is a copy.
+         */
+        public byte[] next() throws IOException {
+            fill();
+            if (start == end) {
+                return null;
+            }
+            int chunkLength = cut(buffer, start, end - start);
+            byte[] chunk = Arrays.copyOfRange(buffer, start, start + chunkLength);
+            start += chunkLength;
+            return chunk;
+        }
+
+        private void fill() throws IOException {
+            if (eof || end - start >= maxSize) {
+                return;
+            }
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+            }
+            while (end < buffer.length) {
+                int read = inputStream.read(buffer, end, buffer.length - end);
+                if (read == -1) {
+                    eof = true;
+                    return;
+                }
+                end += read;
+            }
+        }
+    }
+
+    private static long highBits(int count) {
+        return -1L << (64 - count);
+    }
+
+    /**
+     * SplitMix64 is specified independently of the JDK, so the table never changes
+     */
+    private static long[] gearTable(long seed) {
+        long[] table = new long[256];
+        long state = seed;
+        for (int i = 0; i < table.length; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            table[i] = z ^ (z >>> 31);
+        }
+        return table;
+    }
+}
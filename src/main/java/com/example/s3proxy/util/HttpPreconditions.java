@@ -0,0 +1,95 @@
+package com.example.s3proxy.util;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Evaluates HTTP conditional request headers (RFC 7232) for GET and HEAD requests.
+ * <p>
+ * Objects are content addressed, so the stored SHA-256 is a strong validator:
+ * an entity tag matches when it equals either the ETag we serve (the hash prefix)
+ * or the full hash. Dates are compared with one-second resolution, like HTTP dates.
+ * Evaluation order follows RFC 7232 section 6, which is also what S3 implements.
+ * </p>
+ */
+public class HttpPreconditions {
+
+    private HttpPreconditions() {
+    }
+
+    /**
+     * @param etag         the unquoted ETag served for the object
+     * @param hash         the full content hash of the object
+     * @param lastModified last modification time of the object (UTC)
+     * @return {@code null} when the request should proceed, otherwise
+     * {@link HttpStatus#NOT_MODIFIED} or {@link HttpStatus#PRECONDITION_FAILED}
+     */
+    public static HttpStatus evaluate(HttpHeaders requestHeaders, String etag, String hash, LocalDateTime lastModified) {
+        if (requestHeaders == null) {
+            return null;
+        }
+        long lastModifiedSeconds = lastModified == null
+                ? -1
+                : lastModified.toEpochSecond(ZoneOffset.UTC);
+
+        String ifMatch = requestHeaders.getFirst(HttpHeaders.IF_MATCH);
+        if (ifMatch != null) {
+            if (!matches(ifMatch, etag, hash, false)) {
+                return HttpStatus.PRECONDITION_FAILED;
+            }
+        } else {
+            long ifUnmodifiedSince = parseDateSeconds(requestHeaders, HttpHeaders.IF_UNMODIFIED_SINCE);
+            if (ifUnmodifiedSince >= 0 && lastModifiedSeconds > ifUnmodifiedSince) {
+                return HttpStatus.PRECONDITION_FAILED;
+            }
+        }
+
+        String ifNoneMatch = requestHeaders.getFirst(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            if (matches(ifNoneMatch, etag, hash, true)) {
+                return HttpStatus.NOT_MODIFIED;
+            }
+        } else {
+            long ifModifiedSince = parseDateSeconds(requestHeaders, HttpHeaders.IF_MODIFIED_SINCE);
+            if (ifModifiedSince >= 0 && lastModifiedSeconds >= 0 && lastModifiedSeconds <= ifModifiedSince) {
+                return HttpStatus.NOT_MODIFIED;
+            }
+        }
+        return null;
+    }
+
+    private static boolean matches(String headerValue, String etag, String hash, boolean weakComparison) {
+        for (String candidate : headerValue.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                if (!weakComparison) {
+                    continue;
+                }
+                tag = tag.substring(2);
+            }
+            if (tag.length() >= 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+                tag = tag.substring(1, tag.length() - 1);
+            }
+            if (!tag.isEmpty() && (tag.equals(etag) || tag.equals(hash))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long parseDateSeconds(HttpHeaders headers, String headerName) {
+        try {
+            long millis = headers.getFirstDate(headerName);
+            return millis < 0 ? -1 : millis / 1000;
+        } catch (IllegalArgumentException e) {
+            // Invalid dates are ignored, as required by RFC 7232
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.s3proxy.util;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One mutual-exclusion lock per key, created on first use and dropped when the last holder
+ * or waiter releases it, so memory is bounded by the number of keys currently in use.
+ */
+public class KeyedLock {
+
+    private final ConcurrentHashMap<String, Entry> locks = new ConcurrentHashMap<>();
+
+    /**
+     * Block until the lock for {@code key} is held by the calling thread
+     */
+    public Handle lock(String key) {
+        Entry entry = locks.compute(key, (k, existing) -> {
+            Entry e = existing != null ? existing : new Entry();
+            e.users++;
+            return e;
+        });
+        boolean contended = !entry.lock.tryLock();
+        if (contended) {
+            entry.lock.lock();
+        }
+        return new Handle(key, entry, contended);
+    }
+
+    /**
+     * Wait at most {@code timeout} for the lock for {@code key}
+     *
+     * @return the held lock, or null if it could not be acquired in time
+     */
+    public Handle tryLock(String key, Duration timeout) throws InterruptedException {
+        Entry entry = locks.compute(key, (k, existing) -> {
+            Entry e = existing != null ? existing : new Entry();
+            e.users++;
+            return e;
+        });
+        boolean contended = !entry.lock.tryLock();
+        boolean acquired = !contended;
+        try {
+            if (contended) {
+                acquired = entry.lock.tryLock(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            if (!acquired) {
+                locks.computeIfPresent(key, (k, e) -> --e.users == 0 ? null : e);
+            }
+        }
+        return acquired ? new Handle(key, entry, contended) : null;
+    }
+
+    /**
+     * Number of keys that are currently locked or waited on
+     */
+    public int size() {
+        return locks.size();
+    }
+
+    private void release(String key, Entry entry) {
+        entry.lock.unlock();
+        locks.computeIfPresent(key, (k, e) -> --e.users == 0 ? null : e);
+    }
+
+    private static class Entry {
+        private final ReentrantLock lock = new ReentrantLock();
+        // Guarded by the map's per-key compute
+        private int users;
+    }
+
+    /**
+     * A held lock; {@link #unlock()} must be called exactly once by the thread that acquired it
+     */
+    public class Handle {
+        private final String key;
+        private final Entry entry;
+        private final boolean contended;
+
+        private Handle(String key, Entry entry, boolean contended) {
+            this.key = key;
+            this.entry = entry;
+            this.contended = contended;
+        }
+
+        /**
+         * Whether another thread held the lock when it was requested
+         */
+        public boolean wasContended() {
+            return contended;
+        }
+
+        public void unlock() {
+            release(key, entry);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.s3proxy.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces background work to a fixed number of items per second, shared by all threads using it.
+ * Permits are handed out back to back, so a burst is spread out instead of rejected.
+ */
+public class Throttle {
+
+    private final long nanosPerPermit;
+    private long nextFree;
+
+    /**
+     * @param permitsPerSecond maximum rate; zero or less disables throttling
+     */
+    public Throttle(double permitsPerSecond) {
+        this.nanosPerPermit = permitsPerSecond > 0 ? Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond)) : 0;
+    }
+
+    /**
+     * Block until {@code permits} more items may be processed
+     */
+    public void acquire(int permits) throws InterruptedException {
+        if (nanosPerPermit == 0 || permits <= 0) {
+            return;
+        }
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long start = nextFree - now > 0 ? nextFree : now;
+            nextFree = start + nanosPerPermit * permits;
+            wait = start - now;
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
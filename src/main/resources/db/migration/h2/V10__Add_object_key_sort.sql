@@ -0,0 +1,14 @@
+-- V10__Add_object_key_sort.sql
+-- Bounded binary sort key (UTF-8 bytes of object_key, at most 1024) so listings scan one
+-- composite (bucket, object_key_sort) index in S3 key order instead of sorting the TEXT key (H2)
+
+ALTER TABLE minio_user_files
+    ADD COLUMN object_key_sort VARBINARY(1024);
+
+UPDATE minio_user_files
+    SET object_key_sort = CAST(SUBSTRING(CAST(object_key AS VARBINARY), 1, 1024) AS VARBINARY(1024));
+
+ALTER TABLE minio_user_files
+    ALTER COLUMN object_key_sort SET NOT NULL;
+
+CREATE INDEX IF NOT EXISTS idx_minio_user_files_bucket_key_sort ON minio_user_files(bucket, object_key_sort);
@@ -0,0 +1,31 @@
+-- V3__Add_chunk_storage.sql
+-- Content-defined chunking: files can be stored as an ordered manifest of shared chunks (H2)
+
+ALTER TABLE minio_files
+    ADD COLUMN storage_type VARCHAR(16) NOT NULL DEFAULT 'OBJECT';
+
+CREATE TABLE IF NOT EXISTS minio_chunks (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    hash_value VARCHAR(64) NOT NULL UNIQUE,
+    size BIGINT NOT NULL,
+    storage_path VARCHAR(500) NOT NULL,
+    reference_count INT NOT NULL DEFAULT 0,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id)
+);
+
+CREATE INDEX IF NOT EXISTS idx_minio_chunks_reference_count ON minio_chunks(reference_count);
+
+CREATE TABLE IF NOT EXISTS minio_file_chunks (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    file_id BIGINT NOT NULL,
+    chunk_index INT NOT NULL,
+    chunk_offset BIGINT NOT NULL,
+    chunk_id BIGINT NOT NULL,
+    PRIMARY KEY (id),
+    FOREIGN KEY (file_id) REFERENCES minio_files(id) ON DELETE CASCADE,
+    FOREIGN KEY (chunk_id) REFERENCES minio_chunks(id)
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS uk_minio_file_chunks_file_index ON minio_file_chunks(file_id, chunk_index);
+CREATE INDEX IF NOT EXISTS idx_minio_file_chunks_chunk_id ON minio_file_chunks(chunk_id);
@@ -0,0 +1,26 @@
+-- V4__Add_pack_storage.sql
+-- Small-object packing: small blobs are stored as byte ranges of shared pack objects (H2)
+
+CREATE TABLE IF NOT EXISTS minio_packs (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    storage_path VARCHAR(500) NOT NULL,
+    size BIGINT NOT NULL,
+    live_size BIGINT NOT NULL DEFAULT 0,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    retired_at TIMESTAMP NULL,
+    PRIMARY KEY (id)
+);
+
+CREATE INDEX IF NOT EXISTS idx_minio_packs_created_at ON minio_packs(created_at);
+CREATE INDEX IF NOT EXISTS idx_minio_packs_retired_at ON minio_packs(retired_at);
+
+ALTER TABLE minio_files
+    ADD COLUMN pack_id BIGINT NULL;
+
+ALTER TABLE minio_files
+    ADD COLUMN pack_offset BIGINT NULL;
+
+ALTER TABLE minio_files
+    ADD COLUMN pack_length BIGINT NULL;
+
+CREATE INDEX IF NOT EXISTS idx_minio_files_pack_id ON minio_files(pack_id);
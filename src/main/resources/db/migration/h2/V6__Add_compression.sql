@@ -0,0 +1,8 @@
+-- V6__Add_compression.sql
+-- Blobs may be stored compressed; record the codec and the stored size (H2)
+
+ALTER TABLE minio_files
+    ADD COLUMN compression VARCHAR(16) NOT NULL DEFAULT 'NONE';
+
+ALTER TABLE minio_files
+    ADD COLUMN stored_size BIGINT NULL;
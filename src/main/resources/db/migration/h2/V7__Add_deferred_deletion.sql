@@ -0,0 +1,7 @@
+-- V7__Add_deferred_deletion.sql
+-- Files without references are garbage collected in the background after a grace period (H2)
+
+ALTER TABLE minio_files
+    ADD COLUMN delete_after TIMESTAMP NULL;
+
+CREATE INDEX IF NOT EXISTS idx_minio_files_delete_after ON minio_files(delete_after);
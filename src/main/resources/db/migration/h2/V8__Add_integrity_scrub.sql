@@ -0,0 +1,16 @@
+-- V8__Add_integrity_scrub.sql
+-- Background integrity scrubbing: corrupted files are quarantined and scrub progress is checkpointed (H2)
+
+ALTER TABLE minio_files
+    ADD COLUMN quarantined_at TIMESTAMP NULL;
+
+CREATE INDEX IF NOT EXISTS idx_minio_files_quarantined_at ON minio_files(quarantined_at);
+
+CREATE TABLE IF NOT EXISTS minio_scrub_checkpoints (
+    name VARCHAR(64) NOT NULL,
+    last_file_id BIGINT NOT NULL DEFAULT 0,
+    pass_started_at TIMESTAMP NULL,
+    last_pass_completed_at TIMESTAMP NULL,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (name)
+);
@@ -0,0 +1,5 @@
+-- V9__Add_hash_algorithm.sql
+-- Record the digest algorithm of each file's content hash; existing rows were hashed with SHA-256 (H2)
+
+ALTER TABLE minio_files
+    ADD COLUMN hash_algorithm VARCHAR(16) NOT NULL DEFAULT 'SHA-256';
@@ -0,0 +1,19 @@
+-- V10__Add_object_key_sort.sql
+-- Bounded binary sort key (UTF-8 bytes of object_key, at most 1024) so listings scan one
+-- composite (bucket, object_key_sort) index in S3 key order instead of filesorting the TEXT key.
+-- VARBINARY compares bytewise, unlike the case-insensitive collation of object_key, and the
+-- index stays within InnoDB's 3072-byte limit (1020 bytes of bucket + 1024 bytes of key).
+
+ALTER TABLE minio_user_files
+    ADD COLUMN object_key_sort VARBINARY(1024) NULL AFTER object_key_sha256;
+
+UPDATE minio_user_files
+    SET object_key_sort = LEFT(CAST(CONVERT(object_key USING utf8mb4) AS BINARY), 1024);
+
+ALTER TABLE minio_user_files
+    MODIFY object_key_sort VARBINARY(1024) NOT NULL;
+
+CREATE INDEX idx_minio_user_files_bucket_key_sort ON minio_user_files(bucket, object_key_sort);
+
+-- Superseded: a prefix index on the key alone can neither filter by bucket nor deliver order
+DROP INDEX idx_minio_user_files_object_key ON minio_user_files;
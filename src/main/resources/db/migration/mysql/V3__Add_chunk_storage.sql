@@ -0,0 +1,32 @@
+-- V3__Add_chunk_storage.sql
+-- Content-defined chunking: files can be stored as an ordered manifest of shared chunks
+
+ALTER TABLE minio_files
+    ADD COLUMN storage_type VARCHAR(16) NOT NULL DEFAULT 'OBJECT' AFTER storage_path;
+
+CREATE TABLE minio_chunks (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    hash_value VARCHAR(64) NOT NULL,
+    size BIGINT NOT NULL,
+    storage_path VARCHAR(500) NOT NULL,
+    reference_count INT NOT NULL DEFAULT 0,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id),
+    UNIQUE KEY uk_minio_chunks_hash_value (hash_value)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+CREATE INDEX idx_minio_chunks_reference_count ON minio_chunks(reference_count);
+
+CREATE TABLE minio_file_chunks (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    file_id BIGINT NOT NULL,
+    chunk_index INT NOT NULL,
+    chunk_offset BIGINT NOT NULL,
+    chunk_id BIGINT NOT NULL,
+    PRIMARY KEY (id),
+    UNIQUE KEY uk_minio_file_chunks_file_index (file_id, chunk_index),
+    FOREIGN KEY (file_id) REFERENCES minio_files(id) ON DELETE CASCADE,
+    FOREIGN KEY (chunk_id) REFERENCES minio_chunks(id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+CREATE INDEX idx_minio_file_chunks_chunk_id ON minio_file_chunks(chunk_id);
@@ -0,0 +1,22 @@
+-- V4__Add_pack_storage.sql
+-- Small-object packing: small blobs are stored as byte ranges of shared pack objects
+
+CREATE TABLE minio_packs (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    storage_path VARCHAR(500) NOT NULL,
+    size BIGINT NOT NULL,
+    live_size BIGINT NOT NULL DEFAULT 0,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    retired_at TIMESTAMP NULL,
+    PRIMARY KEY (id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+CREATE INDEX idx_minio_packs_created_at ON minio_packs(created_at);
+CREATE INDEX idx_minio_packs_retired_at ON minio_packs(retired_at);
+
+ALTER TABLE minio_files
+    ADD COLUMN pack_id BIGINT NULL AFTER storage_type,
+    ADD COLUMN pack_offset BIGINT NULL AFTER pack_id,
+    ADD COLUMN pack_length BIGINT NULL AFTER pack_offset;
+
+CREATE INDEX idx_minio_files_pack_id ON minio_files(pack_id);
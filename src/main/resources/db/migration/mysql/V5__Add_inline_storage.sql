@@ -0,0 +1,5 @@
+-- V5__Add_inline_storage.sql
+-- Tiny objects can be stored inline in minio_files instead of MinIO
+
+ALTER TABLE minio_files
+    ADD COLUMN inline_data VARBINARY(4096) NULL AFTER pack_length;
@@ -0,0 +1,6 @@
+-- V6__Add_compression.sql
+-- Blobs may be stored compressed; record the codec and the stored size
+
+ALTER TABLE minio_files
+    ADD COLUMN compression VARCHAR(16) NOT NULL DEFAULT 'NONE' AFTER inline_data,
+    ADD COLUMN stored_size BIGINT NULL AFTER compression;
@@ -0,0 +1,7 @@
+-- V7__Add_deferred_deletion.sql
+-- Files without references are garbage collected in the background after a grace period
+
+ALTER TABLE minio_files
+    ADD COLUMN delete_after TIMESTAMP NULL AFTER stored_size;
+
+CREATE INDEX idx_minio_files_delete_after ON minio_files(delete_after);
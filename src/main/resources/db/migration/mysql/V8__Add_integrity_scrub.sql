@@ -0,0 +1,16 @@
+-- V8__Add_integrity_scrub.sql
+-- Background integrity scrubbing: corrupted files are quarantined and scrub progress is checkpointed
+
+ALTER TABLE minio_files
+    ADD COLUMN quarantined_at TIMESTAMP NULL AFTER delete_after;
+
+CREATE INDEX idx_minio_files_quarantined_at ON minio_files(quarantined_at);
+
+CREATE TABLE minio_scrub_checkpoints (
+    name VARCHAR(64) NOT NULL,
+    last_file_id BIGINT NOT NULL DEFAULT 0,
+    pass_started_at TIMESTAMP NULL,
+    last_pass_completed_at TIMESTAMP NULL,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (name)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
@@ -0,0 +1,88 @@
+package com.example.s3proxy;
+
+import com.example.s3proxy.service.DeduplicationService;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.TestPropertySource;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Once every blocking I/O thread is busy and its queue is full, further requests are turned
+ * away with SlowDown instead of piling up behind a stalled database.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@TestPropertySource(properties = {
+    "MINIO_ENDPOINT=http://localhost:9999",
+    "MINIO_ACCESS_KEY=test",
+    "MINIO_SECRET_KEY=test",
+    "s3.blocking-io.max-threads=1",
+    "s3.blocking-io.max-queued-tasks=1"
+})
+public class BlockingIoSaturationTest {
+
+    private static final String AUTHORIZATION = "AWS4-HMAC-SHA256 Credential=test/20241226/us-east-1/s3/aws4_request, "
+            + "SignedHeaders=host;x-amz-date, Signature=dummy";
+
+    @LocalServerPort
+    private int port;
+
+    @MockBean
+    private DeduplicationService deduplicationService;
+
+    @Test
+    void testRequestsBeyondTheQueueAreAskedToSlowDown() throws Exception {
+        CountDownLatch stalled = new CountDownLatch(1);
+        when(deduplicationService.statObject(anyString(), anyString())).thenAnswer(invocation -> {
+            stalled.await(30, TimeUnit.SECONDS);
+            return null;
+        });
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        List<CompletableFuture<HttpResponse<Void>>> held = new ArrayList<>();
+        try {
+            // One request occupies the only thread, the next one waits in its queue
+            held.add(client.sendAsync(head("running"), HttpResponse.BodyHandlers.discarding()));
+            verify(deduplicationService, timeout(5000)).statObject(anyString(), anyString());
+            held.add(client.sendAsync(head("queued"), HttpResponse.BodyHandlers.discarding()));
+            Thread.sleep(300);
+
+            HttpResponse<Void> rejected = client.send(head("rejected"), HttpResponse.BodyHandlers.discarding());
+            assertEquals(503, rejected.statusCode());
+            assertEquals("1", rejected.headers().firstValue("Retry-After").orElse(null));
+        } finally {
+            stalled.countDown();
+        }
+        for (CompletableFuture<HttpResponse<Void>> response : held) {
+            assertEquals(404, response.get(30, TimeUnit.SECONDS).statusCode());
+        }
+        verify(deduplicationService, times(2)).statObject(anyString(), anyString());
+    }
+
+    private HttpRequest head(String key) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/bucket/" + key))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .header("Authorization", AUTHORIZATION)
+                .header("x-amz-date", "20241226T000000Z")
+                .timeout(Duration.ofSeconds(30))
+                .build();
+    }
+}
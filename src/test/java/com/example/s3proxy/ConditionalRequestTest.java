@@ -0,0 +1,112 @@
+package com.example.s3proxy;
+
+import com.example.s3proxy.service.DeduplicationService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+/**
+ * Verifies that conditional GET/HEAD requests are answered from metadata without reading the blob.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@TestPropertySource(properties = {
+    "s3.auth.enabled=false",
+    "MINIO_ENDPOINT=http://localhost:9999",
+    "MINIO_ACCESS_KEY=test",
+    "MINIO_SECRET_KEY=test"
+})
+public class ConditionalRequestTest {
+
+    private static final String HASH = "a591a6d40bf420404a011733cfb7b190d62c65bf0bcda32b57b277d9ad9f146e";
+    private static final String ETAG = "\"" + HASH.substring(0, 16) + "\"";
+
+    @LocalServerPort
+    private int port;
+
+    @MockBean
+    private DeduplicationService deduplicationService;
+
+    private WebTestClient webTestClient;
+    private final AtomicInteger backendReads = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        webTestClient = WebTestClient.bindToServer()
+                .baseUrl("http://localhost:" + port)
+                .build();
+        backendReads.set(0);
+
+        DeduplicationService.ObjectStat stat = new DeduplicationService.ObjectStat(
+                "page.html", HASH, 11, "text/html", LocalDateTime.of(2024, 5, 1, 12, 0), Collections.emptyMap());
+        when(deduplicationService.statObject("site", "page.html")).thenReturn(stat);
+        when(deduplicationService.getObjectStream("site", "page.html")).thenReturn(
+                new DeduplicationService.ObjectStream(stat, (offset, length) -> {
+                    backendReads.incrementAndGet();
+                    return new ByteArrayInputStream("Hello World".getBytes(StandardCharsets.UTF_8));
+                }));
+    }
+
+    @Test
+    void testGetIfNoneMatchReturnsNotModifiedWithoutBlobRead() {
+        webTestClient.get()
+                .uri("/site/page.html")
+                .header("If-None-Match", ETAG)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals("ETag", ETAG);
+
+        assertEquals(0, backendReads.get());
+    }
+
+    @Test
+    void testGetIfMatchMismatchReturnsPreconditionFailed() {
+        webTestClient.get()
+                .uri("/site/page.html")
+                .header("If-Match", "\"0000000000000000\"")
+                .exchange()
+                .expectStatus().isEqualTo(412)
+                .expectBody(String.class).value(body -> assertTrue(body.contains("<Code>PreconditionFailed</Code>")));
+
+        assertEquals(0, backendReads.get());
+    }
+
+    @Test
+    void testGetWithStaleValidatorsStreamsBody() {
+        webTestClient.get()
+                .uri("/site/page.html")
+                .header("If-None-Match", "\"0000000000000000\"")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo("Hello World");
+
+        assertEquals(1, backendReads.get());
+    }
+
+    @Test
+    void testHeadIfModifiedSince() {
+        webTestClient.head()
+                .uri("/site/page.html")
+                .header("If-Modified-Since", "Wed, 01 May 2024 12:00:00 GMT")
+                .exchange()
+                .expectStatus().isNotModified();
+
+        webTestClient.head()
+                .uri("/site/page.html")
+                .header("If-Unmodified-Since", "Tue, 30 Apr 2024 12:00:00 GMT")
+                .exchange()
+                .expectStatus().isEqualTo(412);
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.s3proxy;
+
+import com.example.s3proxy.service.ContentDigest;
+import com.example.s3proxy.service.DeduplicationService;
+import com.example.s3proxy.service.HashService;
+import com.example.s3proxy.service.StagedContent;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.TestPropertySource;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Load test for a slow metadata database: while more requests than there are event loop threads
+ * wait on it, requests that need no blocking work must still be answered at once. Large upload
+ * bodies, whose BLAKE3 digests wait on the hash pool, must likewise be hashed off the event loop.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@TestPropertySource(properties = {
+    "MINIO_ENDPOINT=http://localhost:9999",
+    "MINIO_ACCESS_KEY=test",
+    "MINIO_SECRET_KEY=test",
+    "s3.blocking-io.max-threads=64",
+    "s3.dedupe.hash.algorithm=BLAKE3",
+    "s3.dedupe.hash.parallelism=2"
+})
+public class EventLoopLatencyTest {
+
+    private static final long SLOW_QUERY_MILLIS = 1500;
+    private static final int SLOW_REQUESTS = 32;
+    private static final int LARGE_UPLOADS = 4;
+    private static final int LARGE_UPLOAD_BYTES = 8 * 1024 * 1024;
+    private static final String AUTHORIZATION = "AWS4-HMAC-SHA256 Credential=test/20241226/us-east-1/s3/aws4_request, "
+            + "SignedHeaders=host;x-amz-date, Signature=dummy";
+
+    @LocalServerPort
+    private int port;
+
+    @MockBean
+    private DeduplicationService deduplicationService;
+
+    @SpyBean
+    private HashService hashService;
+
+    @Test
+    void testEventLoopLatencyStaysFlatWhileTheDatabaseIsSlow() throws Exception {
+        when(deduplicationService.statObject(anyString(), anyString())).thenAnswer(invocation -> {
+            Thread.sleep(SLOW_QUERY_MILLIS);
+            return null;
+        });
+        // A client of its own, so that its event loops are not the server's
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        long idle = probe(client);
+
+        List<CompletableFuture<HttpResponse<Void>>> slow = new ArrayList<>();
+        for (int i = 0; i < SLOW_REQUESTS; i++) {
+            HttpRequest head = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/bucket/slow-" + i))
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                    .header("Authorization", AUTHORIZATION)
+                    .header("x-amz-date", "20241226T000000Z")
+                    .timeout(Duration.ofSeconds(30))
+                    .build();
+            slow.add(client.sendAsync(head, HttpResponse.BodyHandlers.discarding()));
+        }
+        Thread.sleep(SLOW_QUERY_MILLIS / 3);
+
+        long worst = 0;
+        for (int i = 0; i < 10; i++) {
+            worst = Math.max(worst, probe(client));
+        }
+        for (CompletableFuture<HttpResponse<Void>> response : slow) {
+            assertEquals(404, response.get().statusCode());
+        }
+
+        assertTrue(worst < SLOW_QUERY_MILLIS / 3,
+                "Event loop answered in up to " + worst + " ms while the database was slow (idle: " + idle + " ms)");
+    }
+
+    @Test
+    void testLargeUploadsAreHashedOffTheEventLoop() throws Exception {
+        Set<String> hashingThreads = ConcurrentHashMap.newKeySet();
+        doAnswer(invocation -> {
+            ContentDigest digest = spy((ContentDigest) invocation.callRealMethod());
+            doAnswer(update -> {
+                hashingThreads.add(Thread.currentThread().getName());
+                return update.callRealMethod();
+            }).when(digest).update(any(ByteBuffer.class));
+            return digest;
+        }).when(hashService).newContentDigest();
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        byte[] body = new byte[LARGE_UPLOAD_BYTES];
+        new Random(42).nextBytes(body);
+
+        List<CompletableFuture<HttpResponse<Void>>> uploads = new ArrayList<>();
+        for (int i = 0; i < LARGE_UPLOADS; i++) {
+            HttpRequest put = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/bucket/large-" + i))
+                    .PUT(HttpRequest.BodyPublishers.ofByteArray(body))
+                    .header("Authorization", AUTHORIZATION)
+                    .header("x-amz-date", "20241226T000000Z")
+                    .timeout(Duration.ofSeconds(60))
+                    .build();
+            uploads.add(client.sendAsync(put, HttpResponse.BodyHandlers.discarding()));
+        }
+        for (CompletableFuture<HttpResponse<Void>> response : uploads) {
+            assertEquals(201, response.get().statusCode());
+        }
+        verify(deduplicationService, times(LARGE_UPLOADS)).putObject(anyString(), anyString(),
+                argThat((StagedContent staged) -> staged.getSize() == LARGE_UPLOAD_BYTES), any(), any());
+
+        // A BLAKE3 digest waits for its segment hashes, which must never stall an event loop
+        assertFalse(hashingThreads.isEmpty());
+        assertTrue(hashingThreads.stream().allMatch(name -> name.startsWith("s3-blocking-io")),
+                "Upload bodies were hashed on " + hashingThreads);
+    }
+
+    /**
+     * Time an unauthenticated request, which the authentication filter rejects on the event loop
+     */
+    private long probe(HttpClient client) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/bucket"))
+                .timeout(Duration.ofSeconds(30))
+                .build();
+        long start = System.nanoTime();
+        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+        assertEquals(403, response.statusCode());
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
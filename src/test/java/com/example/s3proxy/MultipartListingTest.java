@@ -0,0 +1,138 @@
+package com.example.s3proxy;
+
+import com.example.s3proxy.service.DeduplicationService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Verifies ListMultipartUploads and ListParts, which clients use to resume interrupted uploads.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@TestPropertySource(properties = {
+    "s3.auth.enabled=false",
+    "MINIO_ENDPOINT=http://localhost:9999",
+    "MINIO_ACCESS_KEY=test",
+    "MINIO_SECRET_KEY=test",
+    "s3.multipart.part-store=local"
+})
+public class MultipartListingTest {
+
+    @LocalServerPort
+    private int port;
+
+    @MockBean
+    private DeduplicationService deduplicationService;
+
+    private WebTestClient webTestClient;
+
+    @BeforeEach
+    void setUp() {
+        webTestClient = WebTestClient.bindToServer()
+                .baseUrl("http://localhost:" + port)
+                .build();
+    }
+
+    @Test
+    void testListPartsForResume() {
+        String uploadId = initiate("resume-bucket", "videos/movie.mkv");
+        uploadPart("resume-bucket", "videos/movie.mkv", uploadId, 1, "first");
+        uploadPart("resume-bucket", "videos/movie.mkv", uploadId, 3, "third");
+
+        String firstPage = get("/resume-bucket/videos/movie.mkv?uploadId=" + uploadId + "&max-parts=1");
+        assertTrue(firstPage.contains("<PartNumber>1</PartNumber>"));
+        assertFalse(firstPage.contains("<PartNumber>3</PartNumber>"));
+        assertTrue(firstPage.contains("<IsTruncated>true</IsTruncated>"));
+        assertTrue(firstPage.contains("<NextPartNumberMarker>1</NextPartNumberMarker>"));
+        assertTrue(firstPage.contains("<Size>5</Size>"));
+
+        String secondPage = get("/resume-bucket/videos/movie.mkv?uploadId=" + uploadId + "&part-number-marker=1");
+        assertTrue(secondPage.contains("<PartNumber>3</PartNumber>"));
+        assertTrue(secondPage.contains("<IsTruncated>false</IsTruncated>"));
+
+        webTestClient.get()
+                .uri("/resume-bucket/videos/movie.mkv?uploadId=does-not-exist")
+                .exchange()
+                .expectStatus().isNotFound()
+                .expectBody(String.class)
+                .value(body -> assertTrue(body.contains("<Code>NoSuchUpload</Code>")));
+
+        abort("resume-bucket", "videos/movie.mkv", uploadId);
+    }
+
+    @Test
+    void testListMultipartUploadsWithPaginationAndDelimiter() {
+        String first = initiate("listing-bucket", "a.bin");
+        String second = initiate("listing-bucket", "b.bin");
+        String nested = initiate("listing-bucket", "logs/2024/app.log");
+
+        String page = get("/listing-bucket?uploads&max-uploads=1");
+        assertTrue(page.contains("<Key>a.bin</Key>"));
+        assertTrue(page.contains("<IsTruncated>true</IsTruncated>"));
+        assertTrue(page.contains("<NextKeyMarker>a.bin</NextKeyMarker>"));
+        assertTrue(page.contains("<NextUploadIdMarker>" + first + "</NextUploadIdMarker>"));
+
+        String rest = get("/listing-bucket?uploads&key-marker=a.bin&upload-id-marker=" + first + "&delimiter=/");
+        assertFalse(rest.contains("<Key>a.bin</Key>"));
+        assertTrue(rest.contains("<UploadId>" + second + "</UploadId>"));
+        assertTrue(rest.contains("<CommonPrefixes>\n    <Prefix>logs/</Prefix>"));
+        assertFalse(rest.contains(nested));
+
+        String prefixed = get("/listing-bucket?uploads&prefix=logs/");
+        assertTrue(prefixed.contains("<UploadId>" + nested + "</UploadId>"));
+        assertFalse(prefixed.contains("<Key>b.bin</Key>"));
+
+        abort("listing-bucket", "a.bin", first);
+        abort("listing-bucket", "b.bin", second);
+        abort("listing-bucket", "logs/2024/app.log", nested);
+        assertFalse(get("/listing-bucket?uploads").contains("<Upload>"));
+    }
+
+    private String initiate(String bucket, String key) {
+        String body = webTestClient.post()
+                .uri("/" + bucket + "/" + key + "?uploads")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .returnResult()
+                .getResponseBody();
+        Matcher matcher = Pattern.compile("<UploadId>([^<]+)</UploadId>").matcher(body);
+        assertTrue(matcher.find(), "Initiate response should carry an upload ID");
+        return matcher.group(1);
+    }
+
+    private void uploadPart(String bucket, String key, String uploadId, int partNumber, String content) {
+        webTestClient.put()
+                .uri("/" + bucket + "/" + key + "?uploadId=" + uploadId + "&partNumber=" + partNumber)
+                .bodyValue(content.getBytes(StandardCharsets.UTF_8))
+                .exchange()
+                .expectStatus().isOk();
+    }
+
+    private void abort(String bucket, String key, String uploadId) {
+        webTestClient.delete()
+                .uri("/" + bucket + "/" + key + "?uploadId=" + uploadId)
+                .exchange()
+                .expectStatus().is2xxSuccessful();
+    }
+
+    private String get(String uri) {
+        return webTestClient.get()
+                .uri(uri)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .returnResult()
+                .getResponseBody();
+    }
+}
@@ -89,4 +89,35 @@ public class ObjectListingUnitTest {
                     assert body.contains("<Name>test-bucket</Name>");
                 });
     }
-}
\ No newline at end of file
+
+    @Test
+    void testListObjectsRejectsForeignContinuationToken() throws Exception {
+        WebTestClient webTestClient = WebTestClient.bindToServer()
+                .baseUrl("http://localhost:" + port)
+                .build();
+
+        // Tokens are issued by the proxy; anything else is an invalid argument rather than a raw key
+        webTestClient.get()
+                .uri("/test-bucket?list-type=2&continuation-token=not+a+token")
+                .header("Authorization", "AWS4-HMAC-SHA256 Credential=minioadmin/20241226/us-east-1/s3/aws4_request, SignedHeaders=host;x-amz-date, Signature=dummy")
+                .header("x-amz-date", "20241226T000000Z")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void testPutRejectsKeysOverS3Limit() throws Exception {
+        WebTestClient webTestClient = WebTestClient.bindToServer()
+                .baseUrl("http://localhost:" + port)
+                .build();
+
+        // Longer keys would not fit the sort key the listing index is built on
+        webTestClient.put()
+                .uri("/test-bucket/" + "k".repeat(1025))
+                .header("Authorization", "AWS4-HMAC-SHA256 Credential=minioadmin/20241226/us-east-1/s3/aws4_request, SignedHeaders=host;x-amz-date, Signature=dummy")
+                .header("x-amz-date", "20241226T000000Z")
+                .bodyValue("data")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.s3proxy;
+
+import com.example.s3proxy.service.DeduplicationService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+/**
+ * Verifies that Range GETs are translated into offset/length reads of the stored blob
+ * and that multi-range requests are answered with multipart/byteranges.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@TestPropertySource(properties = {
+    "s3.auth.enabled=false",
+    "MINIO_ENDPOINT=http://localhost:9999",
+    "MINIO_ACCESS_KEY=test",
+    "MINIO_SECRET_KEY=test"
+})
+public class RangeRequestTest {
+
+    private static final byte[] CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.US_ASCII);
+
+    @LocalServerPort
+    private int port;
+
+    @MockBean
+    private DeduplicationService deduplicationService;
+
+    private WebTestClient webTestClient;
+    private final List<long[]> backendReads = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    void setUp() throws Exception {
+        webTestClient = WebTestClient.bindToServer()
+                .baseUrl("http://localhost:" + port)
+                .build();
+        backendReads.clear();
+
+        DeduplicationService.ObjectStat stat = new DeduplicationService.ObjectStat(
+                "clip.txt", "0123456789abcdef0123", CONTENT.length, "text/plain", LocalDateTime.now(), Collections.emptyMap());
+        DeduplicationService.ObjectStream objectStream = new DeduplicationService.ObjectStream(
+                stat,
+                (offset, length) -> {
+                    backendReads.add(new long[]{offset, length});
+                    int end = length < 0 ? CONTENT.length : (int) (offset + length);
+                    return new ByteArrayInputStream(CONTENT, (int) offset, end - (int) offset);
+                });
+        when(deduplicationService.getObjectStream("media", "clip.txt")).thenReturn(objectStream);
+    }
+
+    @Test
+    void testSingleRangeReadsOnlyRequestedBytes() {
+        webTestClient.get()
+                .uri("/media/clip.txt")
+                .header("Range", "bytes=10-15")
+                .exchange()
+                .expectStatus().isEqualTo(206)
+                .expectHeader().valueEquals("Content-Range", "bytes 10-15/36")
+                .expectHeader().contentLength(6)
+                .expectBody(String.class).isEqualTo("abcdef");
+
+        assertEquals(1, backendReads.size());
+        assertArrayEquals(new long[]{10, 6}, backendReads.get(0));
+    }
+
+    @Test
+    void testMultipleRangesReturnMultipartByteranges() {
+        String body = webTestClient.get()
+                .uri("/media/clip.txt")
+                .header("Range", "bytes=0-1,-2")
+                .exchange()
+                .expectStatus().isEqualTo(206)
+                .expectHeader().value("Content-Type", value -> {
+                    MediaType mediaType = MediaType.parseMediaType(value);
+                    assertEquals("multipart/byteranges", mediaType.getType() + "/" + mediaType.getSubtype());
+                    assertNotNull(mediaType.getParameter("boundary"));
+                })
+                .expectBody(String.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertNotNull(body);
+        assertTrue(body.contains("Content-Range: bytes 0-1/36\r\n\r\n01\r\n"));
+        assertTrue(body.contains("Content-Range: bytes 34-35/36\r\n\r\nyz\r\n"));
+        assertTrue(body.trim().endsWith("--"));
+        assertEquals(2, backendReads.size());
+        assertArrayEquals(new long[]{0, 2}, backendReads.get(0));
+        assertArrayEquals(new long[]{34, 2}, backendReads.get(1));
+    }
+
+    @Test
+    void testUnsatisfiableRange() {
+        webTestClient.get()
+                .uri("/media/clip.txt")
+                .header("Range", "bytes=100-200")
+                .exchange()
+                .expectStatus().isEqualTo(416)
+                .expectHeader().valueEquals("Content-Range", "bytes */36");
+
+        assertTrue(backendReads.isEmpty());
+    }
+}
@@ -117,15 +117,18 @@ public class RcloneCompatibilityTest {
         assertNotNull(firstPage);
         assertTrue(firstPage.contains("<KeyCount>1</KeyCount>"));
         assertTrue(firstPage.contains("<IsTruncated>true</IsTruncated>"));
-        assertTrue(firstPage.contains("<NextContinuationToken>folder/sub/file1.txt</NextContinuationToken>"));
         assertTrue(firstPage.contains("<Key>folder/sub/file1.txt</Key>"));
+        // Continuation tokens are opaque; rclone passes them back unchanged
+        String token = firstPage.substring(firstPage.indexOf("<NextContinuationToken>") + "<NextContinuationToken>".length(),
+                firstPage.indexOf("</NextContinuationToken>"));
+        assertFalse(token.contains("folder/"));
 
         // Fetch the next page using the continuation token returned above
         String secondPage = webTestClient.get()
                 .uri(uriBuilder -> uriBuilder.path("/" + bucket)
                         .queryParam("list-type", "2")
                         .queryParam("prefix", "folder/")
-                        .queryParam("continuation-token", "folder/sub/file1.txt")
+                        .queryParam("continuation-token", token)
                         .build())
                 .header("Authorization", authHeader)
                 .exchange()
@@ -137,7 +140,7 @@ public class RcloneCompatibilityTest {
         assertNotNull(secondPage);
         assertTrue(secondPage.contains("<KeyCount>1</KeyCount>"));
         assertTrue(secondPage.contains("<Key>folder/sub/file2.txt</Key>"));
-        assertTrue(secondPage.contains("<ContinuationToken>folder/sub/file1.txt</ContinuationToken>"));
+        assertTrue(secondPage.contains("<ContinuationToken>" + token + "</ContinuationToken>"));
         assertTrue(secondPage.contains("<IsTruncated>false</IsTruncated>"));
         assertFalse(secondPage.contains("<NextContinuationToken>"));
     }
@@ -0,0 +1,192 @@
+package com.example.s3proxy.service;
+
+import com.example.s3proxy.entity.ChunkEntity;
+import com.example.s3proxy.entity.FileChunkEntity;
+import com.example.s3proxy.entity.FileEntity;
+import com.example.s3proxy.repository.ChunkRepository;
+import com.example.s3proxy.repository.FileChunkRepository;
+import io.minio.GetObjectArgs;
+import io.minio.GetObjectResponse;
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ChunkStorageServiceTest {
+
+    @Mock
+    private ChunkRepository chunkRepository;
+
+    @Mock
+    private FileChunkRepository fileChunkRepository;
+
+    @Mock
+    private MinioClient minioClient;
+
+    private ChunkStorageService chunkStorageService;
+    private final Map<String, byte[]> blobs = new HashMap<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        MockitoAnnotations.openMocks(this);
+        chunkStorageService = new ChunkStorageService(chunkRepository, fileChunkRepository, new HashService(),
+                minioClient, "test-dedupe-storage", true, DataSize.ofKilobytes(64), DataSize.ofKilobytes(4));
+
+        when(minioClient.putObject(any(PutObjectArgs.class))).thenAnswer(invocation -> {
+            PutObjectArgs args = invocation.getArgument(0);
+            blobs.put(args.object(), args.stream().readAllBytes());
+            return null;
+        });
+        when(minioClient.getObject(any(GetObjectArgs.class))).thenAnswer(invocation -> {
+            GetObjectArgs args = invocation.getArgument(0);
+            byte[] blob = blobs.get(args.object());
+            int offset = args.offset() == null ? 0 : args.offset().intValue();
+            int length = args.length() == null ? blob.length - offset : args.length().intValue();
+            return new GetObjectResponse(okhttp3.Headers.of(), args.bucket(), null, args.object(),
+                    new ByteArrayInputStream(blob, offset, length));
+        });
+    }
+
+    @Test
+    void testShouldChunkOnlyLargeObjects() {
+        assertTrue(chunkStorageService.shouldChunk(64 * 1024));
+        assertFalse(chunkStorageService.shouldChunk(64 * 1024 - 1));
+    }
+
+    @Test
+    void testDuplicateChunksAreStoredOnceAndRangesReassemble() throws Exception {
+        byte[] block = new byte[40_000];
+        new Random(1).nextBytes(block);
+        // The same block twice: the second copy must reuse the first copy's chunks
+        byte[] data = new byte[block.length * 2];
+        System.arraycopy(block, 0, data, 0, block.length);
+        System.arraycopy(block, 0, data, block.length, block.length);
+
+        Map<String, ChunkEntity> chunks = new HashMap<>();
+        List<FileChunkEntity> manifest = new ArrayList<>();
+        when(chunkRepository.findByHashValue(any())).thenAnswer(i -> Optional.ofNullable(chunks.get(i.<String>getArgument(0))));
+        when(chunkRepository.save(any(ChunkEntity.class))).thenAnswer(i -> {
+            ChunkEntity chunk = i.getArgument(0);
+            chunk.setId((long) chunks.size() + 1);
+            chunks.put(chunk.getHashValue(), chunk);
+            return chunk;
+        });
+        when(fileChunkRepository.save(any(FileChunkEntity.class))).thenAnswer(i -> {
+            manifest.add(i.getArgument(0));
+            return i.getArgument(0);
+        });
+        when(chunkRepository.incrementReferenceCount(any())).thenReturn(1);
+
+        FileEntity file = new FileEntity("file-hash", (long) data.length, null, "dedupe-manifest/file-hash");
+        long uploaded = chunkStorageService.storeChunks(file, new ByteArrayInputStream(data));
+
+        assertTrue(uploaded < data.length * 0.75, "Repeated content should mostly be deduplicated, uploaded " + uploaded);
+        verify(chunkRepository, atLeastOnce()).incrementReferenceCount(any());
+
+        List<ChunkStorageService.ChunkRef> refs = new ArrayList<>();
+        for (FileChunkEntity entry : manifest) {
+            refs.add(new ChunkStorageService.ChunkRef(entry.getChunkOffset(), entry.getChunk().getSize(),
+                    entry.getChunk().getStoragePath()));
+        }
+        try (InputStream full = chunkStorageService.openRange(refs, 0, -1)) {
+            assertArrayEquals(data, full.readAllBytes());
+        }
+        try (InputStream range = chunkStorageService.openRange(refs, 39_990, 30)) {
+            byte[] expected = java.util.Arrays.copyOfRange(data, 39_990, 40_020);
+            assertArrayEquals(expected, range.readAllBytes());
+        }
+    }
+
+    @Test
+    void testClaimedChunkIsNotReferencedAgain() {
+        ChunkEntity claimed = new ChunkEntity("claimed", 4L, "dedupe-chunks/claimed");
+        claimed.setId(1L);
+        claimed.setReferenceCount(-1);
+        when(chunkRepository.findByHashValue(any())).thenReturn(Optional.of(claimed));
+        when(chunkRepository.incrementReferenceCount(1L)).thenReturn(0);
+
+        FileEntity file = new FileEntity("file-hash", 4L, null, "dedupe-manifest/file-hash");
+        assertThrows(DeduplicationService.ContentBusyException.class,
+                () -> chunkStorageService.storeChunks(file, new ByteArrayInputStream(new byte[] {1, 2, 3, 4})));
+        verify(fileChunkRepository, never()).save(any());
+    }
+
+    @Test
+    void testNewChunksAreSingleFlightedUntilTheUploadCompletes() throws Exception {
+        byte[] data = new byte[20_000];
+        new Random(2).nextBytes(data);
+        // Rows saved by an upload only become visible to others once its transaction commits
+        Map<String, ChunkEntity> committed = new ConcurrentHashMap<>();
+        Map<String, ChunkEntity> pending = new ConcurrentHashMap<>();
+        when(chunkRepository.findByHashValue(any())).thenAnswer(i -> Optional.ofNullable(committed.get(i.<String>getArgument(0))));
+        when(chunkRepository.save(any(ChunkEntity.class))).thenAnswer(i -> {
+            ChunkEntity chunk = i.getArgument(0);
+            chunk.setId((long) (committed.size() + pending.size() + 1));
+            pending.put(chunk.getHashValue(), chunk);
+            return chunk;
+        });
+        when(chunkRepository.incrementReferenceCount(any())).thenReturn(1);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    committed.putAll(pending);
+                }
+            });
+            long first = chunkStorageService.storeChunks(
+                    new FileEntity("first", (long) data.length, null, "dedupe-manifest/first"), new ByteArrayInputStream(data));
+            assertEquals(data.length, first);
+
+            Future<Long> second = executor.submit(() -> chunkStorageService.storeChunks(
+                    new FileEntity("second", (long) data.length, null, "dedupe-manifest/second"), new ByteArrayInputStream(data)));
+            Thread.sleep(200);
+            assertFalse(second.isDone(), "The second upload waits for the first one's chunks to commit");
+
+            for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+                synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+            }
+            assertEquals(0L, second.get(5, TimeUnit.SECONDS), "Chunks are uploaded once");
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testFindChunk() {
+        List<ChunkStorageService.ChunkRef> manifest = List.of(
+                new ChunkStorageService.ChunkRef(0, 10, "a"),
+                new ChunkStorageService.ChunkRef(10, 5, "b"),
+                new ChunkStorageService.ChunkRef(15, 20, "c"));
+        assertEquals(0, ChunkStorageService.findChunk(manifest, 0));
+        assertEquals(1, ChunkStorageService.findChunk(manifest, 14));
+        assertEquals(2, ChunkStorageService.findChunk(manifest, 34));
+        assertEquals(-1, ChunkStorageService.findChunk(manifest, 35));
+    }
+}
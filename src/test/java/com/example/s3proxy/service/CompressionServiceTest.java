@@ -0,0 +1,72 @@
+package com.example.s3proxy.service;
+
+import com.example.s3proxy.entity.FileEntity;
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class CompressionServiceTest {
+
+    @Mock
+    private MinioClient minioClient;
+
+    private CompressionService compressionService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        compressionService = new CompressionService(minioClient, "test-dedupe-storage", true,
+                DataSize.ofKilobytes(1), 0.8, 6);
+    }
+
+    @Test
+    void testCodecIsChosenByContentTypeOrSample() throws Exception {
+        byte[] random = new byte[16 * 1024];
+        new Random(1).nextBytes(random);
+        byte[] repetitive = "2024-01-01 INFO request served\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(FileEntity.Compression.DEFLATE, compressionService.select("text/csv", random.length, () -> new ByteArrayInputStream(random)));
+        assertEquals(FileEntity.Compression.NONE, compressionService.select("image/png", repetitive.length, () -> new ByteArrayInputStream(repetitive)));
+        assertEquals(FileEntity.Compression.NONE, compressionService.select("application/octet-stream", random.length, () -> new ByteArrayInputStream(random)));
+        assertEquals(FileEntity.Compression.DEFLATE, compressionService.select("application/octet-stream", repetitive.length, () -> new ByteArrayInputStream(repetitive)));
+        // Too small to be worth it
+        assertEquals(FileEntity.Compression.NONE, compressionService.select("text/plain", 100, () -> new ByteArrayInputStream(new byte[100])));
+    }
+
+    @Test
+    void testCompressedBlobRoundTripsWithRanges() throws Exception {
+        byte[] data = "{\"level\":\"info\",\"msg\":\"ok\"}\n".repeat(2000).getBytes(StandardCharsets.UTF_8);
+        AtomicReference<byte[]> stored = new AtomicReference<>();
+        when(minioClient.putObject(any(PutObjectArgs.class))).thenAnswer(invocation -> {
+            PutObjectArgs args = invocation.getArgument(0);
+            stored.set(args.stream().readAllBytes());
+            return null;
+        });
+
+        long storedSize = compressionService.write(FileEntity.Compression.DEFLATE, new ByteArrayInputStream(data), data.length, "dedupe-data/x");
+
+        assertEquals(stored.get().length, storedSize);
+        assertTrue(storedSize < data.length / 10, "Repetitive JSON should compress well: " + storedSize);
+        try (InputStream full = compressionService.openRange(FileEntity.Compression.DEFLATE, new ByteArrayInputStream(stored.get()), 0, -1)) {
+            assertArrayEquals(data, full.readAllBytes());
+        }
+        try (InputStream range = compressionService.openRange(FileEntity.Compression.DEFLATE, new ByteArrayInputStream(stored.get()), 1000, 500)) {
+            assertArrayEquals(Arrays.copyOfRange(data, 1000, 1500), range.readAllBytes());
+        }
+    }
+}
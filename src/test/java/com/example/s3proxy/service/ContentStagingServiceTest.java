@@ -0,0 +1,119 @@
+package com.example.s3proxy.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentStagingServiceTest {
+
+    private final HashService hashService = new HashService();
+
+    @TempDir
+    Path stagingDir;
+
+    @Test
+    void testStageComputesHashAndSizeIncrementally() throws Exception {
+        ContentStagingService stagingService = new ContentStagingService(hashService, Schedulers.boundedElastic(), stagingDir.toString());
+        DefaultDataBufferFactory factory = DefaultDataBufferFactory.sharedInstance;
+        Flux<DataBuffer> body = Flux.just("Hello, ", "World", "!")
+                .map(part -> factory.wrap(part.getBytes(StandardCharsets.UTF_8)));
+
+        StagedContent staged = stagingService.stage(body).block();
+
+        assertNotNull(staged);
+        // Same digest as hashing the whole body at once
+        assertEquals("dffd6021bb2bd5b0af676290809ec3a53191dd81c7f70a4b28688a362182986f", staged.getHash());
+        assertEquals(13, staged.getSize());
+        assertEquals("Hello, World!", Files.readString(staged.getFile()));
+
+        staged.close();
+        assertFalse(Files.exists(staged.getFile()), "Closing staged content should remove the staging file");
+    }
+
+    @Test
+    void testBodyIsHashedOnTheBlockingScheduler() throws Exception {
+        Set<String> hashingThreads = ConcurrentHashMap.newKeySet();
+        HashService recordingHashService = new HashService() {
+            @Override
+            public ContentDigest newContentDigest() {
+                ContentDigest digest = super.newContentDigest();
+                return new ContentDigest() {
+                    @Override
+                    public String getAlgorithm() {
+                        return digest.getAlgorithm();
+                    }
+
+                    @Override
+                    public void update(byte[] input, int offset, int length) {
+                        hashingThreads.add(Thread.currentThread().getName());
+                        digest.update(input, offset, length);
+                    }
+
+                    @Override
+                    public void update(ByteBuffer input) {
+                        hashingThreads.add(Thread.currentThread().getName());
+                        digest.update(input);
+                    }
+
+                    @Override
+                    public ContentDigest copy() {
+                        return digest.copy();
+                    }
+
+                    @Override
+                    public String finish() {
+                        hashingThreads.add(Thread.currentThread().getName());
+                        return digest.finish();
+                    }
+                };
+            }
+        };
+        Scheduler eventLoop = Schedulers.newSingle("event-loop");
+        Scheduler blockingIo = Schedulers.newBoundedElastic(2, 16, "blocking-io");
+        try {
+            ContentStagingService stagingService = new ContentStagingService(recordingHashService, blockingIo, stagingDir.toString());
+            DefaultDataBufferFactory factory = DefaultDataBufferFactory.sharedInstance;
+            Flux<DataBuffer> body = Flux.range(0, 64)
+                    .<DataBuffer>map(i -> factory.wrap(new byte[8192]))
+                    .subscribeOn(eventLoop);
+
+            try (StagedContent staged = stagingService.stage(body).block()) {
+                assertNotNull(staged);
+                assertEquals(64 * 8192, staged.getSize());
+            }
+
+            assertFalse(hashingThreads.isEmpty());
+            assertTrue(hashingThreads.stream().allMatch(name -> name.startsWith("blocking-io")), hashingThreads.toString());
+        } finally {
+            eventLoop.dispose();
+            blockingIo.dispose();
+        }
+    }
+
+    @Test
+    void testStagingFileRemovedOnError() throws Exception {
+        ContentStagingService stagingService = new ContentStagingService(hashService, Schedulers.boundedElastic(), stagingDir.toString());
+        DefaultDataBufferFactory factory = DefaultDataBufferFactory.sharedInstance;
+        Flux<DataBuffer> body = Flux.concat(
+                Flux.just(factory.wrap("partial".getBytes(StandardCharsets.UTF_8))),
+                Flux.error(new IllegalStateException("client disconnected")));
+
+        assertThrows(IllegalStateException.class, () -> stagingService.stage(body).block());
+        try (var files = Files.list(stagingDir)) {
+            assertEquals(0, files.count(), "Failed uploads should not leave staging files behind");
+        }
+    }
+}
@@ -4,13 +4,33 @@ import com.example.s3proxy.entity.FileEntity;
 import com.example.s3proxy.entity.UserFileEntity;
 import com.example.s3proxy.repository.FileRepository;
 import com.example.s3proxy.repository.UserFileRepository;
+import io.minio.GetObjectArgs;
+import io.minio.GetObjectResponse;
 import io.minio.MinioClient;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
@@ -29,15 +49,38 @@ class DeduplicationServiceTest {
     
     @Mock
     private MinioClient minioClient;
+
+    @Mock
+    private ChunkStorageService chunkStorageService;
+
+    @Mock
+    private PackStorageService packStorageService;
+
+    @Mock
+    private ContentHashFilter contentHashFilter;
+
+    @Mock
+    private CompressionService compressionService;
+
+    @Mock
+    private GarbageCollectionService garbageCollectionService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
     
     private DeduplicationService deduplicationService;
     
     @BeforeEach
-    void setUp() {
+    void setUp() throws Exception {
         MockitoAnnotations.openMocks(this);
         deduplicationService = new DeduplicationService(
-            fileRepository, userFileRepository, hashService, minioClient, "test-dedupe-storage"
+            fileRepository, userFileRepository, hashService, minioClient, chunkStorageService, packStorageService,
+            compressionService, garbageCollectionService, contentHashFilter,
+            new FileMetadataCache(100), transactionManager, "test-dedupe-storage",
+            org.springframework.util.unit.DataSize.ofBytes(0)
         );
+        when(contentHashFilter.mightContain(anyString())).thenReturn(true);
+        when(compressionService.select(any(), anyLong(), any())).thenReturn(FileEntity.Compression.NONE);
     }
 
     @Test
@@ -49,7 +92,7 @@ class DeduplicationServiceTest {
         String contentType = "text/plain";
         String expectedHash = "a591a6d40bf420404a011733cfb7b190d62c65bf0bcda32b57b277d9ad9f146e";
         
-        when(hashService.calculateSHA256(data)).thenReturn(expectedHash);
+        when(hashService.calculateContentHash(data)).thenReturn(expectedHash);
         when(fileRepository.findByHashValue(expectedHash)).thenReturn(Optional.empty());
         when(userFileRepository.findByBucketAndKey(bucket, key)).thenReturn(Optional.empty());
         
@@ -58,11 +101,11 @@ class DeduplicationServiceTest {
         when(userFileRepository.save(any(UserFileEntity.class))).thenReturn(new UserFileEntity());
         
         // Act
-        String etag = deduplicationService.putObject(bucket, key, data, contentType, java.util.Collections.emptyMap());
+        String etag = deduplicationService.putObject(bucket, key, data, contentType, Collections.emptyMap());
         
         // Assert
         assertEquals(expectedHash.substring(0, 16), etag);
-        verify(hashService).calculateSHA256(data);
+        verify(hashService).calculateContentHash(data);
         verify(fileRepository).findByHashValue(expectedHash);
         verify(fileRepository).save(any(FileEntity.class));
         verify(userFileRepository).save(any(UserFileEntity.class));
@@ -82,74 +125,436 @@ class DeduplicationServiceTest {
         existingFile.setReferenceCount(1);
         existingFile.setId(1L); // Set a proper ID
         
-        when(hashService.calculateSHA256(data)).thenReturn(expectedHash);
+        when(hashService.calculateContentHash(data)).thenReturn(expectedHash);
         when(fileRepository.findByHashValue(expectedHash)).thenReturn(Optional.of(existingFile));
         when(userFileRepository.findByBucketAndKey(bucket, key)).thenReturn(Optional.empty());
         when(fileRepository.save(existingFile)).thenReturn(existingFile);
         when(userFileRepository.save(any(UserFileEntity.class))).thenReturn(new UserFileEntity());
         
-        // Mock the atomic increment and subsequent fetch
-        doNothing().when(fileRepository).incrementReferenceCount(1L);
-        FileEntity refreshedFile = new FileEntity(expectedHash, (long) data.length, contentType, "dedupe-data/" + expectedHash);
-        refreshedFile.setReferenceCount(2);
-        refreshedFile.setId(1L);
-        FileEntity finalFile = new FileEntity(expectedHash, (long) data.length, contentType, "dedupe-data/" + expectedHash);
-        finalFile.setReferenceCount(2);
-        finalFile.setId(1L);
-        when(fileRepository.findById(1L)).thenReturn(Optional.of(refreshedFile), Optional.of(finalFile));
+        // Mock the atomic increment; the reference count is not re-read afterwards
+        when(fileRepository.incrementReferenceCount(1L)).thenReturn(1);
         
         // Act
-        String etag = deduplicationService.putObject(bucket, key, data, contentType, java.util.Collections.emptyMap());
+        String etag = deduplicationService.putObject(bucket, key, data, contentType, Collections.emptyMap());
         
         // Assert
         assertEquals(expectedHash.substring(0, 16), etag);
-        verify(hashService).calculateSHA256(data);
+        verify(hashService).calculateContentHash(data);
         verify(fileRepository).findByHashValue(expectedHash);
         verify(fileRepository).incrementReferenceCount(1L);
-        verify(fileRepository, times(2)).findById(1L);
+        verify(fileRepository, never()).findById(1L);
         verify(userFileRepository).save(any(UserFileEntity.class));
         verify(minioClient, never()).putObject(any()); // Should not upload again
     }
     
-    @Test 
-    void testGetObject_Found() throws Exception {
-        // Arrange
+    @Test
+    void testPutObject_HashConstraintViolationIsTreatedAsFilterMiss() throws Exception {
+        String hash = "a591a6d40bf420404a011733cfb7b190d62c65bf0bcda32b57b277d9ad9f146e";
+        byte[] data = "Hello World".getBytes();
+        FileEntity storedElsewhere = new FileEntity(hash, (long) data.length, "text/plain", "dedupe-data/" + hash);
+        storedElsewhere.setId(1L);
+
+        // The filter rules the hash out until the failed insert adds it
+        when(contentHashFilter.mightContain(hash)).thenReturn(false);
+        doAnswer(invocation -> when(contentHashFilter.mightContain(hash)).thenReturn(true))
+                .when(contentHashFilter).add(hash);
+        when(hashService.calculateContentHash(data)).thenReturn(hash);
+        when(fileRepository.save(any(FileEntity.class)))
+                .thenThrow(new DataIntegrityViolationException("Duplicate entry for key 'hash_value'"));
+        when(fileRepository.findByHashValue(hash)).thenReturn(Optional.of(storedElsewhere));
+        when(fileRepository.incrementReferenceCount(1L)).thenReturn(1);
+        when(userFileRepository.findByBucketAndKey("test-bucket", "raced")).thenReturn(Optional.empty());
+
+        String etag = deduplicationService.putObject("test-bucket", "raced", data, "text/plain", Collections.emptyMap());
+
+        assertEquals(hash.substring(0, 16), etag);
+        verify(fileRepository, times(1)).save(any(FileEntity.class));
+        verify(fileRepository).incrementReferenceCount(1L);
+        verify(userFileRepository).save(argThat((UserFileEntity mapping) -> mapping.getFile() == storedElsewhere));
+        // The losing insert failed before any content was written
+        verify(minioClient, never()).putObject(any());
+        // Each attempt ran in a transaction of its own
+        verify(transactionManager, times(2)).getTransaction(any());
+        verify(transactionManager).rollback(any());
+    }
+
+    @Test
+    void testPutObject_HashFilterIsNotTrustedInCallersTransaction() throws Exception {
+        String hash = "a591a6d40bf420404a011733cfb7b190d62c65bf0bcda32b57b277d9ad9f146e";
+        byte[] data = "Hello World".getBytes();
+        FileEntity storedElsewhere = new FileEntity(hash, (long) data.length, "text/plain", "dedupe-data/" + hash);
+        storedElsewhere.setId(1L);
+        when(contentHashFilter.mightContain(hash)).thenReturn(false);
+        when(hashService.calculateContentHash(data)).thenReturn(hash);
+        when(fileRepository.findByHashValue(hash)).thenReturn(Optional.of(storedElsewhere));
+        when(fileRepository.incrementReferenceCount(1L)).thenReturn(1);
+        when(userFileRepository.findByBucketAndKey("test-bucket", "joined")).thenReturn(Optional.empty());
+
+        // A constraint violation would roll back the caller's transaction, leaving nothing to retry
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        try {
+            deduplicationService.putObject("test-bucket", "joined", data, "text/plain", Collections.emptyMap());
+        } finally {
+            TransactionSynchronizationManager.setActualTransactionActive(false);
+        }
+
+        verify(fileRepository).findByHashValue(hash);
+        verify(fileRepository, never()).save(any(FileEntity.class));
+        verify(minioClient, never()).putObject(any());
+        verify(transactionManager, never()).getTransaction(any());
+    }
+
+    @Test
+    void testPutObject_StagedNewFile(@TempDir Path tempDir) throws Exception {
+        String bucket = "test-bucket";
+        String key = "test-key";
+        String hash = "a591a6d40bf420404a011733cfb7b190d62c65bf0bcda32b57b277d9ad9f146e";
+        Path file = Files.writeString(tempDir.resolve("staged"), "Hello World");
+        StagedContent staged = new StagedContent(file, hash, 11);
+
+        when(fileRepository.findByHashValue(hash)).thenReturn(Optional.empty());
+        when(userFileRepository.findByBucketAndKey(bucket, key)).thenReturn(Optional.empty());
+        when(fileRepository.save(any(FileEntity.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        String etag = deduplicationService.putObject(bucket, key, staged, "text/plain", Collections.emptyMap());
+
+        assertEquals(hash.substring(0, 16), etag);
+        // Staged content is already hashed and is promoted from disk, never re-read into memory
+        verify(hashService, never()).calculateContentHash(any(byte[].class));
+        verify(minioClient).uploadObject(any());
+        verify(minioClient, never()).putObject(any());
+        verify(fileRepository).save(argThat(f -> f.getSize() == 11L && ("dedupe-data/" + hash).equals(f.getStoragePath())));
+    }
+    
+    @Test
+    void testPutObject_StagedLargeFileIsChunked(@TempDir Path tempDir) throws Exception {
+        String bucket = "test-bucket";
+        String key = "image.qcow2";
+        String hash = "a591a6d40bf420404a011733cfb7b190d62c65bf0bcda32b57b277d9ad9f146e";
+        Path file = Files.writeString(tempDir.resolve("staged"), "Hello World");
+        StagedContent staged = new StagedContent(file, hash, 11);
+
+        when(chunkStorageService.shouldChunk(11)).thenReturn(true);
+        when(chunkStorageService.manifestPath(hash)).thenReturn("dedupe-manifest/" + hash);
+        when(fileRepository.findByHashValue(hash)).thenReturn(Optional.empty());
+        when(userFileRepository.findByBucketAndKey(bucket, key)).thenReturn(Optional.empty());
+        when(fileRepository.save(any(FileEntity.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        deduplicationService.putObject(bucket, key, staged, null, Collections.emptyMap());
+
+        // Chunked files have no whole-object blob; the chunk store reads the staged content instead
+        verify(minioClient, never()).uploadObject(any());
+        verify(chunkStorageService).storeChunks(
+                argThat(f -> f.getStorageType() == FileEntity.StorageType.CHUNKED), any(InputStream.class));
+    }
+
+    @Test
+    void testPutObject_CachedFileSkipsLookup() throws Exception {
+        String hash = "a591a6d40bf420404a011733cfb7b190d62c65bf0bcda32b57b277d9ad9f146e";
+        byte[] data = "Hello World".getBytes();
+        FileEntity existingFile = new FileEntity(hash, (long) data.length, "text/plain", "dedupe-data/" + hash);
+        existingFile.setId(1L);
+        when(hashService.calculateContentHash(data)).thenReturn(hash);
+        when(fileRepository.findByHashValue(hash)).thenReturn(Optional.of(existingFile));
+        when(fileRepository.incrementReferenceCount(1L)).thenReturn(1);
+        when(fileRepository.getReferenceById(1L)).thenReturn(existingFile);
+        when(userFileRepository.findByBucketAndKey(eq("test-bucket"), anyString())).thenReturn(Optional.empty());
+
+        deduplicationService.putObject("test-bucket", "first", data, "text/plain", Collections.emptyMap());
+        deduplicationService.putObject("test-bucket", "second", data, "text/plain", Collections.emptyMap());
+
+        verify(fileRepository, times(1)).findByHashValue(hash);
+        verify(fileRepository, times(2)).incrementReferenceCount(1L);
+
+        // The file was deleted behind the cache's back: the failed increment falls back to the database
+        when(fileRepository.incrementReferenceCount(1L)).thenReturn(0);
+        when(fileRepository.findByHashValue(hash)).thenReturn(Optional.empty());
+        when(fileRepository.save(any(FileEntity.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        deduplicationService.putObject("test-bucket", "third", data, "text/plain", Collections.emptyMap());
+
+        verify(fileRepository, times(2)).findByHashValue(hash);
+        verify(minioClient).putObject(any());
+    }
+
+    @Test
+    void testPutObject_ConcurrentIdenticalUploadsWriteBlobOnce() throws Exception {
+        String hash = "a591a6d40bf420404a011733cfb7b190d62c65bf0bcda32b57b277d9ad9f146e";
+        byte[] data = "Hello World".getBytes();
+        AtomicReference<FileEntity> stored = new AtomicReference<>();
+        when(hashService.calculateContentHash(data)).thenReturn(hash);
+        when(fileRepository.findByHashValue(hash)).thenAnswer(invocation -> Optional.ofNullable(stored.get()));
+        when(fileRepository.save(any(FileEntity.class))).thenAnswer(invocation -> {
+            FileEntity file = invocation.getArgument(0);
+            file.setId(1L);
+            stored.set(file);
+            return file;
+        });
+        when(fileRepository.incrementReferenceCount(1L)).thenReturn(1);
+        when(fileRepository.getReferenceById(1L)).thenAnswer(invocation -> stored.get());
+        when(userFileRepository.findByBucketAndKey(eq("test-bucket"), anyString())).thenReturn(Optional.empty());
+        when(minioClient.putObject(any())).thenAnswer(invocation -> {
+            Thread.sleep(100);
+            return null;
+        });
+
+        int uploads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(uploads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < uploads; i++) {
+                String key = "artifact-" + i;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return deduplicationService.putObject("test-bucket", key, data, "application/java-archive",
+                            Collections.emptyMap());
+                }));
+            }
+            start.countDown();
+            for (Future<String> result : results) {
+                assertEquals(hash.substring(0, 16), result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(minioClient, times(1)).putObject(any());
+        verify(fileRepository, times(1)).save(any(FileEntity.class));
+        verify(fileRepository, times(uploads - 1)).incrementReferenceCount(1L);
+    }
+
+    @Test
+    void testPutObject_SmallFileIsPackedAndReadAsRange() throws Exception {
+        String hash = "a591a6d40bf420404a011733cfb7b190d62c65bf0bcda32b57b277d9ad9f146e";
+        byte[] data = "Hello World".getBytes();
+        when(hashService.calculateContentHash(data)).thenReturn(hash);
+        when(fileRepository.findByHashValue(hash)).thenReturn(Optional.empty());
+        when(userFileRepository.findByBucketAndKey("test-bucket", "small")).thenReturn(Optional.empty());
+        when(packStorageService.shouldPack(11)).thenReturn(true);
+        when(packStorageService.append(data)).thenReturn(new PackStorageService.PackLocation(3L, "dedupe-packs/p1", 100, 11));
+        when(fileRepository.save(any(FileEntity.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        deduplicationService.putObject("test-bucket", "small", data, "text/plain", Collections.emptyMap());
+
+        verify(minioClient, never()).putObject(any());
+        verify(fileRepository).save(argThat(file -> file.getStorageType() == FileEntity.StorageType.PACKED
+                && file.getPackId() == 3L && file.getPackOffset() == 100L && file.getPackLength() == 11L
+                && "dedupe-packs/p1".equals(file.getStoragePath())));
+        verify(packStorageService).recordLive(any(FileEntity.class));
+
+        // A range read of the file is a range read of its slice of the pack
+        FileEntity packed = new FileEntity(hash, 11L, "text/plain", "dedupe-packs/p1");
+        packed.setId(1L);
+        packed.setStorageType(FileEntity.StorageType.PACKED);
+        packed.setPackId(3L);
+        packed.setPackOffset(100L);
+        packed.setPackLength(11L);
+        when(userFileRepository.findWithFileByBucketAndKey("test-bucket", "small"))
+                .thenReturn(Optional.of(new UserFileEntity("test-bucket", "small", packed)));
+        when(minioClient.getObject(any(GetObjectArgs.class))).thenReturn(
+                new GetObjectResponse(okhttp3.Headers.of(), "test-dedupe-storage", null, "dedupe-packs/p1",
+                        new ByteArrayInputStream(new byte[0])));
+
+        deduplicationService.getObjectStream("test-bucket", "small").openStream(6, -1).close();
+
+        verify(minioClient).getObject(argThat((GetObjectArgs args) -> "dedupe-packs/p1".equals(args.object())
+                && args.offset() == 106L && args.length() == 5L));
+    }
+
+    @Test
+    void testPutObject_TinyFileIsStoredInlineWithoutMinio() throws Exception {
+        deduplicationService = new DeduplicationService(
+            fileRepository, userFileRepository, hashService, minioClient, chunkStorageService, packStorageService,
+            compressionService, garbageCollectionService, contentHashFilter, new FileMetadataCache(100), transactionManager, "test-dedupe-storage",
+            org.springframework.util.unit.DataSize.ofBytes(256)
+        );
+        String hash = "a591a6d40bf420404a011733cfb7b190d62c65bf0bcda32b57b277d9ad9f146e";
+        byte[] data = "Hello World".getBytes();
+        when(hashService.calculateContentHash(data)).thenReturn(hash);
+        when(fileRepository.findByHashValue(hash)).thenReturn(Optional.empty());
+        when(userFileRepository.findByBucketAndKey("test-bucket", "tiny")).thenReturn(Optional.empty());
+        when(fileRepository.save(any(FileEntity.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        deduplicationService.putObject("test-bucket", "tiny", data, "text/plain", Collections.emptyMap());
+
+        org.mockito.ArgumentCaptor<FileEntity> saved = org.mockito.ArgumentCaptor.forClass(FileEntity.class);
+        verify(fileRepository).save(saved.capture());
+        assertEquals(FileEntity.StorageType.INLINE, saved.getValue().getStorageType());
+        assertArrayEquals(data, saved.getValue().getInlineData());
+
+        when(userFileRepository.findWithFileByBucketAndKey("test-bucket", "tiny"))
+                .thenReturn(Optional.of(new UserFileEntity("test-bucket", "tiny", saved.getValue())));
+        try (InputStream range = deduplicationService.getObjectStream("test-bucket", "tiny").openStream(6, 5)) {
+            assertEquals("World", new String(range.readAllBytes()));
+        }
+
+        verify(minioClient, never()).putObject(any());
+        verify(minioClient, never()).getObject(any());
+    }
+
+    @Test
+    void testPutObject_EmptyFileIsNotInlinedWhenInlineStorageIsDisabled() throws Exception {
+        String hash = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+        byte[] data = new byte[0];
+        when(hashService.calculateContentHash(data)).thenReturn(hash);
+        when(fileRepository.findByHashValue(hash)).thenReturn(Optional.empty());
+        when(userFileRepository.findByBucketAndKey("test-bucket", "empty")).thenReturn(Optional.empty());
+        when(fileRepository.save(any(FileEntity.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        deduplicationService.putObject("test-bucket", "empty", data, "text/plain", Collections.emptyMap());
+
+        verify(fileRepository).save(argThat((FileEntity file) -> file.getStorageType() != FileEntity.StorageType.INLINE));
+        verify(minioClient).putObject(any());
+    }
+
+    @Test
+    void testPutObject_HashFilterSkipsLookupForNewContent() throws Exception {
+        String hash = "a591a6d40bf420404a011733cfb7b190d62c65bf0bcda32b57b277d9ad9f146e";
+        byte[] data = "Hello World".getBytes();
+        when(hashService.calculateContentHash(data)).thenReturn(hash);
+        when(contentHashFilter.mightContain(hash)).thenReturn(false);
+        when(userFileRepository.findByBucketAndKey("test-bucket", "new-key")).thenReturn(Optional.empty());
+        when(fileRepository.save(any(FileEntity.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        deduplicationService.putObject("test-bucket", "new-key", data, "text/plain", Collections.emptyMap());
+
+        verify(fileRepository, never()).findByHashValue(anyString());
+        verify(minioClient).putObject(any());
+        verify(contentHashFilter).add(hash);
+    }
+
+    @Test
+    void testGetObjectStream_Found() throws Exception {
         String bucket = "test-bucket";
         String key = "test-key";
         String hash = "test-hash";
         byte[] expectedData = "Hello World".getBytes();
-        
+
         FileEntity fileEntity = new FileEntity(hash, (long) expectedData.length, "text/plain", "dedupe-data/" + hash);
         UserFileEntity userFile = new UserFileEntity(bucket, key, fileEntity);
-        
-        when(userFileRepository.findByBucketAndKey(bucket, key)).thenReturn(Optional.of(userFile));
-        
-        // Mock MinIO response - we can't easily test this without real MinIO
-        // but we can verify the lookup logic works
-        
-        // Act & Assert - just verify the lookup works
-        when(userFileRepository.findByBucketAndKey(bucket, key)).thenReturn(Optional.of(userFile));
-        
-        Optional<UserFileEntity> result = userFileRepository.findByBucketAndKey(bucket, key);
-        assertTrue(result.isPresent());
-        assertEquals(bucket, result.get().getBucket());
-        assertEquals(key, result.get().getKey());
-        assertEquals(fileEntity, result.get().getFile());
+        when(userFileRepository.findWithFileByBucketAndKey(bucket, key)).thenReturn(Optional.of(userFile));
+        when(minioClient.getObject(any(GetObjectArgs.class))).thenReturn(new GetObjectResponse(
+                okhttp3.Headers.of(), "test-dedupe-storage", null, "dedupe-data/" + hash,
+                new ByteArrayInputStream(expectedData)));
+
+        DeduplicationService.ObjectStream objectStream = deduplicationService.getObjectStream(bucket, key);
+        assertNotNull(objectStream);
+        assertEquals(hash, objectStream.getHash());
+        assertEquals(expectedData.length, objectStream.getSize());
+        assertEquals("text/plain", objectStream.getContentType());
+        // Metadata lookup alone must not touch MinIO
+        verify(minioClient, never()).getObject(any());
+
+        try (InputStream stream = objectStream.openStream()) {
+            assertArrayEquals(expectedData, stream.readAllBytes());
+        }
+        verify(minioClient).getObject(argThat(args -> ("dedupe-data/" + hash).equals(args.object())
+                && args.offset() == null && args.length() == null));
     }
-    
+
     @Test
-    void testGetObject_NotFound() throws Exception {
-        // Arrange
+    void testGetObjectStream_RangePushedDownToMinio() throws Exception {
         String bucket = "test-bucket";
-        String key = "test-key";
-        
-        when(userFileRepository.findByBucketAndKey(bucket, key)).thenReturn(Optional.empty());
-        
-        // Act
-        DeduplicationService.FileData result = deduplicationService.getObject(bucket, key);
-        
-        // Assert
-        assertNull(result);
-        verify(userFileRepository).findByBucketAndKey(bucket, key);
+        String key = "video.mp4";
+        String hash = "video-hash";
+
+        FileEntity fileEntity = new FileEntity(hash, 10_000_000L, "video/mp4", "dedupe-data/" + hash);
+        when(userFileRepository.findWithFileByBucketAndKey(bucket, key)).thenReturn(Optional.of(new UserFileEntity(bucket, key, fileEntity)));
+        when(minioClient.getObject(any(GetObjectArgs.class))).thenReturn(new GetObjectResponse(
+                okhttp3.Headers.of(), "test-dedupe-storage", null, "dedupe-data/" + hash,
+                new ByteArrayInputStream(new byte[100])));
+
+        DeduplicationService.ObjectStream objectStream = deduplicationService.getObjectStream(bucket, key);
+        try (InputStream stream = objectStream.openStream(5_000_000L, 100L)) {
+            assertEquals(100, stream.readAllBytes().length);
+        }
+
+        verify(minioClient).getObject(argThat(args -> args.offset() == 5_000_000L && args.length() == 100L));
+    }
+
+    @Test
+    void testGetObjectStream_NotFound() throws Exception {
+        when(userFileRepository.findWithFileByBucketAndKey("test-bucket", "missing")).thenReturn(Optional.empty());
+
+        assertNull(deduplicationService.getObjectStream("test-bucket", "missing"));
+        verify(minioClient, never()).getObject(any());
+    }
+
+    @Test
+    void testStatObject_MetadataOnly() throws Exception {
+        String bucket = "test-bucket";
+        String key = "docs/readme.txt";
+        String hash = "a591a6d40bf420404a011733cfb7b190d62c65bf0bcda32b57b277d9ad9f146e";
+
+        FileEntity fileEntity = new FileEntity(hash, 11L, "text/plain", "dedupe-data/" + hash);
+        UserFileEntity userFile = new UserFileEntity(bucket, key, fileEntity);
+        userFile.setMetadata(Map.of("owner", "ci"));
+        when(userFileRepository.findWithFileByBucketAndKey(bucket, key)).thenReturn(Optional.of(userFile));
+
+        DeduplicationService.ObjectStat stat = deduplicationService.statObject(bucket, key);
+
+        assertNotNull(stat);
+        assertEquals(key, stat.getKey());
+        assertEquals(hash, stat.getHash());
+        assertEquals(11L, stat.getSize());
+        assertEquals("text/plain", stat.getContentType());
+        assertEquals("ci", stat.getMetadata().get("owner"));
+        verifyNoInteractions(minioClient);
+    }
+
+    @Test
+    void testDeleteObject_LastReferenceIsScheduledNotRemoved() throws Exception {
+        FileEntity file = new FileEntity("hash", 11L, "text/plain", "dedupe-data/hash");
+        file.setId(1L);
+        FileEntity unreferenced = new FileEntity("hash", 11L, "text/plain", "dedupe-data/hash");
+        unreferenced.setId(1L);
+        unreferenced.setReferenceCount(0);
+        when(userFileRepository.findByBucketAndKey("test-bucket", "gone"))
+                .thenReturn(Optional.of(new UserFileEntity("test-bucket", "gone", file)));
+        when(fileRepository.decrementReferenceCount(1L)).thenReturn(1);
+        when(fileRepository.findById(1L)).thenReturn(Optional.of(unreferenced));
+
+        assertTrue(deduplicationService.deleteObject("test-bucket", "gone"));
+
+        verify(garbageCollectionService).schedule(unreferenced);
+        verify(fileRepository, never()).delete(any());
+        verifyNoInteractions(minioClient);
+    }
+
+    @Test
+    void testPutObject_ContentClaimedByCollectorAsksForRetry() throws Exception {
+        String hash = "a591a6d40bf420404a011733cfb7b190d62c65bf0bcda32b57b277d9ad9f146e";
+        byte[] data = "Hello World".getBytes();
+        FileEntity claimed = new FileEntity(hash, 11L, "text/plain", "dedupe-data/" + hash);
+        claimed.setId(1L);
+        claimed.setReferenceCount(-1);
+        when(hashService.calculateContentHash(data)).thenReturn(hash);
+        when(fileRepository.findByHashValue(hash)).thenReturn(Optional.of(claimed));
+        when(fileRepository.incrementReferenceCount(1L)).thenReturn(0);
+
+        assertThrows(DeduplicationService.ContentBusyException.class, () ->
+                deduplicationService.putObject("test-bucket", "key", data, "text/plain", Collections.emptyMap()));
+        verify(minioClient, never()).putObject(any());
+    }
+
+    @Test
+    void testCopyObject_SourceClaimedByCollectorAsksForRetry() throws Exception {
+        String hash = "a591a6d40bf420404a011733cfb7b190d62c65bf0bcda32b57b277d9ad9f146e";
+        FileEntity claimed = new FileEntity(hash, 11L, "text/plain", "dedupe-data/" + hash);
+        claimed.setId(1L);
+        claimed.setReferenceCount(-1);
+        when(userFileRepository.findByBucketAndKey("test-bucket", "source"))
+                .thenReturn(Optional.of(new UserFileEntity("test-bucket", "source", claimed)));
+        when(userFileRepository.findByBucketAndKey("test-bucket", "destination"))
+                .thenReturn(Optional.of(new UserFileEntity("test-bucket", "destination", claimed)));
+        when(fileRepository.incrementReferenceCount(1L)).thenReturn(0);
+
+        assertThrows(DeduplicationService.ContentBusyException.class, () -> deduplicationService.copyObject(
+                "test-bucket", "source", "test-bucket", "destination", Collections.emptyMap(), false));
+        // Neither the destination nor the file's references were touched
+        verify(userFileRepository, never()).save(any(UserFileEntity.class));
+        verify(userFileRepository, never()).deleteByBucketAndKey(any(), any());
+        verify(fileRepository, never()).decrementReferenceCount(any());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,155 @@
+package com.example.s3proxy.service;
+
+import com.example.s3proxy.entity.ChunkEntity;
+import com.example.s3proxy.entity.FileChunkEntity;
+import com.example.s3proxy.entity.FileEntity;
+import com.example.s3proxy.entity.UserFileEntity;
+import com.example.s3proxy.repository.ChunkRepository;
+import com.example.s3proxy.repository.FileChunkRepository;
+import com.example.s3proxy.repository.FileRepository;
+import com.example.s3proxy.repository.UserFileRepository;
+import io.minio.MinioClient;
+import io.minio.RemoveObjectArgs;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@TestPropertySource(properties = {
+    "MINIO_ENDPOINT=http://localhost:9999", // Use invalid endpoint to avoid real MinIO dependency
+    "MINIO_ACCESS_KEY=test",
+    "MINIO_SECRET_KEY=test",
+    "s3.dedupe.gc.grace-period=10m",
+    "s3.dedupe.inline.max-object-size=1KB"
+})
+@Transactional
+class GarbageCollectionServiceTest {
+
+    @MockBean
+    private MinioClient minioClient;
+
+    @Autowired
+    private DeduplicationService deduplicationService;
+
+    @Autowired
+    private GarbageCollectionService garbageCollectionService;
+
+    @Autowired
+    private FileRepository fileRepository;
+
+    @Autowired
+    private UserFileRepository userFileRepository;
+
+    @Autowired
+    private ChunkRepository chunkRepository;
+
+    @Autowired
+    private FileChunkRepository fileChunkRepository;
+
+    @Test
+    void testUnreferencedFileIsCollectedOnlyAfterGracePeriodUnlessRevived() throws Exception {
+        // Inline content keeps MinIO out of the picture
+        FileEntity file = new FileEntity("gc-hash", 2L, "text/plain", "dedupe-inline/gc-hash");
+        file.setStorageType(FileEntity.StorageType.INLINE);
+        file.setInlineData(new byte[] {1, 2});
+        file = fileRepository.save(file);
+        userFileRepository.save(new UserFileEntity("gc-bucket", "a", file));
+        Long fileId = file.getId();
+
+        assertTrue(deduplicationService.deleteObject("gc-bucket", "a"));
+        FileEntity pending = fileRepository.findById(fileId).orElseThrow();
+        assertEquals(0, pending.getReferenceCount(), "Row stays until the collector runs");
+        assertNotNull(pending.getDeleteAfter());
+
+        assertEquals(0, garbageCollectionService.collect(LocalDateTime.now()), "Grace period has not passed yet");
+
+        // A re-upload of the same content during the grace period revives the file
+        assertEquals(1, fileRepository.incrementReferenceCount(fileId));
+        assertNull(fileRepository.findById(fileId).orElseThrow().getDeleteAfter());
+        assertEquals(0, garbageCollectionService.collect(LocalDateTime.now().plusHours(1)));
+
+        fileRepository.decrementReferenceCount(fileId);
+        garbageCollectionService.schedule(fileRepository.findById(fileId).orElseThrow());
+        assertEquals(1, garbageCollectionService.collect(LocalDateTime.now().plusHours(1)));
+        assertFalse(fileRepository.findById(fileId).isPresent());
+    }
+
+    @Test
+    void testOverwritingTheLastReferenceSchedulesTheOldFile() throws Exception {
+        FileEntity file = new FileEntity("gc-overwritten", 2L, "text/plain", "dedupe-inline/gc-overwritten");
+        file.setStorageType(FileEntity.StorageType.INLINE);
+        file.setInlineData(new byte[] {1, 2});
+        file = fileRepository.save(file);
+        userFileRepository.save(new UserFileEntity("gc-bucket", "b", file));
+        Long fileId = file.getId();
+
+        deduplicationService.putObject("gc-bucket", "b", "replacement".getBytes(StandardCharsets.UTF_8),
+                "text/plain", Map.of());
+        // The collector runs long after the overwrite has committed
+        userFileRepository.flush();
+
+        FileEntity pending = fileRepository.findById(fileId).orElseThrow();
+        assertEquals(0, pending.getReferenceCount());
+        assertNotNull(pending.getDeleteAfter(), "The overwritten file is queued like a deleted one");
+        assertEquals(1, garbageCollectionService.collect(LocalDateTime.now().plusHours(1)));
+        assertFalse(fileRepository.findById(fileId).isPresent());
+        assertNotEquals(fileId, userFileRepository.findByBucketAndKey("gc-bucket", "b").orElseThrow().getFile().getId());
+    }
+
+    @Test
+    void testChunksOfCollectedFilesAreRemovedOnceReleased() throws Exception {
+        ChunkEntity shared = new ChunkEntity("gc-shared-chunk", 4L, "dedupe-chunks/gc-shared-chunk");
+        shared.setReferenceCount(2);
+        shared = chunkRepository.save(shared);
+        ChunkEntity own = chunkRepository.save(new ChunkEntity("gc-own-chunk", 4L, "dedupe-chunks/gc-own-chunk"));
+        FileEntity file = new FileEntity("gc-chunked", 8L, null, "dedupe-manifest/gc-chunked");
+        file.setStorageType(FileEntity.StorageType.CHUNKED);
+        file.setReferenceCount(0);
+        file.setDeleteAfter(LocalDateTime.now().minusMinutes(1));
+        file = fileRepository.save(file);
+        fileChunkRepository.save(new FileChunkEntity(file, 0, 0L, own));
+        fileChunkRepository.save(new FileChunkEntity(file, 1, 4L, shared));
+
+        assertEquals(1, garbageCollectionService.collect(LocalDateTime.now()));
+
+        assertFalse(chunkRepository.findById(own.getId()).isPresent());
+        assertEquals(1, chunkRepository.findById(shared.getId()).orElseThrow().getReferenceCount());
+        verify(minioClient).removeObject(argThat((RemoveObjectArgs args) -> "dedupe-chunks/gc-own-chunk".equals(args.object())));
+        verify(minioClient, never()).removeObject(argThat((RemoveObjectArgs args) -> "dedupe-chunks/gc-shared-chunk".equals(args.object())));
+    }
+
+    @Test
+    void testClaimedChunkCannotBeReferenced() {
+        ChunkEntity chunk = new ChunkEntity("gc-claimed-chunk", 4L, "dedupe-chunks/gc-claimed-chunk");
+        chunk.setReferenceCount(0);
+        chunk = chunkRepository.save(chunk);
+
+        assertEquals(1, chunkRepository.claimForDeletion(chunk.getId()));
+        assertEquals(0, chunkRepository.incrementReferenceCount(chunk.getId()));
+    }
+
+    @Test
+    void testClaimedFileCannotBeRevived() {
+        FileEntity file = new FileEntity("gc-claimed", 2L, "text/plain", "dedupe-inline/gc-claimed");
+        file.setReferenceCount(0);
+        file.setDeleteAfter(LocalDateTime.now().minusMinutes(1));
+        file = fileRepository.save(file);
+
+        assertEquals(1, fileRepository.claimForDeletion(file.getId(), LocalDateTime.now()));
+        assertEquals(0, fileRepository.incrementReferenceCount(file.getId()));
+    }
+}
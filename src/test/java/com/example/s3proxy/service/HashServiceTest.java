@@ -1,11 +1,27 @@
 package com.example.s3proxy.service;
 
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.Blake3;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class HashServiceTest {
     
     private final HashService hashService = new HashService();
+
+    private final HashService parallelBlake3 = new HashService("blake3", 4);
+
+    @AfterEach
+    void tearDown() {
+        parallelBlake3.stop();
+    }
     
     @Test
     void testSHA256Calculation() throws Exception {
@@ -51,4 +67,73 @@ class HashServiceTest {
         
         assertEquals(expectedEmptyHash, actualHash);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testBlake3KnownVectors() {
+        HashService sequentialBlake3 = new HashService(HashService.BLAKE3, 1);
+        assertEquals("af1349b9f5f9a1a6a0404dea36dcc9499bcb25c9adc112b7cc9a93cae41f3262",
+                sequentialBlake3.calculateContentHash(new byte[0]));
+        assertEquals("6437b3ac38465133ffb63b75273a8db548c558465d79db03fd359c6cd5bd9d85",
+                parallelBlake3.calculateContentHash("abc".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(HashService.BLAKE3, parallelBlake3.getContentHashAlgorithm());
+    }
+
+    @Test
+    void testParallelBlake3MatchesReferenceAcrossSegmentBoundaries() {
+        int segment = HashService.Blake3ContentDigest.SEGMENT_SIZE;
+        byte[] data = new byte[3 * segment + 5];
+        new Random(42).nextBytes(data);
+        int[] lengths = {1023, 1024, 1025, segment, segment + 1, 2 * segment, 3 * segment + 5};
+        for (int length : lengths) {
+            String expected = referenceBlake3(data, length);
+            assertEquals(expected, parallelBlake3.calculateContentHash(Arrays.copyOf(data, length)), "length " + length);
+
+            // Uneven writes and a direct buffer must not change the result
+            ContentDigest digest = parallelBlake3.newContentDigest();
+            int offset = 0;
+            for (int step = 1; offset < length; step = step * 3 + 7) {
+                int take = Math.min(step, length - offset);
+                if (step % 2 == 0) {
+                    ByteBuffer direct = ByteBuffer.allocateDirect(take);
+                    direct.put(data, offset, take).flip();
+                    digest.update(direct);
+                } else {
+                    digest.update(data, offset, take);
+                }
+                offset += take;
+            }
+            assertEquals(expected, digest.finish(), "chunked length " + length);
+        }
+    }
+
+    @Test
+    void testBlake3CopiesContinueIndependently() {
+        int segment = HashService.Blake3ContentDigest.SEGMENT_SIZE;
+        byte[] data = new byte[2 * segment + 3000];
+        new Random(7).nextBytes(data);
+
+        // Snapshots taken mid-segment, like the multipart hash chain keeps after every part
+        ContentDigest digest = parallelBlake3.newContentDigest();
+        digest.update(data, 0, segment + 1500);
+        ContentDigest snapshot = digest.copy();
+        digest.update(data, segment + 1500, data.length - segment - 1500);
+
+        ContentDigest resumed = snapshot.copy();
+        resumed.update(data, segment + 1500, segment);
+        assertEquals(referenceBlake3(data, segment + 1500), snapshot.finish());
+        assertEquals(referenceBlake3(data, 2 * segment + 1500), resumed.finish());
+        assertEquals(referenceBlake3(data, data.length), digest.finish());
+    }
+
+    @Test
+    void testUnsupportedContentAlgorithmIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new HashService("SHA-512", 1));
+        assertEquals("MD5", hashService.newContentDigest("MD5").getAlgorithm());
+    }
+
+    private static String referenceBlake3(byte[] data, int length) {
+        Blake3 reference = Blake3.initHash();
+        reference.update(data, 0, length);
+        return Hex.encodeHexString(reference.doFinalize(32));
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.s3proxy.service;
+
+import com.example.s3proxy.entity.FileEntity;
+import com.example.s3proxy.entity.ScrubCheckpointEntity;
+import com.example.s3proxy.entity.UserFileEntity;
+import com.example.s3proxy.repository.FileRepository;
+import com.example.s3proxy.repository.ScrubCheckpointRepository;
+import com.example.s3proxy.repository.UserFileRepository;
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@TestPropertySource(properties = {
+    "MINIO_ENDPOINT=http://localhost:9999",
+    "MINIO_ACCESS_KEY=test",
+    "MINIO_SECRET_KEY=test",
+    "s3.dedupe.scrub.max-bytes-per-second=0B"
+})
+@Transactional
+class IntegrityScrubServiceTest {
+
+    @MockBean
+    private MinioClient minioClient;
+
+    @Autowired
+    private IntegrityScrubService integrityScrubService;
+
+    @Autowired
+    private DeduplicationService deduplicationService;
+
+    @Autowired
+    private HashService hashService;
+
+    @Autowired
+    private ContentHashFilter contentHashFilter;
+
+    @Autowired
+    private FileRepository fileRepository;
+
+    @Autowired
+    private UserFileRepository userFileRepository;
+
+    @Autowired
+    private ScrubCheckpointRepository checkpointRepository;
+
+    @Test
+    void testCorruptedFileIsQuarantinedAndRestoredByReupload() throws Exception {
+        byte[] good = "intact content".getBytes(StandardCharsets.UTF_8);
+        byte[] original = "original content".getBytes(StandardCharsets.UTF_8);
+        FileEntity intact = saveInlineFile(hashService.calculateSHA256(good), good, "intact.txt");
+        // Verified with the algorithm recorded for it
+        byte[] fast = "hashed with blake3".getBytes(StandardCharsets.UTF_8);
+        FileEntity intactBlake3 = saveInlineFile(new HashService(HashService.BLAKE3, 1).calculateContentHash(fast), fast, "blake3.txt");
+        intactBlake3.setHashAlgorithm(HashService.BLAKE3);
+        // Same length as the original, one flipped byte
+        byte[] rotted = original.clone();
+        rotted[3] ^= 0x01;
+        FileEntity corrupted = saveInlineFile(hashService.calculateSHA256(original), rotted, "rotted.txt");
+
+        assertEquals(1, integrityScrubService.scrub());
+
+        assertNull(fileRepository.findById(intact.getId()).orElseThrow().getQuarantinedAt());
+        assertNull(fileRepository.findById(intactBlake3.getId()).orElseThrow().getQuarantinedAt());
+        assertNotNull(fileRepository.findById(corrupted.getId()).orElseThrow().getQuarantinedAt());
+        assertThrows(DeduplicationService.QuarantinedContentException.class,
+                () -> deduplicationService.getObjectStream("scrub-bucket", "rotted.txt"));
+        assertNotNull(deduplicationService.getObjectStream("scrub-bucket", "intact.txt"));
+
+        ScrubCheckpointEntity checkpoint = checkpointRepository.findById(IntegrityScrubService.CHECKPOINT_NAME).orElseThrow();
+        assertEquals(0L, checkpoint.getLastFileId(), "A completed pass starts over next time");
+        assertNotNull(checkpoint.getLastPassCompletedAt());
+
+        // Uploading the same content again replaces the corrupted copy
+        deduplicationService.putObject("scrub-bucket", "again.txt", original, "text/plain", Map.of());
+        FileEntity restored = fileRepository.findById(corrupted.getId()).orElseThrow();
+        assertNull(restored.getQuarantinedAt());
+        assertEquals(FileEntity.StorageType.OBJECT, restored.getStorageType());
+        assertNull(restored.getInlineData());
+        assertEquals(2, restored.getReferenceCount());
+        verify(minioClient).putObject(argThat((PutObjectArgs args) ->
+                args.object().equals(DeduplicationService.OBJECT_STORAGE_PREFIX + corrupted.getHashValue())));
+    }
+
+    @Test
+    void testScheduledScrubRunsOffTheSchedulerThread() throws Exception {
+        FileRepository files = mock(FileRepository.class);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<String> passThread = new AtomicReference<>();
+        when(files.countByQuarantinedAtIsNotNull()).thenAnswer(invocation -> {
+            passThread.set(Thread.currentThread().getName());
+            started.countDown();
+            release.await();
+            throw new IllegalStateException("pass ends here");
+        });
+        IntegrityScrubService scheduled = new IntegrityScrubService(files, mock(ScrubCheckpointRepository.class),
+                deduplicationService, hashService, mock(FileMetadataCache.class), mock(PlatformTransactionManager.class),
+                true, 1, 10, DataSize.ofBytes(0));
+        try {
+            scheduled.scheduledScrub();
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertEquals("integrity-scrub-pass", passThread.get());
+
+            // A trigger while the pass is still running does not queue another one
+            scheduled.scheduledScrub();
+            release.countDown();
+            verify(files, timeout(5000).times(1)).countByQuarantinedAtIsNotNull();
+        } finally {
+            release.countDown();
+            scheduled.stop();
+        }
+    }
+
+    @Test
+    void testScrubResumesAfterCheckpoint() throws Exception {
+        byte[] original = "checkpointed content".getBytes(StandardCharsets.UTF_8);
+        FileEntity corrupted = saveInlineFile(hashService.calculateSHA256(original), new byte[original.length], "zeroed.txt");
+        ScrubCheckpointEntity checkpoint = new ScrubCheckpointEntity(IntegrityScrubService.CHECKPOINT_NAME);
+        checkpoint.setLastFileId(corrupted.getId());
+        checkpointRepository.save(checkpoint);
+
+        assertEquals(0, integrityScrubService.scrub(), "Files up to the checkpoint were verified before the restart");
+        assertNull(fileRepository.findById(corrupted.getId()).orElseThrow().getQuarantinedAt());
+
+        assertEquals(1, integrityScrubService.scrub(), "The next pass starts from the beginning");
+    }
+
+    private FileEntity saveInlineFile(String hash, byte[] storedData, String key) {
+        FileEntity file = new FileEntity(hash, (long) storedData.length, "text/plain", "dedupe-inline/" + hash);
+        file.setStorageType(FileEntity.StorageType.INLINE);
+        file.setInlineData(storedData);
+        file.setReferenceCount(1);
+        file = fileRepository.save(file);
+        userFileRepository.save(new UserFileEntity("scrub-bucket", key, file));
+        contentHashFilter.add(hash);
+        return file;
+    }
+}
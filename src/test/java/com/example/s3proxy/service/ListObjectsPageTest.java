@@ -0,0 +1,164 @@
+package com.example.s3proxy.service;
+
+import com.example.s3proxy.entity.FileEntity;
+import com.example.s3proxy.entity.UserFileEntity;
+import com.example.s3proxy.repository.FileRepository;
+import com.example.s3proxy.repository.UserFileRepository;
+import jakarta.persistence.EntityManager;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@TestPropertySource(properties = {
+    "MINIO_ENDPOINT=http://localhost:9999",
+    "MINIO_ACCESS_KEY=test",
+    "MINIO_SECRET_KEY=test",
+    "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@Transactional
+class ListObjectsPageTest {
+
+    private static final String BUCKET = "listing-bucket";
+
+    @Autowired
+    private DeduplicationService deduplicationService;
+
+    @Autowired
+    private FileRepository fileRepository;
+
+    @Autowired
+    private UserFileRepository userFileRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @BeforeEach
+    void setUp() {
+        FileEntity file = new FileEntity("listing-hash", 3L, "text/plain", "dedupe-inline/listing-hash");
+        file.setStorageType(FileEntity.StorageType.INLINE);
+        file.setInlineData(new byte[] {1, 2, 3});
+        file = fileRepository.save(file);
+        for (String key : List.of("a.txt", "docs/1.txt", "docs/2.txt", "docs/sub/3.txt", "e%_!.txt", "eX.txt", "z.txt")) {
+            userFileRepository.save(new UserFileEntity(BUCKET, key, file));
+        }
+        userFileRepository.save(new UserFileEntity("other-bucket", "b.txt", file));
+    }
+
+    @Test
+    void testPagesFollowTheMarkerWithoutGapsOrDuplicates() {
+        List<String> keys = new ArrayList<>();
+        String marker = "";
+        int pages = 0;
+        DeduplicationService.ListingPage page;
+        do {
+            page = deduplicationService.listObjectsPage(BUCKET, "", null, marker, 3);
+            page.getObjects().forEach(object -> keys.add(object.getKey()));
+            marker = page.getNextMarker();
+            pages++;
+        } while (page.isTruncated());
+
+        assertEquals(List.of("a.txt", "docs/1.txt", "docs/2.txt", "docs/sub/3.txt", "e%_!.txt", "eX.txt", "z.txt"), keys);
+        assertEquals(3, pages);
+        assertEquals(3L, deduplicationService.listObjectsPage(BUCKET, "", null, "", 1).getObjects().get(0).getSize());
+    }
+
+    @Test
+    void testPrefixWildcardsMatchLiterally() {
+        DeduplicationService.ListingPage page = deduplicationService.listObjectsPage(BUCKET, "e%_", null, "", 10);
+        assertEquals(1, page.getObjects().size());
+        assertEquals("e%_!.txt", page.getObjects().get(0).getKey());
+        assertFalse(page.isTruncated());
+    }
+
+    @Test
+    void testCommonPrefixesCountTowardsMaxKeysAndAreNotRepeated() {
+        DeduplicationService.ListingPage first = deduplicationService.listObjectsPage(BUCKET, "", "/", "", 2);
+        assertEquals(List.of("a.txt"), first.getObjects().stream().map(DeduplicationService.ObjectInfo::getKey).toList());
+        assertEquals(List.of("docs/"), first.getCommonPrefixes());
+        assertTrue(first.isTruncated());
+        assertEquals("docs/", first.getNextMarker());
+
+        DeduplicationService.ListingPage second = deduplicationService.listObjectsPage(BUCKET, "", "/", first.getNextMarker(), 2);
+        assertTrue(second.getCommonPrefixes().isEmpty(), "Keys under a common prefix already returned are skipped");
+        assertEquals(List.of("e%_!.txt", "eX.txt"), second.getObjects().stream().map(DeduplicationService.ObjectInfo::getKey).toList());
+
+        DeduplicationService.ListingPage nested = deduplicationService.listObjectsPage(BUCKET, "docs/", "/", "", 10);
+        assertEquals(2, nested.getObjects().size());
+        assertEquals(List.of("docs/sub/"), nested.getCommonPrefixes());
+        assertFalse(nested.isTruncated());
+    }
+
+    @Test
+    void testDelimiterListingSeeksPastEachCommonPrefix() {
+        FileEntity file = fileRepository.findAll().get(0);
+        for (String directory : List.of("tree/a/", "tree/b/", "tree/c/")) {
+            for (int i = 0; i < 200; i++) {
+                userFileRepository.save(new UserFileEntity(BUCKET, directory + "file-" + i, file));
+            }
+        }
+        userFileRepository.save(new UserFileEntity(BUCKET, "tree/readme.txt", file));
+        entityManager.flush();
+        entityManager.clear();
+        Statistics statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        DeduplicationService.ListingPage page = deduplicationService.listObjectsPage(BUCKET, "tree/", "/", "", 1000);
+
+        assertEquals(List.of("tree/a/", "tree/b/", "tree/c/"), page.getCommonPrefixes());
+        assertEquals(List.of("tree/readme.txt"), page.getObjects().stream().map(DeduplicationService.ObjectInfo::getKey).toList());
+        assertFalse(page.isTruncated());
+        // One query per child plus the first, each reading at most a small batch
+        assertEquals(4, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    @Test
+    void testPageIsReadByOneProjectionQuery() {
+        entityManager.flush();
+        entityManager.clear();
+        Statistics statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        DeduplicationService.ListingPage page = deduplicationService.listObjectsPage(BUCKET, "", null, "", 1000);
+
+        assertEquals(7, page.getObjects().size());
+        DeduplicationService.ObjectInfo first = page.getObjects().get(0);
+        assertEquals(3L, first.getSize());
+        assertEquals("listing-hash", first.getEtag());
+        assertEquals("text/plain", first.getContentType());
+        assertNotNull(first.getLastModified());
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getEntityLoadCount(), "Listing rows are projected, not loaded as entities");
+    }
+
+    @Test
+    void testKeysAreListedInUtf8BinaryOrder() {
+        FileEntity file = fileRepository.findAll().get(0);
+        for (String key : List.of("\uD83D\uDE00.txt", "\uFFFD.txt", "\u00e9/1.txt", "\u00e9/2.txt", "z.txt", "Z.txt")) {
+            userFileRepository.save(new UserFileEntity("utf8-bucket", key, file));
+        }
+
+        DeduplicationService.ListingPage page = deduplicationService.listObjectsPage("utf8-bucket", "", null, "", 10);
+        // As in S3: by UTF-8 bytes, so upper case first and supplementary characters after U+FFFD
+        assertEquals(List.of("Z.txt", "z.txt", "\u00e9/1.txt", "\u00e9/2.txt", "\uFFFD.txt", "\uD83D\uDE00.txt"),
+                page.getObjects().stream().map(DeduplicationService.ObjectInfo::getKey).toList());
+
+        DeduplicationService.ListingPage rolledUp = deduplicationService.listObjectsPage("utf8-bucket", "", "/", "z.txt", 10);
+        assertEquals(List.of("\u00e9/"), rolledUp.getCommonPrefixes());
+        assertEquals(List.of("\uFFFD.txt", "\uD83D\uDE00.txt"),
+                rolledUp.getObjects().stream().map(DeduplicationService.ObjectInfo::getKey).toList());
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.s3proxy.service;
+
+import com.example.s3proxy.entity.FileEntity;
+import com.example.s3proxy.entity.UserFileEntity;
+import com.example.s3proxy.repository.FileRepository;
+import com.example.s3proxy.repository.UserFileRepository;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks with EXPLAIN that the SQL Hibernate generates for listing pages is answered by a range
+ * scan of the (bucket, object_key_sort) index that already delivers the requested order.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@TestPropertySource(properties = {
+    "MINIO_ENDPOINT=http://localhost:9999",
+    "MINIO_ACCESS_KEY=test",
+    "MINIO_SECRET_KEY=test",
+    "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+            + "com.example.s3proxy.service.ListingIndexPlanTest$ListingStatementCapture"
+})
+@Transactional
+class ListingIndexPlanTest {
+
+    private static final String BUCKET = "plan-bucket";
+
+    @Autowired
+    private DeduplicationService deduplicationService;
+
+    @Autowired
+    private FileRepository fileRepository;
+
+    @Autowired
+    private UserFileRepository userFileRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void testListingQueriesScanTheCompositeIndexInOrder() {
+        FileEntity file = new FileEntity("plan-hash", 1L, "text/plain", "dedupe-inline/plan-hash");
+        file.setStorageType(FileEntity.StorageType.INLINE);
+        file.setInlineData(new byte[] {1});
+        file = fileRepository.save(file);
+        for (String key : List.of("a.txt", "dir/1.txt", "dir/2.txt", "z.txt")) {
+            userFileRepository.save(new UserFileEntity(BUCKET, key, file));
+        }
+        userFileRepository.flush();
+
+        ListingStatementCapture.statements.clear();
+        deduplicationService.listObjectsPage(BUCKET, "", null, "a.txt", 10);
+        deduplicationService.listObjectsPage(BUCKET, "", "/", "", 10);
+        List<String> statements = List.copyOf(ListingStatementCapture.statements);
+        assertTrue(statements.stream().anyMatch(sql -> sql.contains(">=")), "The seek past dir/ starts at its successor");
+        assertTrue(statements.stream().anyMatch(sql -> !sql.contains(">=")), "The marker is an exclusive bound");
+
+        for (String sql : statements) {
+            String plan = jdbcTemplate.queryForObject("EXPLAIN " + sql, String.class,
+                    BUCKET, new byte[] {'a'}, new byte[] {(byte) 0xFF}, 10).toUpperCase();
+            assertTrue(plan.contains("IDX_MINIO_USER_FILES_BUCKET_KEY_SORT: "), plan);
+            assertTrue(plan.contains("/* INDEX SORTED */"), "No sort after the index scan:\n" + plan);
+        }
+    }
+
+    /**
+     * Records the listing statements Hibernate prepares, so that their plans can be explained
+     */
+    public static class ListingStatementCapture implements StatementInspector {
+
+        static final List<String> statements = new java.util.concurrent.CopyOnWriteArrayList<>();
+
+        @Override
+        public String inspect(String sql) {
+            if (sql.contains("object_key_sort")) {
+                statements.add(sql);
+            }
+            return sql;
+        }
+    }
+}
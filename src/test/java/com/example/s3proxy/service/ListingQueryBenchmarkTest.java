@@ -0,0 +1,164 @@
+package com.example.s3proxy.service;
+
+import com.example.s3proxy.entity.UserFileEntity;
+import com.example.s3proxy.util.Sha256Utils;
+import jakarta.persistence.EntityManager;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Statements and wall time for paging through a 100k-key bucket with the listing projection,
+ * compared with loading key entities (lazily, then with their files join-fetched).
+ * <p>
+ * Opt-in, as seeding takes a while: {@code mvn test -Dtest=ListingQueryBenchmarkTest -Dbenchmark=true}
+ * </p>
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@TestPropertySource(properties = {
+    "MINIO_ENDPOINT=http://localhost:9999",
+    "MINIO_ACCESS_KEY=test",
+    "MINIO_SECRET_KEY=test",
+    "spring.jpa.properties.hibernate.generate_statistics=true",
+    "logging.level.com.example.s3proxy=WARN"
+})
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ListingQueryBenchmarkTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ListingQueryBenchmarkTest.class);
+
+    private static final String BUCKET = "listing-benchmark";
+    private static final int KEYS = 100_000;
+    private static final long FIRST_FILE_ID = 1_000_000L;
+    private static final int PAGE_SIZE = DeduplicationService.MAX_LIST_KEYS;
+    private static final String METADATA_JSON = "{\"x-amz-meta-owner\":\"benchmark\",\"x-amz-meta-note\":\""
+            + "n".repeat(200) + "\"}";
+
+    @Autowired
+    private DeduplicationService deduplicationService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void seed() {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> files = new ArrayList<>(KEYS);
+        List<Object[]> keys = new ArrayList<>(KEYS);
+        for (int i = 0; i < KEYS; i++) {
+            long fileId = FIRST_FILE_ID + i;
+            String hash = String.format("%064x", fileId);
+            files.add(new Object[] {fileId, hash, "SHA-256", 1024L, "application/octet-stream", "dedupe/" + hash,
+                    "OBJECT", "NONE", 1, now, now});
+            String key = String.format("data/%03d/object-%06d.bin", i % 1000, i);
+            keys.add(new Object[] {BUCKET, key, Sha256Utils.calculateSha256(key), UserFileEntity.sortKeyOf(key),
+                    fileId, now, now, METADATA_JSON});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO minio_files (id, hash_value, hash_algorithm, size, content_type, "
+                + "storage_path, storage_type, compression, reference_count, created_at, updated_at) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", files);
+        jdbcTemplate.batchUpdate("INSERT INTO minio_user_files (bucket, object_key, object_key_sha256, object_key_sort, "
+                + "file_id, created_at, last_modified, metadata_json) VALUES (?, ?, ?, ?, ?, ?, ?, ?)", keys);
+    }
+
+    @AfterEach
+    void cleanUp() {
+        jdbcTemplate.update("DELETE FROM minio_user_files WHERE bucket = ?", BUCKET);
+        jdbcTemplate.update("DELETE FROM minio_files WHERE id >= ?", FIRST_FILE_ID);
+    }
+
+    @Test
+    void benchmarkFullListing() {
+        // Warm up each variant once so that JIT and statement caches do not favour the last one
+        for (int round = 0; round < 2; round++) {
+            boolean report = round == 1;
+            measure("lazy entities", report, marker -> entityPage(marker,
+                    "SELECT uf FROM UserFileEntity uf WHERE uf.bucket = :bucket AND uf.key > :after ORDER BY uf.key"));
+            measure("join-fetched entities", report, marker -> entityPage(marker,
+                    "SELECT uf FROM UserFileEntity uf JOIN FETCH uf.file WHERE uf.bucket = :bucket "
+                            + "AND uf.key > :after ORDER BY uf.key"));
+            Result projection = measure("projection", report, marker -> {
+                DeduplicationService.ListingPage page = deduplicationService.listObjectsPage(BUCKET, "", null, marker, PAGE_SIZE);
+                return page.isTruncated() ? page.getNextMarker() : null;
+            });
+            assertEquals(KEYS / PAGE_SIZE, projection.statements, "One statement per page");
+            assertEquals(0, projection.entities);
+        }
+    }
+
+    /**
+     * Load one page of entities the way listings used to, touching each key's file
+     */
+    private String entityPage(String marker, String query) {
+        return transactionTemplate.execute(status -> {
+            List<UserFileEntity> rows = entityManager.createQuery(query, UserFileEntity.class)
+                    .setParameter("bucket", BUCKET)
+                    .setParameter("after", marker)
+                    .setMaxResults(PAGE_SIZE + 1)
+                    .getResultList();
+            long sizes = 0;
+            for (UserFileEntity row : rows.subList(0, Math.min(PAGE_SIZE, rows.size()))) {
+                sizes += row.getFile().getSize();
+            }
+            assertTrue(sizes > 0);
+            entityManager.clear();
+            return rows.size() > PAGE_SIZE ? rows.get(PAGE_SIZE - 1).getKey() : null;
+        });
+    }
+
+    private Result measure(String name, boolean report, Function<String, String> page) {
+        Statistics statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        long start = System.nanoTime();
+        int pages = 0;
+        String marker = "";
+        while (marker != null) {
+            marker = page.apply(marker);
+            pages++;
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(KEYS / PAGE_SIZE, pages, name);
+        Result result = new Result(statistics.getPrepareStatementCount(), statistics.getEntityLoadCount());
+        if (report) {
+            log.warn("{}: {} keys in {} pages, {} statements, {} entities loaded, {} ms ({} ms per page)",
+                    name, KEYS, pages, result.statements, result.entities, millis, millis / pages);
+        }
+        return result;
+    }
+
+    private static class Result {
+        private final long statements;
+        private final long entities;
+
+        Result(long statements, long entities) {
+            this.statements = statements;
+            this.entities = entities;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.example.s3proxy.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MultipartUploadServiceTest {
+
+    private final HashService hashService = new HashService();
+
+    @TempDir
+    Path tempDir;
+
+    private Path stagingDir;
+
+    @BeforeEach
+    void setUp() {
+        stagingDir = tempDir.resolve("multipart");
+    }
+
+    private MultipartUploadService newService() throws Exception {
+        return newService(new LocalMultipartPartStore(null, "dedupe-storage", stagingDir.toString()));
+    }
+
+    private MultipartUploadService newService(MultipartPartStore partStore) throws Exception {
+        return newService(partStore, DataSize.ofGigabytes(1));
+    }
+
+    private MultipartUploadService newService(MultipartPartStore partStore, DataSize budget) throws Exception {
+        MultipartUploadService service = new MultipartUploadService(hashService, partStore, stagingDir.toString(),
+                Duration.ofHours(1), budget);
+        service.recoverUploads();
+        return service;
+    }
+
+    private StagedContent stagePart(String content) throws Exception {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        Path file = Files.createTempFile(tempDir, "part-", ".tmp");
+        Files.write(file, bytes);
+        ContentDigest md5 = hashService.newContentDigest("MD5");
+        md5.update(bytes, 0, bytes.length);
+        return new StagedContent(file, md5.finish(), bytes.length);
+    }
+
+    @Test
+    void testCompleteStreamsPartsInOrder() throws Exception {
+        MultipartUploadService service = newService();
+        String uploadId = service.createUpload("bucket", "big.bin", "application/octet-stream", Map.of("k", "v"));
+
+        // Parts may arrive out of order
+        String etag2 = service.storePart(uploadId, 2, stagePart(" World"));
+        service.storePart(uploadId, 1, stagePart("Hello"));
+        assertEquals(32, etag2.length(), "Part ETag should be an MD5 hex digest");
+
+        MultipartUploadService.CompletedUpload completed = service.completeUpload(uploadId, List.of(1, 2));
+
+        assertEquals(hashService.calculateSHA256("Hello World".getBytes(StandardCharsets.UTF_8)), completed.getHash());
+        assertEquals(11, completed.getSize());
+        try (InputStream stream = completed.openStream()) {
+            assertEquals("Hello World", new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        assertTrue(service.hasUpload(uploadId), "Upload stays registered until the object is stored");
+
+        service.discardUpload(uploadId);
+        assertFalse(service.hasUpload(uploadId));
+        assertFalse(Files.exists(stagingDir.resolve(uploadId)));
+    }
+
+    @Test
+    void testUploadsSurviveRestart() throws Exception {
+        MultipartUploadService service = newService();
+        String uploadId = service.createUpload("bucket", "resume.bin", "text/plain", Map.of());
+        service.storePart(uploadId, 1, stagePart("first-"));
+        service.storePart(uploadId, 2, stagePart("second"));
+
+        MultipartUploadService restarted = newService();
+
+        assertTrue(restarted.hasUpload(uploadId));
+        MultipartUploadService.CompletedUpload completed = restarted.completeUpload(uploadId, List.of(1, 2));
+        assertEquals("bucket", completed.getBucket());
+        assertEquals("resume.bin", completed.getKey());
+        assertEquals("text/plain", completed.getContentType());
+        try (InputStream stream = completed.openStream()) {
+            assertEquals("first-second", new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void testMissingPartAndAbort() throws Exception {
+        MultipartUploadService service = newService();
+        String uploadId = service.createUpload("bucket", "key", null, null);
+        service.storePart(uploadId, 1, stagePart("only part"));
+
+        assertThrows(IllegalArgumentException.class, () -> service.completeUpload(uploadId, List.of(1, 2)));
+        assertThrows(IllegalArgumentException.class, () -> service.storePart(uploadId, 10001, stagePart("x")));
+
+        assertTrue(service.abortUpload(uploadId));
+        assertFalse(service.abortUpload(uploadId));
+        assertFalse(Files.exists(stagingDir.resolve(uploadId)));
+        assertThrows(IllegalArgumentException.class, () -> service.storePart(uploadId, 1, stagePart("late")));
+    }
+
+    @Test
+    void testHashChainAvoidsRereadingPartsOnCompletion() throws Exception {
+        AtomicInteger partReads = new AtomicInteger();
+        // Like the MinIO store, leave the staged file in place and count reads back from the store
+        MultipartPartStore partStore = new LocalMultipartPartStore(null, "dedupe-storage", stagingDir.toString()) {
+            @Override
+            public void storePart(String uploadId, int partNumber, StagedContent part) throws java.io.IOException {
+                Path target = stagingDir.resolve(uploadId).resolve(String.format("part-%05d", partNumber));
+                Files.createDirectories(target.getParent());
+                Files.copy(part.getFile(), target, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            @Override
+            public InputStream openPart(String uploadId, int partNumber) throws java.io.IOException {
+                partReads.incrementAndGet();
+                return super.openPart(uploadId, partNumber);
+            }
+        };
+        MultipartUploadService service = newService(partStore);
+        String uploadId = service.createUpload("bucket", "chained.bin", null, null);
+
+        service.storePart(uploadId, 1, stagePart("aaa"));
+        service.storePart(uploadId, 3, stagePart("ccc"));
+        assertEquals(0, partReads.get(), "Parts arriving in order are hashed from the staged file");
+
+        // Filling the gap re-reads only the part that was waiting behind it
+        service.storePart(uploadId, 2, stagePart("bbb"));
+        assertEquals(1, partReads.get());
+
+        // Re-uploading a part invalidates the chain from that part onwards
+        service.storePart(uploadId, 2, stagePart("BBB"));
+        assertEquals(2, partReads.get());
+
+        MultipartUploadService.CompletedUpload completed = service.completeUpload(uploadId, List.of(1, 2, 3));
+        assertEquals(2, partReads.get(), "Completion should reuse the chained digest");
+        assertEquals(hashService.calculateSHA256("aaaBBBccc".getBytes(StandardCharsets.UTF_8)), completed.getHash());
+
+        // A subset of the parts only hashes what the chain does not cover
+        MultipartUploadService.CompletedUpload subset = service.completeUpload(uploadId, List.of(1, 3));
+        assertEquals(3, partReads.get());
+        assertEquals(hashService.calculateSHA256("aaaccc".getBytes(StandardCharsets.UTF_8)), subset.getHash());
+    }
+
+    @Test
+    void testHashingDoesNotHoldTheUploadLock() throws Exception {
+        CountDownLatch hashing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean first = new AtomicBoolean(true);
+        MultipartPartStore partStore = new LocalMultipartPartStore(null, "dedupe-storage", stagingDir.toString()) {
+            @Override
+            public void storePart(String uploadId, int partNumber, StagedContent part) throws java.io.IOException {
+                Path target = stagingDir.resolve(uploadId).resolve(String.format("part-%05d", partNumber));
+                Files.createDirectories(target.getParent());
+                Files.copy(part.getFile(), target, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            @Override
+            public InputStream openPart(String uploadId, int partNumber) throws java.io.IOException {
+                // Stall the first read back from the store, as a slow MinIO GET would
+                if (first.getAndSet(false)) {
+                    hashing.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.openPart(uploadId, partNumber);
+            }
+        };
+        MultipartUploadService service = newService(partStore);
+        String uploadId = service.createUpload("bucket", "concurrent.bin", null, null);
+        service.storePart(uploadId, 2, stagePart("bbb"));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // Part 1 closes the gap, so storing it reads part 2 back from the store
+            Future<String> slow = executor.submit(() -> service.storePart(uploadId, 1, stagePart("aaa")));
+            assertTrue(hashing.await(10, TimeUnit.SECONDS));
+
+            service.storePart(uploadId, 3, stagePart("ccc"));
+            assertFalse(slow.isDone(), "Part 3 was stored while part 2 was still being hashed");
+
+            release.countDown();
+            slow.get(10, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+
+        MultipartUploadService.CompletedUpload completed = service.completeUpload(uploadId, List.of(1, 2, 3));
+        assertEquals(hashService.calculateSHA256("aaabbbccc".getBytes(StandardCharsets.UTF_8)), completed.getHash());
+    }
+
+    @Test
+    void testCompletionHashesOutsideTheUploadLock() throws Exception {
+        CountDownLatch hashing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger partReads = new AtomicInteger();
+        MultipartPartStore partStore = new LocalMultipartPartStore(null, "dedupe-storage", stagingDir.toString()) {
+            @Override
+            public void storePart(String uploadId, int partNumber, StagedContent part) throws java.io.IOException {
+                Path target = stagingDir.resolve(uploadId).resolve(String.format("part-%05d", partNumber));
+                Files.createDirectories(target.getParent());
+                Files.copy(part.getFile(), target, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            @Override
+            public InputStream openPart(String uploadId, int partNumber) throws java.io.IOException {
+                // Stall the first read back from the store, as a slow MinIO GET would
+                if (partReads.getAndIncrement() == 0) {
+                    hashing.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.openPart(uploadId, partNumber);
+            }
+        };
+        MultipartUploadService service = newService(partStore);
+        String uploadId = service.createUpload("bucket", "completing.bin", null, null);
+        service.storePart(uploadId, 1, stagePart("aaa"));
+        // Not chained behind part 1, so completion reads it back from the store
+        service.storePart(uploadId, 3, stagePart("ccc"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<MultipartUploadService.CompletedUpload> completing =
+                    executor.submit(() -> service.completeUpload(uploadId, List.of(1, 3)));
+            assertTrue(hashing.await(10, TimeUnit.SECONDS));
+
+            // The client re-sends part 3 while completion is still hashing the old one
+            executor.submit(() -> service.storePart(uploadId, 3, stagePart("CCC"))).get(10, TimeUnit.SECONDS);
+            assertFalse(completing.isDone());
+
+            release.countDown();
+            MultipartUploadService.CompletedUpload completed = completing.get(10, TimeUnit.SECONDS);
+            assertEquals(hashService.calculateSHA256("aaaCCC".getBytes(StandardCharsets.UTF_8)), completed.getHash());
+            assertEquals(2, partReads.get(), "The replaced part was hashed again");
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testComposeRequiresMinimumPartSize() {
+        long min = MinioMultipartPartStore.MIN_COMPOSE_PART_SIZE;
+        assertTrue(MinioMultipartPartStore.canCompose(List.of(
+                new MultipartPartStore.StoredPart(1, min), new MultipartPartStore.StoredPart(2, 1))));
+        assertFalse(MinioMultipartPartStore.canCompose(List.of(
+                new MultipartPartStore.StoredPart(1, min - 1), new MultipartPartStore.StoredPart(2, min))));
+        assertFalse(MinioMultipartPartStore.canCompose(List.of()));
+    }
+
+    @Test
+    void testByteBudgetAndReaper() throws Exception {
+        MultipartUploadService service = newService(
+                new LocalMultipartPartStore(null, "dedupe-storage", stagingDir.toString()), DataSize.ofBytes(10));
+        String uploadId = service.createUpload("bucket", "budget.bin", null, null);
+
+        service.storePart(uploadId, 1, stagePart("12345"));
+        service.storePart(uploadId, 1, stagePart("123"));
+        assertEquals(3, service.getUploadBytes(uploadId), "Re-uploaded parts replace the previous size");
+        service.storePart(uploadId, 2, stagePart("4567"));
+        assertEquals(7, service.getOutstandingBytes());
+
+        assertFalse(service.hasCapacity(4));
+        assertThrows(MultipartUploadService.SlowDownException.class,
+                () -> service.storePart(uploadId, 3, stagePart("89ab")));
+        assertEquals(7, service.getOutstandingBytes(), "Rejected parts must not leak reserved bytes");
+
+        // Recovered uploads are accounted again
+        MultipartUploadService restarted = newService(
+                new LocalMultipartPartStore(null, "dedupe-storage", stagingDir.toString()), DataSize.ofBytes(10));
+        assertEquals(7, restarted.getOutstandingBytes());
+
+        assertEquals(0, service.reapExpiredUploads(System.currentTimeMillis()));
+        assertEquals(1, service.reapExpiredUploads(System.currentTimeMillis() + Duration.ofHours(2).toMillis()));
+        assertFalse(service.hasUpload(uploadId));
+        assertEquals(0, service.getOutstandingBytes());
+        assertFalse(Files.exists(stagingDir.resolve(uploadId)));
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.s3proxy.service;
+
+import com.example.s3proxy.entity.FileEntity;
+import com.example.s3proxy.entity.PackEntity;
+import com.example.s3proxy.repository.FileRepository;
+import com.example.s3proxy.repository.PackRepository;
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import io.minio.RemoveObjectArgs;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PackStorageServiceTest {
+
+    @Mock
+    private PackRepository packRepository;
+
+    @Mock
+    private FileRepository fileRepository;
+
+    @Mock
+    private MinioClient minioClient;
+
+    private PackStorageService packStorageService;
+    private final Map<String, byte[]> blobs = new HashMap<>();
+    private final AtomicLong packIds = new AtomicLong();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        MockitoAnnotations.openMocks(this);
+        packStorageService = new PackStorageService(packRepository, fileRepository, minioClient, "test-dedupe-storage",
+                true, DataSize.ofKilobytes(64), DataSize.ofMegabytes(16), Duration.ofMillis(200));
+
+        when(minioClient.putObject(any(PutObjectArgs.class))).thenAnswer(invocation -> {
+            PutObjectArgs args = invocation.getArgument(0);
+            synchronized (blobs) {
+                blobs.put(args.object(), args.stream().readAllBytes());
+            }
+            return null;
+        });
+        when(packRepository.save(any(PackEntity.class))).thenAnswer(invocation -> {
+            PackEntity pack = invocation.getArgument(0);
+            if (pack.getId() == null) {
+                pack.setId(packIds.incrementAndGet());
+            }
+            return pack;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        packStorageService.stop();
+    }
+
+    @Test
+    void testShouldPackOnlySmallObjects() {
+        assertTrue(packStorageService.shouldPack(64 * 1024));
+        assertFalse(packStorageService.shouldPack(64 * 1024 + 1));
+    }
+
+    @Test
+    void testConcurrentAppendsShareOnePack() throws Exception {
+        int writers = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<PackStorageService.PackLocation>> results = new ArrayList<>();
+            for (int i = 0; i < writers; i++) {
+                byte[] data = ("sidecar-" + i).getBytes(StandardCharsets.UTF_8);
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return packStorageService.append(data);
+                }));
+            }
+            start.countDown();
+
+            for (int i = 0; i < writers; i++) {
+                PackStorageService.PackLocation location = results.get(i).get(5, TimeUnit.SECONDS);
+                byte[] pack = blobs.get(location.getStoragePath());
+                byte[] blob = Arrays.copyOfRange(pack, (int) location.getOffset(), (int) (location.getOffset() + location.getLength()));
+                assertEquals("sidecar-" + i, new String(blob, StandardCharsets.UTF_8));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(minioClient, times(1)).putObject(any(PutObjectArgs.class));
+        assertEquals(1, packIds.get());
+    }
+
+    @Test
+    void testCompactionMovesLiveBlobsAndDeletesRetiredPacksAfterGracePeriod() throws Exception {
+        PackStorageService.PackLocation live = packStorageService.writePack(List.of(
+                "live".getBytes(StandardCharsets.UTF_8), "dead-dead-dead".getBytes(StandardCharsets.UTF_8))).get(0);
+        PackEntity oldPack = new PackEntity(live.getStoragePath(), 18L);
+        oldPack.setId(live.getPackId());
+        oldPack.setLiveSize(4L);
+
+        FileEntity file = new FileEntity("hash", 4L, "application/json", live.getStoragePath());
+        file.setId(7L);
+        file.setStorageType(FileEntity.StorageType.PACKED);
+        file.setPackId(live.getPackId());
+        file.setPackOffset(live.getOffset());
+        file.setPackLength(live.getLength());
+
+        when(minioClient.getObject(any())).thenAnswer(invocation -> new io.minio.GetObjectResponse(okhttp3.Headers.of(),
+                "test-dedupe-storage", null, live.getStoragePath(), new java.io.ByteArrayInputStream(blobs.get(live.getStoragePath()))));
+        when(packRepository.findCompactionCandidates(any(), anyDouble(), anyLong())).thenReturn(List.of(oldPack));
+        when(packRepository.findById(oldPack.getId())).thenReturn(Optional.of(oldPack));
+        when(fileRepository.findByPackId(oldPack.getId())).thenReturn(List.of(file));
+        when(fileRepository.movePackedFile(eq(7L), eq(oldPack.getId()), anyLong(), anyString(), anyLong())).thenReturn(1);
+
+        PackCompactionService compactionService = new PackCompactionService(packRepository, fileRepository, packStorageService,
+                new FileMetadataCache(100), minioClient, "test-dedupe-storage", 0.5, DataSize.ofMegabytes(4),
+                Duration.ofMinutes(10), Duration.ofMinutes(15));
+        LocalDateTime now = LocalDateTime.now().plusHours(1);
+        assertEquals(1, compactionService.compact(now));
+
+        // The live blob was copied to a new pack on its own and the old pack retired, not deleted
+        assertEquals(2, packIds.get());
+        verify(fileRepository).movePackedFile(eq(7L), eq(oldPack.getId()), eq(2L), anyString(), eq(0L));
+        verify(packRepository).addLiveSize(2L, 4L);
+        assertNotNull(oldPack.getRetiredAt());
+        verify(minioClient, never()).removeObject(any());
+
+        when(packRepository.findCompactionCandidates(any(), anyDouble(), anyLong())).thenReturn(List.of());
+        when(packRepository.findByRetiredAtBefore(any())).thenReturn(List.of(oldPack));
+        when(fileRepository.countByPackId(oldPack.getId())).thenReturn(0L);
+        compactionService.compact(now.plusMinutes(30));
+
+        verify(minioClient).removeObject(any(RemoveObjectArgs.class));
+        verify(packRepository).delete(oldPack);
+    }
+}
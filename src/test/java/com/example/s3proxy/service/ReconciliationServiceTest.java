@@ -0,0 +1,155 @@
+package com.example.s3proxy.service;
+
+import com.example.s3proxy.entity.FileEntity;
+import com.example.s3proxy.entity.UserFileEntity;
+import com.example.s3proxy.repository.FileRepository;
+import com.example.s3proxy.repository.UserFileRepository;
+import io.minio.ListObjectsArgs;
+import io.minio.MinioClient;
+import io.minio.RemoveObjectsArgs;
+import io.minio.Result;
+import io.minio.StatObjectArgs;
+import io.minio.StatObjectResponse;
+import io.minio.messages.Item;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@TestPropertySource(properties = {
+    "MINIO_ENDPOINT=http://localhost:9999",
+    "MINIO_ACCESS_KEY=test",
+    "MINIO_SECRET_KEY=test",
+    "s3.dedupe.reconcile.min-orphan-age=1h",
+    "s3.dedupe.reconcile.max-items-per-second=0"
+})
+@Transactional
+class ReconciliationServiceTest {
+
+    private static final String HASH_A = "a".repeat(64);
+    private static final String HASH_B = "b".repeat(64);
+    private static final String HASH_C = "c".repeat(64);
+
+    @MockBean
+    private MinioClient minioClient;
+
+    @Autowired
+    private ReconciliationService reconciliationService;
+
+    @Autowired
+    private FileRepository fileRepository;
+
+    @Autowired
+    private UserFileRepository userFileRepository;
+
+    private final Map<String, ZonedDateTime> bucket = new TreeMap<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        bucket.clear();
+        when(minioClient.listObjects(any(ListObjectsArgs.class))).thenAnswer(invocation -> {
+            ListObjectsArgs args = invocation.getArgument(0);
+            List<Result<Item>> results = new ArrayList<>();
+            bucket.forEach((name, lastModified) -> {
+                if (name.startsWith(args.prefix())) {
+                    results.add(new Result<>(item(name, lastModified)));
+                }
+            });
+            return results;
+        });
+        when(minioClient.statObject(any(StatObjectArgs.class))).thenAnswer(invocation -> {
+            StatObjectArgs args = invocation.getArgument(0);
+            StatObjectResponse stat = mock(StatObjectResponse.class);
+            when(stat.lastModified()).thenReturn(bucket.get(args.object()));
+            return stat;
+        });
+        when(minioClient.removeObjects(any(RemoveObjectsArgs.class))).thenReturn(List.of());
+    }
+
+    @Test
+    void testDriftedReferenceCountsAreReportedAndOnlyFixedOnRequest() throws Exception {
+        FileEntity overCounted = saveFile(HASH_A, 3);
+        userFileRepository.save(new UserFileEntity("bucket", "a", overCounted));
+        FileEntity leaked = saveFile(HASH_B, 1);
+        FileEntity unscheduled = saveFile(HASH_C, 0);
+
+        ReconciliationService.Report report = reconciliationService.reconcile(false);
+        assertEquals(3, report.getScannedFiles());
+        assertEquals(2, report.getDriftedFiles());
+        assertEquals(1, report.getUnscheduledFiles());
+        assertEquals(0, report.getFixedFiles());
+        assertEquals(3, fileRepository.findById(overCounted.getId()).orElseThrow().getReferenceCount());
+
+        report = reconciliationService.reconcile(true);
+        assertEquals(3, report.getFixedFiles());
+        assertEquals(1, fileRepository.findById(overCounted.getId()).orElseThrow().getReferenceCount());
+        FileEntity collectable = fileRepository.findById(leaked.getId()).orElseThrow();
+        assertEquals(0, collectable.getReferenceCount());
+        assertNotNull(collectable.getDeleteAfter(), "A file corrected to zero references must be queued for GC");
+        assertNotNull(fileRepository.findById(unscheduled.getId()).orElseThrow().getDeleteAfter());
+
+        assertEquals(0, reconciliationService.reconcile(false).getDriftedFiles());
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED) // Listing threads must see the committed row
+    void testOldBlobsWithoutRowsAreRemovedAsOrphans() throws Exception {
+        FileEntity referenced = saveFile(HASH_A, 0);
+        try {
+            sweepOrphans();
+        } finally {
+            fileRepository.deleteById(referenced.getId());
+        }
+    }
+
+    private void sweepOrphans() throws Exception {
+        ZonedDateTime old = ZonedDateTime.now().minusDays(1);
+        bucket.put(DeduplicationService.OBJECT_STORAGE_PREFIX + HASH_A, old);
+        bucket.put(DeduplicationService.OBJECT_STORAGE_PREFIX + HASH_B, old);
+        bucket.put(DeduplicationService.OBJECT_STORAGE_PREFIX + HASH_C, ZonedDateTime.now());
+        bucket.put(ChunkStorageService.CHUNK_PREFIX + HASH_C, old);
+        bucket.put("multipart-staging/upload/part-00001", old);
+
+        ReconciliationService.Report report = reconciliationService.reconcile(false);
+        assertEquals(4, report.getListedObjects(), "Only the dedupe blob prefixes are listed");
+        assertEquals(2, report.getOrphanObjects(), "Recent blobs may belong to uploads that are still committing");
+        assertEquals(0, report.getRemovedObjects());
+        verify(minioClient, never()).removeObjects(any());
+
+        report = reconciliationService.reconcile(true);
+        assertEquals(2, report.getRemovedObjects());
+        // One batch per listed prefix: dedupe-data/b... and dedupe-chunks/c...
+        verify(minioClient, times(2)).removeObjects(any(RemoveObjectsArgs.class));
+    }
+
+    private FileEntity saveFile(String hash, int referenceCount) {
+        FileEntity file = new FileEntity(hash, 10L, "text/plain", DeduplicationService.OBJECT_STORAGE_PREFIX + hash);
+        file.setReferenceCount(referenceCount);
+        return fileRepository.save(file);
+    }
+
+    private static Item item(String name, ZonedDateTime lastModified) {
+        Item item = mock(Item.class);
+        when(item.objectName()).thenReturn(name);
+        when(item.lastModified()).thenReturn(lastModified);
+        when(item.size()).thenReturn(10L);
+        return item;
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.s3proxy.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BloomFilterTest {
+
+    @Test
+    void testNoFalseNegativesAndBoundedFalsePositives() {
+        BloomFilter filter = BloomFilter.create(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put("present-" + i);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain("present-" + i), "Inserted keys must always be reported");
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.mightContain("absent-" + i)) {
+                falsePositives++;
+            }
+        }
+        double rate = falsePositives / 100_000.0;
+        assertTrue(rate < 0.02, "False-positive rate should be close to 1% but was " + rate);
+        assertEquals(0.01, filter.expectedFalsePositiveRate(), 0.005);
+        assertTrue(filter.memoryBytes() < 16 * 1024, "10k keys at 1% need about 12 KiB");
+    }
+
+    @Test
+    void testInvalidRateIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> BloomFilter.create(100, 0));
+        assertThrows(IllegalArgumentException.class, () -> BloomFilter.create(100, 1));
+    }
+}
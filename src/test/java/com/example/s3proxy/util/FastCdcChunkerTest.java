@@ -0,0 +1,76 @@
+package com.example.s3proxy.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FastCdcChunkerTest {
+
+    private final FastCdcChunker chunker = new FastCdcChunker(1024, 4096, 16384);
+
+    private List<byte[]> chunk(byte[] data) throws Exception {
+        List<byte[]> chunks = new ArrayList<>();
+        FastCdcChunker.Reader reader = chunker.reader(new ByteArrayInputStream(data));
+        byte[] chunk;
+        while ((chunk = reader.next()) != null) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    @Test
+    void testChunksReassembleAndRespectSizeBounds() throws Exception {
+        byte[] data = new byte[500_000];
+        new Random(42).nextBytes(data);
+
+        List<byte[]> chunks = chunk(data);
+
+        ByteArrayOutputStream reassembled = new ByteArrayOutputStream();
+        for (int i = 0; i < chunks.size(); i++) {
+            byte[] chunk = chunks.get(i);
+            assertTrue(chunk.length <= 16384, "Chunks never exceed the maximum size");
+            if (i < chunks.size() - 1) {
+                assertTrue(chunk.length >= 1024, "Only the last chunk may be shorter than the minimum size");
+            }
+            reassembled.write(chunk);
+        }
+        assertArrayEquals(data, reassembled.toByteArray());
+
+        double average = (double) data.length / chunks.size();
+        assertTrue(average > 2048 && average < 8192, "Average chunk size should be near 4 KiB but was " + average);
+    }
+
+    @Test
+    void testInsertionOnlyChangesNearbyChunks() throws Exception {
+        byte[] original = new byte[400_000];
+        new Random(7).nextBytes(original);
+        byte[] edited = new byte[original.length + 10];
+        System.arraycopy(original, 0, edited, 0, 200_000);
+        System.arraycopy("0123456789".getBytes(), 0, edited, 200_000, 10);
+        System.arraycopy(original, 200_000, edited, 200_010, original.length - 200_000);
+
+        Set<String> originalChunks = new HashSet<>();
+        for (byte[] chunk : chunk(original)) {
+            originalChunks.add(java.util.Arrays.toString(chunk));
+        }
+        List<byte[]> editedChunks = chunk(edited);
+        long shared = editedChunks.stream().filter(c -> originalChunks.contains(java.util.Arrays.toString(c))).count();
+
+        assertTrue(editedChunks.size() - shared <= 3,
+                "An insertion should only affect the chunks around it, but " + (editedChunks.size() - shared) + " changed");
+    }
+
+    @Test
+    void testInvalidSizesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new FastCdcChunker(4096, 1024, 16384));
+        assertThrows(IllegalArgumentException.class, () -> new FastCdcChunker(0, 1024, 16384));
+    }
+}
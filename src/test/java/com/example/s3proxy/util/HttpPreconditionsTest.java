@@ -0,0 +1,88 @@
+package com.example.s3proxy.util;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpPreconditionsTest {
+
+    private static final String HASH = "a591a6d40bf420404a011733cfb7b190d62c65bf0bcda32b57b277d9ad9f146e";
+    private static final String ETAG = HASH.substring(0, 16);
+    private static final LocalDateTime LAST_MODIFIED = LocalDateTime.of(2024, 5, 1, 12, 0, 0, 250_000_000);
+
+    @Test
+    void testNoConditionsProceeds() {
+        assertNull(HttpPreconditions.evaluate(new HttpHeaders(), ETAG, HASH, LAST_MODIFIED));
+    }
+
+    @Test
+    void testIfNoneMatchWithServedEtagReturnsNotModified() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.IF_NONE_MATCH, "\"other\", \"" + ETAG + "\"");
+        assertEquals(HttpStatus.NOT_MODIFIED, HttpPreconditions.evaluate(headers, ETAG, HASH, LAST_MODIFIED));
+    }
+
+    @Test
+    void testIfNoneMatchAcceptsFullHashAndWeakTags() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.IF_NONE_MATCH, "W/\"" + HASH + "\"");
+        assertEquals(HttpStatus.NOT_MODIFIED, HttpPreconditions.evaluate(headers, ETAG, HASH, LAST_MODIFIED));
+    }
+
+    @Test
+    void testIfNoneMatchMismatchIgnoresIfModifiedSince() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.IF_NONE_MATCH, "\"stale\"");
+        headers.setIfModifiedSince(LAST_MODIFIED.plusDays(1).toInstant(ZoneOffset.UTC));
+        assertNull(HttpPreconditions.evaluate(headers, ETAG, HASH, LAST_MODIFIED));
+    }
+
+    @Test
+    void testIfModifiedSinceUsesSecondResolution() {
+        HttpHeaders headers = new HttpHeaders();
+        // Sub-second part of the stored timestamp must not make the object look modified
+        headers.setIfModifiedSince(LAST_MODIFIED.withNano(0).toInstant(ZoneOffset.UTC));
+        assertEquals(HttpStatus.NOT_MODIFIED, HttpPreconditions.evaluate(headers, ETAG, HASH, LAST_MODIFIED));
+
+        headers.setIfModifiedSince(LAST_MODIFIED.minusSeconds(1).toInstant(ZoneOffset.UTC));
+        assertNull(HttpPreconditions.evaluate(headers, ETAG, HASH, LAST_MODIFIED));
+    }
+
+    @Test
+    void testIfMatchMismatchFails() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.IF_MATCH, "\"stale\"");
+        assertEquals(HttpStatus.PRECONDITION_FAILED, HttpPreconditions.evaluate(headers, ETAG, HASH, LAST_MODIFIED));
+
+        // Weak tags never satisfy If-Match
+        headers.set(HttpHeaders.IF_MATCH, "W/\"" + ETAG + "\"");
+        assertEquals(HttpStatus.PRECONDITION_FAILED, HttpPreconditions.evaluate(headers, ETAG, HASH, LAST_MODIFIED));
+    }
+
+    @Test
+    void testIfMatchTakesPrecedenceOverIfUnmodifiedSince() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.IF_MATCH, "\"" + ETAG + "\"");
+        headers.setIfUnmodifiedSince(LAST_MODIFIED.minusDays(1).toInstant(ZoneOffset.UTC).toEpochMilli());
+        assertNull(HttpPreconditions.evaluate(headers, ETAG, HASH, LAST_MODIFIED));
+    }
+
+    @Test
+    void testIfUnmodifiedSinceFailsForNewerObject() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfUnmodifiedSince(LAST_MODIFIED.minusDays(1).toInstant(ZoneOffset.UTC).toEpochMilli());
+        assertEquals(HttpStatus.PRECONDITION_FAILED, HttpPreconditions.evaluate(headers, ETAG, HASH, LAST_MODIFIED));
+    }
+
+    @Test
+    void testInvalidDateIsIgnored() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.IF_MODIFIED_SINCE, "not a date");
+        assertNull(HttpPreconditions.evaluate(headers, ETAG, HASH, LAST_MODIFIED));
+    }
+}
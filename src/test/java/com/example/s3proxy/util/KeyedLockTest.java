@@ -0,0 +1,68 @@
+package com.example.s3proxy.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyedLockTest {
+
+    @Test
+    void testSameKeyIsExclusiveAndEntriesAreDropped() throws Exception {
+        KeyedLock locks = new KeyedLock();
+        KeyedLock.Handle first = locks.lock("hash");
+        assertFalse(first.wasContended());
+
+        AtomicBoolean acquired = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            KeyedLock.Handle second = locks.lock("hash");
+            acquired.set(true);
+            assertTrue(second.wasContended());
+            second.unlock();
+            done.countDown();
+        });
+        waiter.start();
+
+        Thread.sleep(100);
+        assertFalse(acquired.get(), "Second holder must wait for the first");
+        // A different key is independent
+        locks.lock("other").unlock();
+
+        first.unlock();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        waiter.join();
+        assertEquals(0, locks.size());
+    }
+
+    @Test
+    void testTryLockGivesUpAfterTimeout() throws Exception {
+        KeyedLock locks = new KeyedLock();
+        KeyedLock.Handle held = locks.lock("hash");
+
+        AtomicBoolean timedOut = new AtomicBoolean();
+        Thread waiter = new Thread(() -> {
+            try {
+                timedOut.set(locks.tryLock("hash", Duration.ofMillis(50)) == null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        waiter.join();
+        assertTrue(timedOut.get(), "The lock is held by another thread");
+        assertEquals(1, locks.size(), "A waiter that gave up no longer pins the entry");
+
+        held.unlock();
+        assertEquals(0, locks.size());
+        KeyedLock.Handle free = locks.tryLock("hash", Duration.ofMillis(50));
+        assertNotNull(free);
+        assertFalse(free.wasContended());
+        free.unlock();
+        assertEquals(0, locks.size());
+    }
+}